@@ -0,0 +1,70 @@
+package com.sephora.ism.reserve;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Batch throughput over {@value #RECORDS} random SKULOCs, reported per
+ * record: sequential calculateBatch from the request maps and from converted
+ * inputs, and the parallel ReserveBatchExecutor. See
+ * {@link ColumnBatchBenchmark} for the columnar kernel.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+@OperationsPerInvocation(BatchBenchmark.RECORDS)
+public class BatchBenchmark {
+
+	static final int RECORDS = 100_000;
+
+	private ReserveCalculationEngine engine;
+	private ReserveBatchExecutor executor;
+	private List<Map<String, Object>> records;
+	private List<InitialValueWrapper> wrappers;
+
+	@Setup
+	public void setUp() {
+		engine = new ReserveCalculationEngine(ReservePlan.standard());
+		executor = new ReserveBatchExecutor(engine, 0, 64);
+		records = BenchmarkProfiles.randomRecords(RECORDS);
+		wrappers = BenchmarkProfiles.wrappers(records);
+	}
+
+	@TearDown
+	public void tearDown() {
+		executor.close();
+	}
+
+	@Benchmark
+	public List<ReserveResult> sequentialFromMaps() {
+		return engine.calculateBatch(records, InitialValueWrapper::fromMap);
+	}
+
+	@Benchmark
+	public List<ReserveResult> sequential() {
+		return engine.calculateBatch(wrappers, Function.identity());
+	}
+
+	@Benchmark
+	public List<ReserveResult> parallel() {
+		return executor.calculate(wrappers, Function.identity(), null);
+	}
+}
@@ -0,0 +1,73 @@
+package com.sephora.ism.reserve;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * SKULOC inputs shared by the benchmarks: the buyer class scenarios of
+ * /reserve/test/simple and seeded random records for batch runs.
+ */
+final class BenchmarkProfiles {
+
+	private static final String[] INPUTS = { "ONHAND", "ROHM", "LOST", "OOBADJ", "SNB", "DTCO", "ROHP", "DOTHRY",
+			"DOTHRN", "RETHRY", "RETHRN", "HLDHR", "DOTRSV", "RETRSV", "DOTOUTB", "NEED" };
+
+	private static final String[] BUYER_CLASSES = { "R", "W", "D" };
+
+	private BenchmarkProfiles() {
+	}
+
+	/**
+	 * The runTestSimple record with the given buyer class: R and W enable
+	 * OMS final, D disables it.
+	 */
+	static Map<String, Object> buyerClassProfile(String buyerClass) {
+		Map<String, Object> record = new HashMap<>();
+		for (String input : INPUTS) {
+			record.put(input, BigDecimal.ZERO);
+		}
+		record.put("ONHAND", new BigDecimal("1000"));
+		record.put("DOTRSV", new BigDecimal("300"));
+		record.put("RETRSV", new BigDecimal("200"));
+		record.put("DOTOUTB", new BigDecimal("400"));
+		record.put("NEED", new BigDecimal("150"));
+		record.put("BYCL", buyerClass);
+		return record;
+	}
+
+	/**
+	 * Whole-unit records with commitments and reserves that compete for the
+	 * on hand quantity, so every constraint branch is taken.
+	 */
+	static List<Map<String, Object>> randomRecords(int count) {
+		Random random = new Random(42);
+		List<Map<String, Object>> records = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			Map<String, Object> record = new HashMap<>();
+			for (String input : INPUTS) {
+				int value = random.nextInt(5) == 0 ? 0 : random.nextInt(300);
+				if (input.equals("ONHAND")) {
+					value = random.nextInt(5000);
+				} else if (input.equals("OOBADJ") && random.nextBoolean()) {
+					value = -value;
+				}
+				record.put(input, new BigDecimal(value));
+			}
+			record.put("BYCL", BUYER_CLASSES[random.nextInt(BUYER_CLASSES.length)]);
+			records.add(record);
+		}
+		return records;
+	}
+
+	static List<InitialValueWrapper> wrappers(List<Map<String, Object>> records) {
+		List<InitialValueWrapper> wrappers = new ArrayList<>(records.size());
+		for (Map<String, Object> record : records) {
+			wrappers.add(InitialValueWrapper.fromMap(record));
+		}
+		return wrappers;
+	}
+}
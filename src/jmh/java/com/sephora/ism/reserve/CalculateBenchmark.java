@@ -0,0 +1,60 @@
+package com.sephora.ism.reserve;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One SKULOC calculation for the buyer class scenarios of runTestSimple, on
+ * each numeric kernel. {@code calculate} reuses a context as the batch paths
+ * do; {@code calculateFromMap} includes the input conversion and a fresh
+ * context, as /calculate/map does per request.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CalculateBenchmark {
+
+	@Param({ "R", "W", "D" })
+	public String buyerClass;
+
+	@Param({ "LONG", "BIG_DECIMAL" })
+	public NumericMode numericMode;
+
+	private ReserveCalculationEngine engine;
+	private Map<String, Object> record;
+	private InitialValueWrapper wrapper;
+	private ReserveCalcContext context;
+
+	@Setup
+	public void setUp() {
+		engine = new ReserveCalculationEngine(ReservePlan.standard(), numericMode);
+		record = BenchmarkProfiles.buyerClassProfile(buyerClass);
+		wrapper = InitialValueWrapper.fromMap(record);
+		context = new ReserveCalcContext();
+	}
+
+	@Benchmark
+	public ReserveResult calculate() {
+		return engine.calculate(wrapper, context);
+	}
+
+	@Benchmark
+	public ReserveResult calculateFromMap() {
+		return engine.calculate(InitialValueWrapper.fromMap(record), new ReserveCalcContext());
+	}
+}
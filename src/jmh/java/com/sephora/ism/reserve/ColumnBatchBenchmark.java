@@ -0,0 +1,77 @@
+package com.sephora.ism.reserve;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Columnar batch throughput over {@value BatchBenchmark#RECORDS} random
+ * SKULOCs, reported per record, on the vector and the scalar column kernel.
+ * The batch is filled once, so unlike {@link BatchBenchmark} no input
+ * conversion is included.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+@OperationsPerInvocation(BatchBenchmark.RECORDS)
+public class ColumnBatchBenchmark {
+
+	private static final Set<CalculationFlow> ALL_FLOWS = EnumSet.allOf(CalculationFlow.class);
+
+	@Param({ "VECTOR", "SCALAR" })
+	public ColumnKernelMode columnKernelMode;
+
+	private ReserveCalculationEngine engine;
+	private ReserveBatchExecutor executor;
+	private ReserveColumnBatch batch;
+
+	@Setup
+	public void setUp() {
+		engine = new ReserveCalculationEngine(ReservePlan.standard(), NumericMode.LONG, LogMode.PERFORMANCE, 0.0,
+				null, columnKernelMode);
+		if (engine.getColumnKernelMode() != columnKernelMode) {
+			throw new IllegalStateException(columnKernelMode + " column kernel is not available in this JVM");
+		}
+		executor = new ReserveBatchExecutor(engine, 0, 64);
+		batch = new ReserveColumnBatch(BatchBenchmark.RECORDS);
+		int row = 0;
+		for (InitialValueWrapper wrapper : BenchmarkProfiles.wrappers(
+				BenchmarkProfiles.randomRecords(BatchBenchmark.RECORDS))) {
+			batch.setRow(row++, wrapper);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		executor.close();
+	}
+
+	@Benchmark
+	public ReserveColumnBatch sequential() {
+		engine.calculate(batch, ALL_FLOWS, null);
+		return batch;
+	}
+
+	@Benchmark
+	public ReserveColumnBatch parallel() {
+		executor.calculate(batch, ALL_FLOWS, null);
+		return batch;
+	}
+}
@@ -0,0 +1,37 @@
+package com.sephora.ism.reserve;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building the standard plan: adding every step with
+ * setupReserveCalculationSteps and compiling them into a ReservePlan. Paid
+ * once per application start, or per request by code that still builds its
+ * own engine.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EngineSetupBenchmark {
+
+	@Benchmark
+	public ReserveCalculationEngine setupSteps() {
+		ReserveCalculationEngine engine = new ReserveCalculationEngine();
+		ReserveCalculationEngine.setupReserveCalculationSteps(engine);
+		return engine;
+	}
+
+	@Benchmark
+	public ReservePlan setupAndCompile() {
+		return ReservePlan.standard();
+	}
+}
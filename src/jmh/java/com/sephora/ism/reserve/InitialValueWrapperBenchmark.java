@@ -0,0 +1,63 @@
+package com.sephora.ism.reserve;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Input conversion of one SKULOC record with InitialValueWrapper.fromMap:
+ * BigDecimal values as Jackson reads them with USE_BIG_DECIMAL_FOR_FLOATS,
+ * boxed integers as it reads them by default, and a record with keys that
+ * are not ReserveFields.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class InitialValueWrapperBenchmark {
+
+	private Map<String, Object> decimalRecord;
+	private Map<String, Object> integerRecord;
+	private Map<String, Object> unknownKeysRecord;
+
+	@Setup
+	public void setUp() {
+		decimalRecord = BenchmarkProfiles.buyerClassProfile("R");
+		integerRecord = new HashMap<>();
+		decimalRecord.forEach((key, value) -> integerRecord.put(key,
+				value instanceof BigDecimal decimal ? Integer.valueOf(decimal.intValueExact()) : value));
+		unknownKeysRecord = new HashMap<>(decimalRecord);
+		unknownKeysRecord.put("skuId", "1234567");
+		unknownKeysRecord.put("locationId", "0701");
+		unknownKeysRecord.put("eventTime", "2026-01-01T00:00:00Z");
+	}
+
+	@Benchmark
+	public InitialValueWrapper fromDecimalMap() {
+		return InitialValueWrapper.fromMap(decimalRecord);
+	}
+
+	@Benchmark
+	public InitialValueWrapper fromIntegerMap() {
+		return InitialValueWrapper.fromMap(integerRecord);
+	}
+
+	@Benchmark
+	public InitialValueWrapper fromMapWithUnknownKeys() {
+		return InitialValueWrapper.fromMap(unknownKeysRecord);
+	}
+}
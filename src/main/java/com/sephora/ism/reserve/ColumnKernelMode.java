@@ -0,0 +1,6 @@
+package com.sephora.ism.reserve;
+
+public enum ColumnKernelMode {
+    VECTOR, // SIMD select/compare loops via jdk.incubator.vector, falls back to SCALAR when unavailable
+    SCALAR  // Plain loops over the block's columns
+}
@@ -0,0 +1,24 @@
+package com.sephora.ism.reserve;
+
+import java.math.BigDecimal;
+
+/**
+ * Formula for the BigDecimal path. Inputs are read through a view over the
+ * context's value slots, so evaluating a step builds no input map; the only
+ * objects created are the BigDecimal results of the arithmetic itself.
+ */
+@FunctionalInterface
+public interface DecimalFormula {
+
+	BigDecimal apply(Inputs inputs);
+
+	/**
+	 * Read access to one flow's values, indexed by field ordinal.
+	 */
+	interface Inputs {
+
+		BigDecimal get(ReserveField field);
+
+		String getString(ReserveField field);
+	}
+}
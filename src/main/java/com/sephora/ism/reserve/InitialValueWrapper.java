@@ -2,36 +2,102 @@
 package com.sephora.ism.reserve;
 
 import java.math.BigDecimal;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 public class InitialValueWrapper {
 
-	private final Map<ReserveField, BigDecimal> values;
-	private Map<ReserveField, String> stringValues = new HashMap<>(); // ADD THIS FIELD
+	private static final ReserveField[] FIELDS = ReserveField.values();
+
+	// Indexed by field ordinal, null where the record has no value
+	private final BigDecimal[] values;
+	private final int size;
+	// Every value is a whole number that fits in a long
+	private final boolean wholeNumbers;
+	private Map<ReserveField, String> stringValues = Map.of(); // ADD THIS FIELD
 
 	InitialValueWrapper(Map<ReserveField, BigDecimal> values) {
+		this(toArray(values));
+	}
+
+	private InitialValueWrapper(BigDecimal[] values) {
 		this.values = values;
-		this.stringValues = new HashMap<>(); // Initialize
+		int size = 0;
+		boolean wholeNumbers = true;
+		for (BigDecimal value : values) {
+			if (value != null) {
+				size++;
+				wholeNumbers &= Steps.isWholeNumber(value);
+			}
+		}
+		this.size = size;
+		this.wholeNumbers = wholeNumbers;
+	}
+
+	private static BigDecimal[] toArray(Map<ReserveField, BigDecimal> values) {
+		BigDecimal[] array = new BigDecimal[FIELDS.length];
+		for (Map.Entry<ReserveField, BigDecimal> entry : values.entrySet()) {
+			array[entry.getKey().ordinal()] = entry.getValue();
+		}
+		return array;
+	}
+
+	/**
+	 * Wrap already sanitized values; string values (buyer class) need a numeric
+	 * placeholder under the same field, as fromMap puts there.
+	 */
+	static InitialValueWrapper of(Map<ReserveField, BigDecimal> values, Map<ReserveField, String> stringValues) {
+		InitialValueWrapper wrapper = new InitialValueWrapper(values);
+		wrapper.stringValues = stringValues;
+		return wrapper;
+	}
+
+	/**
+	 * Wrap values indexed by field ordinal, null where there is none; the array
+	 * is taken over, not copied. A non-null buyer class is stored with its
+	 * BYCL placeholder.
+	 */
+	static InitialValueWrapper of(BigDecimal[] values, String buyerClass) {
+		if (buyerClass != null) {
+			values[ReserveField.BYCL.ordinal()] = BigDecimal.ZERO;
+		}
+		InitialValueWrapper wrapper = new InitialValueWrapper(values);
+		if (buyerClass != null) {
+			wrapper.stringValues = Map.of(ReserveField.BYCL, buyerClass);
+		}
+		return wrapper;
+	}
+
+	// Length of the value arrays taken by of(BigDecimal[], String)
+	static int valueArrayLength() {
+		return FIELDS.length;
 	}
 
+	/**
+	 * Keys are ReserveField enum names; other keys are skipped. Numbers and
+	 * numeric strings become BigDecimals of the same value and scale, anything
+	 * else zero.
+	 */
 	public static InitialValueWrapper fromMap(Map<String, Object> inputMap) {
-		Map<ReserveField, BigDecimal> cleaned = new HashMap<>();
-		Map<ReserveField, String> stringCleaned = new HashMap<>();
+		BigDecimal[] cleaned = new BigDecimal[FIELDS.length];
+		Map<ReserveField, String> stringCleaned = Map.of();
 
 		for (Map.Entry<String, Object> entry : inputMap.entrySet()) {
-			try {
-				ReserveField field = ReserveField.valueOf(entry.getKey());
-				Object value = entry.getValue();
-
-				if (field == ReserveField.BYCL) {
-					stringCleaned.put(field, value != null ? value.toString() : "");
-					cleaned.put(field, BigDecimal.ZERO); // Placeholder
-				} else {
-					cleaned.put(field, sanitize(convertToBigDecimal(value)));
-				}
-			} catch (IllegalArgumentException e) {
+			ReserveField field = ReserveField.forName(entry.getKey());
+			if (field == null) {
 				// Unknown field, skip
+				continue;
+			}
+			Object value = entry.getValue();
+
+			if (field == ReserveField.BYCL) {
+				stringCleaned = Map.of(field, value != null ? value.toString() : "");
+				cleaned[field.ordinal()] = BigDecimal.ZERO; // Placeholder
+			} else {
+				cleaned[field.ordinal()] = sanitize(convertToBigDecimal(value));
 			}
 		}
 
@@ -41,28 +107,28 @@ public class InitialValueWrapper {
 	}
 
 	public static InitialValueWrapper fromInventory(Inventory inventory) {
-		Map<ReserveField, BigDecimal> temp = new HashMap<>();
+		BigDecimal[] temp = new BigDecimal[FIELDS.length];
 		// Basic fields
-		temp.put(ReserveField.ONHAND, sanitize(inventory.getOnHand()));
-		temp.put(ReserveField.ROHM, sanitize(inventory.getRohm()));
-		temp.put(ReserveField.LOST, sanitize(inventory.getLost()));
-		temp.put(ReserveField.OOBADJ, sanitize(inventory.getOobAdjustment()));
+		temp[ReserveField.ONHAND.ordinal()] = sanitize(inventory.getOnHand());
+		temp[ReserveField.ROHM.ordinal()] = sanitize(inventory.getRohm());
+		temp[ReserveField.LOST.ordinal()] = sanitize(inventory.getLost());
+		temp[ReserveField.OOBADJ.ordinal()] = sanitize(inventory.getOobAdjustment());
 
 		// Hard reserves
-		temp.put(ReserveField.DOTHRY, sanitize(inventory.getDotHardReserveAtsYes()));
-		temp.put(ReserveField.DOTHRN, sanitize(inventory.getDotHardReserveAtsNo()));
-		temp.put(ReserveField.RETHRY, sanitize(inventory.getRetHardReserveAtsYes()));
-		temp.put(ReserveField.RETHRN, sanitize(inventory.getRetHardReserveAtsNo()));
-		temp.put(ReserveField.HLDHR, sanitize(inventory.getHeldHardReserve()));
+		temp[ReserveField.DOTHRY.ordinal()] = sanitize(inventory.getDotHardReserveAtsYes());
+		temp[ReserveField.DOTHRN.ordinal()] = sanitize(inventory.getDotHardReserveAtsNo());
+		temp[ReserveField.RETHRY.ordinal()] = sanitize(inventory.getRetHardReserveAtsYes());
+		temp[ReserveField.RETHRN.ordinal()] = sanitize(inventory.getRetHardReserveAtsNo());
+		temp[ReserveField.HLDHR.ordinal()] = sanitize(inventory.getHeldHardReserve());
 
 		// Add these default zeros for fields not in Inventory POJO
-		temp.put(ReserveField.SNB, BigDecimal.ZERO);
-		temp.put(ReserveField.DTCO, BigDecimal.ZERO);
-		temp.put(ReserveField.ROHP, BigDecimal.ZERO);
-		temp.put(ReserveField.DOTRSV, BigDecimal.ZERO);
-		temp.put(ReserveField.RETRSV, BigDecimal.ZERO);
-		temp.put(ReserveField.DOTOUTB, BigDecimal.ZERO);
-		temp.put(ReserveField.NEED, BigDecimal.ZERO);
+		temp[ReserveField.SNB.ordinal()] = BigDecimal.ZERO;
+		temp[ReserveField.DTCO.ordinal()] = BigDecimal.ZERO;
+		temp[ReserveField.ROHP.ordinal()] = BigDecimal.ZERO;
+		temp[ReserveField.DOTRSV.ordinal()] = BigDecimal.ZERO;
+		temp[ReserveField.RETRSV.ordinal()] = BigDecimal.ZERO;
+		temp[ReserveField.DOTOUTB.ordinal()] = BigDecimal.ZERO;
+		temp[ReserveField.NEED.ordinal()] = BigDecimal.ZERO;
 
 		return new InitialValueWrapper(temp);
 	}
@@ -78,11 +144,69 @@ public class InitialValueWrapper {
 	}
 
 	public Map<ReserveField, BigDecimal> getValues() {
-		return new HashMap<>(values);
+		Map<ReserveField, BigDecimal> copy = new HashMap<>();
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null) {
+				copy.put(FIELDS[i], values[i]);
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * The values themselves, indexed by field ordinal with null where there is
+	 * no value, for the engine to read without a copy. Callers must not modify
+	 * the array; getValues() returns a copy.
+	 */
+	BigDecimal[] valueArray() {
+		return values;
+	}
+
+	// Number of fields with a value
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Whether every value is a whole number that fits in a long, so the record
+	 * can run on the long kernel.
+	 */
+	boolean hasOnlyWholeNumbers() {
+		return wholeNumbers;
 	}
 
 	public BigDecimal get(ReserveField fieldName) {
-		return values.getOrDefault(fieldName, BigDecimal.ZERO);
+		BigDecimal value = values[fieldName.ordinal()];
+		return value != null ? value : BigDecimal.ZERO;
+	}
+
+	boolean has(ReserveField fieldName) {
+		return values[fieldName.ordinal()] != null;
+	}
+
+	/**
+	 * Fields whose numeric or string value differs in {@code other}, including
+	 * fields only one of the two wrappers has. Values are compared with
+	 * equals, so a change of scale alone counts as a change.
+	 */
+	Set<ReserveField> changedFields(InitialValueWrapper other) {
+		Set<ReserveField> changed = EnumSet.noneOf(ReserveField.class);
+		for (int i = 0; i < values.length; i++) {
+			if (!Objects.equals(values[i], other.values[i])) {
+				changed.add(FIELDS[i]);
+			}
+		}
+		collectChanges(stringValues, other.stringValues, changed);
+		collectChanges(other.stringValues, stringValues, changed);
+		return changed;
+	}
+
+	private static void collectChanges(Map<ReserveField, ?> from, Map<ReserveField, ?> to, Set<ReserveField> changed) {
+		for (Map.Entry<ReserveField, ?> entry : from.entrySet()) {
+			if (!Objects.equals(entry.getValue(), to.get(entry.getKey())) || !to.containsKey(entry.getKey())) {
+				changed.add(entry.getKey());
+			}
+		}
 	}
 
 	// Special handling for Buyer Class
@@ -93,16 +217,44 @@ public class InitialValueWrapper {
 	private static BigDecimal convertToBigDecimal(Object value) {
 		if (value instanceof BigDecimal)
 			return (BigDecimal) value;
+		// Integral boxes, as Jackson reads whole JSON numbers, skip the toString round trip
+		if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte)
+			return BigDecimal.valueOf(((Number) value).longValue());
 		if (value instanceof Number)
 			return new BigDecimal(value.toString());
 		if (value instanceof String) {
-			try {
-				return new BigDecimal((String) value);
-			} catch (NumberFormatException e) {
-				return BigDecimal.ZERO;
-			}
+			return parseDecimal((String) value);
 		}
 		return BigDecimal.ZERO;
 	}
 
+	/**
+	 * Plain integers of up to 18 digits with an optional sign are parsed
+	 * straight into a long; anything else goes through the BigDecimal parser,
+	 * zero if it is not a number. Both give the same value and scale.
+	 */
+	static BigDecimal parseDecimal(String text) {
+		int length = text.length();
+		int start = length > 0 && (text.charAt(0) == '-' || text.charAt(0) == '+') ? 1 : 0;
+		if (length > start && length - start <= 18) {
+			long unscaled = 0;
+			int i = start;
+			for (; i < length; i++) {
+				int digit = text.charAt(i) - '0';
+				if (digit < 0 || digit > 9) {
+					break;
+				}
+				unscaled = unscaled * 10 + digit;
+			}
+			if (i == length) {
+				return BigDecimal.valueOf(text.charAt(0) == '-' ? -unscaled : unscaled);
+			}
+		}
+		try {
+			return new BigDecimal(text);
+		} catch (NumberFormatException e) {
+			return BigDecimal.ZERO;
+		}
+	}
+
 }
\ No newline at end of file
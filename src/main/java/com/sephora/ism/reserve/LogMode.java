@@ -0,0 +1,6 @@
+package com.sephora.ism.reserve;
+
+public enum LogMode {
+    PERFORMANCE, // No per-step logging or string building on the hot path
+    VERBOSE      // Traced BigDecimal path with per-step, running total and summary logging
+}
@@ -0,0 +1,23 @@
+package com.sephora.ism.reserve;
+
+/**
+ * Formula for the long kernel. Inputs are whole units read straight from the
+ * context's primitive value slots; implementations must use the
+ * {@code Math.*Exact} methods so overflow surfaces as an ArithmeticException
+ * and the record falls back to the BigDecimal path.
+ */
+@FunctionalInterface
+public interface LongFormula {
+
+	long apply(Inputs inputs);
+
+	/**
+	 * Read access to one flow's current values, indexed by field ordinal.
+	 */
+	interface Inputs {
+
+		long get(ReserveField field);
+
+		String getString(ReserveField field);
+	}
+}
@@ -0,0 +1,6 @@
+package com.sephora.ism.reserve;
+
+public enum NumericMode {
+    LONG,        // Whole-unit long kernel, falls back to BIG_DECIMAL per record
+    BIG_DECIMAL  // Reference BigDecimal path, kept for verification
+}
@@ -0,0 +1,153 @@
+package com.sephora.ism.reserve;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Calculates batches of SKULOC records on several cores. SKULOCs are
+ * independent, so the input is cut into contiguous chunks that run on a
+ * dedicated ForkJoinPool; every worker thread keeps one reusable
+ * ReserveCalcContext, and all workers share the engine's immutable
+ * {@link ReservePlan}. Results are written back by input position, so the
+ * output matches a sequential {@link ReserveCalculationEngine#calculateBatch}
+ * exactly.
+ */
+@Component
+public class ReserveBatchExecutor implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(ReserveBatchExecutor.class);
+
+	// Enough chunks per worker to even out records that fall back to BigDecimal
+	private static final int CHUNKS_PER_WORKER = 4;
+
+	private final ReserveCalculationEngine engine;
+	private final ForkJoinPool pool;
+	private final int minChunkSize;
+	private final ThreadLocal<ReserveCalcContext> contexts = ThreadLocal.withInitial(ReserveCalcContext::new);
+
+	/**
+	 * @param parallelism  worker threads, or 0 for one per available processor
+	 * @param minChunkSize smallest number of records handed to one task; batches
+	 *                     below it run on the calling thread
+	 */
+	public ReserveBatchExecutor(ReserveCalculationEngine engine,
+			@Value("${reserve.batch.parallelism:0}") int parallelism,
+			@Value("${reserve.batch.min-chunk-size:64}") int minChunkSize) {
+		if (parallelism < 0) {
+			throw new IllegalArgumentException("reserve.batch.parallelism must not be negative: " + parallelism);
+		}
+		if (minChunkSize <= 0) {
+			throw new IllegalArgumentException("reserve.batch.min-chunk-size must be positive: " + minChunkSize);
+		}
+		this.engine = engine;
+		this.pool = new ForkJoinPool(parallelism == 0 ? Runtime.getRuntime().availableProcessors() : parallelism);
+		this.minChunkSize = minChunkSize;
+		logger.info("Reserve batch executor started with {} workers", pool.getParallelism());
+	}
+
+	public int getParallelism() {
+		return pool.getParallelism();
+	}
+
+	public List<ReserveResult> calculate(List<Inventory> records) {
+		return calculate(records, InitialValueWrapper::fromInventory, null);
+	}
+
+	public <T> List<ReserveResult> calculate(List<T> records, Function<T, InitialValueWrapper> converter,
+			LogMode logMode) {
+		return calculate(records, converter, logMode, EnumSet.allOf(CalculationFlow.class), null);
+	}
+
+	/**
+	 * Calculate every record and return the results in input order. The first
+	 * record that fails aborts the batch with its exception.
+	 *
+	 * @param logMode log mode for every record, or null for the engine's default
+	 * @param flows   flows to calculate for every record
+	 * @param outputs output fields needed, or null for every field
+	 */
+	public <T> List<ReserveResult> calculate(List<T> records, Function<T, InitialValueWrapper> converter,
+			LogMode logMode, Set<CalculationFlow> flows, Set<ReserveField> outputs) {
+		int size = records.size();
+		int chunkSize = Math.max(minChunkSize, Math.ceilDiv(size, pool.getParallelism() * CHUNKS_PER_WORKER));
+		if (size <= chunkSize) {
+			return engine.calculateBatch(records, converter, logMode, flows, outputs);
+		}
+
+		ReserveResult[] results = new ReserveResult[size];
+		ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[Math.ceilDiv(size, chunkSize)];
+		for (int i = 0; i < tasks.length; i++) {
+			int from = i * chunkSize;
+			int to = Math.min(from + chunkSize, size);
+			tasks[i] = pool.submit(() -> calculateRange(records, converter, logMode, flows, outputs, results, from, to));
+		}
+		joinAll(tasks);
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Calculate a columnar batch into its output columns, with ranges of rows
+	 * on the workers. Ranges are whole columnar blocks, so the result is the
+	 * same as {@link ReserveCalculationEngine#calculate(ReserveColumnBatch, Set, Set)}.
+	 *
+	 * @param outputs output fields needed, or null for every field
+	 */
+	public void calculate(ReserveColumnBatch batch, Set<CalculationFlow> flows, Set<ReserveField> outputs) {
+		ReservePlan plan = engine.getPlan().forFlows(flows).forOutputs(outputs);
+		batch.prepareOutputs(plan);
+		int size = batch.size();
+		int blockRows = ReserveCalculationEngine.COLUMN_BLOCK_ROWS;
+		int chunkSize = Math.max(minChunkSize, Math.ceilDiv(size, pool.getParallelism() * CHUNKS_PER_WORKER));
+		chunkSize = Math.ceilDiv(chunkSize, blockRows) * blockRows;
+		if (size <= chunkSize) {
+			engine.calculateColumns(plan, batch, 0, size);
+			return;
+		}
+
+		ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[Math.ceilDiv(size, chunkSize)];
+		for (int i = 0; i < tasks.length; i++) {
+			int from = i * chunkSize;
+			int to = Math.min(from + chunkSize, size);
+			tasks[i] = pool.submit(() -> engine.calculateColumns(plan, batch, from, to));
+		}
+		joinAll(tasks);
+	}
+
+	// Wait for every task; the first failure cancels the rest and is rethrown
+	private static void joinAll(ForkJoinTask<?>[] tasks) {
+		try {
+			for (ForkJoinTask<?> task : tasks) {
+				task.join();
+			}
+		} catch (RuntimeException e) {
+			for (ForkJoinTask<?> task : tasks) {
+				task.cancel(false);
+			}
+			throw e;
+		}
+	}
+
+	private <T> void calculateRange(List<T> records, Function<T, InitialValueWrapper> converter, LogMode logMode,
+			Set<CalculationFlow> flows, Set<ReserveField> outputs, ReserveResult[] results, int from, int to) {
+		ReserveCalcContext context = contexts.get();
+		context.setLogMode(logMode);
+		for (int i = from; i < to; i++) {
+			results[i] = engine.calculate(converter.apply(records.get(i)), context, flows, outputs);
+		}
+	}
+
+	@Override
+	public void close() {
+		pool.shutdown();
+	}
+}
@@ -0,0 +1,356 @@
+package com.sephora.ism.reserve;
+
+import java.math.BigDecimal;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compact binary encoding of SKULOC records and their results for
+ * service-to-service calls, served as {@value #MEDIA_TYPE} next to JSON.
+ * Quantities are whole units written as zigzag varints, so most values take
+ * one or two bytes, and fields are identified by position rather than name.
+ *
+ * <pre>
+ * request  = 'R' 'S' version | varint inputCount | varint recordCount | record*
+ * record   = presence bitmap | varint buyerClassLength + 1 (0 if absent) | buyer class UTF-8
+ *            | zigzag varint per present input
+ * response = 'R' 'S' version | flow mask | varint outputCount | varint recordCount | result*
+ * result   = per flow in the mask, in CalculationFlow order:
+ *            presence bitmap | zigzag varint per present output
+ * </pre>
+ *
+ * Inputs are {@link ReserveField#numericInputs()} and outputs
+ * {@link ReserveResult#OUTPUT_FIELDS}, both in ReserveField ordinal order; a
+ * presence bitmap has one bit per field, least significant bit first, so an
+ * absent field and a zero stay distinct as they do in JSON. The field counts
+ * in the headers must match this build's, which catches a sender and
+ * receiver with different field lists.
+ * <p>
+ * Requests are decoded in place from the ByteBuffer, without copying it.
+ */
+public final class ReserveBinaryCodec {
+
+	public static final String MEDIA_TYPE = "application/x-reserve-skuloc";
+
+	static final int VERSION = 1;
+
+	private static final byte MAGIC_0 = 'R';
+	private static final byte MAGIC_1 = 'S';
+	private static final ReserveField[] INPUTS = ReserveField.numericInputs().toArray(ReserveField[]::new);
+	private static final ReserveField[] OUTPUTS = ReserveResult.OUTPUT_FIELDS.stream()
+			.sorted(Comparator.comparingInt(ReserveField::ordinal)).toArray(ReserveField[]::new);
+	// Index into ReserveResult's value arrays of each output, in OUTPUTS order
+	private static final int[] OUTPUT_INDEXES = Arrays.stream(OUTPUTS)
+			.mapToInt(ReserveResult.OUTPUT_FIELDS::indexOf).toArray();
+	private static final int INPUT_BITMAP_BYTES = bitmapBytes(INPUTS.length);
+	private static final int OUTPUT_BITMAP_BYTES = bitmapBytes(OUTPUTS.length);
+	// One-character ASCII buyer classes are decoded without allocating
+	private static final String[] ASCII = new String[128];
+
+	static {
+		for (int i = 0; i < ASCII.length; i++) {
+			ASCII[i] = String.valueOf((char) i);
+		}
+	}
+
+	private ReserveBinaryCodec() {
+	}
+
+	/**
+	 * Decode a request into one wrapper per record.
+	 *
+	 * @throws IllegalArgumentException if the request is malformed
+	 */
+	public static List<InitialValueWrapper> decodeRecords(ByteBuffer buffer) {
+		try {
+			readMagic(buffer);
+			int inputCount = readCount(buffer);
+			if (inputCount != INPUTS.length) {
+				throw new IllegalArgumentException(
+						"Expected " + INPUTS.length + " input fields per record, got " + inputCount);
+			}
+			int recordCount = readCount(buffer);
+			// Every record takes at least its bitmap and buyer class length
+			if (recordCount > buffer.remaining() / (INPUT_BITMAP_BYTES + 1)) {
+				throw new IllegalArgumentException("Record count " + recordCount + " exceeds the request body");
+			}
+			List<InitialValueWrapper> records = new ArrayList<>(recordCount);
+			for (int i = 0; i < recordCount; i++) {
+				records.add(readRecord(buffer));
+			}
+			if (buffer.hasRemaining()) {
+				throw new IllegalArgumentException(buffer.remaining() + " bytes after the last record");
+			}
+			return records;
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("Request body ends inside a record", e);
+		}
+	}
+
+	private static InitialValueWrapper readRecord(ByteBuffer buffer) {
+		int bitmapStart = skip(buffer, INPUT_BITMAP_BYTES);
+
+		String buyerClass = null;
+		int buyerClassLength = readCount(buffer) - 1;
+		if (buyerClassLength >= 0) {
+			buyerClass = readString(buffer, buyerClassLength);
+		}
+
+		BigDecimal[] values = new BigDecimal[InitialValueWrapper.valueArrayLength()];
+		for (int i = 0; i < INPUTS.length; i++) {
+			if ((buffer.get(bitmapStart + (i >>> 3)) & 1 << (i & 7)) != 0) {
+				values[INPUTS[i].ordinal()] = BigDecimal.valueOf(readZigzag(buffer));
+			}
+		}
+		return InitialValueWrapper.of(values, buyerClass);
+	}
+
+	private static String readString(ByteBuffer buffer, int length) {
+		int position = skip(buffer, length);
+		if (length == 1 && buffer.get(position) >= 0) {
+			return ASCII[buffer.get(position)];
+		}
+		if (buffer.hasArray()) {
+			return new String(buffer.array(), buffer.arrayOffset() + position, length, StandardCharsets.UTF_8);
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(position, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Encode the results of a request in its order.
+	 *
+	 * @param flows flows every result was calculated for
+	 * @throws IllegalArgumentException if an output is not a whole number that
+	 *                                  fits in a long
+	 */
+	public static byte[] encodeResults(List<ReserveResult> results, Set<CalculationFlow> flows) {
+		Output output = new Output(8 + results.size() * flows.size() * (OUTPUT_BITMAP_BYTES + OUTPUTS.length * 2));
+		output.writeMagic();
+		int flowMask = 0;
+		for (CalculationFlow flow : flows) {
+			flowMask |= 1 << flow.ordinal();
+		}
+		output.write(flowMask);
+		output.writeVarint(OUTPUTS.length);
+		output.writeVarint(results.size());
+
+		for (ReserveResult result : results) {
+			for (CalculationFlow flow : CalculationFlow.values()) {
+				if ((flowMask & 1 << flow.ordinal()) == 0) {
+					continue;
+				}
+				BigDecimal[] flowValues = result.flowValuesOrNull(flow);
+				if (flowValues == null) {
+					throw new IllegalArgumentException("Flow not calculated: " + flow);
+				}
+				int bitmapStart = output.reserve(OUTPUT_BITMAP_BYTES);
+				for (int i = 0; i < OUTPUTS.length; i++) {
+					BigDecimal value = flowValues[OUTPUT_INDEXES[i]];
+					if (value != null) {
+						if (!Steps.isWholeNumber(value)) {
+							throw new IllegalArgumentException(
+									"Not a whole number of units: " + OUTPUTS[i] + "=" + value);
+						}
+						output.setBit(bitmapStart, i);
+						output.writeZigzag(value.longValue());
+					}
+				}
+			}
+		}
+		return output.toByteArray();
+	}
+
+	/**
+	 * Encode records as a request, as a client would.
+	 *
+	 * @throws IllegalArgumentException if an input is not a whole number that
+	 *                                  fits in a long
+	 */
+	public static byte[] encodeRecords(List<InitialValueWrapper> records) {
+		Output output = new Output(8 + records.size() * (INPUT_BITMAP_BYTES + 2 + INPUTS.length * 2));
+		output.writeMagic();
+		output.writeVarint(INPUTS.length);
+		output.writeVarint(records.size());
+
+		for (InitialValueWrapper record : records) {
+			int bitmapStart = output.reserve(INPUT_BITMAP_BYTES);
+			if (record.has(ReserveField.BYCL)) {
+				byte[] buyerClass = record.getString(ReserveField.BYCL).getBytes(StandardCharsets.UTF_8);
+				output.writeVarint(buyerClass.length + 1L);
+				output.write(buyerClass);
+			} else {
+				output.writeVarint(0);
+			}
+			for (int i = 0; i < INPUTS.length; i++) {
+				if (record.has(INPUTS[i])) {
+					BigDecimal value = record.get(INPUTS[i]);
+					if (!Steps.isWholeNumber(value)) {
+						throw new IllegalArgumentException("Not a whole number of units: " + INPUTS[i] + "=" + value);
+					}
+					output.setBit(bitmapStart, i);
+					output.writeZigzag(value.longValue());
+				}
+			}
+		}
+		return output.toByteArray();
+	}
+
+	/**
+	 * Decode a response, as a client would.
+	 *
+	 * @throws IllegalArgumentException if the response is malformed
+	 */
+	public static List<ReserveResult> decodeResults(ByteBuffer buffer) {
+		try {
+			readMagic(buffer);
+			int flowMask = buffer.get() & 0xFF;
+			int outputCount = readCount(buffer);
+			if (outputCount != OUTPUTS.length) {
+				throw new IllegalArgumentException(
+						"Expected " + OUTPUTS.length + " output fields per flow, got " + outputCount);
+			}
+			int resultCount = readCount(buffer);
+			List<ReserveResult> results = new ArrayList<>(Math.min(resultCount, buffer.remaining()));
+			for (int r = 0; r < resultCount; r++) {
+				BigDecimal[][] values = new BigDecimal[CalculationFlow.values().length][];
+				for (CalculationFlow flow : CalculationFlow.values()) {
+					if ((flowMask & 1 << flow.ordinal()) == 0) {
+						continue;
+					}
+					int bitmapStart = skip(buffer, OUTPUT_BITMAP_BYTES);
+					BigDecimal[] flowValues = new BigDecimal[OUTPUTS.length];
+					for (int i = 0; i < OUTPUTS.length; i++) {
+						if ((buffer.get(bitmapStart + (i >>> 3)) & 1 << (i & 7)) != 0) {
+							flowValues[OUTPUT_INDEXES[i]] = BigDecimal.valueOf(readZigzag(buffer));
+						}
+					}
+					values[flow.ordinal()] = flowValues;
+				}
+				results.add(new ReserveResult(values));
+			}
+			return results;
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("Response body ends inside a result", e);
+		}
+	}
+
+	// Move past length bytes to be read in place; returns where they start
+	private static int skip(ByteBuffer buffer, int length) {
+		if (length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		int start = buffer.position();
+		buffer.position(start + length);
+		return start;
+	}
+
+	private static void readMagic(ByteBuffer buffer) {
+		if (buffer.get() != MAGIC_0 || buffer.get() != MAGIC_1) {
+			throw new IllegalArgumentException("Not a " + MEDIA_TYPE + " body");
+		}
+		int version = buffer.get() & 0xFF;
+		if (version != VERSION) {
+			throw new IllegalArgumentException("Unsupported " + MEDIA_TYPE + " version " + version);
+		}
+	}
+
+	private static int readCount(ByteBuffer buffer) {
+		long count = readVarint(buffer);
+		if (count < 0 || count > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Count out of range: " + count);
+		}
+		return (int) count;
+	}
+
+	private static long readZigzag(ByteBuffer buffer) {
+		long encoded = readVarint(buffer);
+		return encoded >>> 1 ^ -(encoded & 1);
+	}
+
+	private static long readVarint(ByteBuffer buffer) {
+		long value = 0;
+		for (int shift = 0; shift < Long.SIZE; shift += 7) {
+			byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Varint longer than 10 bytes");
+	}
+
+	private static int bitmapBytes(int fields) {
+		return (fields + 7) >>> 3;
+	}
+
+	// Growable byte array; the encoded size is known only roughly up front
+	private static final class Output {
+
+		private byte[] bytes;
+		private int size;
+
+		Output(int capacity) {
+			bytes = new byte[Math.max(16, capacity)];
+		}
+
+		void writeMagic() {
+			write(MAGIC_0);
+			write(MAGIC_1);
+			write(VERSION);
+		}
+
+		void write(int b) {
+			ensureCapacity(1);
+			bytes[size++] = (byte) b;
+		}
+
+		void write(byte[] data) {
+			ensureCapacity(data.length);
+			System.arraycopy(data, 0, bytes, size, data.length);
+			size += data.length;
+		}
+
+		// Zeroed bytes to set bits in later; returns their offset
+		int reserve(int length) {
+			ensureCapacity(length);
+			int start = size;
+			size += length;
+			return start;
+		}
+
+		void setBit(int bitmapStart, int bit) {
+			bytes[bitmapStart + (bit >>> 3)] |= (byte) (1 << (bit & 7));
+		}
+
+		void writeZigzag(long value) {
+			writeVarint(value << 1 ^ value >> 63);
+		}
+
+		void writeVarint(long value) {
+			ensureCapacity(10);
+			while ((value & ~0x7FL) != 0) {
+				bytes[size++] = (byte) (value & 0x7F | 0x80);
+				value >>>= 7;
+			}
+			bytes[size++] = (byte) value;
+		}
+
+		private void ensureCapacity(int extra) {
+			if (size + extra > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+			}
+		}
+
+		byte[] toByteArray() {
+			return size == bytes.length ? bytes : Arrays.copyOf(bytes, size);
+		}
+	}
+}
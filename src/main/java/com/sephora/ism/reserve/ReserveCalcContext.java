@@ -8,13 +8,25 @@ import org.slf4j.LoggerFactory;
 
 /**
  * ReserveCalcContext holds calculation state across all flows.
- * - Field values
- * - Step snapshots
+ * - Field values (current, previous, original)
  * - Dynamic step values
- * - Running total history
+ * - An optional trace of every update (snapshots, result sets, history)
  * <p>
- * ReserveCalcContext holds calculation state across all flows.
- * Simplified and cleaned up version.
+ * Values live in flat arrays indexed by {@code [flow][field ordinal]} with a
+ * current, previous and original slot each, so a lookup is one array read
+ * instead of two map probes. Records calculated on the long kernel use the
+ * parallel primitive {@code long} slots instead; the read methods below box
+ * them on demand, so callers see the same values either way.
+ * <p>
+ * Tracing is off by default and nothing beyond the live values is kept. With
+ * {@link #setTraceEnabled(boolean)} every update is appended to a columnar
+ * {@link ReserveCalcTrace}, from which the step snapshots, result sets and
+ * running total history are derived; traced records always take the
+ * BigDecimal path.
+ * <p>
+ * The steps themselves are shared through a {@link ReservePlan}; everything
+ * that changes per SKULOC lives here, so a context belongs to exactly one
+ * calculation at a time.
  */
 public class ReserveCalcContext {
 
@@ -22,54 +34,110 @@ public class ReserveCalcContext {
 
     private InitialValueWrapper initialValueWrapper;
 
-    // Core storage: Field values per flow
-    private final Map<CalculationFlow, Map<ReserveField, ReserveCalcStep>> fieldValues = new LinkedHashMap<>();
-    private final Map<ReserveField, Map<CalculationFlow, ReserveCalcStep>> resultSets = new LinkedHashMap<>();
-    // Step snapshots for debugging
-    private final Map<Integer, Map<CalculationFlow, ReserveCalcStep>> stepSnapshots = new HashMap<>();
+    // Plan and flows the current record was calculated with; the other flows stay empty
+    private ReservePlan calculatedPlan;
+    private List<CalculationFlow> calculatedFlows = ALL_FLOWS;
+
+    // Core storage: [flow ordinal * FIELD_COUNT + field ordinal], null current means not set
+    private static final ReserveField[] FIELDS = ReserveField.values();
+    private static final int FIELD_COUNT = FIELDS.length;
+    private static final int SLOT_COUNT = CalculationFlow.values().length * FIELD_COUNT;
+    private static final List<CalculationFlow> ALL_FLOWS = List.of(CalculationFlow.values());
+    private final BigDecimal[] currentValues = new BigDecimal[SLOT_COUNT];
+    private final BigDecimal[] previousValues = new BigDecimal[SLOT_COUNT];
+    private final BigDecimal[] originalValues = new BigDecimal[SLOT_COUNT];
+    private final Map<CalculationFlow, Map<ReserveField, String>> stringValues = new EnumMap<>(CalculationFlow.class);
+    private final Map<CalculationFlow, Set<ReserveField>> initializedRunningFields = new EnumMap<>(CalculationFlow.class);
+
+    // Update trace for debugging, null unless tracing is enabled
+    private ReserveCalcTrace trace;
+
+    // Requested log mode (null defers to the engine) and the mode resolved for the current record
+    private LogMode logMode;
+    private boolean verbose;
 
-    // Dynamic values and history - kept simple for now (OMS flow only)
+    // Run independent flow lanes concurrently for each record
+    private boolean parallelLanes;
+
+    // Engine's step metrics for the current record, null when off; steps are timed only if sampled
+    private ReserveStepMetrics stepMetrics;
+    private boolean stepTimingSampled;
+
+    // Dynamic values - kept simple for now (OMS flow only)
     private final Map<ReserveField, BigDecimal> dynamicValues = new HashMap<>();
-    private final Map<ReserveField, List<BigDecimal>> runningTotalHistory = new HashMap<>();
 
-    // Dynamic steps that need recalculation
-    private List<ReserveCalcStep> dynamicSteps = new ArrayList<>();
+    // Dynamic steps that need recalculation, one bound copy per flow
+    private Map<CalculationFlow, List<ReserveCalcStep>> dynamicSteps = Map.of();
 
     // Running calculation steps per flow
     private final Map<CalculationFlow, List<Steps.RunningCalculationStep>> runningSteps = new HashMap<>();
 
+    // Long kernel storage, same layout as the BigDecimal slots
+    private final long[] longCurrent = new long[SLOT_COUNT];
+    private final long[] longPrevious = new long[SLOT_COUNT];
+    private final long[] longOriginal = new long[SLOT_COUNT];
+    private final boolean[] longPresent = new boolean[SLOT_COUNT];
+    private final long[] longInputs = new long[FIELD_COUNT];
+    private final LongFormula.Inputs[] longInputViews = new LongFormula.Inputs[CalculationFlow.values().length];
+    private final DecimalFormula.Inputs[] decimalInputViews = new DecimalFormula.Inputs[CalculationFlow.values().length];
+    private final DecimalFormula.Inputs[] previousInputViews = new DecimalFormula.Inputs[CalculationFlow.values().length];
+    private boolean longMode;
+
     public ReserveCalcContext() {
         // Initialize maps for each flow
         for (CalculationFlow flow : CalculationFlow.values()) {
-            fieldValues.put(flow, new EnumMap<>(ReserveField.class));
+            stringValues.put(flow, new EnumMap<>(ReserveField.class));
+            initializedRunningFields.put(flow, EnumSet.noneOf(ReserveField.class));
             runningSteps.put(flow, new ArrayList<>());
+            longInputViews[flow.ordinal()] = new LongFlowInputs(flow);
+            decimalInputViews[flow.ordinal()] = new DecimalFlowInputs(flow, false);
+            previousInputViews[flow.ordinal()] = new DecimalFlowInputs(flow, true);
+        }
+    }
+
+    /**
+     * Clear all per-SKULOC state so the context can be reused for the next
+     * calculation. Batch callers reset one context per record instead of
+     * constructing a new one. Tracing, the log mode and parallel lanes stay as
+     * they were, with an empty trace.
+     */
+    public void reset() {
+        initialValueWrapper = null;
+        calculatedPlan = null;
+        calculatedFlows = ALL_FLOWS;
+        Arrays.fill(currentValues, null);
+        Arrays.fill(previousValues, null);
+        Arrays.fill(originalValues, null);
+        for (CalculationFlow flow : CalculationFlow.values()) {
+            stringValues.get(flow).clear();
+            initializedRunningFields.get(flow).clear();
+            runningSteps.get(flow).clear();
+        }
+        if (trace != null) {
+            trace.clear();
         }
+        dynamicValues.clear();
+        dynamicSteps = Map.of();
+        clearLongValues();
     }
 
     // === Initial Value Wrapper Methods ===
 
     public void setInitialValueWrapper(InitialValueWrapper wrapper) {
         this.initialValueWrapper = wrapper;
+    }
 
-        // Initialize all flows with initial values
-        if (wrapper != null) {
-            for (CalculationFlow flow : CalculationFlow.values()) {
-                Map<ReserveField, ReserveCalcStep> flowMap = fieldValues.get(flow);
-
-                // Create initial steps for each field from wrapper
-                for (Map.Entry<ReserveField, BigDecimal> entry : wrapper.getValues().entrySet()) {
-                    // Check if this field already has a step (from engine setup)
-                    ReserveCalcStep existingStep = flowMap.get(entry.getKey());
-
-                    if (existingStep != null) {
-                        // If step exists, just update its value
-                        existingStep.updateTracking(entry.getValue());
-                    } else {
-                        // Create a new step only if one doesn't exist
-                        Steps.SkulocFieldStep step = new Steps.SkulocFieldStep(entry.getKey());
-                        step.setFlow(flow);
-                        step.updateTracking(entry.getValue());
-                        flowMap.put(entry.getKey(), step);
+    /**
+     * Seed every flow with the wrapper's values; each field keeps its seed
+     * until its own step runs. Called by the engine before the BigDecimal path.
+     */
+    void seedInitialValues() {
+        if (initialValueWrapper != null) {
+            BigDecimal[] values = initialValueWrapper.valueArray();
+            for (CalculationFlow flow : calculatedFlows) {
+                for (int i = 0; i < values.length; i++) {
+                    if (values[i] != null) {
+                        trackValue(flow, FIELDS[i], values[i]);
                     }
                 }
             }
@@ -80,55 +148,269 @@ public class ReserveCalcContext {
         return initialValueWrapper;
     }
 
+    /**
+     * Flows calculated for the current record, in CalculationFlow order. Values
+     * of any other flow are absent.
+     */
+    public List<CalculationFlow> getCalculatedFlows() {
+        return calculatedFlows;
+    }
+
+    /**
+     * Plan the current record was calculated with, or null before the first
+     * calculation after a reset.
+     */
+    ReservePlan getCalculatedPlan() {
+        return calculatedPlan;
+    }
+
+    void setCalculatedPlan(ReservePlan calculatedPlan) {
+        this.calculatedPlan = calculatedPlan;
+        this.calculatedFlows = calculatedPlan.getFlows();
+    }
+
+    /**
+     * Seed the changed inputs again from the current wrapper in every
+     * calculated flow, exactly as a full calculation would have seeded them.
+     * Returns false, changing nothing, when the context is on the long kernel
+     * and a changed input is not a whole number.
+     */
+    boolean reseedInputs(Set<ReserveField> changed) {
+        if (longMode) {
+            for (ReserveField field : changed) {
+                if (initialValueWrapper.has(field) && !Steps.isWholeNumber(initialValueWrapper.get(field))) {
+                    return false;
+                }
+            }
+        }
+        for (ReserveField field : changed) {
+            boolean present = initialValueWrapper.has(field);
+            BigDecimal value = initialValueWrapper.get(field);
+            if (longMode) {
+                longInputs[field.ordinal()] = value.longValue();
+            }
+            for (int i = 0; i < calculatedFlows.size(); i++) {
+                CalculationFlow flow = calculatedFlows.get(i);
+                int slot = slot(flow, field);
+                if (longMode) {
+                    longPresent[slot] = false;
+                    if (present) {
+                        trackLongValue(flow, field, value.longValue());
+                    }
+                } else {
+                    currentValues[slot] = null;
+                    if (present) {
+                        trackValue(flow, field, value);
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    // === Trace Methods ===
+
+    /**
+     * Turn the update trace on or off. Off by default; turning it off drops
+     * whatever was recorded.
+     */
+    public void setTraceEnabled(boolean enabled) {
+        if (!enabled) {
+            trace = null;
+        } else if (trace == null) {
+            trace = new ReserveCalcTrace();
+        }
+    }
+
+    public boolean isTraceEnabled() {
+        return trace != null;
+    }
+
+    /**
+     * @return the trace of the last calculation, or null when tracing is off
+     */
+    public ReserveCalcTrace getTrace() {
+        return trace;
+    }
+
+    // === Log Mode Methods ===
+
+    /**
+     * Request a log mode for calculations in this context, overriding the
+     * engine's default and sampling. Null defers to the engine.
+     */
+    public void setLogMode(LogMode logMode) {
+        this.logMode = logMode;
+    }
+
+    public LogMode getLogMode() {
+        return logMode;
+    }
+
+    /**
+     * Whether the record being calculated logs its steps. Set by the engine
+     * from the resolved log mode; steps check it before building any message.
+     */
+    public boolean isVerbose() {
+        return verbose;
+    }
+
+    void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    // === Step Metrics Methods ===
+
+    /**
+     * Set by the engine for each record: the metrics its steps report to, or
+     * null, and whether this record's steps are timed.
+     */
+    void setStepMetrics(ReserveStepMetrics stepMetrics, boolean timed) {
+        this.stepMetrics = stepMetrics;
+        this.stepTimingSampled = stepMetrics != null && timed;
+    }
+
+    /**
+     * @return the metrics condition failures are counted in, or null when off
+     */
+    ReserveStepMetrics getStepMetrics() {
+        return stepMetrics;
+    }
+
+    /**
+     * @return the metrics to time this record's steps in, or null when the
+     *         record is not sampled
+     */
+    ReserveStepMetrics getStepTimer() {
+        return stepTimingSampled ? stepMetrics : null;
+    }
+
+    // === Lane Methods ===
+
+    /**
+     * Calculate the flows of each record concurrently instead of one after the
+     * other. Only plans whose flows are independent run this way, and never
+     * while tracing; worth it for few, large requests rather than batches,
+     * which are already spread across cores per record.
+     */
+    public void setParallelLanes(boolean parallelLanes) {
+        this.parallelLanes = parallelLanes;
+    }
+
+    public boolean isParallelLanes() {
+        return parallelLanes;
+    }
+
     // === Dynamic Steps Management ===
 
-    public void setDynamicSteps(List<ReserveCalcStep> dynamicSteps) {
+    /**
+     * @param dynamicSteps per-flow dynamic steps, aligned by index across flows
+     *                     (see {@link ReservePlan#getFlowDynamicSteps()})
+     */
+    public void setDynamicSteps(Map<CalculationFlow, List<ReserveCalcStep>> dynamicSteps) {
         this.dynamicSteps = dynamicSteps;
     }
 
-    public List<ReserveCalcStep> getDynamicSteps() {
-        return dynamicSteps;
+    public List<ReserveCalcStep> getDynamicSteps(CalculationFlow flow) {
+        return dynamicSteps.getOrDefault(flow, List.of());
     }
 
     // === Running Steps Management ===
 
     public void registerRunningStep(CalculationFlow flow, Steps.RunningCalculationStep runningStep) {
         runningSteps.get(flow).add(runningStep);
-        // Also add to fieldValues so getStep() can find it
-        runningStep.setFlow(flow);
-        putStep(flow, runningStep.getFieldName(), runningStep);
+        // Running totals start over from the step's starting value
+        resetValue(flow, runningStep.getFieldName(), runningStep.getStartingValue());
+        initializedRunningFields.get(flow).remove(runningStep.getFieldName());
+    }
+
+    public boolean isRunningInitialized(CalculationFlow flow, ReserveField field) {
+        return initializedRunningFields.get(flow).contains(field);
+    }
+
+    public void markRunningInitialized(CalculationFlow flow, ReserveField field) {
+        initializedRunningFields.get(flow).add(field);
     }
 
     // === Core Value Access Methods ===
 
-    public ReserveCalcStep getStep(CalculationFlow flow, ReserveField field) {
-        Map<ReserveField, ReserveCalcStep> flowMap = fieldValues.get(flow);
-        return (flowMap != null) ? flowMap.get(field) : null;
+    public FieldValue getFieldValue(CalculationFlow flow, ReserveField field) {
+        if (longMode) {
+            int slot = slot(flow, field);
+            return longPresent[slot] ? new FieldValue(BigDecimal.valueOf(longOriginal[slot]),
+                    BigDecimal.valueOf(longPrevious[slot]), BigDecimal.valueOf(longCurrent[slot])) : null;
+        }
+        int slot = slot(flow, field);
+        return currentValues[slot] != null
+                ? new FieldValue(originalValues[slot], previousValues[slot], currentValues[slot])
+                : null;
+    }
+
+    /**
+     * Whether the field has a value in the flow, i.e. was seeded or calculated.
+     */
+    public boolean hasValue(CalculationFlow flow, ReserveField field) {
+        int slot = slot(flow, field);
+        return longMode ? longPresent[slot] : currentValues[slot] != null;
     }
 
     public BigDecimal getCurrentValue(CalculationFlow flow, ReserveField field) {
 //        logger.info("    getCurrentValue(" + flow + ", " + field + ")");
 
-        ReserveCalcStep step = getStep(flow, field);
-        if (step == null) {
-            logger.info("      No step found! {} {} Returning 0", flow, field);
-            // new Exception().printStackTrace();
-            return BigDecimal.ZERO;
+        int slot = slot(flow, field);
+        if (longMode) {
+            return longPresent[slot] ? BigDecimal.valueOf(longCurrent[slot]) : missingValue(flow, field);
         }
-
-        BigDecimal value = step.getCurrentValue();
-//        logger.info("      Step found, currentValue = " + value);
-        return value != null ? value : BigDecimal.ZERO;
+        BigDecimal value = currentValues[slot];
+        return value != null ? value : missingValue(flow, field);
     }
 
     public BigDecimal getPreviousValue(CalculationFlow flow, ReserveField field) {
-        ReserveCalcStep step = getStep(flow, field);
-        return (step != null) ? step.getPreviousValue() : BigDecimal.ZERO;
+        int slot = slot(flow, field);
+        if (longMode) {
+            return longPresent[slot] ? BigDecimal.valueOf(longPrevious[slot]) : BigDecimal.ZERO;
+        }
+        return currentValues[slot] != null ? previousValues[slot] : BigDecimal.ZERO;
     }
 
     public BigDecimal getOriginalValue(CalculationFlow flow, ReserveField field) {
-        ReserveCalcStep step = getStep(flow, field);
-        return (step != null) ? step.getOriginalValue() : BigDecimal.ZERO;
+        int slot = slot(flow, field);
+        if (longMode) {
+            return longPresent[slot] ? BigDecimal.valueOf(longOriginal[slot]) : BigDecimal.ZERO;
+        }
+        return currentValues[slot] != null ? originalValues[slot] : BigDecimal.ZERO;
+    }
+
+    // Reading a field nothing has set is not an error; only verbose records say so
+    private BigDecimal missingValue(CalculationFlow flow, ReserveField field) {
+        if (verbose) {
+            logger.info("      No value found! {} {} Returning 0", flow, field);
+        }
+        return BigDecimal.ZERO;
+    }
+
+    public String getStringValue(CalculationFlow flow, ReserveField field) {
+        return stringValues.get(flow).getOrDefault(field, "");
+    }
+
+    public void putStringValue(CalculationFlow flow, ReserveField field, String value) {
+        stringValues.get(flow).put(field, value);
+    }
+
+    /**
+     * Live view of one flow's current values for DecimalFormula steps; each
+     * {@code get} is a single slot read.
+     */
+    public DecimalFormula.Inputs getDecimalInputs(CalculationFlow flow) {
+        return decimalInputViews[flow.ordinal()];
+    }
+
+    /**
+     * Same as getDecimalInputs but reading previous values, for steps that
+     * look one update back.
+     */
+    public DecimalFormula.Inputs getPreviousInputs(CalculationFlow flow) {
+        return previousInputViews[flow.ordinal()];
     }
 
     // === Backward Compatibility Methods ===
@@ -141,19 +423,25 @@ public class ReserveCalcContext {
     // Get all values for backward compatibility - returns OMS flow as BigDecimal map
     public Map<ReserveField, BigDecimal> getAll() {
         Map<ReserveField, BigDecimal> result = new HashMap<>();
-        Map<ReserveField, ReserveCalcStep> omsFlow = fieldValues.get(CalculationFlow.OMS);
+        Map<ReserveField, FieldValue> omsFlow = getAll(CalculationFlow.OMS);
         if (omsFlow != null) {
-            for (Map.Entry<ReserveField, ReserveCalcStep> entry : omsFlow.entrySet()) {
+            for (Map.Entry<ReserveField, FieldValue> entry : omsFlow.entrySet()) {
                 result.put(entry.getKey(), entry.getValue().getCurrentValue());
             }
         }
         return result;
     }
 
-    // Get all steps for a specific flow
-    public Map<ReserveField, ReserveCalcStep> getAll(CalculationFlow flow) {
-        Map<ReserveField, ReserveCalcStep> flowMap = fieldValues.get(flow);
-        return (flowMap != null) ? Collections.unmodifiableMap(flowMap) : Collections.emptyMap();
+    // Get all field values for a specific flow
+    public Map<ReserveField, FieldValue> getAll(CalculationFlow flow) {
+        Map<ReserveField, FieldValue> result = new EnumMap<>(ReserveField.class);
+        for (ReserveField field : ReserveField.values()) {
+            FieldValue value = getFieldValue(flow, field);
+            if (value != null) {
+                result.put(field, value);
+            }
+        }
+        return Collections.unmodifiableMap(result);
     }
 
     // === Update Methods ===
@@ -161,24 +449,178 @@ public class ReserveCalcContext {
     public void updateStepValue(CalculationFlow flow, ReserveField field, BigDecimal newValue) {
         // logger.info("    updateStepValue(" + flow + ", " + field + ", " + newValue + ")");
 
-        ReserveCalcStep step = getStep(flow, field);
-        if (step != null) {
+        if (!verbose) {
+            return;
+        }
+        BigDecimal currentValue = currentValues[slot(flow, field)];
+        if (currentValue != null) {
             // Just verify the value matches
-            if (!step.getCurrentValue().equals(newValue)) {
-                logger.info("      WARNING: Step current value " + step.getCurrentValue() + " doesn't match new value " + newValue);
+            if (!currentValue.equals(newValue)) {
+                logger.info("      WARNING: Step current value {} doesn't match new value {}", currentValue, newValue);
             }
+        } else {
+            logger.error("      WARNING: No step found to update! Flow: {}, Field: {}", flow, field);
+        }
+    }
 
-            // Track history for OMS flow
-            if (flow == CalculationFlow.OMS) {
-                runningTotalHistory.computeIfAbsent(field, k -> new ArrayList<>()).add(newValue);
+    /**
+     * Record a newly computed value for a field, shifting current into previous
+     * and remembering the first non-zero value as the original.
+     */
+    public void trackValue(CalculationFlow flow, ReserveField field, BigDecimal newValue) {
+        int slot = slot(flow, field);
+        if (currentValues[slot] == null) {
+            resetValue(flow, field, BigDecimal.ZERO);
+        }
+        if (originalValues[slot].equals(BigDecimal.ZERO) && !newValue.equals(BigDecimal.ZERO)) {
+            originalValues[slot] = newValue;
+        }
+        previousValues[slot] = currentValues[slot];
+        currentValues[slot] = newValue;
+    }
+
+    /**
+     * Start a field over, as if its step had just been placed into the flow.
+     */
+    public void resetValue(CalculationFlow flow, ReserveField field, BigDecimal startingValue) {
+        int slot = slot(flow, field);
+        originalValues[slot] = startingValue;
+        previousValues[slot] = BigDecimal.ZERO;
+        currentValues[slot] = startingValue;
+    }
+
+    // === Long Kernel Methods ===
+
+    /**
+     * Switch this context to the long kernel for the current wrapper. Returns
+     * false, leaving the context untouched, when any input is not a whole
+     * number that fits in a long; such records stay on the BigDecimal path.
+     */
+    boolean startLongCalculation() {
+        if (initialValueWrapper == null || !initialValueWrapper.hasOnlyWholeNumbers()) {
+            return false;
+        }
+        clearLongValues();
+        BigDecimal[] values = initialValueWrapper.valueArray();
+        for (int field = 0; field < values.length; field++) {
+            if (values[field] == null) {
+                continue;
             }
-        } else {
-            logger.error("      WARNING: No step found to update! Flow: " + flow + ", Field: " + field);
+            long value = values[field].longValue();
+            longInputs[field] = value;
+            for (int i = 0; i < calculatedFlows.size(); i++) {
+                trackLongValue(calculatedFlows.get(i), FIELDS[field], value);
+            }
+        }
+        longMode = true;
+        return true;
+    }
+
+    /**
+     * Drop everything the long kernel wrote so the record can be recalculated
+     * on the BigDecimal path. The wrapper is kept.
+     */
+    void abortLongCalculation() {
+        clearLongValues();
+        for (CalculationFlow flow : CalculationFlow.values()) {
+            stringValues.get(flow).clear();
+            initializedRunningFields.get(flow).clear();
+        }
+    }
+
+    public boolean isLongMode() {
+        return longMode;
+    }
+
+    long getLongInput(ReserveField field) {
+        return longInputs[field.ordinal()];
+    }
+
+    long getLongValue(CalculationFlow flow, ReserveField field) {
+        return longCurrent[slot(flow, field)];
+    }
+
+    LongFormula.Inputs getLongInputs(CalculationFlow flow) {
+        return longInputViews[flow.ordinal()];
+    }
+
+    // Same semantics as trackValue
+    void trackLongValue(CalculationFlow flow, ReserveField field, long newValue) {
+        int slot = slot(flow, field);
+        if (!longPresent[slot]) {
+            resetLongValue(flow, field, 0L);
+        }
+        if (longOriginal[slot] == 0L && newValue != 0L) {
+            longOriginal[slot] = newValue;
+        }
+        longPrevious[slot] = longCurrent[slot];
+        longCurrent[slot] = newValue;
+    }
+
+    // Same semantics as resetValue
+    void resetLongValue(CalculationFlow flow, ReserveField field, long startingValue) {
+        int slot = slot(flow, field);
+        longPresent[slot] = true;
+        longOriginal[slot] = startingValue;
+        longPrevious[slot] = 0L;
+        longCurrent[slot] = startingValue;
+    }
+
+    void clearRunningInitialized(CalculationFlow flow, ReserveField field) {
+        initializedRunningFields.get(flow).remove(field);
+    }
+
+    private void clearLongValues() {
+        if (longMode) {
+            Arrays.fill(longCurrent, 0L);
+            Arrays.fill(longPrevious, 0L);
+            Arrays.fill(longOriginal, 0L);
+            Arrays.fill(longPresent, false);
+            Arrays.fill(longInputs, 0L);
+            longMode = false;
+        }
+    }
+
+    private static int slot(CalculationFlow flow, ReserveField field) {
+        return flow.ordinal() * FIELD_COUNT + field.ordinal();
+    }
+
+    private final class DecimalFlowInputs implements DecimalFormula.Inputs {
+        private final CalculationFlow flow;
+        private final boolean previous;
+
+        DecimalFlowInputs(CalculationFlow flow, boolean previous) {
+            this.flow = flow;
+            this.previous = previous;
+        }
+
+        @Override
+        public BigDecimal get(ReserveField field) {
+            return previous ? getPreviousValue(flow, field) : getCurrentValue(flow, field);
+        }
+
+        @Override
+        public String getString(ReserveField field) {
+            return getStringValue(flow, field);
         }
     }
 
-    public void putStep(CalculationFlow flow, ReserveField field, ReserveCalcStep step) {
-        fieldValues.get(flow).put(field, step);
+    private final class LongFlowInputs implements LongFormula.Inputs {
+        private final CalculationFlow flow;
+
+        LongFlowInputs(CalculationFlow flow) {
+            this.flow = flow;
+        }
+
+        @Override
+        public long get(ReserveField field) {
+            return longCurrent[slot(flow, field)];
+        }
+
+        @Override
+        public String getString(ReserveField field) {
+            return getStringValue(flow, field);
+        }
     }
 
     // === Step Calculation Engine ===
@@ -189,16 +631,9 @@ public class ReserveCalcContext {
         ReserveField fieldName = currentSteps.values().iterator().next().getFieldName();
 // logger.info("\n=== CALCULATING STEP " + stepIndex + ": " + fieldName + " ===");
 
-        Map<CalculationFlow, ReserveCalcStep> snapshotForThisStep = new EnumMap<>(CalculationFlow.class);
-
-
-// FIRST, store all steps in the context so they can be found later!
+// FIRST, give every flow a fresh value for this field
         for (Map.Entry<CalculationFlow, ReserveCalcStep> entry : currentSteps.entrySet()) {
-            CalculationFlow flow = entry.getKey();
-            ReserveCalcStep step = entry.getValue();
-
-// Store the step in fieldValues so updateStepValue can find it
-            putStep(flow, fieldName, step);
+            resetValue(entry.getKey(), fieldName, BigDecimal.ZERO);
         }
 
 // Process each flow's step
@@ -207,36 +642,30 @@ public class ReserveCalcContext {
             ReserveCalcStep step = entry.getValue();
 
 // logger.info("\n[" + flow + "] Processing " + step.getClass().getSimpleName() + " for " + fieldName);
-// logger.info("  Current value before calc: " + step.getCurrentValue());
 
             try {
-                BigDecimal value = step.calculateValue(this);
+                BigDecimal value = calculateTimed(step);
 // logger.info("  Calculated value: {}", value);
 
 // NOW update the tracking
-                step.updateTracking(value);
-// logger.info("  Updated tracking - current: {}, prev: {}", step.getCurrentValue(), step.getPreviousValue());
+                trackValue(flow, step.getFieldName(), value);
 
 // Store in context
                 updateStepValue(flow, step.getFieldName(), value);
-// logger.info("  Stored in context for " + flow + "." + fieldName + " = " + value);
+                record(stepIndex, flow, step.getFieldName(), ReserveCalcTrace.Kind.STEP);
 
-                snapshotForThisStep.put(flow, step.copy());
- 
 // Trigger running calculations for this flow
-                triggerRunningCalculations(flow, step.getFieldName(), stepIndex > 0);
+                triggerRunningCalculations(stepIndex, flow, step.getFieldName(), stepIndex > 0);
 
             } catch (Exception e) {
-                logger.error("  ERROR executing step: " + e.getMessage());
-                e.printStackTrace();
-                updateStepValue(flow, step.getFieldName(), BigDecimal.ZERO);
+                logger.error("Error calculating {} in flow {}", step.getFieldName(), flow, e);
+                trackValue(flow, step.getFieldName(), BigDecimal.ZERO);
             }
         }
 
-// Store in resultSets for tracking
-        resultSets.put(fieldName, new EnumMap<>(snapshotForThisStep));
-// logger.info("\nStored resultSet for " + fieldName);
-        showResultSetsPropagation();
+        if (verbose) {
+            showResultSetsPropagation();
+        }
 // Handle context condition step if present
         if (contextConditionStep != null) {
 // logger.info("\nProcessing context condition step...");
@@ -245,79 +674,186 @@ public class ReserveCalcContext {
 // logger.info("  Context condition result: " + finalValue);
                 for (CalculationFlow flow : CalculationFlow.values()) {
                     updateStepValue(flow, contextConditionStep.getFieldName(), finalValue);
+                    record(stepIndex, flow, contextConditionStep.getFieldName(), ReserveCalcTrace.Kind.CONDITION);
                 }
             } catch (Exception e) {
                 logger.error("  ERROR in context condition: " + e.getMessage());
             }
         }
 
-// Process dynamic steps
-// logger.info("\nProcessing " + dynamicSteps.size() + " dynamic steps...");
-        for (ReserveCalcStep dynamicStep : dynamicSteps) {
-            if (!(dynamicStep instanceof Steps.RunningCalculationStep)) {
-// logger.info("  Dynamic step: " + dynamicStep.getFieldName());
-                try {
-                    for (CalculationFlow flow : CalculationFlow.values()) {
-                        ReserveCalcStep flowStep = dynamicStep.copy();
-                        flowStep.setFlow(flow);
+// Process dynamic steps, each flow's bound copy in turn
+        int dynamicStepCount = getDynamicSteps(CalculationFlow.OMS).size();
+        for (int i = 0; i < dynamicStepCount; i++) {
+            ReserveField dynamicField = null;
+            try {
+                for (CalculationFlow flow : CalculationFlow.values()) {
+                    ReserveCalcStep flowStep = dynamicSteps.get(flow).get(i);
+                    dynamicField = flowStep.getFieldName();
 
-                        // FIX: Register the step first so updateStepValue can find it
-                        putStep(flow, flowStep.getFieldName(), flowStep);
+                    // FIX: Reset the value first so updateStepValue can find it
+                    resetValue(flow, dynamicField, BigDecimal.ZERO);
 
-                        BigDecimal dynamicValue = flowStep.calculateValue(this);
-                        updateStepValue(flow, flowStep.getFieldName(), dynamicValue);
-                        // logger.info("    " + flow + "." + flowStep.getFieldName() + " = " + dynamicValue);
+                    BigDecimal dynamicValue = flowStep.calculateValue(this);
+                    trackValue(flow, dynamicField, dynamicValue);
+                    updateStepValue(flow, dynamicField, dynamicValue);
+                    record(stepIndex, flow, dynamicField, ReserveCalcTrace.Kind.DYNAMIC);
 
-                        if (flow == CalculationFlow.OMS) {
-                            dynamicValues.put(flowStep.getFieldName(), dynamicValue);
-                        }
+                    if (flow == CalculationFlow.OMS) {
+                        dynamicValues.put(dynamicField, dynamicValue);
                     }
+                }
+            } catch (Exception e) {
+                logger.error("  ERROR in dynamic step " + dynamicField + ": " + e.getMessage());
+            }
+        }
+// logger.info("\n=== END STEP " + stepIndex + " ===\n");
+    }
+
+    /**
+     * Run every step of one flow in order. Used instead of calculateSteps when
+     * the plan's flows never read each other's values; touches only this
+     * flow's slots, so different lanes may run on different threads.
+     */
+    void calculateLane(CalculationFlow flow, List<ReserveCalcStep> steps) {
+        for (int stepIndex = 0; stepIndex < steps.size(); stepIndex++) {
+            ReserveCalcStep step = steps.get(stepIndex);
+            ReserveField fieldName = step.getFieldName();
+            resetValue(flow, fieldName, BigDecimal.ZERO);
+
+            try {
+                trackValue(flow, fieldName, calculateTimed(step));
+                record(stepIndex, flow, fieldName, ReserveCalcTrace.Kind.STEP);
+                triggerRunningCalculations(stepIndex, flow, fieldName, stepIndex > 0);
+            } catch (Exception e) {
+                logger.error("Error calculating {} in flow {}", fieldName, flow, e);
+                trackValue(flow, fieldName, BigDecimal.ZERO);
+            }
+
+            if (verbose) {
+                showResultSetsPropagation();
+            }
+        }
+    }
+
+    /**
+     * Bring one flow lane of a calculated record up to date after its inputs
+     * were re-seeded: recalculate the steps whose field is in {@code dirty},
+     * and replay the running totals in {@code dirty} from their starting value
+     * through every trigger in step order. Everything else keeps the value
+     * the previous calculation left. Untraced BigDecimal contexts only.
+     */
+    void recalculateLane(ReservePlan plan, CalculationFlow flow, Set<ReserveField> dirty) {
+        List<ReserveCalcStep> steps = plan.getSteps(flow);
+        for (Steps.RunningCalculationStep runningStep : plan.getRunningSteps(flow)) {
+            if (dirty.contains(runningStep.getFieldName())) {
+                resetValue(flow, runningStep.getFieldName(), runningStep.getStartingValue());
+                initializedRunningFields.get(flow).remove(runningStep.getFieldName());
+            }
+        }
+
+        for (int stepIndex = 0; stepIndex < steps.size(); stepIndex++) {
+            ReserveCalcStep step = steps.get(stepIndex);
+            ReserveField fieldName = step.getFieldName();
+            if (dirty.contains(fieldName)) {
+                resetValue(flow, fieldName, BigDecimal.ZERO);
+                try {
+                    trackValue(flow, fieldName, calculateTimed(step));
                 } catch (Exception e) {
-                    logger.error("  ERROR in dynamic step " + dynamicStep.getFieldName() + ": " + e.getMessage());
+                    logger.error("Error calculating {} in flow {}", fieldName, flow, e);
+                    trackValue(flow, fieldName, BigDecimal.ZERO);
+                }
+            }
+            for (Steps.RunningCalculationStep runningStep : plan.getTriggeredRunningSteps(flow, stepIndex)) {
+                if (dirty.contains(runningStep.getFieldName())) {
+                    try {
+                        calculateRunningTimed(runningStep, fieldName);
+                    } catch (Exception e) {
+                        logger.error("Error in running calculation {} for flow {}", runningStep.getFieldName(), flow,
+                                e);
+                    }
                 }
             }
         }
+    }
 
-        stepSnapshots.put(stepIndex, snapshotForThisStep);
-// logger.info("\n=== END STEP " + stepIndex + " ===\n");
+    private BigDecimal calculateTimed(ReserveCalcStep step) {
+        ReserveStepMetrics timer = getStepTimer();
+        if (timer == null) {
+            return step.calculateValue(this);
+        }
+        long start = System.nanoTime();
+        BigDecimal value = step.calculateValue(this);
+        timer.recordStep(step.getFieldName(), System.nanoTime() - start);
+        return value;
     }
 
-    public void showResultSetsPropagation() {
-        // Get the last outer entry
-        Map.Entry<ReserveField, Map<CalculationFlow, ReserveCalcStep>> lastEntry = null;
-        for (Map.Entry<ReserveField, Map<CalculationFlow, ReserveCalcStep>> entry : resultSets.entrySet()) {
-            lastEntry = entry;
+    private BigDecimal calculateRunningTimed(Steps.RunningCalculationStep runningStep, ReserveField triggeredField) {
+        ReserveStepMetrics timer = getStepTimer();
+        if (timer == null) {
+            return runningStep.calculateValue(this, triggeredField);
+        }
+        long start = System.nanoTime();
+        BigDecimal value = runningStep.calculateValue(this, triggeredField);
+        timer.recordRunning(runningStep.getFieldName(), triggeredField, System.nanoTime() - start);
+        return value;
+    }
+
+    private void record(int stepIndex, CalculationFlow flow, ReserveField field, ReserveCalcTrace.Kind kind) {
+        if (trace != null) {
+            int slot = slot(flow, field);
+            trace.record(stepIndex, flow, field, kind, currentValues[slot], previousValues[slot], originalValues[slot]);
         }
+    }
 
-        if (lastEntry != null) {
-            ReserveField field = lastEntry.getKey();
-            for (Map.Entry<CalculationFlow, ReserveCalcStep> flowEntry : lastEntry.getValue().entrySet()) {
-                CalculationFlow flow = flowEntry.getKey();
-                ReserveCalcStep step = flowEntry.getValue();
+    /**
+     * Log every flow's value of the most recently calculated step. Needs the
+     * trace, so does nothing when tracing is off.
+     */
+    public void showResultSetsPropagation() {
+        if (trace == null) {
+            return;
+        }
+        int lastStepRow = trace.size() - 1;
+        while (lastStepRow >= 0 && trace.getKind(lastStepRow) != ReserveCalcTrace.Kind.STEP) {
+            lastStepRow--;
+        }
+        if (lastStepRow < 0) {
+            return;
+        }
+        int stepIndex = trace.getStepIndex(lastStepRow);
+        int firstStepRow = lastStepRow;
+        while (firstStepRow > 0 && trace.getStepIndex(firstStepRow - 1) == stepIndex) {
+            firstStepRow--;
+        }
+        for (int row = firstStepRow; row <= lastStepRow; row++) {
+            if (trace.getKind(row) == ReserveCalcTrace.Kind.STEP) {
+                FieldValue value = trace.getValue(row);
                 logger.info("{} -> {} -> {}, {}, {}",
-                        field,
-                        flow,
-                        step.getCurrentValue(),
-                        step.getPreviousValue(),
-                        step.getOriginalValue());
+                        trace.getField(row),
+                        trace.getFlow(row),
+                        value.getCurrentValue(),
+                        value.getPreviousValue(),
+                        value.getOriginalValue());
             }
         }
     }
 
 
-    private void triggerRunningCalculations(CalculationFlow flow, ReserveField triggeredField,
+    private void triggerRunningCalculations(int stepIndex, CalculationFlow flow, ReserveField triggeredField,
                                             boolean afterInitStep) {
         List<Steps.RunningCalculationStep> flowRunningSteps = runningSteps.get(flow);
 
         for (Steps.RunningCalculationStep runningStep : flowRunningSteps) {
             if (runningStep.shouldTrigger(triggeredField, afterInitStep)) {
                 try {
-                    BigDecimal newValue = runningStep.calculateValue(this, triggeredField);
+                    BigDecimal newValue = calculateRunningTimed(runningStep, triggeredField);
                     updateStepValue(flow, runningStep.getFieldName(), newValue);
+                    record(stepIndex, flow, runningStep.getFieldName(), ReserveCalcTrace.Kind.RUNNING);
 
-                    logger.info(String.format(
-                            "Running calculation triggered for %s in flow %s: triggered by %s, new value = %s",
-                            runningStep.getFieldName(), flow, triggeredField, newValue));
+                    if (verbose) {
+                        logger.info("Running calculation triggered for {} in flow {}: triggered by {}, new value = {}",
+                                runningStep.getFieldName(), flow, triggeredField, newValue);
+                    }
 
                 } catch (Exception e) {
                     logger.error("Error in running calculation '" + runningStep.getFieldName() +
@@ -328,13 +864,15 @@ public class ReserveCalcContext {
     }
 
     // === Getter Methods for Logger Compatibility ===
+    // Snapshots, result sets and history are rebuilt from the trace and are
+    // empty when tracing is off.
 
-    public Map<Integer, Map<CalculationFlow, ReserveCalcStep>> getStepSnapshots() {
-        return stepSnapshots;
+    public Map<Integer, Map<CalculationFlow, FieldValue>> getStepSnapshots() {
+        return trace != null ? trace.getStepSnapshots() : Map.of();
     }
 
     public Map<ReserveField, List<BigDecimal>> getRunningTotalHistory() {
-        return runningTotalHistory;
+        return trace != null ? trace.getHistory(CalculationFlow.OMS) : Map.of();
     }
 
     public Map<ReserveField, BigDecimal> getDynamicValues() {
@@ -352,13 +890,40 @@ public class ReserveCalcContext {
     public Map<CalculationFlow, Map<ReserveField, List<BigDecimal>>> getFullRunningTotalHistory() {
         Map<CalculationFlow, Map<ReserveField, List<BigDecimal>>> result = new EnumMap<>(CalculationFlow.class);
         // Only OMS flow has history in current implementation
-        result.put(CalculationFlow.OMS, new HashMap<>(runningTotalHistory));
+        result.put(CalculationFlow.OMS, getRunningTotalHistory());
         return result;
     }
 
-    public Map<ReserveField, Map<CalculationFlow, ReserveCalcStep>> getResultSets() {
-        return Collections.unmodifiableMap(resultSets);
+    public Map<ReserveField, Map<CalculationFlow, FieldValue>> getResultSets() {
+        return trace != null ? Collections.unmodifiableMap(trace.getResultSets()) : Map.of();
     }
 
+    /**
+     * Per-SKULOC value of one field in one flow, as read from the context's
+     * slots at the time of the call. Later updates do not change it.
+     */
+    public static final class FieldValue {
+        private final BigDecimal originalValue;
+        private final BigDecimal previousValue;
+        private final BigDecimal currentValue;
+
+        FieldValue(BigDecimal originalValue, BigDecimal previousValue, BigDecimal currentValue) {
+            this.originalValue = originalValue;
+            this.previousValue = previousValue;
+            this.currentValue = currentValue;
+        }
+
+        public BigDecimal getOriginalValue() {
+            return originalValue;
+        }
+
+        public BigDecimal getPreviousValue() {
+            return previousValue;
+        }
+
+        public BigDecimal getCurrentValue() {
+            return currentValue;
+        }
+    }
 
 }
\ No newline at end of file
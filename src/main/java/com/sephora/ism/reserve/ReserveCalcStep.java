@@ -9,6 +9,11 @@ import java.util.function.Function;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * A single step of a reserve calculation plan. Steps are immutable once the
+ * plan is compiled and hold no per-SKULOC values; those live in
+ * {@link ReserveCalcContext}, so one plan can serve many calculations.
+ */
 public abstract class ReserveCalcStep<T> {
 
     protected static final Logger logger = LoggerFactory.getLogger(ReserveCalcStep.class);
@@ -17,14 +22,17 @@ public abstract class ReserveCalcStep<T> {
     protected final List<ReserveField> dependencyFields;
     protected CalculationFlow flow;
 
-    protected BigDecimal originalValue;
-    protected BigDecimal previousValue;
-    protected BigDecimal currentValue;
-
     protected final Function<ReserveCalcContext, Boolean> preCondition;
     protected final BiFunction<ReserveCalcContext, BigDecimal, Boolean> postCondition;
     protected final Function<ReserveCalcContext, ReserveCalcContext> preProcessing;
     protected final BiFunction<ReserveCalcContext, BigDecimal, BigDecimal> postProcessing;
+    protected final boolean customHooks;
+
+    // Shared defaults, so copies that pass them back in still count as hook-free
+    private static final Function<ReserveCalcContext, Boolean> NO_PRE_CONDITION = ctx -> true;
+    private static final BiFunction<ReserveCalcContext, BigDecimal, Boolean> NO_POST_CONDITION = (ctx, result) -> true;
+    private static final Function<ReserveCalcContext, ReserveCalcContext> NO_PRE_PROCESSING = ctx -> ctx;
+    private static final BiFunction<ReserveCalcContext, BigDecimal, BigDecimal> NO_POST_PROCESSING = (ctx, result) -> result;
 
     protected ReserveCalcStep(
             ReserveField fieldName,
@@ -36,21 +44,21 @@ public abstract class ReserveCalcStep<T> {
     ) {
         this.fieldName = fieldName;
         this.dependencyFields = dependencyFields;
-        this.preCondition = preCondition != null ? preCondition : ctx -> true;
-        this.postCondition = postCondition != null ? postCondition : (ctx, result) -> true;
-        this.preProcessing = preProcessing != null ? preProcessing : ctx -> ctx;
-        this.postProcessing = postProcessing != null ? postProcessing : (ctx, result) -> result;
-
-        // Initialize tracking values to prevent NPE
-        this.originalValue = BigDecimal.ZERO;
-        this.previousValue = BigDecimal.ZERO;
-        this.currentValue = BigDecimal.ZERO;
+        this.preCondition = preCondition != null ? preCondition : NO_PRE_CONDITION;
+        this.postCondition = postCondition != null ? postCondition : NO_POST_CONDITION;
+        this.preProcessing = preProcessing != null ? preProcessing : NO_PRE_PROCESSING;
+        this.postProcessing = postProcessing != null ? postProcessing : NO_POST_PROCESSING;
+        this.customHooks = this.preCondition != NO_PRE_CONDITION || this.postCondition != NO_POST_CONDITION
+                || this.preProcessing != NO_PRE_PROCESSING || this.postProcessing != NO_POST_PROCESSING;
     }
 
     public BigDecimal calculateValue(ReserveCalcContext context) {
         if (!preCondition.apply(context)) {
 //            logger.info("  [" + fieldName + "] PreCondition failed, returning current: " + currentValue);
-            return currentValue;
+            if (context.getStepMetrics() != null) {
+                context.getStepMetrics().preConditionFailed(fieldName);
+            }
+            return context.getCurrentValue(flow, fieldName);
         }
 
         ReserveCalcContext processedContext = preProcessing.apply(context);
@@ -67,7 +75,10 @@ public abstract class ReserveCalcStep<T> {
             return processedResult;
         } else {
 //            logger.info("  [" + fieldName + "] PostCondition failed, returning current: " + currentValue);
-            return currentValue;
+            if (context.getStepMetrics() != null) {
+                context.getStepMetrics().postConditionFailed(fieldName);
+            }
+            return context.getCurrentValue(flow, fieldName);
         }
     }
 
@@ -82,32 +93,41 @@ public abstract class ReserveCalcStep<T> {
         return sum;
     }
 
-    public void updateTracking(BigDecimal newValue) {
-        if (originalValue.equals(BigDecimal.ZERO) && !newValue.equals(BigDecimal.ZERO)) {
-            originalValue = newValue;
-        }
-        previousValue = currentValue;
-        currentValue = newValue;
+    /**
+     * Whether this step can run on the long kernel. Steps with custom pre/post
+     * hooks only have BigDecimal semantics and keep the record on that path.
+     */
+    public boolean supportsLong() {
+        return false;
     }
 
-    public ReserveField getFieldName() {
-        return fieldName;
+    public long calculateLongValue(ReserveCalcContext context) {
+        throw new UnsupportedOperationException("Step " + fieldName + " has no long implementation");
     }
 
-    public List<ReserveField> getDependencyFields() {
-        return dependencyFields;
+    /**
+     * Whether this step can run on the columnar kernel, which calculates one
+     * step for a block of records before moving on to the next step.
+     */
+    public boolean supportsColumns() {
+        return false;
     }
 
-    public BigDecimal getOriginalValue() {
-        return originalValue;
+    /**
+     * Calculate this step for every row of the lane's block into the lane's
+     * column for the step's field. Rows whose formula overflows are marked on
+     * the lane and recalculated on the BigDecimal path afterwards.
+     */
+    public void calculateLongColumn(ReserveColumnLane lane) {
+        throw new UnsupportedOperationException("Step " + fieldName + " has no columnar implementation");
     }
 
-    public BigDecimal getPreviousValue() {
-        return previousValue;
+    public ReserveField getFieldName() {
+        return fieldName;
     }
 
-    public BigDecimal getCurrentValue() {
-        return currentValue;
+    public List<ReserveField> getDependencyFields() {
+        return dependencyFields;
     }
 
     public void setFlow(CalculationFlow flow) {
@@ -0,0 +1,166 @@
+package com.sephora.ism.reserve;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Columnar record of every value update in a traced calculation. Each row is
+ * one update (step index, flow, field, kind and the field's current, previous
+ * and original value afterwards) stored across parallel arrays, so tracing
+ * costs a few array writes per update rather than a map and object per step.
+ * <p>
+ * Only contexts with tracing enabled keep one; see
+ * {@link ReserveCalcContext#setTraceEnabled(boolean)}. The map views below
+ * rebuild the shapes the debug logger and older callers expect.
+ */
+public final class ReserveCalcTrace {
+
+	public enum Kind {
+		STEP, // a flow step produced the value
+		RUNNING, // a running step was triggered
+		CONDITION, // a context condition step overrode the value
+		DYNAMIC // a dynamic step was recalculated
+	}
+
+	private static final CalculationFlow[] FLOWS = CalculationFlow.values();
+	private static final ReserveField[] FIELDS = ReserveField.values();
+	private static final Kind[] KINDS = Kind.values();
+	private static final int INITIAL_CAPACITY = 256;
+
+	private int size;
+	private int[] stepIndexes = new int[INITIAL_CAPACITY];
+	private byte[] flows = new byte[INITIAL_CAPACITY];
+	private short[] fields = new short[INITIAL_CAPACITY];
+	private byte[] kinds = new byte[INITIAL_CAPACITY];
+	private BigDecimal[] currentValues = new BigDecimal[INITIAL_CAPACITY];
+	private BigDecimal[] previousValues = new BigDecimal[INITIAL_CAPACITY];
+	private BigDecimal[] originalValues = new BigDecimal[INITIAL_CAPACITY];
+
+	void record(int stepIndex, CalculationFlow flow, ReserveField field, Kind kind, BigDecimal currentValue,
+			BigDecimal previousValue, BigDecimal originalValue) {
+		if (size == stepIndexes.length) {
+			grow();
+		}
+		stepIndexes[size] = stepIndex;
+		flows[size] = (byte) flow.ordinal();
+		fields[size] = (short) field.ordinal();
+		kinds[size] = (byte) kind.ordinal();
+		currentValues[size] = currentValue;
+		previousValues[size] = previousValue;
+		originalValues[size] = originalValue;
+		size++;
+	}
+
+	void clear() {
+		Arrays.fill(currentValues, 0, size, null);
+		Arrays.fill(previousValues, 0, size, null);
+		Arrays.fill(originalValues, 0, size, null);
+		size = 0;
+	}
+
+	private void grow() {
+		int capacity = stepIndexes.length * 2;
+		stepIndexes = Arrays.copyOf(stepIndexes, capacity);
+		flows = Arrays.copyOf(flows, capacity);
+		fields = Arrays.copyOf(fields, capacity);
+		kinds = Arrays.copyOf(kinds, capacity);
+		currentValues = Arrays.copyOf(currentValues, capacity);
+		previousValues = Arrays.copyOf(previousValues, capacity);
+		originalValues = Arrays.copyOf(originalValues, capacity);
+	}
+
+	// === Row Access ===
+
+	public int size() {
+		return size;
+	}
+
+	public int getStepIndex(int row) {
+		return stepIndexes[checkRow(row)];
+	}
+
+	public CalculationFlow getFlow(int row) {
+		return FLOWS[flows[checkRow(row)]];
+	}
+
+	public ReserveField getField(int row) {
+		return FIELDS[fields[checkRow(row)]];
+	}
+
+	public Kind getKind(int row) {
+		return KINDS[kinds[checkRow(row)]];
+	}
+
+	public ReserveCalcContext.FieldValue getValue(int row) {
+		checkRow(row);
+		return new ReserveCalcContext.FieldValue(originalValues[row], previousValues[row], currentValues[row]);
+	}
+
+	private int checkRow(int row) {
+		if (row < 0 || row >= size) {
+			throw new IndexOutOfBoundsException("Trace row " + row + " out of " + size);
+		}
+		return row;
+	}
+
+	// === Derived Views ===
+
+	/**
+	 * Value of each step's field per flow, keyed by step index.
+	 */
+	public Map<Integer, Map<CalculationFlow, ReserveCalcContext.FieldValue>> getStepSnapshots() {
+		Map<Integer, Map<CalculationFlow, ReserveCalcContext.FieldValue>> snapshots = new TreeMap<>();
+		for (int row = 0; row < size; row++) {
+			if (kinds[row] == Kind.STEP.ordinal()) {
+				snapshots.computeIfAbsent(stepIndexes[row], k -> new EnumMap<>(CalculationFlow.class))
+						.put(getFlow(row), getValue(row));
+			}
+		}
+		return snapshots;
+	}
+
+	/**
+	 * Value of each field per flow from the last step that calculated it, in
+	 * the order the fields were first calculated. Rows may be interleaved by
+	 * step or grouped by flow lane; both give the same result.
+	 */
+	public Map<ReserveField, Map<CalculationFlow, ReserveCalcContext.FieldValue>> getResultSets() {
+		Map<ReserveField, Integer> lastSteps = new LinkedHashMap<>();
+		for (int row = 0; row < size; row++) {
+			if (kinds[row] == Kind.STEP.ordinal()) {
+				lastSteps.merge(getField(row), stepIndexes[row], Math::max);
+			}
+		}
+
+		Map<ReserveField, Map<CalculationFlow, ReserveCalcContext.FieldValue>> resultSets = new LinkedHashMap<>();
+		for (ReserveField field : lastSteps.keySet()) {
+			resultSets.put(field, new EnumMap<>(CalculationFlow.class));
+		}
+		for (int row = 0; row < size; row++) {
+			ReserveField field = getField(row);
+			if (kinds[row] == Kind.STEP.ordinal() && stepIndexes[row] == lastSteps.get(field)) {
+				resultSets.get(field).put(getFlow(row), getValue(row));
+			}
+		}
+		return resultSets;
+	}
+
+	/**
+	 * Every value written to each field of one flow, in order.
+	 */
+	public Map<ReserveField, List<BigDecimal>> getHistory(CalculationFlow flow) {
+		Map<ReserveField, List<BigDecimal>> history = new EnumMap<>(ReserveField.class);
+		for (int row = 0; row < size; row++) {
+			if (flows[row] == flow.ordinal()) {
+				history.computeIfAbsent(getField(row), k -> new ArrayList<>()).add(currentValues[row]);
+			}
+		}
+		return history;
+	}
+}
@@ -0,0 +1,47 @@
+package com.sephora.ism.reserve;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.fasterxml.jackson.databind.Module;
+
+/**
+ * Builds the reserve calculation plan once at startup and exposes a shared
+ * engine on top of it, along with the JSON bindings for its inputs and
+ * results.
+ */
+@Configuration
+public class ReserveCalculationConfiguration {
+
+	@Bean
+	public ReservePlan reservePlan() {
+		return ReservePlan.standard();
+	}
+
+	@Bean
+	public ReserveCalculationEngine reserveCalculationEngine(ReservePlan reservePlan,
+			@Value("${reserve.calculation.numeric-mode:LONG}") NumericMode numericMode,
+			@Value("${reserve.calculation.log-mode:PERFORMANCE}") LogMode logMode,
+			@Value("${reserve.calculation.verbose-sample-rate:0.0}") double verboseSampleRate,
+			@Value("${reserve.cache.max-entries:0}") long cacheMaxEntries,
+			@Value("${reserve.calculation.column-kernel:VECTOR}") ColumnKernelMode columnKernelMode,
+			@Value("${reserve.metrics.steps.enabled:false}") boolean stepMetricsEnabled,
+			@Value("${reserve.metrics.steps.sample-rate:0.01}") double stepMetricsSampleRate,
+			MeterRegistry meterRegistry) {
+		ReserveResultCache resultCache = cacheMaxEntries > 0 ? new ReserveResultCache(cacheMaxEntries) : null;
+		ReserveStepMetrics stepMetrics = stepMetricsEnabled
+				? new ReserveStepMetrics(meterRegistry, stepMetricsSampleRate)
+				: null;
+		return new ReserveCalculationEngine(reservePlan, numericMode, logMode, verboseSampleRate, resultCache,
+				columnKernelMode, stepMetrics);
+	}
+
+	// Spring Boot registers Module beans on the application ObjectMapper
+	@Bean
+	public Module reserveJsonModule() {
+		return ReserveJson.module();
+	}
+}
@@ -1,63 +1,219 @@
 package com.sephora.ism.reserve;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
 import java.util.LinkedHashMap;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
 
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import jakarta.servlet.http.HttpServletResponse;
 
 @RestController
 @RequestMapping("/reserve")
 public class ReserveCalculationController {
+
+	// The single-record endpoints return OMS values only
+	private static final Set<CalculationFlow> OMS_ONLY = EnumSet.of(CalculationFlow.OMS);
+
+	private final ReserveCalculationEngine engine;
+	private final ReserveBatchExecutor batchExecutor;
+	private final ReserveStreamProcessor streamProcessor;
+	private final SkulocStateStore stateStore;
+	private final ReserveContextPool contextPool;
+
+	public ReserveCalculationController(ReserveCalculationEngine engine, ReserveBatchExecutor batchExecutor,
+			ReserveStreamProcessor streamProcessor, SkulocStateStore stateStore, ReserveContextPool contextPool) {
+		this.engine = engine;
+		this.batchExecutor = batchExecutor;
+		this.streamProcessor = streamProcessor;
+		this.stateStore = stateStore;
+		this.contextPool = contextPool;
+	}
+
 	@PostMapping("/calculate/pojo")
-	public Map<ReserveField, ReserveCalcStep> calculateFromPojo(@RequestBody Inventory skulocRecord) {
-		ReserveCalculationEngine engine = new ReserveCalculationEngine();
-		ReserveCalculationEngine.setupReserveCalculationSteps(engine);
-		ReserveCalcContext context = new ReserveCalcContext();
+	public Map<ReserveField, ReserveCalcContext.FieldValue> calculateFromPojo(@RequestBody Inventory skulocRecord,
+			@RequestParam(required = false) LogMode logMode) {
+		ReserveCalcContext context = contextPool.acquire();
+		try {
+			context.setLogMode(logMode);
 
-		InitialValueWrapper initialValueWrapper = InitialValueWrapper.fromInventory(skulocRecord);
+			InitialValueWrapper initialValueWrapper = InitialValueWrapper.fromInventory(skulocRecord);
 
-		context.setInitialValueWrapper(initialValueWrapper);
+			context.setInitialValueWrapper(initialValueWrapper);
 
-		engine.calculate(context);
-		return context.getAll(CalculationFlow.OMS);
+			engine.calculate(context, OMS_ONLY);
+			return context.getAll(CalculationFlow.OMS);
+		} finally {
+			contextPool.release(context);
+		}
 	}
 
 	@PostMapping("/calculate/map")
-	public Map<String, BigDecimal> calculateFromMap(@RequestBody Map<String, Object> fieldValues) {
-		ReserveCalculationEngine engine = new ReserveCalculationEngine();
-		ReserveCalculationEngine.setupReserveCalculationSteps(engine);
-		ReserveCalcContext context = new ReserveCalcContext();
+	public ReserveResult.FlowOutputs calculateFromMap(@RequestBody InitialValueWrapper initialValueWrapper,
+			@RequestParam(required = false) LogMode logMode,
+			@RequestParam(required = false) List<String> outputs) {
+		ReserveCalcContext context = contextPool.acquire();
+		try {
+			context.setLogMode(logMode);
 
-		InitialValueWrapper initialValueWrapper = InitialValueWrapper.fromMap(fieldValues);
-		context.setInitialValueWrapper(initialValueWrapper);
+			// Bound straight from the JSON body by ReserveJson; repeated profiles come from the result cache
+			ReserveResult result = engine.calculate(initialValueWrapper, context, OMS_ONLY,
+					requestedOutputs(outputs));
 
-		engine.calculate(context);
-		Map<String, BigDecimal> result = new LinkedHashMap<>();
+			// Written as the flat field name -> value object
+			return result.getFlowOutputs(CalculationFlow.OMS);
+		} finally {
+			contextPool.release(context);
+		}
+	}
 
-		// Map the requested field names to their enum values
-		result.put("DOTCOMATS", context.get(ReserveField.DOTATS));
-		result.put("RETAILATS", context.get(ReserveField.RETAILATS));
-		result.put("UNCOMMIT", context.get(ReserveField.UNCOMMIT));
-		result.put("COMMITTED", context.get(ReserveField.COMMITTED));
-		result.put("UNCOMMHR", context.get(ReserveField.UNCOMMHR));
-		result.put("OMSSUP", context.get(ReserveField.OMSSUP));
-		result.put("RETFINAL", context.get(ReserveField.RETFINAL));
-		result.put("OMSFINAL", context.get(ReserveField.OMSFINAL));
+	@PostMapping("/calculate/batch")
+	public List<ReserveResult> calculateBatch(@RequestBody List<Inventory> skulocRecords,
+			@RequestParam(required = false) LogMode logMode,
+			@RequestParam(required = false) Set<CalculationFlow> flows,
+			@RequestParam(required = false) List<String> outputs) {
+		return batchExecutor.calculate(skulocRecords, InitialValueWrapper::fromInventory, logMode,
+				requestedFlows(flows), requestedOutputs(outputs));
+	}
 
-		return result;
+	@PostMapping("/calculate/batch/map")
+	public List<ReserveResult> calculateBatchFromMaps(@RequestBody List<InitialValueWrapper> records,
+			@RequestParam(required = false) LogMode logMode,
+			@RequestParam(required = false) Set<CalculationFlow> flows,
+			@RequestParam(required = false) List<String> outputs) {
+		return batchExecutor.calculate(records, Function.identity(), logMode, requestedFlows(flows),
+				requestedOutputs(outputs));
+	}
+
+	// One record in ReserveBinaryCodec's encoding; the OMS result comes back in it too
+	@PostMapping(value = "/calculate/map", consumes = ReserveBinaryCodec.MEDIA_TYPE,
+			produces = ReserveBinaryCodec.MEDIA_TYPE)
+	public byte[] calculateBinary(@RequestBody byte[] body, @RequestParam(required = false) LogMode logMode,
+			@RequestParam(required = false) List<String> outputs) {
+		List<InitialValueWrapper> records = decodeBinary(body);
+		if (records.size() != 1) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+					"Expected one record, got " + records.size() + "; use /calculate/batch/map for batches");
+		}
+		ReserveCalcContext context = contextPool.acquire();
+		try {
+			context.setLogMode(logMode);
+			ReserveResult result = engine.calculate(records.get(0), context, OMS_ONLY, requestedOutputs(outputs));
+			return ReserveBinaryCodec.encodeResults(List.of(result), OMS_ONLY);
+		} finally {
+			contextPool.release(context);
+		}
+	}
+
+	// A batch in ReserveBinaryCodec's encoding, results in input order in the same encoding
+	@PostMapping(value = "/calculate/batch/map", consumes = ReserveBinaryCodec.MEDIA_TYPE,
+			produces = ReserveBinaryCodec.MEDIA_TYPE)
+	public byte[] calculateBatchBinary(@RequestBody byte[] body, @RequestParam(required = false) LogMode logMode,
+			@RequestParam(required = false) Set<CalculationFlow> flows,
+			@RequestParam(required = false) List<String> outputs) {
+		Set<CalculationFlow> calculatedFlows = requestedFlows(flows);
+		List<ReserveResult> results = batchExecutor.calculate(decodeBinary(body), Function.identity(), logMode,
+				calculatedFlows, requestedOutputs(outputs));
+		return ReserveBinaryCodec.encodeResults(results, calculatedFlows);
+	}
+
+	// Decoded in place from the request bytes; a malformed body is the client's error
+	private static List<InitialValueWrapper> decodeBinary(byte[] body) {
+		try {
+			return ReserveBinaryCodec.decodeRecords(ByteBuffer.wrap(body));
+		} catch (IllegalArgumentException e) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+		}
+	}
+
+	// ?flows=OMS,JEI selects flows; all of them when omitted
+	private static Set<CalculationFlow> requestedFlows(Set<CalculationFlow> flows) {
+		return flows == null || flows.isEmpty() ? EnumSet.allOf(CalculationFlow.class) : flows;
+	}
+
+	// ?outputs=OMSFINAL,DOTCOMATS calculates only what those outputs need; everything when omitted
+	private static Set<ReserveField> requestedOutputs(List<String> outputs) {
+		if (outputs == null || outputs.isEmpty()) {
+			return null;
+		}
+		Set<ReserveField> fields = EnumSet.noneOf(ReserveField.class);
+		for (String output : outputs) {
+			try {
+				fields.add(ReserveResult.outputField(output));
+			} catch (IllegalArgumentException e) {
+				throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+			}
+		}
+		return fields;
+	}
+
+	// Newline-delimited JSON in, one result line per record out
+	@PostMapping(value = "/calculate/stream", consumes = MediaType.APPLICATION_NDJSON_VALUE,
+			produces = MediaType.APPLICATION_NDJSON_VALUE)
+	public void calculateStream(InputStream body, @RequestParam(required = false) Set<CalculationFlow> flows,
+			@RequestParam(required = false) List<String> outputs, HttpServletResponse response) throws IOException {
+		// Resolved before anything is written, so a bad ?outputs= is still a 400
+		Set<ReserveField> requested = requestedOutputs(outputs);
+		response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+		streamProcessor.process(body, response.getOutputStream(), requestedFlows(flows), requested);
+	}
+
+	// Full records with DIV, LOC and SKU; their inputs and results are kept for later updates
+	@PostMapping("/state/calculate")
+	public List<ReserveResult> calculateAndStore(@RequestBody List<Map<String, Object>> records,
+			@RequestParam(required = false) LogMode logMode) {
+		try {
+			return stateStore.calculate(records, logMode);
+		} catch (IllegalArgumentException e) {
+			// A record without DIV, LOC or SKU
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+		}
+	}
+
+	// DIV, LOC and SKU plus only the inputs that changed since the SKULOC was stored
+	@PatchMapping("/state/calculate")
+	public List<ReserveResult> updateStored(@RequestBody List<Map<String, Object>> updates,
+			@RequestParam(required = false) LogMode logMode) {
+		try {
+			return stateStore.update(updates, logMode);
+		} catch (SkulocStateStore.UnknownSkulocException e) {
+			// Never stored or evicted; the client has to POST the full record again
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage(), e);
+		} catch (IllegalArgumentException e) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+		}
+	}
+
+	@GetMapping("/state/{div}/{loc}/{sku}")
+	public ResponseEntity<ReserveResult> getStored(@PathVariable String div, @PathVariable String loc,
+			@PathVariable String sku) {
+		ReserveResult result = stateStore.get(new SkulocStateStore.SkulocKey(div, loc, sku));
+		return result == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(result);
 	}
 
 	@GetMapping("/test")
 	public Map<String, Object> runTest() {
-		ReserveCalculationEngine engine = new ReserveCalculationEngine();
-		ReserveCalculationEngine.setupReserveCalculationSteps(engine);
-
 		ReserveCalcContext context = new ReserveCalcContext();
+		// Diagnostic endpoint: always log every step
+		context.setLogMode(LogMode.VERBOSE);
 
 		Map<String, Object> skulocData = Map.ofEntries(Map.entry(ReserveField.ONHAND.name(), new BigDecimal("626")),
 				Map.entry(ReserveField.ROHM.name(), new BigDecimal("0")),
@@ -176,10 +332,9 @@ public class ReserveCalculationController {
 	// Alternative: Simple version that returns all fields as a flat map
 	@GetMapping("/test/simple")
 	public Map<String, BigDecimal> runTestSimple() {
-		ReserveCalculationEngine engine = new ReserveCalculationEngine();
-		ReserveCalculationEngine.setupReserveCalculationSteps(engine);
-
 		ReserveCalcContext context = new ReserveCalcContext();
+		// Diagnostic endpoint: always log every step
+		context.setLogMode(LogMode.VERBOSE);
 
 //		Map<String, Object> skulocData = Map.ofEntries(Map.entry(ReserveField.ONHAND.name(), new BigDecimal("4593")),
 //				Map.entry(ReserveField.ROHM.name(), new BigDecimal("0")),
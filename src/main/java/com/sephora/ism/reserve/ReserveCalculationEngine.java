@@ -68,26 +68,41 @@ import static com.sephora.ism.reserve.ReserveField.UNCOMMIT;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * ReserveCalculationEngine manages flow setup and calculation execution. -
- * Holds step lists per flow. - Passes control to ReserveCalcContext for step
- * execution and snapshotting.
+ * Holds step lists per flow while the steps are being added. - Compiles them
+ * into an immutable {@link ReservePlan} that can be shared across threads. -
+ * Passes control to ReserveCalcContext for step execution and snapshotting.
  */
 public class ReserveCalculationEngine {
 
 	private static final Logger logger = LoggerFactory.getLogger(ReserveCalculationEngine.class);
 
+	private static final Set<CalculationFlow> ALL_FLOWS = Collections.unmodifiableSet(
+			EnumSet.allOf(CalculationFlow.class));
+
+	// Rows the columnar kernel calculates a step for at a time; a lane's columns then stay in cache
+	static final int COLUMN_BLOCK_ROWS = 1024;
+
 	private final Map<CalculationFlow, List<ReserveCalcStep>> flowSteps = new EnumMap<>(CalculationFlow.class);
 	private final Map<ReserveField, ReserveCalcStep> contextConditionSteps = new HashMap<>();
 	private final List<ReserveCalcStep> dynamicSteps = new ArrayList<>();
@@ -96,16 +111,227 @@ public class ReserveCalculationEngine {
 	private final Map<CalculationFlow, List<Steps.RunningCalculationStep>> runningSteps = new EnumMap<>(
 			CalculationFlow.class);
 
+	// Written once under the lock in compile(), read without it by every calculation
+	private volatile ReservePlan plan;
+	private final NumericMode numericMode;
+	private final LogMode logMode;
+	private final double verboseSampleRate;
+	private final ReserveResultCache resultCache;
+	private final ReserveColumnKernel columnKernel;
+	private final ReserveStepMetrics stepMetrics;
+
 	// 1. FIX: Add initialization of runningSteps in constructor
 	public ReserveCalculationEngine() {
+		this.numericMode = NumericMode.LONG;
+		this.logMode = LogMode.PERFORMANCE;
+		this.verboseSampleRate = 0.0;
+		this.resultCache = null;
+		this.columnKernel = ReserveColumnKernel.forMode(ColumnKernelMode.VECTOR);
+		this.stepMetrics = null;
 		for (CalculationFlow flow : CalculationFlow.values()) {
 			flowSteps.put(flow, new ArrayList<>());
 			runningSteps.put(flow, new ArrayList<>()); // ADD THIS LINE
 		}
 	}
 
+	/**
+	 * Create an engine that runs an already compiled plan. Such an engine holds
+	 * no per-calculation state and can be shared by concurrent callers.
+	 */
+	public ReserveCalculationEngine(ReservePlan plan) {
+		this(plan, NumericMode.LONG);
+	}
+
+	/**
+	 * Create an engine for a compiled plan with an explicit numeric mode. In
+	 * LONG mode records whose inputs are all whole numbers run on the long
+	 * kernel when the plan supports it; every other record, and any record
+	 * that overflows, is calculated on the BigDecimal path.
+	 */
+	public ReserveCalculationEngine(ReservePlan plan, NumericMode numericMode) {
+		this(plan, numericMode, LogMode.PERFORMANCE, 0.0);
+	}
+
+	/**
+	 * Create an engine for a compiled plan with explicit numeric and log modes.
+	 * {@code logMode} applies to contexts that do not set their own; in
+	 * PERFORMANCE mode a {@code verboseSampleRate} share of those records
+	 * (0.0 to 1.0) is still calculated verbosely.
+	 */
+	public ReserveCalculationEngine(ReservePlan plan, NumericMode numericMode, LogMode logMode,
+			double verboseSampleRate) {
+		this(plan, numericMode, logMode, verboseSampleRate, null);
+	}
+
+	/**
+	 * As {@link #ReserveCalculationEngine(ReservePlan, NumericMode, LogMode, double)},
+	 * with a cache in front of {@link #calculate(InitialValueWrapper, ReserveCalcContext, Set, Set)}
+	 * so records with an input profile calculated before skip the calculation.
+	 *
+	 * @param resultCache cache to use, or null to calculate every record
+	 */
+	public ReserveCalculationEngine(ReservePlan plan, NumericMode numericMode, LogMode logMode,
+			double verboseSampleRate, ReserveResultCache resultCache) {
+		this(plan, numericMode, logMode, verboseSampleRate, resultCache, ColumnKernelMode.VECTOR);
+	}
+
+	/**
+	 * As {@link #ReserveCalculationEngine(ReservePlan, NumericMode, LogMode, double, ReserveResultCache)},
+	 * with the loops {@link #calculate(ReserveColumnBatch, Set, Set)} runs select
+	 * and compare steps with. VECTOR falls back to SCALAR when the Vector API is
+	 * not available; {@link #getColumnKernelMode()} returns the mode in use.
+	 */
+	public ReserveCalculationEngine(ReservePlan plan, NumericMode numericMode, LogMode logMode,
+			double verboseSampleRate, ReserveResultCache resultCache, ColumnKernelMode columnKernelMode) {
+		this(plan, numericMode, logMode, verboseSampleRate, resultCache, columnKernelMode, null);
+	}
+
+	/**
+	 * As {@link #ReserveCalculationEngine(ReservePlan, NumericMode, LogMode, double, ReserveResultCache, ColumnKernelMode)},
+	 * reporting step timings and condition failures of record calculations to
+	 * {@code stepMetrics}.
+	 *
+	 * @param stepMetrics metrics to report to, or null for none
+	 */
+	public ReserveCalculationEngine(ReservePlan plan, NumericMode numericMode, LogMode logMode,
+			double verboseSampleRate, ReserveResultCache resultCache, ColumnKernelMode columnKernelMode,
+			ReserveStepMetrics stepMetrics) {
+		if (plan == null) {
+			throw new IllegalArgumentException("plan cannot be null");
+		}
+		if (numericMode == null) {
+			throw new IllegalArgumentException("numericMode cannot be null");
+		}
+		if (logMode == null) {
+			throw new IllegalArgumentException("logMode cannot be null");
+		}
+		if (!(verboseSampleRate >= 0.0 && verboseSampleRate <= 1.0)) {
+			throw new IllegalArgumentException("verboseSampleRate must be between 0 and 1: " + verboseSampleRate);
+		}
+		if (columnKernelMode == null) {
+			throw new IllegalArgumentException("columnKernelMode cannot be null");
+		}
+		for (CalculationFlow flow : CalculationFlow.values()) {
+			flowSteps.put(flow, new ArrayList<>());
+			runningSteps.put(flow, new ArrayList<>());
+		}
+		this.plan = plan;
+		this.numericMode = numericMode;
+		this.logMode = logMode;
+		this.verboseSampleRate = verboseSampleRate;
+		this.resultCache = resultCache;
+		this.columnKernel = ReserveColumnKernel.forMode(columnKernelMode);
+		this.stepMetrics = stepMetrics;
+	}
+
+	/**
+	 * Freeze the steps added so far into an immutable plan. The steps are
+	 * checked and ordered by their {@link ReserveStepGraph}; a plan with a
+	 * dependency cycle or a dependency no step produces is rejected with an
+	 * IllegalStateException. Further calls to addStep are rejected once the
+	 * plan exists.
+	 */
+	public ReservePlan compile() {
+		ReservePlan compiled = plan;
+		if (compiled != null) {
+			return compiled;
+		}
+		synchronized (this) {
+			if (plan == null) {
+				ReserveStepGraph graph = ReserveStepGraph.compile(flowSteps, runningSteps, contextConditionSteps);
+				Map<CalculationFlow, List<ReserveCalcStep>> scheduled = new EnumMap<>(CalculationFlow.class);
+				for (Map.Entry<CalculationFlow, List<ReserveCalcStep>> entry : flowSteps.entrySet()) {
+					scheduled.put(entry.getKey(), graph.reorder(entry.getValue()));
+				}
+				if (!graph.isDeclarationOrder()) {
+					logger.info("Steps reordered by dependencies: {}", graph.getSchedule());
+				}
+				logger.info("Compiled {} steps into {} dependency levels", graph.getSchedule().size(),
+						graph.getLevels().size());
+				plan = new ReservePlan(scheduled, runningSteps, contextConditionSteps, dynamicSteps, graph);
+			}
+			return plan;
+		}
+	}
+
+	public ReservePlan getPlan() {
+		return compile();
+	}
+
+	public NumericMode getNumericMode() {
+		return numericMode;
+	}
+
+	public LogMode getLogMode() {
+		return logMode;
+	}
+
+	public double getVerboseSampleRate() {
+		return verboseSampleRate;
+	}
+
+	/**
+	 * Column kernel in use, which is SCALAR if VECTOR was requested but is not
+	 * available.
+	 */
+	public ColumnKernelMode getColumnKernelMode() {
+		return columnKernel.getMode();
+	}
+
+	/**
+	 * Step metrics of this engine, or null if it reports none.
+	 */
+	public ReserveStepMetrics getStepMetrics() {
+		return stepMetrics;
+	}
+
+	/**
+	 * Result cache of this engine, or null if it has none.
+	 */
+	public ReserveResultCache getResultCache() {
+		return resultCache;
+	}
+
+	/**
+	 * The context's own log mode if it has one, otherwise the engine's, with
+	 * PERFORMANCE records sampled into VERBOSE at the configured rate.
+	 */
+	private LogMode resolveLogMode(ReserveCalcContext context) {
+		if (context.getLogMode() != null) {
+			return context.getLogMode();
+		}
+		if (logMode == LogMode.PERFORMANCE && verboseSampleRate > 0.0
+				&& ThreadLocalRandom.current().nextDouble() < verboseSampleRate) {
+			return LogMode.VERBOSE;
+		}
+		return logMode;
+	}
+
 	// 2. FIX: In calculate method, ensure context is properly initialized
 	public void calculate(ReserveCalcContext context) {
+		run(compile(), context);
+	}
+
+	/**
+	 * Calculate only the requested flows; the context holds no values for the
+	 * others (see {@link ReserveCalcContext#getCalculatedFlows()}). Plans whose
+	 * flows read each other always calculate every flow.
+	 */
+	public void calculate(ReserveCalcContext context, Set<CalculationFlow> flows) {
+		calculate(context, flows, null);
+	}
+
+	/**
+	 * Calculate the requested flows, and of those only the steps the requested
+	 * output fields depend on (see {@link ReservePlan#forOutputs(Set)}).
+	 *
+	 * @param outputs output fields needed, or null for every field
+	 */
+	public void calculate(ReserveCalcContext context, Set<CalculationFlow> flows, Set<ReserveField> outputs) {
+		run(compile().forFlows(flows).forOutputs(outputs), context);
+	}
+
+	private void run(ReservePlan plan, ReserveCalcContext context) {
 		if (!enginePreCheck.test(context)) {
 			throw new IllegalStateException("Engine pre-check failed: Required conditions not met.");
 		}
@@ -115,28 +341,87 @@ public class ReserveCalculationEngine {
 			throw new IllegalStateException("InitialValueWrapper must be set before calculation");
 		}
 
+		context.setCalculatedPlan(plan);
+		context.setStepMetrics(stepMetrics, stepMetrics != null && stepMetrics.sample());
+		boolean verbose = resolveLogMode(context) == LogMode.VERBOSE;
+		context.setVerbose(verbose);
+		// Verbose logging reads each step back from the trace; keep it only for this record
+		// unless the caller enabled tracing
+		boolean traceForLogging = verbose && !context.isTraceEnabled();
+		if (traceForLogging) {
+			context.setTraceEnabled(true);
+		}
+		try {
+			evaluate(plan, context, verbose);
+		} finally {
+			if (traceForLogging) {
+				context.setTraceEnabled(false);
+			}
+		}
+	}
+
+	private void evaluate(ReservePlan plan, ReserveCalcContext context, boolean verbose) {
+		// Traced records take the BigDecimal path, which records every update
+		if (numericMode == NumericMode.LONG && !context.isTraceEnabled() && calculateLong(plan, context)) {
+			if (!enginePostCheck.test(context)) {
+				throw new IllegalStateException("Engine post-check failed: Validation conditions not met.");
+			}
+			return;
+		}
+
+		context.seedInitialValues();
+
 		// Register running steps with context
-		for (Map.Entry<CalculationFlow, List<Steps.RunningCalculationStep>> entry : runningSteps.entrySet()) {
+		for (Map.Entry<CalculationFlow, List<Steps.RunningCalculationStep>> entry : plan.getRunningSteps()
+				.entrySet()) {
 			for (Steps.RunningCalculationStep runningStep : entry.getValue()) {
 				context.registerRunningStep(entry.getKey(), runningStep);
 			}
 		}
 
-		context.setDynamicSteps(dynamicSteps);
-
 		// Log initial state
 		// ReserveCalculationLogger.logInitialState(context);
 
-		// ADD: Ensure all flows have the same number of steps
-		alignFlowSteps();
+		if (!plan.isLaneIndependent()) {
+			calculateInterleaved(plan, context);
+		} else if (context.isParallelLanes() && !context.isTraceEnabled()) {
+			runLanesInParallel(plan.getFlows(), flow -> context.calculateLane(flow, plan.getSteps(flow)));
+		} else {
+			for (CalculationFlow flow : plan.getFlows()) {
+				context.calculateLane(flow, plan.getSteps(flow));
+			}
+		}
+
+		if (verbose) {
+			// Show final propagation
+			logger.info("\n=== FINAL PROPAGATION STATE ===");
+			context.showResultSetsPropagation();
 
-		int maxStepCount = flowSteps.values().stream().mapToInt(List::size).max().orElse(0);
+			// Log final summary
+			ReserveCalculationLogger.logFinalSummary(context);
+		}
+
+		// Perform post-checks
+		if (!enginePostCheck.test(context)) {
+			throw new IllegalStateException("Engine post-check failed: Validation conditions not met.");
+		}
+	}
+
+	/**
+	 * Step-by-step order across all flows, for plans with context condition or
+	 * dynamic steps: each step index is calculated for every flow before the
+	 * next one starts.
+	 */
+	private void calculateInterleaved(ReservePlan plan, ReserveCalcContext context) {
+		context.setDynamicSteps(plan.getFlowDynamicSteps());
+
+		int maxStepCount = plan.getStepCount();
 
 		for (int stepIndex = 0; stepIndex < maxStepCount; stepIndex++) {
 			Map<CalculationFlow, ReserveCalcStep> currentSteps = new EnumMap<>(CalculationFlow.class);
 
 			for (CalculationFlow flow : CalculationFlow.values()) {
-				List<ReserveCalcStep> steps = flowSteps.get(flow);
+				List<ReserveCalcStep> steps = plan.getSteps(flow);
 				if (stepIndex < steps.size()) {
 					currentSteps.put(flow, steps.get(stepIndex));
 				}
@@ -160,7 +445,7 @@ public class ReserveCalculationEngine {
 				continue;
 			}
 
-			ReserveCalcStep contextConditionStep = contextConditionSteps.get(fieldName);
+			ReserveCalcStep contextConditionStep = plan.getContextConditionStep(fieldName);
 
 			context.calculateSteps(stepIndex, currentSteps, contextConditionStep);
 
@@ -175,39 +460,426 @@ public class ReserveCalculationEngine {
 //            }
 
 		}
+	}
 
-		// Show final propagation
-		logger.info("\n=== FINAL PROPAGATION STATE ===");
-		context.showResultSetsPropagation();
+	/**
+	 * Run one lane per flow, all but the last forked into the current
+	 * ForkJoinPool (the common pool outside one). Every lane has finished
+	 * before this returns or rethrows a lane's exception.
+	 */
+	private static void runLanesInParallel(List<CalculationFlow> flows, Consumer<CalculationFlow> lane) {
+		ForkJoinTask<?>[] forked = new ForkJoinTask<?>[flows.size() - 1];
+		for (int i = 0; i < forked.length; i++) {
+			CalculationFlow flow = flows.get(i);
+			forked[i] = ForkJoinTask.adapt(() -> lane.accept(flow)).fork();
+		}
+		try {
+			lane.accept(flows.get(forked.length));
+		} finally {
+			// The context must not be read or reused while a lane still writes to it
+			for (ForkJoinTask<?> task : forked) {
+				task.quietlyJoin();
+			}
+		}
+		for (ForkJoinTask<?> task : forked) {
+			task.join();
+		}
+	}
 
-		// Log final summary
-		ReserveCalculationLogger.logFinalSummary(context);
+	/**
+	 * Run the plan on the context's long slots. Returns false, with the context
+	 * ready for the BigDecimal path, when the plan or the record's inputs are
+	 * not eligible or a formula overflows.
+	 */
+	private boolean calculateLong(ReservePlan plan, ReserveCalcContext context) {
+		if (!plan.isLongKernelSupported() || !context.startLongCalculation()) {
+			return false;
+		}
+
+		try {
+			if (context.isParallelLanes()) {
+				runLanesInParallel(plan.getFlows(), flow -> evaluateLongLane(plan, context, flow));
+			} else {
+				evaluateLong(plan, context);
+			}
+			return true;
+		} catch (ArithmeticException e) {
+			logger.warn("Long kernel overflow, recalculating with BigDecimal: {}", e.getMessage());
+			context.abortLongCalculation();
+			return false;
+		}
+	}
+
+	/**
+	 * The long kernel's step loop, one flow lane after the other. Mirrors
+	 * ReserveCalcContext.calculateLane without the trace, and allocates nothing
+	 * once warm.
+	 */
+	static void evaluateLong(ReservePlan plan, ReserveCalcContext context) {
+		List<CalculationFlow> flows = plan.getFlows();
+		for (int i = 0; i < flows.size(); i++) {
+			evaluateLongLane(plan, context, flows.get(i));
+		}
+	}
+
+	private static void evaluateLongLane(ReservePlan plan, ReserveCalcContext context, CalculationFlow flow) {
+		List<Steps.RunningCalculationStep> running = plan.getRunningSteps(flow);
+		for (int i = 0; i < running.size(); i++) {
+			Steps.RunningCalculationStep runningStep = running.get(i);
+			context.resetLongValue(flow, runningStep.getFieldName(), runningStep.getStartingValue().longValueExact());
+			context.clearRunningInitialized(flow, runningStep.getFieldName());
+		}
+
+		ReserveStepMetrics timer = context.getStepTimer();
+		if (timer != null) {
+			evaluateLongLaneTimed(plan, context, flow, timer);
+			return;
+		}
+
+		List<ReserveCalcStep> steps = plan.getSteps(flow);
+		for (int stepIndex = 0; stepIndex < steps.size(); stepIndex++) {
+			ReserveCalcStep step = steps.get(stepIndex);
+			ReserveField fieldName = step.getFieldName();
+			context.resetLongValue(flow, fieldName, 0L);
+			context.trackLongValue(flow, fieldName, step.calculateLongValue(context));
+
+			Steps.RunningCalculationStep[] triggered = plan.getTriggeredRunningSteps(flow, stepIndex);
+			for (int i = 0; i < triggered.length; i++) {
+				triggered[i].calculateLongValue(context, fieldName);
+			}
+		}
+	}
+
+	// The step loop of evaluateLongLane for records sampled into the step metrics
+	private static void evaluateLongLaneTimed(ReservePlan plan, ReserveCalcContext context, CalculationFlow flow,
+			ReserveStepMetrics timer) {
+		List<ReserveCalcStep> steps = plan.getSteps(flow);
+		for (int stepIndex = 0; stepIndex < steps.size(); stepIndex++) {
+			ReserveCalcStep step = steps.get(stepIndex);
+			ReserveField fieldName = step.getFieldName();
+			context.resetLongValue(flow, fieldName, 0L);
+			long start = System.nanoTime();
+			context.trackLongValue(flow, fieldName, step.calculateLongValue(context));
+			timer.recordStep(fieldName, System.nanoTime() - start);
+
+			for (Steps.RunningCalculationStep runningStep : plan.getTriggeredRunningSteps(flow, stepIndex)) {
+				start = System.nanoTime();
+				runningStep.calculateLongValue(context, fieldName);
+				timer.recordRunning(runningStep.getFieldName(), fieldName, System.nanoTime() - start);
+			}
+		}
+	}
+
+	/**
+	 * Calculate every row of a columnar batch for the requested flows and
+	 * output fields into the batch's output columns. Rows are taken in blocks
+	 * of {@value #COLUMN_BLOCK_ROWS}; for each block and flow, every step is
+	 * calculated for the whole block before the next step, so the loops run
+	 * over primitive columns that stay in cache, select and compare steps on
+	 * the engine's {@link ColumnKernelMode}. Rows that overflow are
+	 * recalculated on the BigDecimal path (see {@link ReserveColumnBatch}).
+	 * Plans without columnar steps, and every plan of an engine in
+	 * {@link NumericMode#BIG_DECIMAL} mode, are calculated a row at a time.
+	 * <p>
+	 * Columnar calculations log nothing per step and bypass the result cache.
+	 *
+	 * @param outputs output fields needed, or null for every field
+	 */
+	public void calculate(ReserveColumnBatch batch, Set<CalculationFlow> flows, Set<ReserveField> outputs) {
+		ReservePlan columnPlan = compile().forFlows(flows).forOutputs(outputs);
+		batch.prepareOutputs(columnPlan);
+		calculateColumns(columnPlan, batch, 0, batch.size());
+	}
+
+	/**
+	 * Calculate rows {@code from} to {@code to} of a batch whose outputs were
+	 * prepared for {@code plan}. Disjoint ranges can run concurrently.
+	 */
+	void calculateColumns(ReservePlan plan, ReserveColumnBatch batch, int from, int to) {
+		ReserveCalcContext rowContext = null;
+		if (numericMode == NumericMode.BIG_DECIMAL || !plan.isColumnKernelSupported()) {
+			rowContext = new ReserveCalcContext();
+			for (int row = from; row < to; row++) {
+				batch.setFallbackResult(row, calculateRow(plan, batch, row, rowContext));
+			}
+			return;
+		}
+
+		List<CalculationFlow> flows = plan.getFlows();
+		ReserveColumnLane[] lanes = new ReserveColumnLane[flows.size()];
+		for (int i = 0; i < lanes.length; i++) {
+			lanes[i] = new ReserveColumnLane(batch, flows.get(i), columnKernel, Math.min(COLUMN_BLOCK_ROWS, to - from));
+		}
+		for (int blockStart = from; blockStart < to; blockStart += COLUMN_BLOCK_ROWS) {
+			int rows = Math.min(COLUMN_BLOCK_ROWS, to - blockStart);
+			boolean overflowed = false;
+			for (ReserveColumnLane lane : lanes) {
+				lane.startBlock(blockStart, rows);
+				evaluateColumnLane(plan, lane);
+				batch.writeOutputs(lane);
+				overflowed |= lane.hasOverflow();
+			}
+			if (!overflowed) {
+				continue;
+			}
+			for (int row = 0; row < rows; row++) {
+				if (isOverflow(lanes, row)) {
+					if (rowContext == null) {
+						rowContext = new ReserveCalcContext();
+					}
+					batch.setFallbackResult(blockStart + row, calculateRow(plan, batch, blockStart + row, rowContext));
+				}
+			}
+		}
+	}
+
+	private static boolean isOverflow(ReserveColumnLane[] lanes, int row) {
+		for (ReserveColumnLane lane : lanes) {
+			if (lane.isOverflow(row)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private ReserveResult calculateRow(ReservePlan plan, ReserveColumnBatch batch, int row,
+			ReserveCalcContext context) {
+		context.reset();
+		context.setInitialValueWrapper(batch.getRow(row));
+		run(plan, context);
+		return ReserveResult.from(context);
+	}
+
+	// The long kernel's step loop with each step applied to a block of rows at once
+	private static void evaluateColumnLane(ReservePlan plan, ReserveColumnLane lane) {
+		CalculationFlow flow = lane.getFlow();
+		List<Steps.RunningCalculationStep> running = plan.getRunningSteps(flow);
+		for (int i = 0; i < running.size(); i++) {
+			Steps.RunningCalculationStep runningStep = running.get(i);
+			Arrays.fill(lane.column(runningStep.getFieldName()), 0, lane.rows(),
+					runningStep.getStartingValue().longValueExact());
+		}
+
+		List<ReserveCalcStep> steps = plan.getSteps(flow);
+		for (int stepIndex = 0; stepIndex < steps.size(); stepIndex++) {
+			ReserveCalcStep step = steps.get(stepIndex);
+			step.calculateLongColumn(lane);
+			for (Steps.RunningCalculationStep runningStep : plan.getTriggeredRunningSteps(flow, stepIndex)) {
+				runningStep.calculateLongColumn(lane, step.getFieldName());
+			}
+		}
+	}
+
+	/**
+	 * Update a context that holds a calculated SKULOC to new inputs, for delta
+	 * events that change one or a few fields. Only the steps downstream of the
+	 * changed inputs in the plan's {@link ReserveStepGraph} are recalculated,
+	 * and only the running totals those steps trigger are replayed, in step
+	 * order; every other value is kept. The context stays on the plan, flows
+	 * and numeric kernel it was calculated with.
+	 * <p>
+	 * Falls back to a full calculation of the new inputs for traced or
+	 * verbose records, plans that are not lane independent, long kernel
+	 * contexts whose new inputs are not whole numbers, and overflow.
+	 *
+	 * @throws IllegalStateException if the context holds no calculation
+	 */
+	public ReserveResult recalculate(InitialValueWrapper updated, ReserveCalcContext context) {
+		ReservePlan calculatedPlan = context.getCalculatedPlan();
+		InitialValueWrapper previous = context.getInitialValueWrapper();
+		if (calculatedPlan == null || previous == null) {
+			throw new IllegalStateException("Context holds no calculation to update");
+		}
+
+		Set<ReserveField> changed = previous.changedFields(updated);
+		context.setInitialValueWrapper(updated);
+		if (!changed.isEmpty() && !recalculateIncrementally(calculatedPlan, context, changed)) {
+			context.reset();
+			context.setInitialValueWrapper(updated);
+			run(calculatedPlan, context);
+		}
+		return ReserveResult.from(context);
+	}
+
+	private boolean recalculateIncrementally(ReservePlan plan, ReserveCalcContext context, Set<ReserveField> changed) {
+		// Traced and verbose records are recalculated in full, so the trace covers every step
+		if (!plan.isLaneIndependent() || context.isTraceEnabled() || resolveLogMode(context) == LogMode.VERBOSE) {
+			return false;
+		}
+		if (!enginePreCheck.test(context)) {
+			throw new IllegalStateException("Engine pre-check failed: Required conditions not met.");
+		}
+		context.setVerbose(false);
+		context.setStepMetrics(stepMetrics, stepMetrics != null && stepMetrics.sample());
+		if (!context.reseedInputs(changed)) {
+			return false;
+		}
+
+		Set<ReserveField> dirty = plan.getStepGraph().getDownstream(changed);
+		if (context.isLongMode()) {
+			try {
+				for (CalculationFlow flow : plan.getFlows()) {
+					recalculateLongLane(plan, context, flow, dirty);
+				}
+			} catch (ArithmeticException e) {
+				logger.warn("Long kernel overflow, recalculating with BigDecimal: {}", e.getMessage());
+				context.abortLongCalculation();
+				return false;
+			}
+		} else {
+			for (CalculationFlow flow : plan.getFlows()) {
+				context.recalculateLane(plan, flow, dirty);
+			}
+		}
 
-		// Perform post-checks
 		if (!enginePostCheck.test(context)) {
 			throw new IllegalStateException("Engine post-check failed: Validation conditions not met.");
 		}
+		return true;
 	}
 
-	// 3. ADD: Method to align flow steps (ensure all flows have same number of
-	// steps)
-	private void alignFlowSteps() {
-		// Find the maximum number of steps across all flows
-		int maxSteps = flowSteps.values().stream().mapToInt(List::size).max().orElse(0);
+	// ReserveCalcContext.recalculateLane on the long slots
+	private static void recalculateLongLane(ReservePlan plan, ReserveCalcContext context, CalculationFlow flow,
+			Set<ReserveField> dirty) {
+		List<Steps.RunningCalculationStep> running = plan.getRunningSteps(flow);
+		for (int i = 0; i < running.size(); i++) {
+			Steps.RunningCalculationStep runningStep = running.get(i);
+			if (dirty.contains(runningStep.getFieldName())) {
+				context.resetLongValue(flow, runningStep.getFieldName(),
+						runningStep.getStartingValue().longValueExact());
+				context.clearRunningInitialized(flow, runningStep.getFieldName());
+			}
+		}
 
-		// Pad shorter flows with no-op steps
-		for (Map.Entry<CalculationFlow, List<ReserveCalcStep>> entry : flowSteps.entrySet()) {
-			List<ReserveCalcStep> steps = entry.getValue();
-			CalculationFlow flow = entry.getKey();
+		ReserveStepMetrics timer = context.getStepTimer();
+		List<ReserveCalcStep> steps = plan.getSteps(flow);
+		for (int stepIndex = 0; stepIndex < steps.size(); stepIndex++) {
+			ReserveCalcStep step = steps.get(stepIndex);
+			ReserveField fieldName = step.getFieldName();
+			if (dirty.contains(fieldName)) {
+				context.resetLongValue(flow, fieldName, 0L);
+				long start = timer != null ? System.nanoTime() : 0L;
+				context.trackLongValue(flow, fieldName, step.calculateLongValue(context));
+				if (timer != null) {
+					timer.recordStep(fieldName, System.nanoTime() - start);
+				}
+			}
+
+			Steps.RunningCalculationStep[] triggered = plan.getTriggeredRunningSteps(flow, stepIndex);
+			for (int i = 0; i < triggered.length; i++) {
+				if (dirty.contains(triggered[i].getFieldName())) {
+					long start = timer != null ? System.nanoTime() : 0L;
+					triggered[i].calculateLongValue(context, fieldName);
+					if (timer != null) {
+						timer.recordRunning(triggered[i].getFieldName(), fieldName, System.nanoTime() - start);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Calculate one SKULOC in a reusable context and capture its outputs. The
+	 * context is reset first, so callers can keep one per thread.
+	 */
+	public ReserveResult calculate(InitialValueWrapper initialValueWrapper, ReserveCalcContext context) {
+		return calculate(initialValueWrapper, context, ALL_FLOWS);
+	}
+
+	/**
+	 * Calculate one SKULOC for the requested flows only; the result holds just
+	 * those flows.
+	 */
+	public ReserveResult calculate(InitialValueWrapper initialValueWrapper, ReserveCalcContext context,
+			Set<CalculationFlow> flows) {
+		return calculate(initialValueWrapper, context, flows, null);
+	}
 
-			while (steps.size() < maxSteps) {
-				// Add a no-op step that just returns zero
-				Steps.ConstantStep noOp = new Steps.ConstantStep(ReserveField.DIV, // Use a dummy field
-						BigDecimal.ZERO);
-				noOp.setFlow(flow);
-				steps.add(noOp);
+	/**
+	 * Calculate one SKULOC for the requested flows and output fields only.
+	 * With a result cache, a record whose inputs were calculated before gets
+	 * the cached result; the context is then left reset, holding no values,
+	 * and the engine checks do not run. Verbose and traced records are always
+	 * calculated.
+	 *
+	 * @param outputs output fields needed, or null for every field
+	 */
+	public ReserveResult calculate(InitialValueWrapper initialValueWrapper, ReserveCalcContext context,
+			Set<CalculationFlow> flows, Set<ReserveField> outputs) {
+		context.reset();
+		context.setInitialValueWrapper(initialValueWrapper);
+		ReserveResultCache.Key key = isCacheable(context)
+				? ReserveResultCache.key(initialValueWrapper, flows, outputs)
+				: null;
+		if (key != null) {
+			ReserveResult cached = resultCache.get(key);
+			if (cached != null) {
+				return cached;
 			}
 		}
+		calculate(context, flows, outputs);
+		ReserveResult result = ReserveResult.from(context);
+		if (key != null) {
+			resultCache.put(key, result);
+		}
+		return result;
+	}
+
+	// Records sampled into VERBOSE are drawn from the ones that miss the cache
+	private boolean isCacheable(ReserveCalcContext context) {
+		LogMode requested = context.getLogMode() != null ? context.getLogMode() : logMode;
+		return resultCache != null && requested != LogMode.VERBOSE && !context.isTraceEnabled()
+				&& context.getInitialValueWrapper() != null;
+	}
+
+	/**
+	 * Calculate a batch of Inventory records against the compiled plan. Results
+	 * are returned in input order.
+	 */
+	public List<ReserveResult> calculateBatch(List<Inventory> records) {
+		return calculateBatch(records, InitialValueWrapper::fromInventory);
+	}
+
+	public <T> List<ReserveResult> calculateBatch(List<T> records, Function<T, InitialValueWrapper> converter) {
+		return calculateBatch(records, converter, null);
+	}
+
+	/**
+	 * Calculate a batch with a log mode for every record, or null for the
+	 * engine's default.
+	 */
+	public <T> List<ReserveResult> calculateBatch(List<T> records, Function<T, InitialValueWrapper> converter,
+			LogMode logMode) {
+		return calculateBatch(records, converter, logMode, ALL_FLOWS, null);
+	}
+
+	/**
+	 * Calculate a batch for the requested flows and output fields only.
+	 *
+	 * @param outputs output fields needed, or null for every field
+	 */
+	public <T> List<ReserveResult> calculateBatch(List<T> records, Function<T, InitialValueWrapper> converter,
+			LogMode logMode, Set<CalculationFlow> flows, Set<ReserveField> outputs) {
+		ReserveCalcContext context = new ReserveCalcContext();
+		context.setLogMode(logMode);
+		List<ReserveResult> results = new ArrayList<>(records.size());
+		for (T record : records) {
+			results.add(calculate(converter.apply(record), context, flows, outputs));
+		}
+		return results;
+	}
+
+	/**
+	 * Lazily calculate a stream of Inventory records. The stream is evaluated
+	 * sequentially because all records share one context.
+	 */
+	public Stream<ReserveResult> calculateBatch(Stream<Inventory> records) {
+		return calculateBatch(records, InitialValueWrapper::fromInventory);
+	}
+
+	public <T> Stream<ReserveResult> calculateBatch(Stream<T> records, Function<T, InitialValueWrapper> converter) {
+		ReserveCalcContext context = new ReserveCalcContext();
+		return records.sequential().map(record -> calculate(converter.apply(record), context));
 	}
 
 	// 4. FIX: Improve addStep to handle edge cases better
@@ -220,6 +892,10 @@ public class ReserveCalculationEngine {
 			throw new IllegalArgumentException("fieldName and mainStep cannot be null");
 		}
 
+		if (plan != null) {
+			throw new IllegalStateException("Cannot add step " + fieldName + ": engine plan is already compiled");
+		}
+
 		if (alternateSteps == null) {
 			alternateSteps = new EnumMap<>(CalculationFlow.class);
 		}
@@ -272,17 +948,17 @@ public class ReserveCalculationEngine {
 
 		for (CalculationFlow flow : CalculationFlow.values()) {
 			logger.info("\nFlow: " + flow);
-			List<ReserveCalcStep> steps = flowSteps.get(flow);
+			List<ReserveCalcStep> steps = getPlan().getSteps(flow);
 			for (int i = 0; i < steps.size(); i++) {
 				ReserveCalcStep step = steps.get(i);
 				logger.info("  Step %d: %s (%s)\n", i, step.getFieldName(), step.getClass().getSimpleName());
 			}
 
-			logger.info("  Running Steps: " + runningSteps.get(flow).size());
+			logger.info("  Running Steps: " + getPlan().getRunningSteps(flow).size());
 		}
 
-		logger.info("\nDynamic Steps: " + dynamicSteps.size());
-		logger.info("Context Condition Steps: " + contextConditionSteps.size());
+		logger.info("\nDynamic Steps: " + getPlan().getDynamicSteps().size());
+		logger.info("Context Condition Steps: " + getPlan().getContextConditionStepCount());
 	}
 
 	// 6. ADD: Method to validate engine setup
@@ -290,7 +966,8 @@ public class ReserveCalculationEngine {
 		boolean valid = true;
 
 		// Check all flows have same number of steps
-		Set<Integer> stepCounts = flowSteps.values().stream().map(List::size).collect(Collectors.toSet());
+		Set<Integer> stepCounts = getPlan().getFlowSteps().values().stream().map(List::size)
+				.collect(Collectors.toSet());
 
 		if (stepCounts.size() > 1) {
 			logger.error("ERROR: Flows have different step counts: " + stepCounts);
@@ -298,7 +975,7 @@ public class ReserveCalculationEngine {
 		}
 
 		// Check each step has flow set
-		for (Map.Entry<CalculationFlow, List<ReserveCalcStep>> entry : flowSteps.entrySet()) {
+		for (Map.Entry<CalculationFlow, List<ReserveCalcStep>> entry : getPlan().getFlowSteps().entrySet()) {
 			CalculationFlow flow = entry.getKey();
 			for (ReserveCalcStep step : entry.getValue()) {
 				if (step.getFlow() != flow) {
@@ -344,24 +1021,18 @@ public class ReserveCalculationEngine {
 			result = result.subtract(lost);
 			result = result.subtract(oobA);
 			return result;
-		}, null, null, null, null),
+		}, in -> Math.subtractExact(
+				Math.subtractExact(Math.subtractExact(in.get(ONHAND), in.get(ROHM)), in.get(LOST)),
+				Math.max(in.get(OOBADJ), 0L)), null, null, null, null),
 				Map.of(CalculationFlow.JEI, new Steps.CalculationStep(INITAFS, List.of(ONHAND, LOST), inputs -> {
 					// JEI: ONHAND - LOST
 					return inputs.get(ONHAND).subtract(inputs.get(LOST));
-				}, null, null, null, null)), null, false);
+				}, in -> Math.subtractExact(in.get(ONHAND), in.get(LOST)), null, null, null, null)), null, false);
 
 		// Commitment Fields
 		engine.addStep(SNB, new Steps.SkulocFieldStep(SNB), Map.of(), null, false);
-		engine.addStep(SNBX, new Steps.CalculationStep(SNBX, List.of(INITAFS, SNB), inputs -> {
-			BigDecimal available = inputs.get(INITAFS);
-			BigDecimal requested = inputs.get(SNB);
-			return available.compareTo(requested) < 0 ? available : BigDecimal.ZERO;
-		}, null, null, null, null), Map.of(), null, false);
-		engine.addStep(SNBA,
-				new Steps.CalculationStep(SNBA, List.of(SNB, SNBX),
-						inputs -> inputs.get(SNBX).compareTo(BigDecimal.ZERO) > 0 ? inputs.get(SNBX) : inputs.get(SNB),
-						null, null, null, null),
-				Map.of(), null, false);
+		engine.addStep(SNBX, new Steps.ShortfallStep(SNBX, INITAFS, SNB), Map.of(), null, false);
+		engine.addStep(SNBA, new Steps.PreferPositiveStep(SNBA, SNBX, SNB), Map.of(), null, false);
 
 		engine.addStep(DTCO, new Steps.SkulocFieldStep(DTCO), Map.of(), null, false);
 		engine.addStep(DTCOX, new Steps.CalculationStep(DTCOX, List.of(INITAFS, SNB, SNBX, DTCO), inputs -> {
@@ -375,10 +1046,12 @@ public class ReserveCalculationEngine {
 			BigDecimal available = initAfs.subtract(snbActual).max(BigDecimal.ZERO);
 
 			return available.compareTo(dtco) < 0 ? available : BigDecimal.ZERO;
+		}, in -> {
+			long snbActual = in.get(SNBX) > 0 ? in.get(SNBX) : in.get(SNB);
+			long available = Math.max(Math.subtractExact(in.get(INITAFS), snbActual), 0L);
+			return available < in.get(DTCO) ? available : 0L;
 		}, null, null, null, null), Map.of(), null, false);
-		engine.addStep(DTCOA, new Steps.CalculationStep(DTCOA, List.of(DTCO, DTCOX),
-				inputs -> inputs.get(DTCOX).compareTo(BigDecimal.ZERO) > 0 ? inputs.get(DTCOX) : inputs.get(DTCO), null,
-				null, null, null), Map.of(), null, false);
+		engine.addStep(DTCOA, new Steps.PreferPositiveStep(DTCOA, DTCOX, DTCO), Map.of(), null, false);
 
 		engine.addStep(ROHP, new Steps.SkulocFieldStep(ROHP), Map.of(), null, false);
 		engine.addStep(ROHPX,
@@ -392,18 +1065,18 @@ public class ReserveCalculationEngine {
 
 					BigDecimal available = initAfs.subtract(snbActual).subtract(dtcoActual).max(BigDecimal.ZERO);
 					return available.compareTo(rohp) < 0 ? available : BigDecimal.ZERO;
+				}, in -> {
+					long snbActual = in.get(SNBX) > 0 ? in.get(SNBX) : in.get(SNB);
+					long dtcoActual = in.get(DTCOX) > 0 ? in.get(DTCOX) : in.get(DTCO);
+					long available = Math.max(
+							Math.subtractExact(Math.subtractExact(in.get(INITAFS), snbActual), dtcoActual), 0L);
+					return available < in.get(ROHP) ? available : 0L;
 				}, null, null, null, null), Map.of(), null, false);
-		engine.addStep(ROHPA, new Steps.CalculationStep(ROHPA, List.of(ROHP, ROHPX),
-				inputs -> inputs.get(ROHPX).compareTo(BigDecimal.ZERO) > 0 ? inputs.get(ROHPX) : inputs.get(ROHP), null,
-				null, null, null), Map.of(), null, false);
+		engine.addStep(ROHPA, new Steps.PreferPositiveStep(ROHPA, ROHPX, ROHP), Map.of(), null, false);
 
 		// Hard Reserve Fields
 		engine.addStep(DOTHRY, new Steps.SkulocFieldStep(DOTHRY), Map.of(), null, false);
-		engine.addStep(DOTHRYX, new Steps.CalculationStep(DOTHRYX, List.of(RUNNING_AFS, DOTHRY), inputs -> {
-			BigDecimal available = inputs.get(RUNNING_AFS);
-			BigDecimal requested = inputs.get(DOTHRY);
-			return available.compareTo(requested) < 0 ? available : BigDecimal.ZERO;
-		}, null, null, null, null), Map.of(), null, false);
+		engine.addStep(DOTHRYX, new Steps.ShortfallStep(DOTHRYX, RUNNING_AFS, DOTHRY), Map.of(), null, false);
 		engine.addStep(DOTHRYZ, new Steps.CalculationStep(DOTHRYZ, List.of(DOTHRY, DOTHRYX, RUNNING_AFS), inputs -> {
 			BigDecimal result = BigDecimal.ZERO;
 			BigDecimal dotHRY = inputs.get(DOTHRY);
@@ -419,17 +1092,13 @@ public class ReserveCalculationEngine {
 
 			return result;
 
-		}, null, null, null, null), Map.of(), null, false);
-		engine.addStep(DOTHRYA, new Steps.CalculationStep(DOTHRYA, List.of(DOTHRY, DOTHRYX),
-				inputs -> inputs.get(DOTHRYX).compareTo(BigDecimal.ZERO) > 0 ? inputs.get(DOTHRYX) : inputs.get(DOTHRY),
+		}, in -> in.get(DOTHRYX) > 0 ? in.get(DOTHRYX)
+				: in.get(DOTHRY) < in.get(RUNNING_AFS) ? in.get(DOTHRY) : 0L,
 				null, null, null, null), Map.of(), null, false);
+		engine.addStep(DOTHRYA, new Steps.PreferPositiveStep(DOTHRYA, DOTHRYX, DOTHRY), Map.of(), null, false);
 
 		engine.addStep(DOTHRN, new Steps.SkulocFieldStep(DOTHRN), Map.of(), null, false);
-		engine.addStep(DOTHRNX, new Steps.CalculationStep(DOTHRNX, List.of(RUNNING_AFS, DOTHRN), inputs -> {
-			BigDecimal available = inputs.get(RUNNING_AFS);
-			BigDecimal requested = inputs.get(DOTHRN);
-			return available.compareTo(requested) < 0 ? available : BigDecimal.ZERO;
-		}, null, null, null, null), Map.of(), null, false);
+		engine.addStep(DOTHRNX, new Steps.ShortfallStep(DOTHRNX, RUNNING_AFS, DOTHRN), Map.of(), null, false);
 		engine.addStep(DOTHRNZ, new Steps.CalculationStep(DOTHRNZ, List.of(DOTHRN, DOTHRNX, RUNNING_AFS), inputs -> {
 			BigDecimal result = BigDecimal.ZERO;
 			BigDecimal dotHRN = inputs.get(DOTHRN);
@@ -445,19 +1114,15 @@ public class ReserveCalculationEngine {
 
 			return result;
 
-		}, null, null, null, null), Map.of(), null, false);
-		engine.addStep(DOTHRNA, new Steps.CalculationStep(DOTHRNA, List.of(DOTHRN, DOTHRNX),
-				inputs -> inputs.get(DOTHRNX).compareTo(BigDecimal.ZERO) > 0 ? inputs.get(DOTHRNX) : inputs.get(DOTHRN),
+		}, in -> in.get(DOTHRNX) > 0 ? in.get(DOTHRNX)
+				: in.get(DOTHRN) < in.get(RUNNING_AFS) ? in.get(DOTHRN) : 0L,
 				null, null, null, null), Map.of(), null, false);
+		engine.addStep(DOTHRNA, new Steps.PreferPositiveStep(DOTHRNA, DOTHRNX, DOTHRN), Map.of(), null, false);
 
 		engine.addStep(RETHRY, new Steps.SkulocFieldStep(RETHRY), Map.of(), null, false);
-		engine.addStep(RETHRYX, new Steps.CalculationStep(RETHRYX, List.of(RUNNING_AFS, RETHRY), inputs -> {
-			BigDecimal available = inputs.get(RUNNING_AFS);
-			BigDecimal requested = inputs.get(RETHRY);
-			return available.compareTo(requested) < 0 ? available : BigDecimal.ZERO;
-		}, null, null, null, null), Map.of(), null, false);
+		engine.addStep(RETHRYX, new Steps.ShortfallStep(RETHRYX, RUNNING_AFS, RETHRY), Map.of(), null, false);
 		engine.addStep(RETHRYZ,
-				new Steps.CalculationStep(RETHRYZ, List.of(RETHRY, RETHRYX, RETHRYA, RUNNING_AFS), inputs -> {
+				new Steps.CalculationStep(RETHRYZ, List.of(RETHRY, RETHRYX, RUNNING_AFS), inputs -> {
 					BigDecimal result = BigDecimal.ZERO;
 					BigDecimal retHRY = inputs.get(RETHRY);
 					BigDecimal retHRYX = inputs.get(RETHRYX);
@@ -472,19 +1137,15 @@ public class ReserveCalculationEngine {
 
 					return result;
 
-				}, null, null, null, null), Map.of(), null, false);
-		engine.addStep(RETHRYA, new Steps.CalculationStep(RETHRYA, List.of(RETHRY, RETHRYX),
-				inputs -> inputs.get(RETHRYX).compareTo(BigDecimal.ZERO) > 0 ? inputs.get(RETHRYX) : inputs.get(RETHRY),
-				null, null, null, null), Map.of(), null, false);
+				}, in -> in.get(RETHRYX) > 0 ? in.get(RETHRYX)
+						: in.get(RETHRY) < in.get(RUNNING_AFS) ? in.get(RETHRY) : 0L,
+						null, null, null, null), Map.of(), null, false);
+		engine.addStep(RETHRYA, new Steps.PreferPositiveStep(RETHRYA, RETHRYX, RETHRY), Map.of(), null, false);
 
 		engine.addStep(RETHRN, new Steps.SkulocFieldStep(RETHRN), Map.of(), null, false);
-		engine.addStep(RETHRNX, new Steps.CalculationStep(RETHRNX, List.of(RUNNING_AFS, RETHRN), inputs -> {
-			BigDecimal available = inputs.get(RUNNING_AFS);
-			BigDecimal requested = inputs.get(RETHRN);
-			return available.compareTo(requested) < 0 ? available : BigDecimal.ZERO;
-		}, null, null, null, null), Map.of(), null, false);
+		engine.addStep(RETHRNX, new Steps.ShortfallStep(RETHRNX, RUNNING_AFS, RETHRN), Map.of(), null, false);
 		engine.addStep(RETHRNZ,
-				new Steps.CalculationStep(RETHRNZ, List.of(RETHRN, RETHRNX, RETHRNA, RUNNING_AFS), inputs -> {
+				new Steps.CalculationStep(RETHRNZ, List.of(RETHRN, RETHRNX, RUNNING_AFS), inputs -> {
 					BigDecimal result = BigDecimal.ZERO;
 					BigDecimal retHRN = inputs.get(RETHRN);
 					BigDecimal retHRNX = inputs.get(RETHRNX);
@@ -499,19 +1160,15 @@ public class ReserveCalculationEngine {
 
 					return result;
 
-				}, null, null, null, null), Map.of(), null, false);
-		engine.addStep(RETHRNA, new Steps.CalculationStep(RETHRNA, List.of(RETHRN, RETHRNX),
-				inputs -> inputs.get(RETHRNX).compareTo(BigDecimal.ZERO) > 0 ? inputs.get(RETHRNX) : inputs.get(RETHRN),
-				null, null, null, null), Map.of(), null, false);
+				}, in -> in.get(RETHRNX) > 0 ? in.get(RETHRNX)
+						: in.get(RETHRN) < in.get(RUNNING_AFS) ? in.get(RETHRN) : 0L,
+						null, null, null, null), Map.of(), null, false);
+		engine.addStep(RETHRNA, new Steps.PreferPositiveStep(RETHRNA, RETHRNX, RETHRN), Map.of(), null, false);
 
 		engine.addStep(HLDHR, new Steps.SkulocFieldStep(HLDHR), Map.of(), null, false);
-		engine.addStep(HLDHRX, new Steps.CalculationStep(HLDHRX, List.of(RUNNING_AFS, HLDHR), inputs -> {
-			BigDecimal available = inputs.get(RUNNING_AFS);
-			BigDecimal requested = inputs.get(HLDHR);
-			return available.compareTo(requested) < 0 ? available : BigDecimal.ZERO;
-		}, null, null, null, null), Map.of(), null, false);
+		engine.addStep(HLDHRX, new Steps.ShortfallStep(HLDHRX, RUNNING_AFS, HLDHR), Map.of(), null, false);
 		engine.addStep(HLDHRZ,
-				new Steps.CalculationStep(HLDHRZ, List.of(HLDHR, HLDHRX, HLDHRA, RUNNING_AFS), inputs -> {
+				new Steps.CalculationStep(HLDHRZ, List.of(HLDHR, HLDHRX, RUNNING_AFS), inputs -> {
 					BigDecimal result = BigDecimal.ZERO;
 					BigDecimal heldHR = inputs.get(HLDHR);
 					BigDecimal heldHRX = inputs.get(HLDHRX);
@@ -526,18 +1183,14 @@ public class ReserveCalculationEngine {
 
 					return result;
 
-				}, null, null, null, null), Map.of(), null, false);
-		engine.addStep(HLDHRA, new Steps.CalculationStep(HLDHRA, List.of(HLDHR, HLDHRX),
-				inputs -> inputs.get(HLDHRX).compareTo(BigDecimal.ZERO) > 0 ? inputs.get(HLDHRX) : inputs.get(HLDHR),
-				null, null, null, null), Map.of(), null, false);
+				}, in -> in.get(HLDHRX) > 0 ? in.get(HLDHRX)
+						: in.get(HLDHR) < in.get(RUNNING_AFS) ? in.get(HLDHR) : 0L,
+						null, null, null, null), Map.of(), null, false);
+		engine.addStep(HLDHRA, new Steps.PreferPositiveStep(HLDHRA, HLDHRX, HLDHR), Map.of(), null, false);
 
 		// Soft Reserve Fields
 		engine.addStep(DOTRSV, new Steps.SkulocFieldStep(DOTRSV), Map.of(), null, false);
-		engine.addStep(DOTRSVX, new Steps.CalculationStep(DOTRSVX, List.of(RUNNING_AFS, DOTRSV), inputs -> {
-			BigDecimal available = inputs.get(RUNNING_AFS);
-			BigDecimal requested = inputs.get(DOTRSV);
-			return available.compareTo(requested) < 0 ? available : BigDecimal.ZERO;
-		}, null, null, null, null), Map.of(), null, false);
+		engine.addStep(DOTRSVX, new Steps.ShortfallStep(DOTRSVX, RUNNING_AFS, DOTRSV), Map.of(), null, false);
 		engine.addStep(DOTRSVZ, new Steps.CalculationStep(DOTRSVZ, List.of(DOTRSV, DOTRSVX, RUNNING_AFS), inputs -> {
 			BigDecimal result = BigDecimal.ZERO;
 			BigDecimal dotRSV = inputs.get(DOTRSV);
@@ -553,19 +1206,15 @@ public class ReserveCalculationEngine {
 
 			return result;
 
-		}, null, null, null, null), Map.of(), null, false);
-		engine.addStep(DOTRSVA, new Steps.CalculationStep(DOTRSVA, List.of(DOTRSV, DOTRSVX),
-				inputs -> inputs.get(DOTRSVX).compareTo(BigDecimal.ZERO) > 0 ? inputs.get(DOTRSVX) : inputs.get(DOTRSV),
+		}, in -> in.get(DOTRSVX) > 0 ? in.get(DOTRSVX)
+				: in.get(DOTRSV) < in.get(RUNNING_AFS) ? in.get(DOTRSV) : 0L,
 				null, null, null, null), Map.of(), null, false);
+		engine.addStep(DOTRSVA, new Steps.PreferPositiveStep(DOTRSVA, DOTRSVX, DOTRSV), Map.of(), null, false);
 
 		engine.addStep(RETRSV, new Steps.SkulocFieldStep(RETRSV), Map.of(), null, false);
-		engine.addStep(RETRSVX, new Steps.CalculationStep(RETRSVX, List.of(RUNNING_AFS, RETRSV), inputs -> {
-			BigDecimal available = inputs.get(RUNNING_AFS);
-			BigDecimal requested = inputs.get(RETRSV);
-			return available.compareTo(requested) < 0 ? available : BigDecimal.ZERO;
-		}, null, null, null, null), Map.of(), null, false);
+		engine.addStep(RETRSVX, new Steps.ShortfallStep(RETRSVX, RUNNING_AFS, RETRSV), Map.of(), null, false);
 		engine.addStep(RETRSVZ,
-				new Steps.CalculationStep(RETRSVZ, List.of(RETRSV, RETRSVX, RETRSVA, RUNNING_AFS), inputs -> {
+				new Steps.CalculationStep(RETRSVZ, List.of(RETRSV, RETRSVX, RUNNING_AFS), inputs -> {
 					BigDecimal result = BigDecimal.ZERO;
 					BigDecimal retRSV = inputs.get(RETRSV);
 					BigDecimal retRSVX = inputs.get(RETRSVX);
@@ -580,33 +1229,28 @@ public class ReserveCalculationEngine {
 
 					return result;
 
-				}, null, null, null, null), Map.of(), null, false);
-		engine.addStep(RETRSVA, new Steps.CalculationStep(RETRSVA, List.of(RETRSV, RETRSVX),
-				inputs -> inputs.get(RETRSVX).compareTo(BigDecimal.ZERO) > 0 ? inputs.get(RETRSVX) : inputs.get(RETRSV),
-				null, null, null, null), Map.of(), null, false);
+				}, in -> in.get(RETRSVX) > 0 ? in.get(RETRSVX)
+						: in.get(RETRSV) < in.get(RUNNING_AFS) ? in.get(RETRSV) : 0L,
+						null, null, null, null), Map.of(), null, false);
+		engine.addStep(RETRSVA, new Steps.PreferPositiveStep(RETRSVA, RETRSVX, RETRSV), Map.of(), null, false);
 
 		// Other Input Fields
 		engine.addStep(DOTOUTB, new Steps.SkulocFieldStep(DOTOUTB), Map.of(), null, false);
-		engine.addStep(AOUTBV, new Steps.CalculationStep(AOUTBV, List.of(DOTOUTB, DOTATS, BYCL), (inputs, special) -> {
-			String buyerClass = (String) special;
+		engine.addStep(AOUTBV, new Steps.CalculationStep(AOUTBV, List.of(DOTOUTB, DOTATS, BYCL), inputs -> {
+			String buyerClass = inputs.getString(BYCL);
 			if ("R".equals(buyerClass) || "W".equals(buyerClass)) {
 				BigDecimal dotoutb = inputs.get(DOTOUTB);
 				BigDecimal dotats = inputs.get(DOTATS);
 				return dotoutb.subtract(dotats).max(BigDecimal.ZERO);
 			}
 			return BigDecimal.ZERO;
-		}, (context, flow) -> {
-			ReserveCalcStep step = context.getStep(flow, BYCL);
-			if (step instanceof Steps.SkulocStringFieldStep) {
-				return ((Steps.SkulocStringFieldStep) step).getStringValue();
-			}
-			return "";
-		}, null, null, null, null), Map.of(), null, false);
-		engine.addStep(AOUTBVX, new Steps.CalculationStep(AOUTBVX, List.of(RUNNING_AFS, AOUTBV), inputs -> {
-			BigDecimal available = inputs.get(RUNNING_AFS);
-			BigDecimal requested = inputs.get(AOUTBV);
-			return available.compareTo(requested) < 0 ? available : BigDecimal.ZERO;
+		}, in -> {
+			String buyerClass = in.getString(BYCL);
+			return "R".equals(buyerClass) || "W".equals(buyerClass)
+					? Math.max(Math.subtractExact(in.get(DOTOUTB), in.get(DOTATS)), 0L)
+					: 0L;
 		}, null, null, null, null), Map.of(), null, false);
+		engine.addStep(AOUTBVX, new Steps.ShortfallStep(AOUTBVX, RUNNING_AFS, AOUTBV), Map.of(), null, false);
 		engine.addStep(AOUTBVZ, new Steps.CalculationStep(AOUTBVZ, List.of(AOUTBV, AOUTBVX, RUNNING_AFS), inputs -> {
 			BigDecimal result = BigDecimal.ZERO;
 			BigDecimal aOUTBV = inputs.get(AOUTBV);
@@ -622,25 +1266,22 @@ public class ReserveCalculationEngine {
 
 			return result;
 
-		}, null, null, null, null), Map.of(), null, false);
-		engine.addStep(AOUTBVA, new Steps.CalculationStep(AOUTBVA, List.of(AOUTBV, AOUTBVX),
-				inputs -> inputs.get(AOUTBVX).compareTo(BigDecimal.ZERO) > 0 ? inputs.get(AOUTBVX) : inputs.get(AOUTBV),
+		}, in -> in.get(AOUTBVX) > 0 ? in.get(AOUTBVX)
+				: in.get(AOUTBV) < in.get(RUNNING_AFS) ? in.get(AOUTBV) : 0L,
 				null, null, null, null), Map.of(), null, false);
+		engine.addStep(AOUTBVA, new Steps.PreferPositiveStep(AOUTBVA, AOUTBVX, AOUTBV), Map.of(), null, false);
 
 		engine.addStep(NEED, new Steps.SkulocFieldStep(NEED), Map.of(), null, false);
 		engine.addStep(ANEED, new Steps.CalculationStep(ANEED, List.of(NEED, RETAILATS), inputs -> {
 			BigDecimal need = inputs.get(NEED);
 			BigDecimal retailats = inputs.get(RETAILATS);
 			return need.subtract(retailats).max(BigDecimal.ZERO);
-		}, null, null, null, null), Map.of(), null, false);
+		}, in -> Math.max(Math.subtractExact(in.get(NEED), in.get(RETAILATS)), 0L),
+				null, null, null, null), Map.of(), null, false);
 
-		engine.addStep(NEEDX, new Steps.CalculationStep(NEEDX, List.of(RUNNING_AFS, ANEED), inputs -> {
-			BigDecimal available = inputs.get(RUNNING_AFS);
-			BigDecimal requested = inputs.get(ANEED);
-			return available.compareTo(requested) < 0 ? available : BigDecimal.ZERO;
-		}, null, null, null, null), Map.of(), null, false);
+		engine.addStep(NEEDX, new Steps.ShortfallStep(NEEDX, RUNNING_AFS, ANEED), Map.of(), null, false);
 		engine.addStep(ANEEDZ,
-				new Steps.CalculationStep(ANEEDZ, List.of(NEED, ANEED, NEEDX, NEEDA, RUNNING_AFS), inputs -> {
+				new Steps.CalculationStep(ANEEDZ, List.of(NEED, ANEED, NEEDX, RUNNING_AFS), inputs -> {
 					BigDecimal result = BigDecimal.ZERO;
 					BigDecimal aNeed = inputs.get(ANEED);
 					BigDecimal aNeedX = inputs.get(NEEDX);
@@ -655,25 +1296,18 @@ public class ReserveCalculationEngine {
 
 					return result;
 
-				}, null, null, null, null), Map.of(), null, false);
-		engine.addStep(NEEDA, new Steps.CalculationStep(NEEDA, List.of(ANEED, NEEDX),
-				inputs -> inputs.get(NEEDX).compareTo(BigDecimal.ZERO) > 0 ? inputs.get(NEEDX) : inputs.get(ANEED),
-				null, null, null, null), Map.of(), null, false);
+				}, in -> in.get(NEEDX) > 0 ? in.get(NEEDX)
+						: in.get(ANEED) < in.get(RUNNING_AFS) ? in.get(ANEED) : 0L,
+						null, null, null, null), Map.of(), null, false);
+		engine.addStep(NEEDA, new Steps.PreferPositiveStep(NEEDA, NEEDX, ANEED), Map.of(), null, false);
 		// ===== PHASE 3: RUNNING INVENTORY SETUP =====
 
 		// RUNNING_AFS - Tracks remaining inventory as allocations are made
 		engine.addStep(RUNNING_AFS,
 				new Steps.RunningWithInitialStep(RUNNING_AFS, INITAFS, List.of(SNBA, DTCOA, ROHPA, DOTHRYA, DOTHRNA,
-						RETHRYA, RETHRNA, HLDHRA, DOTRSVA, RETRSVA, AOUTBVA, NEEDA), false, (running, allocated) -> {
-							Logger logger = LoggerFactory.getLogger("Running AFS Formula");
-
-							logger.info("Inside Running AFS Formula, incoming values running {} - allocated {}",
-									running, allocated);
-							BigDecimal result = running.subtract(allocated).max(BigDecimal.ZERO);
-							logger.info("Calcualted values new running {}", result);
-
-							return result;
-						}),
+						RETHRYA, RETHRNA, HLDHRA, DOTRSVA, RETRSVA, AOUTBVA, NEEDA), false,
+						(running, allocated) -> running.subtract(allocated).max(BigDecimal.ZERO),
+						(running, allocated) -> Math.max(Math.subtractExact(running, allocated), 0L)),
 				Map.of(), null, false);
 
 		// ===== PHASE 2: CORE CALCULATIONS =====
@@ -683,7 +1317,9 @@ public class ReserveCalculationEngine {
 			BigDecimal result = inputs.get(INITAFS).subtract(inputs.get(SNB)).subtract(inputs.get(DTCO))
 					.subtract(inputs.get(ROHP));
 			return result.max(BigDecimal.ZERO);
-		}, null, null, null, null), Map.of(), null, false);
+		}, in -> Math.max(Math.subtractExact(
+				Math.subtractExact(Math.subtractExact(in.get(INITAFS), in.get(SNB)), in.get(DTCO)), in.get(ROHP)), 0L),
+				null, null, null, null), Map.of(), null, false);
 
 		// ===== PHASE 4: SEQUENTIAL CONSTRAINT PROCESSING =====
 
@@ -703,32 +1339,10 @@ public class ReserveCalculationEngine {
 		// DOTATS - Accumulates DOT allocations (starts at ZERO)
 		engine.addStep(DOTATS, new Steps.RunningCalculationStep(DOTATS, BigDecimal.ZERO, // Start at 0
 				List.of(DOTHRYZ, DOTRSVZ, AOUTBVZ), // Trigger on base fields for now
-				false, (running, allocated) -> {
-
-					Logger logger = LoggerFactory.getLogger("Running DOTATS Formula");
-
-					logger.info("Inside Running DOTATS Formula, incoming values running {} - allocated {}", running,
-							allocated);
-
-					BigDecimal result = running.add(allocated);
-					logger.info("Calcualted values new running DOT ATS {}", result);
-
-					return result;
-				}), Map.of(), null, false);
+				false, BigDecimal::add, Math::addExact), Map.of(), null, false);
 		// RETAILATS - Accumulates RETAIL allocations (starts at ZERO)
 		engine.addStep(RETAILATS, new Steps.RunningCalculationStep(RETAILATS, BigDecimal.ZERO, // Start at 0
-				List.of(RETHRYZ, RETRSVZ, ANEEDZ), false, (running, allocated) -> {
-
-					Logger logger = LoggerFactory.getLogger("Running RETAILATS Formula");
-
-					logger.info("Inside Running RETAILATS Formula, incoming values running {} - allocated {}", running,
-							allocated);
-
-					BigDecimal result = running.add(allocated);
-					logger.info("Calcualted values new running Retail ATS {}", result);
-
-					return result;
-				}), Map.of(), null, false);
+				List.of(RETHRYZ, RETRSVZ, ANEEDZ), false, BigDecimal::add, Math::addExact), Map.of(), null, false);
 
 		// ===== PHASE 7: SUMMARY/AGGREGATE FIELDS =====
 
@@ -738,18 +1352,21 @@ public class ReserveCalculationEngine {
 			BigDecimal rohp = inputs.get(ROHP);
 			BigDecimal commited = snb.add(dtco).add(rohp);
 			return commited;
-		}, null, null, null, null), Map.of(), null, false); // isDynamic = true
+		}, in -> Math.addExact(Math.addExact(in.get(SNB), in.get(DTCO)), in.get(ROHP)),
+				null, null, null, null), Map.of(), null, false); // isDynamic = true
 
 		// Final value ofrunning inventory
 		engine.addStep(UNCOMMIT, new Steps.CalculationStep(UNCOMMIT, List.of(RUNNING_AFS),
-				inputs -> inputs.get(RUNNING_AFS), null, null, null, null), Map.of(), null, false);
+				inputs -> inputs.get(RUNNING_AFS), in -> in.get(RUNNING_AFS),
+						null, null, null, null), Map.of(), null, false);
 
 		engine.addStep(UNCOMMHR, new Steps.CalculationStep(UNCOMMHR, List.of(DOTHRNZ, RETHRNZ, HLDHRZ), inputs -> {
 			BigDecimal dotNo = inputs.get(DOTHRNZ);
 			BigDecimal retNo = inputs.get(RETHRNZ);
 			BigDecimal held = inputs.get(HLDHRZ);
 			return dotNo.add(retNo).add(held);
-		}, null, null, null, null), Map.of(), null, false); // isDynamic = true
+		}, in -> Math.addExact(Math.addExact(in.get(DOTHRNZ), in.get(RETHRNZ)), in.get(HLDHRZ)),
+				null, null, null, null), Map.of(), null, false); // isDynamic = true
 
 		// ===== PHASE 8: OUTPUT FIELDS =====
 
@@ -766,7 +1383,8 @@ public class ReserveCalculationEngine {
 			BigDecimal dotATS = inputs.get(DOTATS);
 			BigDecimal dtcoAct = inputs.get(DTCOA); // Use A field as it already checks for constraints
 			return dotATS.add(dtcoAct);
-		}, null, null, null, null), Map.of(CalculationFlow.JEI,
+		}, in -> in.get(INITAFS) < 0 ? 0L : Math.addExact(in.get(DOTATS), in.get(DTCOA)),
+				null, null, null, null), Map.of(CalculationFlow.JEI,
 				new Steps.CalculationStep(OMSSUP, List.of(INITAFS, DOTATS, DTCOA, SNBA, DOTHRNA, UNCOMAFS), inputs -> {
 //                                    BigDecimal afs = inputs.get(INITAFS);
 //                                    if (afs.compareTo(BigDecimal.ZERO) < 0) return BigDecimal.ZERO;
@@ -804,6 +1422,12 @@ public class ReserveCalculationEngine {
 						lResult = dtcoAct.add(snbA);
 
 					return lResult;
+				}, in -> {
+					if (in.get(INITAFS) < 0)
+						return 0L;
+					long result = Math.addExact(Math.addExact(in.get(DOTATS), in.get(DTCOA)), in.get(SNBA));
+					result = Math.addExact(Math.addExact(result, in.get(DOTHRNA)), in.get(UNCOMAFS));
+					return in.get(UNCOMAFS) < 0 ? Math.addExact(in.get(DTCOA), in.get(SNBA)) : result;
 				}, null, null, null, null)), null, false);
 
 		// RETFINAL with flow-specific logic
@@ -817,7 +1441,7 @@ public class ReserveCalculationEngine {
 			BigDecimal retFinal = retATS;
 
 			return retFinal;
-		}, null, null, null, null), Map.of(CalculationFlow.JEI,
+		}, in -> in.get(INITAFS) < 0 ? 0L : in.get(RETAILATS), null, null, null, null), Map.of(CalculationFlow.JEI,
 				new Steps.CalculationStep(RETFINAL, List.of(INITAFS, RETAILATS, RETHRNA, ROHPA, HLDHRA), inputs -> {
 					BigDecimal afs = inputs.get(INITAFS);
 					BigDecimal retFinal = afs;
@@ -830,7 +1454,8 @@ public class ReserveCalculationEngine {
 					retFinal.add(rethrnActA).add(rohpActA).add(heldActA);
 
 					return retFinal;
-				}, null, null, null, null), CalculationFlow.FRM,
+				}, in -> in.get(INITAFS), // same as above: the sum is never assigned
+						null, null, null, null), CalculationFlow.FRM,
 				new Steps.CalculationStep(RETFINAL, List.of(INITAFS, RETAILATS, AOUTBVA), inputs -> {
 					BigDecimal afs = inputs.get(INITAFS);
 					BigDecimal retATS = inputs.get(RETAILATS);
@@ -842,7 +1467,8 @@ public class ReserveCalculationEngine {
 					BigDecimal retFinal = retATS.add(aoutBVA);
 
 					return retFinal;
-				}, null, null, null, null)), null, false);
+				}, in -> in.get(INITAFS) < 0 ? 0L : Math.addExact(in.get(RETAILATS), in.get(AOUTBVA)),
+						null, null, null, null)), null, false);
 
 		// OMSFINAL with flow-specific logic
 		// OMSFINAL with buyer class logic
@@ -851,24 +1477,22 @@ public class ReserveCalculationEngine {
 		// JEI logic: Simply return OMSSUP value
 		// Note: FRM flow will use the main (OMS) step since no alternate provided
 
-		engine.addStep(OMSFINAL, new Steps.CalculationStep(OMSFINAL, List.of(OMSSUP, BYCL), (inputs, special) -> {
+		engine.addStep(OMSFINAL, new Steps.CalculationStep(OMSFINAL, List.of(OMSSUP, BYCL), inputs -> {
 			BigDecimal omsSup = inputs.get(OMSSUP);
 			if (omsSup.compareTo(BigDecimal.ZERO) == 0) {
 				return BigDecimal.ZERO;
 			}
 
-			String buyerClass = (String) special;
+			String buyerClass = inputs.getString(BYCL);
 			if ("R".equals(buyerClass) || "W".equals(buyerClass)) {
 				return omsSup;
 			}
 			return BigDecimal.ZERO;
-		}, (context, flow) -> {
-			ReserveCalcStep step = context.getStep(flow, BYCL);
-			if (step instanceof Steps.SkulocStringFieldStep) {
-				return ((Steps.SkulocStringFieldStep) step).getStringValue();
-			}
-			return "";
+		}, in -> {
+			long omsSup = in.get(OMSSUP);
+			String buyerClass = in.getString(BYCL);
+			return omsSup != 0 && ("R".equals(buyerClass) || "W".equals(buyerClass)) ? omsSup : 0L;
 		}, null, null, null, null), Map.of(CalculationFlow.JEI, new Steps.CalculationStep(OMSFINAL, List.of(OMSSUP),
-				inputs -> inputs.get(OMSSUP), null, null, null, null)), null, false);
+				inputs -> inputs.get(OMSSUP), in -> in.get(OMSSUP), null, null, null, null)), null, false);
 	}
 }
\ No newline at end of file
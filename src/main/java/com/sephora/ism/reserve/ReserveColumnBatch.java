@@ -0,0 +1,240 @@
+package com.sephora.ism.reserve;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Columnar batch of SKULOC records for multi-million-record recalculations.
+ * Inputs are one long[] column per numeric SKULOC input field plus a
+ * dictionary coded buyer class column; outputs are one long[] column per
+ * flow and output field. A batch of any size is a few dozen arrays and no
+ * per-record objects, and the output columns can be handed to a writer as
+ * they are.
+ * <p>
+ * Values are whole units, as on the long kernel. Records with fractional
+ * inputs cannot be held and have to be calculated through
+ * InitialValueWrapper instead. Records whose calculation overflows a long
+ * are recalculated on the BigDecimal path: their output columns hold zeros,
+ * {@link #isFallback(int)} is true and {@link #getResult(int)} returns the
+ * BigDecimal result.
+ * <p>
+ * Fill a batch from one thread before calculating it; see
+ * {@link ReserveCalculationEngine#calculate(ReserveColumnBatch, Set, Set)}.
+ */
+public final class ReserveColumnBatch {
+
+	private static final int OUTPUT_COUNT = ReserveResult.OUTPUT_FIELDS.size();
+
+	private final int size;
+	// [field ordinal], null for fields that are not inputs or have no values
+	private final long[][] inputs = new long[ReserveField.values().length][];
+	private int[] buyerClassCodes;
+	private final List<String> buyerClasses = new ArrayList<>(List.of(""));
+	private final Map<String, Integer> buyerClassIndex = new HashMap<>(Map.of("", 0));
+
+	// [flow ordinal][output index], null for flows and fields not calculated
+	private final long[][][] outputs = new long[CalculationFlow.values().length][][];
+	private Set<CalculationFlow> calculatedFlows = EnumSet.noneOf(CalculationFlow.class);
+	private final Map<Integer, ReserveResult> fallbackResults = new ConcurrentHashMap<>();
+
+	public ReserveColumnBatch(int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException("size must not be negative: " + size);
+		}
+		this.size = size;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Input column of a numeric SKULOC input field, for readers that fill a
+	 * batch a column at a time. Writes to the array are writes to the batch.
+	 *
+	 * @throws IllegalArgumentException if the field is not a numeric input
+	 */
+	public long[] getInputColumn(ReserveField field) {
+		if (!ReserveField.numericInputs().contains(field)) {
+			throw new IllegalArgumentException("Not a numeric input field: " + field);
+		}
+		long[] column = inputs[field.ordinal()];
+		if (column == null) {
+			column = new long[size];
+			inputs[field.ordinal()] = column;
+		}
+		return column;
+	}
+
+	boolean hasInput(ReserveField field) {
+		return inputs[field.ordinal()] != null;
+	}
+
+	public void set(int row, ReserveField field, long value) {
+		getInputColumn(field)[row] = value;
+	}
+
+	public long get(int row, ReserveField field) {
+		long[] column = inputs[field.ordinal()];
+		return column == null ? 0L : column[row];
+	}
+
+	public void setBuyerClass(int row, String buyerClass) {
+		if (buyerClassCodes == null) {
+			buyerClassCodes = new int[size];
+		}
+		buyerClassCodes[row] = buyerClassIndex.computeIfAbsent(buyerClass == null ? "" : buyerClass, added -> {
+			buyerClasses.add(added);
+			return buyerClasses.size() - 1;
+		});
+	}
+
+	/**
+	 * Buyer class of a row, or an empty string if it has none.
+	 */
+	public String getBuyerClass(int row) {
+		return buyerClassCodes == null ? "" : buyerClasses.get(buyerClassCodes[row]);
+	}
+
+	/**
+	 * Copy one record's numeric inputs and buyer class into a row.
+	 *
+	 * @throws IllegalArgumentException if an input is not a whole number that
+	 *                                  fits in a long
+	 */
+	public void setRow(int row, InitialValueWrapper values) {
+		for (ReserveField field : ReserveField.numericInputs()) {
+			if (values.has(field)) {
+				BigDecimal value = values.get(field);
+				if (!Steps.isWholeNumber(value)) {
+					throw new IllegalArgumentException("Not a whole number of units: " + field + "=" + value);
+				}
+				set(row, field, value.longValue());
+			} else if (hasInput(field)) {
+				set(row, field, 0L);
+			}
+		}
+		if (values.has(ReserveField.BYCL) || buyerClassCodes != null) {
+			setBuyerClass(row, values.getString(ReserveField.BYCL));
+		}
+	}
+
+	/**
+	 * A row's inputs as a wrapper, for calculating it one record at a time.
+	 */
+	InitialValueWrapper getRow(int row) {
+		Map<ReserveField, BigDecimal> values = new HashMap<>();
+		for (ReserveField field : ReserveField.numericInputs()) {
+			if (hasInput(field)) {
+				values.put(field, BigDecimal.valueOf(inputs[field.ordinal()][row]));
+			}
+		}
+		Map<ReserveField, String> stringValues = new HashMap<>();
+		if (buyerClassCodes != null) {
+			values.put(ReserveField.BYCL, BigDecimal.ZERO);
+			stringValues.put(ReserveField.BYCL, getBuyerClass(row));
+		}
+		return InitialValueWrapper.of(values, stringValues);
+	}
+
+	/**
+	 * Allocate the output columns of every field the plan calculates, and
+	 * drop the results of an earlier calculation.
+	 */
+	void prepareOutputs(ReservePlan plan) {
+		calculatedFlows = EnumSet.copyOf(plan.getFlows());
+		fallbackResults.clear();
+		for (CalculationFlow flow : CalculationFlow.values()) {
+			outputs[flow.ordinal()] = null;
+		}
+		for (CalculationFlow flow : plan.getFlows()) {
+			Set<ReserveField> calculated = EnumSet.noneOf(ReserveField.class);
+			plan.getSteps(flow).forEach(step -> calculated.add(step.getFieldName()));
+			plan.getRunningSteps(flow).forEach(step -> calculated.add(step.getFieldName()));
+			long[][] flowOutputs = new long[OUTPUT_COUNT][];
+			for (int i = 0; i < OUTPUT_COUNT; i++) {
+				if (calculated.contains(ReserveResult.OUTPUT_FIELDS.get(i))) {
+					flowOutputs[i] = new long[size];
+				}
+			}
+			outputs[flow.ordinal()] = flowOutputs;
+		}
+	}
+
+	// Copy a calculated block from a lane into the output columns of its flow
+	void writeOutputs(ReserveColumnLane lane) {
+		long[][] flowOutputs = outputs[lane.getFlow().ordinal()];
+		for (int i = 0; i < OUTPUT_COUNT; i++) {
+			if (flowOutputs[i] != null) {
+				System.arraycopy(lane.column(ReserveResult.OUTPUT_FIELDS.get(i)), 0, flowOutputs[i], lane.from(),
+						lane.rows());
+			}
+		}
+	}
+
+	void setFallbackResult(int row, ReserveResult result) {
+		fallbackResults.put(row, result);
+	}
+
+	/**
+	 * Flows of the last calculation, in CalculationFlow order.
+	 */
+	public Set<CalculationFlow> getCalculatedFlows() {
+		return calculatedFlows;
+	}
+
+	/**
+	 * Output column of a flow and output field, or null if the last
+	 * calculation did not calculate it. Rows that fell back to BigDecimal
+	 * hold zero.
+	 */
+	public long[] getOutputColumn(CalculationFlow flow, ReserveField field) {
+		int index = ReserveResult.OUTPUT_FIELDS.indexOf(field);
+		if (index < 0) {
+			throw new IllegalArgumentException("Not an output field: " + field);
+		}
+		long[][] flowOutputs = outputs[flow.ordinal()];
+		return flowOutputs == null ? null : flowOutputs[index];
+	}
+
+	/**
+	 * True if the row overflowed the long kernel and its outputs are only
+	 * available from {@link #getResult(int)}.
+	 */
+	public boolean isFallback(int row) {
+		return fallbackResults.containsKey(row);
+	}
+
+	public int getFallbackCount() {
+		return fallbackResults.size();
+	}
+
+	/**
+	 * A row's outputs as a ReserveResult, the same as calculating the record
+	 * on its own would return.
+	 */
+	public ReserveResult getResult(int row) {
+		ReserveResult fallback = fallbackResults.get(row);
+		if (fallback != null) {
+			return fallback;
+		}
+		BigDecimal[][] values = new BigDecimal[CalculationFlow.values().length][];
+		for (CalculationFlow flow : calculatedFlows) {
+			long[][] flowOutputs = outputs[flow.ordinal()];
+			BigDecimal[] flowValues = new BigDecimal[OUTPUT_COUNT];
+			for (int i = 0; i < OUTPUT_COUNT; i++) {
+				if (flowOutputs[i] != null) {
+					flowValues[i] = BigDecimal.valueOf(flowOutputs[i][row]);
+				}
+			}
+			values[flow.ordinal()] = flowValues;
+		}
+		return new ReserveResult(values);
+	}
+}
@@ -0,0 +1,99 @@
+package com.sephora.ism.reserve;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Select and compare loops the columnar kernel runs over a block of rows:
+ * the constraint patterns of the X, A and clamp steps. Every operation reads
+ * the first {@code rows} values of its input columns and writes the same
+ * rows of {@code out}; none of them can overflow.
+ * <p>
+ * The scalar kernel is always available. The vector kernel needs the
+ * {@code jdk.incubator.vector} module ({@code --add-modules
+ * jdk.incubator.vector}) and a CPU with at least two long lanes;
+ * {@link #forMode(ColumnKernelMode)} falls back to the scalar kernel when
+ * either is missing.
+ */
+abstract class ReserveColumnKernel {
+
+	private static final Logger logger = LoggerFactory.getLogger(ReserveColumnKernel.class);
+
+	static final ReserveColumnKernel SCALAR = new ScalarColumnKernel();
+
+	/**
+	 * The kernel for a mode, or the scalar kernel if the vector kernel is
+	 * requested but not available.
+	 */
+	static ReserveColumnKernel forMode(ColumnKernelMode mode) {
+		if (mode == ColumnKernelMode.VECTOR && VectorHolder.KERNEL != null) {
+			return VectorHolder.KERNEL;
+		}
+		return SCALAR;
+	}
+
+	abstract ColumnKernelMode getMode();
+
+	/**
+	 * {@code out = available < requested ? available : 0}
+	 */
+	abstract void shortfall(long[] available, long[] requested, long[] out, int rows);
+
+	/**
+	 * {@code out = preferred > 0 ? preferred : base}
+	 */
+	abstract void preferPositive(long[] preferred, long[] base, long[] out, int rows);
+
+	/**
+	 * {@code out = max(min(base, constraint), 0)}
+	 */
+	abstract void clamp(long[] base, long[] constraint, long[] out, int rows);
+
+	// Loaded on first use, so the scalar kernel never touches the incubator module
+	private static final class VectorHolder {
+
+		static final ReserveColumnKernel KERNEL = load();
+
+		private static ReserveColumnKernel load() {
+			try {
+				if (VectorColumnKernel.isAccelerated()) {
+					return new VectorColumnKernel();
+				}
+				logger.info("Vector column kernel disabled: fewer than two long lanes, using scalar kernel");
+			} catch (LinkageError e) {
+				logger.info("Vector column kernel unavailable ({}), using scalar kernel; "
+						+ "add --add-modules jdk.incubator.vector to enable it", e.toString());
+			}
+			return null;
+		}
+	}
+
+	static final class ScalarColumnKernel extends ReserveColumnKernel {
+
+		@Override
+		ColumnKernelMode getMode() {
+			return ColumnKernelMode.SCALAR;
+		}
+
+		@Override
+		void shortfall(long[] available, long[] requested, long[] out, int rows) {
+			for (int row = 0; row < rows; row++) {
+				out[row] = available[row] < requested[row] ? available[row] : 0L;
+			}
+		}
+
+		@Override
+		void preferPositive(long[] preferred, long[] base, long[] out, int rows) {
+			for (int row = 0; row < rows; row++) {
+				out[row] = preferred[row] > 0 ? preferred[row] : base[row];
+			}
+		}
+
+		@Override
+		void clamp(long[] base, long[] constraint, long[] out, int rows) {
+			for (int row = 0; row < rows; row++) {
+				out[row] = Math.max(Math.min(base[row], constraint[row]), 0L);
+			}
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package com.sephora.ism.reserve;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Working values of one flow on the columnar kernel, for one block of rows
+ * of a {@link ReserveColumnBatch} at a time: a long column per field, indexed
+ * by field ordinal, each as long as the largest block. Columns are allocated
+ * the first time a step writes or reads them and reused for every block.
+ * <p>
+ * The lane is also the {@link LongFormula.Inputs} of the row set with
+ * {@link #setRow(int)}, so formulas written for the long kernel run on it
+ * unchanged. Select and compare steps run their loops through the lane's
+ * {@link ReserveColumnKernel}.
+ */
+final class ReserveColumnLane implements LongFormula.Inputs {
+
+	private static final List<ReserveField> INPUT_FIELDS = ReserveField.numericInputs();
+
+	private final ReserveColumnBatch batch;
+	private final CalculationFlow flow;
+	private final ReserveColumnKernel kernel;
+	private final int capacity;
+	private final long[][] columns = new long[ReserveField.values().length][];
+	private final boolean[] runningInitialized = new boolean[ReserveField.values().length];
+	private final boolean[] overflow;
+	private int from;
+	private int rows;
+	private int row;
+	private boolean overflowed;
+
+	ReserveColumnLane(ReserveColumnBatch batch, CalculationFlow flow, ReserveColumnKernel kernel, int capacity) {
+		this.batch = batch;
+		this.flow = flow;
+		this.kernel = kernel;
+		this.capacity = capacity;
+		this.overflow = new boolean[capacity];
+	}
+
+	/**
+	 * Start the block of {@code rows} rows at batch row {@code from}: every
+	 * input column of the batch is copied in, as the long kernel seeds a
+	 * context's slots from its inputs, and all overflow and running total
+	 * state is cleared.
+	 */
+	void startBlock(int from, int rows) {
+		if (rows > capacity) {
+			throw new IllegalArgumentException("Block of " + rows + " rows exceeds lane capacity " + capacity);
+		}
+		this.from = from;
+		this.rows = rows;
+		this.row = 0;
+		this.overflowed = false;
+		Arrays.fill(overflow, 0, rows, false);
+		Arrays.fill(runningInitialized, false);
+		for (int i = 0; i < INPUT_FIELDS.size(); i++) {
+			ReserveField field = INPUT_FIELDS.get(i);
+			if (batch.hasInput(field)) {
+				copyInput(field, column(field));
+			}
+		}
+	}
+
+	CalculationFlow getFlow() {
+		return flow;
+	}
+
+	ReserveColumnKernel kernel() {
+		return kernel;
+	}
+
+	/**
+	 * Batch row of the block's first row.
+	 */
+	int from() {
+		return from;
+	}
+
+	int rows() {
+		return rows;
+	}
+
+	/**
+	 * Column of a field; only the block's first {@link #rows()} values are
+	 * meaningful.
+	 */
+	long[] column(ReserveField field) {
+		long[] column = columns[field.ordinal()];
+		if (column == null) {
+			column = new long[capacity];
+			columns[field.ordinal()] = column;
+		}
+		return column;
+	}
+
+	boolean hasColumn(ReserveField field) {
+		return columns[field.ordinal()] != null;
+	}
+
+	/**
+	 * Copy the block's rows of a batch input column into {@code target}, or
+	 * zeros if the batch has no values for the field.
+	 */
+	void copyInput(ReserveField field, long[] target) {
+		if (batch.hasInput(field)) {
+			System.arraycopy(batch.getInputColumn(field), from, target, 0, rows);
+		} else {
+			Arrays.fill(target, 0, rows, 0L);
+		}
+	}
+
+	void setRow(int row) {
+		this.row = row;
+	}
+
+	@Override
+	public long get(ReserveField field) {
+		long[] column = columns[field.ordinal()];
+		return column == null ? 0L : column[row];
+	}
+
+	@Override
+	public String getString(ReserveField field) {
+		return field == ReserveField.BYCL ? batch.getBuyerClass(from + row) : "";
+	}
+
+	void markOverflow(int row) {
+		overflow[row] = true;
+		overflowed = true;
+	}
+
+	boolean isOverflow(int row) {
+		return overflow[row];
+	}
+
+	boolean hasOverflow() {
+		return overflowed;
+	}
+
+	boolean isRunningInitialized(ReserveField field) {
+		return runningInitialized[field.ordinal()];
+	}
+
+	void markRunningInitialized(ReserveField field) {
+		runningInitialized[field.ordinal()] = true;
+	}
+}
@@ -0,0 +1,76 @@
+package com.sephora.ism.reserve;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Bounded pool of ReserveCalcContexts for request threads, so single-record
+ * and stream requests stop allocating a context's slot arrays and maps per
+ * call. Batch workers keep their own context per thread in
+ * {@link ReserveBatchExecutor} and do not use the pool.
+ * <p>
+ * A released context is reset and put back to the state of a new one; when
+ * {@code maxIdle} contexts are already idle it is left to the garbage
+ * collector. {@link #acquire()} never waits: with no idle context it
+ * constructs a new one.
+ */
+@Component
+public class ReserveContextPool {
+
+	private final BlockingQueue<ReserveCalcContext> idle;
+	private final LongAdder created = new LongAdder();
+
+	/**
+	 * @param maxIdle contexts kept for reuse between requests
+	 */
+	public ReserveContextPool(@Value("${reserve.context.pool-size:64}") int maxIdle) {
+		if (maxIdle <= 0) {
+			throw new IllegalArgumentException("reserve.context.pool-size must be positive: " + maxIdle);
+		}
+		this.idle = new ArrayBlockingQueue<>(maxIdle);
+	}
+
+	/**
+	 * An idle context, or a new one if none is idle. Either way it is in the
+	 * state of a newly constructed context.
+	 */
+	public ReserveCalcContext acquire() {
+		ReserveCalcContext context = idle.poll();
+		if (context == null) {
+			created.increment();
+			context = new ReserveCalcContext();
+		}
+		return context;
+	}
+
+	/**
+	 * Reset {@code context} and keep it for a later {@link #acquire()}. Nothing
+	 * read from the context may be used after this call unless it was copied,
+	 * as ReserveResult and the getAll methods do.
+	 */
+	public void release(ReserveCalcContext context) {
+		if (context == null) {
+			return;
+		}
+		context.reset();
+		context.setLogMode(null);
+		context.setTraceEnabled(false);
+		context.setParallelLanes(false);
+		context.setVerbose(false);
+		context.setStepMetrics(null, false);
+		idle.offer(context);
+	}
+
+	public int getIdleCount() {
+		return idle.size();
+	}
+
+	/** Contexts constructed because none was idle. */
+	public long getCreatedCount() {
+		return created.sum();
+	}
+}
@@ -1,5 +1,10 @@
 package com.sephora.ism.reserve;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Enum for all reserve calculation fields. The @ symbol in field names is
  * represented by different enum categories.
@@ -101,6 +106,20 @@ public enum ReserveField {
 
 	RUNNING_AFS("RUNNING_AFS", FieldCategory.SYSTEM, "Running UnCommited AFS");
 
+	private static final List<ReserveField> NUMERIC_INPUTS = Arrays.stream(values())
+			.filter(field -> field.category == FieldCategory.SKULOC && field != BYCL).toList();
+
+	// Built once so lookups neither scan values() nor throw for unknown names
+	private static final Map<String, ReserveField> BY_NAME = new HashMap<>();
+	private static final Map<String, ReserveField> BY_FIELD_NAME = new HashMap<>();
+
+	static {
+		for (ReserveField field : values()) {
+			BY_NAME.put(field.name(), field);
+			BY_FIELD_NAME.put(field.fieldName, field);
+		}
+	}
+
 	private final String fieldName;
 	private final FieldCategory category;
 	private final String description;
@@ -144,12 +163,7 @@ public enum ReserveField {
 		if (!isConstraint()) {
 			return this;
 		}
-		String baseName = name().substring(0, name().length() - 1);
-		try {
-			return ReserveField.valueOf(baseName);
-		} catch (IllegalArgumentException e) {
-			return null;
-		}
+		return forName(name().substring(0, name().length() - 1));
 	}
 
 	/**
@@ -159,23 +173,34 @@ public enum ReserveField {
 		if (isConstraint()) {
 			return this;
 		}
-		try {
-			return ReserveField.valueOf(name() + "X");
-		} catch (IllegalArgumentException e) {
-			return null;
-		}
+		return forName(name() + "X");
+	}
+
+	/**
+	 * Numeric SKULOC input fields, in declaration order. The buyer class is a
+	 * string and not among them.
+	 */
+	public static List<ReserveField> numericInputs() {
+		return NUMERIC_INPUTS;
 	}
 
 	/**
 	 * Lookup by field name (handles @ prefix)
 	 */
 	public static ReserveField fromFieldName(String fieldName) {
-		for (ReserveField field : values()) {
-			if (field.fieldName.equals(fieldName)) {
-				return field;
-			}
+		ReserveField field = BY_FIELD_NAME.get(fieldName);
+		if (field == null) {
+			throw new IllegalArgumentException("Unknown field: " + fieldName);
 		}
-		throw new IllegalArgumentException("Unknown field: " + fieldName);
+		return field;
+	}
+
+	/**
+	 * Lookup by enum name, as valueOf, but null for an unknown name instead of
+	 * an exception.
+	 */
+	public static ReserveField forName(String name) {
+		return name == null ? null : BY_NAME.get(name);
 	}
 
 	/**
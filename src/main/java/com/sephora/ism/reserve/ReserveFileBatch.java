@@ -0,0 +1,686 @@
+package com.sephora.ism.reserve;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Offline recalculation of a flat file of SKULOC records into a flat file of
+ * results, for nightly full-chain runs that should not go through HTTP. Both
+ * files are memory-mapped a chunk at a time; each chunk is read into a
+ * {@link ReserveColumnBatch}, calculated on the workers of a
+ * {@link ReserveBatchExecutor} and written to the output at the position of
+ * its rows, so memory stays at one chunk however large the file is.
+ * <p>
+ * After every chunk the output is forced to disk and a checkpoint written
+ * next to it ({@code <output>.checkpoint}); a run that stops part way
+ * resumes from the last checkpoint, and the checkpoint is removed when the
+ * run completes. A checkpoint only resumes the same input file, flows and
+ * outputs.
+ * <p>
+ * Inputs are whole units, as ReserveColumnBatch holds them. Two input
+ * formats are read:
+ * <ul>
+ * <li>Fixed-width binary: a 16 byte header of the magic {@code RSVI},
+ * version, number of input fields and reserved bytes, and the record count as
+ * a long; then per record the buyer class in 8 ASCII bytes, NUL padded, and
+ * one long per {@link ReserveField#numericInputs()} field in ordinal
+ * order.</li>
+ * <li>CSV: a header line of ReserveField names, then one record per line.
+ * Columns for the numeric inputs and BYCL are read, other columns (DIV, LOC,
+ * SKU, ...) are skipped, and inputs without a column are absent as they are
+ * from a JSON record without the key. Cells may be quoted but not contain
+ * commas; empty cells are zero and blank lines are skipped.</li>
+ * </ul>
+ * The output has a 16 byte header of the magic {@code RSVO}, version, flow
+ * mask, number of output fields and a reserved byte, and the record count as
+ * a long; then per input record, in input order, a status byte and, for
+ * every flow in the mask in CalculationFlow order, a presence bitmap and one
+ * long per {@link ReserveResult#OUTPUT_FIELDS} field. The bitmap has a bit
+ * per output field, least significant bit first, as in
+ * {@link ReserveBinaryCodec}; a field whose bit is clear was not calculated
+ * and its long is zero. Flows outside the mask are not written at all.
+ * Status 0 is a long kernel result, 1 a record
+ * calculated on the BigDecimal path (after an overflow, or every record when
+ * the engine is in {@link NumericMode#BIG_DECIMAL} mode), and 2 a record
+ * whose outputs are not whole numbers that fit in a long, written with
+ * every bit clear. Every number is little-endian.
+ */
+public final class ReserveFileBatch {
+
+	private static final Logger logger = LoggerFactory.getLogger(ReserveFileBatch.class);
+
+	public enum Format {
+		BINARY, CSV
+	}
+
+	/**
+	 * Counts of a completed run.
+	 *
+	 * @param records      records in the input
+	 * @param resumedFrom  records already done by an earlier run
+	 * @param fallbacks    records calculated on the BigDecimal path
+	 * @param unrepresentable records written as zeros with status 2
+	 */
+	public record Summary(long records, long resumedFrom, long fallbacks, long unrepresentable) {
+	}
+
+	static final int INPUT_MAGIC = 0x49565352; // "RSVI" little-endian
+	static final int OUTPUT_MAGIC = 0x4F565352; // "RSVO" little-endian
+	static final int INPUT_VERSION = 1;
+	// 2 added the per-flow presence bitmap
+	static final int OUTPUT_VERSION = 2;
+	static final int HEADER_BYTES = 16;
+	static final int BUYER_CLASS_BYTES = 8;
+	static final List<ReserveField> INPUTS = ReserveField.numericInputs();
+	static final List<ReserveField> OUTPUTS = ReserveResult.OUTPUT_FIELDS;
+	static final int INPUT_RECORD_BYTES = BUYER_CLASS_BYTES + INPUTS.size() * Long.BYTES;
+	static final int OUTPUT_BITMAP_BYTES = (OUTPUTS.size() + 7) / 8;
+
+	static final byte STATUS_OK = 0;
+	static final byte STATUS_FALLBACK = 1;
+	static final byte STATUS_UNREPRESENTABLE = 2;
+
+	// Largest CSV region mapped at once; a chunk of lines must fit in it
+	private static final int CSV_WINDOW_BYTES = 1 << 28;
+
+	private final ReserveBatchExecutor executor;
+	private final Set<CalculationFlow> flows;
+	private final Set<ReserveField> outputs;
+	private final int chunkRecords;
+
+	/**
+	 * @param flows        flows calculated and written for every record
+	 * @param chunkRecords records mapped, calculated and checkpointed together
+	 */
+	public ReserveFileBatch(ReserveBatchExecutor executor, Set<CalculationFlow> flows, int chunkRecords) {
+		this(executor, flows, null, chunkRecords);
+	}
+
+	/**
+	 * @param outputs output fields calculated, or null for every field; the
+	 *                others are written with their presence bit clear
+	 */
+	public ReserveFileBatch(ReserveBatchExecutor executor, Set<CalculationFlow> flows, Set<ReserveField> outputs,
+			int chunkRecords) {
+		if (flows.isEmpty()) {
+			throw new IllegalArgumentException("At least one flow is needed");
+		}
+		if (chunkRecords <= 0) {
+			throw new IllegalArgumentException("chunkRecords must be positive: " + chunkRecords);
+		}
+		long widest = Math.max(INPUT_RECORD_BYTES, outputRecordBytes(flows.size()));
+		if (chunkRecords * widest > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("A chunk of " + chunkRecords + " records does not fit in one mapping");
+		}
+		this.executor = executor;
+		this.flows = EnumSet.copyOf(flows);
+		this.outputs = outputs == null ? null : EnumSet.copyOf(outputs);
+		this.chunkRecords = chunkRecords;
+	}
+
+	static int outputRecordBytes(int flowCount) {
+		return 1 + flowCount * (OUTPUT_BITMAP_BYTES + OUTPUTS.size() * Long.BYTES);
+	}
+
+	static Path checkpointPath(Path output) {
+		return output.resolveSibling(output.getFileName() + ".checkpoint");
+	}
+
+	/**
+	 * Calculate every record of {@code input} into {@code output}, resuming
+	 * from a checkpoint left by an earlier run unless {@code restart} is set.
+	 *
+	 * @throws IllegalArgumentException if the input is malformed or holds a
+	 *                                  value that is not a whole number
+	 * @throws IllegalStateException    if the checkpoint is for another input
+	 *                                  or other flows or outputs
+	 */
+	public Summary run(Path input, Format format, Path output, boolean restart) throws IOException {
+		return run(input, format, output, restart, Long.MAX_VALUE);
+	}
+
+	// Stops after maxChunks chunks, leaving the checkpoint as an interrupted run would
+	Summary run(Path input, Format format, Path output, boolean restart, long maxChunks) throws IOException {
+		try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+			InputReader reader = format == Format.BINARY ? new BinaryReader(in) : new CsvReader(in);
+			long records = reader.records();
+			int recordBytes = outputRecordBytes(flows.size());
+			long outputSize = HEADER_BYTES + records * recordBytes;
+
+			Path checkpointPath = checkpointPath(output);
+			Checkpoint checkpoint = restart ? null : Checkpoint.read(checkpointPath);
+			if (checkpoint != null) {
+				checkpoint.verify(input, format, flows, outputs, records);
+				if (!Files.exists(output) || Files.size(output) != outputSize) {
+					throw new IllegalStateException("Output " + output + " does not match its checkpoint");
+				}
+				reader.seek(checkpoint.nextRecord, checkpoint.inputOffset);
+				logger.info("Resuming {} at record {} of {}", input, checkpoint.nextRecord, records);
+			} else {
+				Files.deleteIfExists(checkpointPath);
+				checkpoint = Checkpoint.start(input, format, flows, outputs, records, reader.offset());
+			}
+			long resumedFrom = checkpoint.nextRecord;
+
+			try (FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE)) {
+				if (resumedFrom == 0) {
+					// Sized up front so a resumed run can check it is the same output
+					out.truncate(0);
+					out.write(ByteBuffer.allocate(1), outputSize - 1);
+					writeOutputHeader(out, records);
+				}
+				for (long chunks = 0; checkpoint.nextRecord < records && chunks < maxChunks; chunks++) {
+					int chunk = (int) Math.min(chunkRecords, records - checkpoint.nextRecord);
+					ReserveColumnBatch batch = reader.read(chunk);
+					executor.calculate(batch, flows, outputs);
+					MappedByteBuffer mapped = out.map(FileChannel.MapMode.READ_WRITE,
+							HEADER_BYTES + checkpoint.nextRecord * recordBytes, (long) batch.size() * recordBytes);
+					writeOutputs(batch, mapped.order(ByteOrder.LITTLE_ENDIAN), checkpoint);
+					mapped.force();
+
+					checkpoint.nextRecord += batch.size();
+					checkpoint.inputOffset = reader.offset();
+					checkpoint.write(checkpointPath);
+					logger.info("Calculated {} of {} records", checkpoint.nextRecord, records);
+				}
+			}
+			if (checkpoint.nextRecord == records) {
+				Files.deleteIfExists(checkpointPath);
+			}
+			return new Summary(records, resumedFrom, checkpoint.fallbacks, checkpoint.unrepresentable);
+		}
+	}
+
+	private void writeOutputHeader(FileChannel out, long records) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		int flowMask = 0;
+		for (CalculationFlow flow : flows) {
+			flowMask |= 1 << flow.ordinal();
+		}
+		header.putInt(OUTPUT_MAGIC).put((byte) OUTPUT_VERSION).put((byte) flowMask).put((byte) OUTPUTS.size())
+				.put((byte) 0).putLong(records).flip();
+		out.write(header, 0);
+	}
+
+	private void writeOutputs(ReserveColumnBatch batch, ByteBuffer out, Checkpoint checkpoint) {
+		// [flow][output], null where the flow did not calculate the field; the same presence for every row
+		long[][][] columns = new long[flows.size()][][];
+		byte[][] presence = new byte[flows.size()][];
+		int f = 0;
+		for (CalculationFlow flow : flows) {
+			columns[f] = new long[OUTPUTS.size()][];
+			presence[f] = new byte[OUTPUT_BITMAP_BYTES];
+			for (int i = 0; i < OUTPUTS.size(); i++) {
+				columns[f][i] = batch.getOutputColumn(flow, OUTPUTS.get(i));
+				if (columns[f][i] != null) {
+					presence[f][i >>> 3] |= (byte) (1 << (i & 7));
+				}
+			}
+			f++;
+		}
+		boolean anyFallback = batch.getFallbackCount() > 0;
+		for (int row = 0; row < batch.size(); row++) {
+			if (anyFallback && batch.isFallback(row)) {
+				writeFallback(batch.getResult(row), out, checkpoint);
+				continue;
+			}
+			out.put(STATUS_OK);
+			for (f = 0; f < columns.length; f++) {
+				out.put(presence[f]);
+				for (long[] column : columns[f]) {
+					out.putLong(column == null ? 0L : column[row]);
+				}
+			}
+		}
+	}
+
+	private void writeFallback(ReserveResult result, ByteBuffer out, Checkpoint checkpoint) {
+		boolean whole = true;
+		for (CalculationFlow flow : flows) {
+			for (ReserveField field : OUTPUTS) {
+				BigDecimal value = result.get(flow, field);
+				whole &= value == null || Steps.isWholeNumber(value);
+			}
+		}
+		if (!whole) {
+			checkpoint.unrepresentable++;
+			out.put(STATUS_UNREPRESENTABLE);
+			out.put(new byte[outputRecordBytes(flows.size()) - 1]);
+			return;
+		}
+		checkpoint.fallbacks++;
+		out.put(STATUS_FALLBACK);
+		byte[] presence = new byte[OUTPUT_BITMAP_BYTES];
+		for (CalculationFlow flow : flows) {
+			Arrays.fill(presence, (byte) 0);
+			for (int i = 0; i < OUTPUTS.size(); i++) {
+				if (result.get(flow, OUTPUTS.get(i)) != null) {
+					presence[i >>> 3] |= (byte) (1 << (i & 7));
+				}
+			}
+			out.put(presence);
+			for (ReserveField field : OUTPUTS) {
+				BigDecimal value = result.get(flow, field);
+				out.putLong(value == null ? 0L : value.longValue());
+			}
+		}
+	}
+
+	// Buyer classes are a handful of short codes; decode each once
+	private static final class BuyerClasses {
+
+		private final Map<Long, String> decoded = new HashMap<>();
+
+		// Up to 8 ASCII bytes packed little-endian, NUL padded
+		String get(long packed) {
+			if (packed == 0) {
+				return "";
+			}
+			return decoded.computeIfAbsent(packed, key -> {
+				byte[] bytes = new byte[BUYER_CLASS_BYTES];
+				int length = 0;
+				for (; length < bytes.length && (key >>> (8 * length) & 0xFF) != 0; length++) {
+					bytes[length] = (byte) (key >>> (8 * length));
+				}
+				return new String(bytes, 0, length, StandardCharsets.US_ASCII);
+			});
+		}
+	}
+
+	private interface InputReader {
+
+		long records();
+
+		// Byte offset of the next record
+		long offset();
+
+		void seek(long record, long offset) throws IOException;
+
+		ReserveColumnBatch read(int records) throws IOException;
+	}
+
+	private static final class BinaryReader implements InputReader {
+
+		private final FileChannel in;
+		private final long records;
+		private final BuyerClasses buyerClasses = new BuyerClasses();
+		private long offset = HEADER_BYTES;
+
+		BinaryReader(FileChannel in) throws IOException {
+			this.in = in;
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			if (in.read(header, 0) != HEADER_BYTES || header.getInt(0) != INPUT_MAGIC) {
+				throw new IllegalArgumentException("Not a fixed-width SKULOC file");
+			}
+			if (header.get(4) != INPUT_VERSION || header.get(5) != INPUTS.size()) {
+				throw new IllegalArgumentException("Expected version " + INPUT_VERSION + " with " + INPUTS.size()
+						+ " input fields, got version " + header.get(4) + " with " + header.get(5));
+			}
+			this.records = header.getLong(8);
+			if (records < 0 || in.size() != HEADER_BYTES + records * INPUT_RECORD_BYTES) {
+				throw new IllegalArgumentException(
+						"File size " + in.size() + " does not match " + records + " records");
+			}
+		}
+
+		@Override
+		public long records() {
+			return records;
+		}
+
+		@Override
+		public long offset() {
+			return offset;
+		}
+
+		@Override
+		public void seek(long record, long offset) {
+			this.offset = HEADER_BYTES + record * INPUT_RECORD_BYTES;
+		}
+
+		@Override
+		public ReserveColumnBatch read(int count) throws IOException {
+			ByteBuffer mapped = in.map(FileChannel.MapMode.READ_ONLY, offset, (long) count * INPUT_RECORD_BYTES)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			ReserveColumnBatch batch = new ReserveColumnBatch(count);
+			long[][] columns = new long[INPUTS.size()][];
+			for (int i = 0; i < columns.length; i++) {
+				columns[i] = batch.getInputColumn(INPUTS.get(i));
+			}
+			for (int row = 0; row < count; row++) {
+				int at = row * INPUT_RECORD_BYTES;
+				batch.setBuyerClass(row, buyerClasses.get(mapped.getLong(at)));
+				at += BUYER_CLASS_BYTES;
+				for (long[] column : columns) {
+					column[row] = mapped.getLong(at);
+					at += Long.BYTES;
+				}
+			}
+			offset += (long) count * INPUT_RECORD_BYTES;
+			return batch;
+		}
+	}
+
+	private static final class CsvReader implements InputReader {
+
+		private final FileChannel in;
+		private final long size;
+		// Input field per column, null for skipped columns
+		private final ReserveField[] columns;
+		private final long dataStart;
+		private final long records;
+		private final Map<String, String> buyerClasses = new HashMap<>();
+		private long offset;
+		private long record;
+
+		CsvReader(FileChannel in) throws IOException {
+			this.in = in;
+			this.size = in.size();
+			ByteBuffer window = map(0);
+			int headerEnd = lineEnd(window, 0);
+			if (headerEnd == window.limit() && window.limit() < size) {
+				throw new IllegalArgumentException("CSV header line longer than " + CSV_WINDOW_BYTES + " bytes");
+			}
+			String[] names = new String(bytes(window, 0, trimLineEnd(window, 0, headerEnd)),
+					StandardCharsets.UTF_8).split(",", -1);
+			columns = new ReserveField[names.length];
+			for (int i = 0; i < names.length; i++) {
+				ReserveField field = ReserveField.forName(unquote(names[i].strip()));
+				if (field == ReserveField.BYCL || INPUTS.contains(field)) {
+					columns[i] = field;
+				}
+			}
+			dataStart = Math.min(size, headerEnd + 1L);
+			offset = dataStart;
+			records = countRecords();
+		}
+
+		private ByteBuffer map(long from) throws IOException {
+			return in.map(FileChannel.MapMode.READ_ONLY, from, Math.min(CSV_WINDOW_BYTES, size - from));
+		}
+
+		// Non-blank lines from the data start to the end of the file
+		private long countRecords() throws IOException {
+			long count = 0;
+			boolean content = false;
+			for (long from = dataStart; from < size; from += CSV_WINDOW_BYTES) {
+				ByteBuffer window = map(from);
+				for (int i = 0; i < window.limit(); i++) {
+					byte b = window.get(i);
+					if (b == '\n') {
+						count += content ? 1 : 0;
+						content = false;
+					} else if (b != '\r' && b != ' ') {
+						content = true;
+					}
+				}
+			}
+			return count + (content ? 1 : 0);
+		}
+
+		@Override
+		public long records() {
+			return records;
+		}
+
+		@Override
+		public long offset() {
+			return offset;
+		}
+
+		@Override
+		public void seek(long record, long offset) {
+			this.record = record;
+			this.offset = offset;
+		}
+
+		@Override
+		public ReserveColumnBatch read(int count) throws IOException {
+			ByteBuffer window = map(offset);
+			ReserveColumnBatch batch = new ReserveColumnBatch(count);
+			long[][] inputColumns = new long[columns.length][];
+			for (int i = 0; i < columns.length; i++) {
+				if (columns[i] != null && columns[i] != ReserveField.BYCL) {
+					inputColumns[i] = batch.getInputColumn(columns[i]);
+				}
+			}
+
+			int row = 0;
+			int position = 0;
+			while (row < count) {
+				if (position >= window.limit()) {
+					throw new IllegalArgumentException("CSV ends after " + (record + row) + " records");
+				}
+				int end = lineEnd(window, position);
+				if (end == window.limit() && offset + end < size) {
+					if (position == 0) {
+						throw new IllegalArgumentException("CSV line longer than " + CSV_WINDOW_BYTES + " bytes");
+					}
+					// The rest of the chunk is past this window; map again from here
+					offset += position;
+					window = map(offset);
+					position = 0;
+					continue;
+				}
+				int lineEnd = trimLineEnd(window, position, end);
+				if (!isBlank(window, position, lineEnd)) {
+					readLine(window, position, lineEnd, batch, row, inputColumns);
+					row++;
+				}
+				position = end + 1;
+			}
+			offset = Math.min(size, offset + position);
+			record += count;
+			return batch;
+		}
+
+		private void readLine(ByteBuffer window, int from, int to, ReserveColumnBatch batch, int row,
+				long[][] inputColumns) {
+			int column = 0;
+			int cellStart = from;
+			for (int i = from; i <= to; i++) {
+				if (i < to && window.get(i) != ',') {
+					continue;
+				}
+				if (column < columns.length) {
+					if (inputColumns[column] != null) {
+						inputColumns[column][row] = parseLong(window, cellStart, i, row, column);
+					} else if (columns[column] == ReserveField.BYCL) {
+						batch.setBuyerClass(row, buyerClass(window, cellStart, i));
+					}
+				}
+				column++;
+				cellStart = i + 1;
+			}
+			if (column != columns.length) {
+				throw new IllegalArgumentException(
+						"CSV record " + (record + row + 1) + " has " + column + " cells, expected " + columns.length);
+			}
+		}
+
+		private long parseLong(ByteBuffer window, int from, int to, int row, int column) {
+			while (from < to && (window.get(from) == ' ' || window.get(from) == '"')) {
+				from++;
+			}
+			while (to > from && (window.get(to - 1) == ' ' || window.get(to - 1) == '"')) {
+				to--;
+			}
+			boolean negative = from < to && window.get(from) == '-';
+			if (from < to && (window.get(from) == '-' || window.get(from) == '+')) {
+				from++;
+			}
+			long value = 0;
+			try {
+				for (int i = from; i < to; i++) {
+					int digit = window.get(i) - '0';
+					if (digit < 0 || digit > 9) {
+						throw new NumberFormatException();
+					}
+					value = Math.addExact(Math.multiplyExact(value, 10), negative ? -digit : digit);
+				}
+			} catch (NumberFormatException | ArithmeticException e) {
+				throw new IllegalArgumentException("CSV record " + (record + row + 1) + ": " + columns[column]
+						+ " is not a whole number of units that fits in a long");
+			}
+			return value;
+		}
+
+		private String buyerClass(ByteBuffer window, int from, int to) {
+			String text = unquote(new String(bytes(window, from, to), StandardCharsets.UTF_8).strip());
+			return buyerClasses.computeIfAbsent(text, key -> key);
+		}
+
+		private static String unquote(String text) {
+			return text.length() >= 2 && text.startsWith("\"") && text.endsWith("\"")
+					? text.substring(1, text.length() - 1)
+					: text;
+		}
+
+		// Index of the line's '\n', or the window limit if there is none
+		private static int lineEnd(ByteBuffer window, int from) {
+			int i = from;
+			while (i < window.limit() && window.get(i) != '\n') {
+				i++;
+			}
+			return i;
+		}
+
+		private static int trimLineEnd(ByteBuffer window, int from, int end) {
+			return end > from && window.get(end - 1) == '\r' ? end - 1 : end;
+		}
+
+		private static boolean isBlank(ByteBuffer window, int from, int to) {
+			for (int i = from; i < to; i++) {
+				if (window.get(i) != ' ') {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private static byte[] bytes(ByteBuffer window, int from, int to) {
+			byte[] bytes = new byte[to - from];
+			window.get(from, bytes);
+			return bytes;
+		}
+	}
+
+	// Progress of a run, written after every chunk
+	private static final class Checkpoint {
+
+		private String input;
+		private long inputSize;
+		private long inputModified;
+		private Format format;
+		private Set<CalculationFlow> flows;
+		// null for every output
+		private Set<ReserveField> outputs;
+		private long records;
+		private long nextRecord;
+		private long inputOffset;
+		private long fallbacks;
+		private long unrepresentable;
+
+		static Checkpoint start(Path input, Format format, Set<CalculationFlow> flows, Set<ReserveField> outputs,
+				long records, long inputOffset) throws IOException {
+			Checkpoint checkpoint = new Checkpoint();
+			checkpoint.input = input.toAbsolutePath().toString();
+			checkpoint.inputSize = Files.size(input);
+			checkpoint.inputModified = Files.getLastModifiedTime(input).toMillis();
+			checkpoint.format = format;
+			checkpoint.flows = flows;
+			checkpoint.outputs = outputs;
+			checkpoint.records = records;
+			checkpoint.inputOffset = inputOffset;
+			return checkpoint;
+		}
+
+		static Checkpoint read(Path path) throws IOException {
+			if (!Files.exists(path)) {
+				return null;
+			}
+			Properties properties = new Properties();
+			try (InputStream stream = Files.newInputStream(path)) {
+				properties.load(stream);
+			}
+			Checkpoint checkpoint = new Checkpoint();
+			checkpoint.input = properties.getProperty("input");
+			checkpoint.inputSize = Long.parseLong(properties.getProperty("inputSize"));
+			checkpoint.inputModified = Long.parseLong(properties.getProperty("inputModified"));
+			checkpoint.format = Format.valueOf(properties.getProperty("format"));
+			checkpoint.flows = EnumSet.noneOf(CalculationFlow.class);
+			for (String flow : properties.getProperty("flows").split(",")) {
+				checkpoint.flows.add(CalculationFlow.valueOf(flow));
+			}
+			String outputs = properties.getProperty("outputs", "");
+			if (!outputs.isEmpty()) {
+				checkpoint.outputs = EnumSet.noneOf(ReserveField.class);
+				for (String output : outputs.split(",")) {
+					checkpoint.outputs.add(ReserveField.valueOf(output));
+				}
+			}
+			checkpoint.records = Long.parseLong(properties.getProperty("records"));
+			checkpoint.nextRecord = Long.parseLong(properties.getProperty("nextRecord"));
+			checkpoint.inputOffset = Long.parseLong(properties.getProperty("inputOffset"));
+			checkpoint.fallbacks = Long.parseLong(properties.getProperty("fallbacks"));
+			checkpoint.unrepresentable = Long.parseLong(properties.getProperty("unrepresentable"));
+			return checkpoint;
+		}
+
+		void verify(Path input, Format format, Set<CalculationFlow> flows, Set<ReserveField> outputs, long records)
+				throws IOException {
+			if (!this.input.equals(input.toAbsolutePath().toString()) || inputSize != Files.size(input)
+					|| inputModified != Files.getLastModifiedTime(input).toMillis() || this.format != format
+					|| !this.flows.equals(flows) || !Objects.equals(this.outputs, outputs) || this.records != records) {
+				throw new IllegalStateException(
+						"Checkpoint is for another input file, flows or outputs; restart the run");
+			}
+		}
+
+		// Written to a temporary file and moved over the last one, so a crash leaves one or the other
+		void write(Path path) throws IOException {
+			Properties properties = new Properties();
+			properties.setProperty("input", input);
+			properties.setProperty("inputSize", String.valueOf(inputSize));
+			properties.setProperty("inputModified", String.valueOf(inputModified));
+			properties.setProperty("format", format.name());
+			properties.setProperty("flows",
+					String.join(",", flows.stream().map(CalculationFlow::name).toList()));
+			properties.setProperty("outputs",
+					outputs == null ? "" : String.join(",", outputs.stream().map(ReserveField::name).toList()));
+			properties.setProperty("records", String.valueOf(records));
+			properties.setProperty("nextRecord", String.valueOf(nextRecord));
+			properties.setProperty("inputOffset", String.valueOf(inputOffset));
+			properties.setProperty("fallbacks", String.valueOf(fallbacks));
+			properties.setProperty("unrepresentable", String.valueOf(unrepresentable));
+			Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+			try (OutputStream stream = Files.newOutputStream(temporary)) {
+				properties.store(stream, "Reserve file batch checkpoint");
+			}
+			Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package com.sephora.ism.reserve;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Command line entry point for {@link ReserveFileBatch}, run without the web
+ * application:
+ *
+ * <pre>
+ * ./gradlew runFileBatch --args="--input skulocs.csv --output results.bin"
+ * </pre>
+ *
+ * Options are {@code --input} and {@code --output} (required),
+ * {@code --format binary|csv} (default csv for a .csv input, binary
+ * otherwise), {@code --flows} (comma separated, default all),
+ * {@code --outputs} (comma separated output names as {@code ?outputs=} takes
+ * them, default all), {@code --chunk-records} (default 65536) and
+ * {@code --restart} to ignore a checkpoint left by an earlier run.
+ * <p>
+ * The engine is set up as the service sets it up, from the
+ * {@code reserve.calculation.*} and {@code reserve.batch.*} properties of
+ * application.properties, so a file run calculates what the service would.
+ * These options override them: {@code --numeric-mode LONG|BIG_DECIMAL},
+ * {@code --log-mode PERFORMANCE|VERBOSE}, {@code --verbose-sample-rate},
+ * {@code --column-kernel VECTOR|SCALAR} and {@code --parallelism} (0 for
+ * one worker per processor). The result cache and step metrics are not used.
+ */
+public final class ReserveFileBatchApplication {
+
+	private ReserveFileBatchApplication() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = parse(args);
+		if (!options.containsKey("input") || !options.containsKey("output")) {
+			System.err.println("Usage: --input <file> --output <file> [--format binary|csv] [--flows OMS,JEI,FRM]"
+					+ " [--outputs OMSFINAL,...] [--chunk-records n] [--restart] [--numeric-mode LONG|BIG_DECIMAL]"
+					+ " [--log-mode PERFORMANCE|VERBOSE] [--verbose-sample-rate r] [--column-kernel VECTOR|SCALAR]"
+					+ " [--parallelism n]");
+			System.exit(2);
+		}
+		Path input = Path.of(options.get("input"));
+		Path output = Path.of(options.get("output"));
+		ReserveFileBatch.Format format = options.containsKey("format")
+				? ReserveFileBatch.Format.valueOf(options.get("format").toUpperCase())
+				: input.getFileName().toString().toLowerCase().endsWith(".csv") ? ReserveFileBatch.Format.CSV
+						: ReserveFileBatch.Format.BINARY;
+		Set<CalculationFlow> flows = EnumSet.allOf(CalculationFlow.class);
+		if (options.containsKey("flows")) {
+			flows.clear();
+			for (String flow : options.get("flows").split(",")) {
+				flows.add(CalculationFlow.valueOf(flow.strip().toUpperCase()));
+			}
+		}
+		Set<ReserveField> outputs = null;
+		if (options.containsKey("outputs")) {
+			outputs = EnumSet.noneOf(ReserveField.class);
+			for (String name : options.get("outputs").split(",")) {
+				outputs.add(ReserveResult.outputField(name.strip()));
+			}
+		}
+		int chunkRecords = Integer.parseInt(options.getOrDefault("chunk-records", "65536"));
+
+		// Same properties and defaults as ReserveCalculationConfiguration and ReserveBatchExecutor
+		Properties properties = applicationProperties();
+		NumericMode numericMode = NumericMode.valueOf(option(options, "numeric-mode", properties,
+				"reserve.calculation.numeric-mode", "LONG").toUpperCase());
+		LogMode logMode = LogMode.valueOf(
+				option(options, "log-mode", properties, "reserve.calculation.log-mode", "PERFORMANCE").toUpperCase());
+		double verboseSampleRate = Double.parseDouble(option(options, "verbose-sample-rate", properties,
+				"reserve.calculation.verbose-sample-rate", "0.0"));
+		ColumnKernelMode columnKernelMode = ColumnKernelMode.valueOf(option(options, "column-kernel", properties,
+				"reserve.calculation.column-kernel", "VECTOR").toUpperCase());
+		int parallelism = Integer
+				.parseInt(option(options, "parallelism", properties, "reserve.batch.parallelism", "0"));
+		int minChunkSize = Integer.parseInt(properties.getProperty("reserve.batch.min-chunk-size", "64"));
+
+		ReserveCalculationEngine engine = new ReserveCalculationEngine(ReservePlan.standard(), numericMode, logMode,
+				verboseSampleRate, null, columnKernelMode);
+		try (ReserveBatchExecutor executor = new ReserveBatchExecutor(engine, parallelism, minChunkSize)) {
+			long start = System.nanoTime();
+			ReserveFileBatch.Summary summary = new ReserveFileBatch(executor, flows, outputs, chunkRecords).run(input,
+					format, output, options.containsKey("restart"));
+			System.out.printf("Calculated %d records with %s (%d resumed, %d on the BigDecimal path,"
+					+ " %d not representable) in %d ms%n", summary.records(), numericMode, summary.resumedFrom(),
+					summary.fallbacks(), summary.unrepresentable(), (System.nanoTime() - start) / 1_000_000);
+		}
+	}
+
+	// application.properties from the classpath, as the service reads it; empty if it is not there
+	private static Properties applicationProperties() throws IOException {
+		Properties properties = new Properties();
+		try (InputStream stream = ReserveFileBatchApplication.class.getResourceAsStream("/application.properties")) {
+			if (stream != null) {
+				properties.load(stream);
+			}
+		}
+		return properties;
+	}
+
+	private static String option(Map<String, String> options, String name, Properties properties, String property,
+			String defaultValue) {
+		String value = options.get(name);
+		return value != null ? value : properties.getProperty(property, defaultValue).strip();
+	}
+
+	// --name value pairs, and --restart on its own
+	private static Map<String, String> parse(String[] args) {
+		Map<String, String> options = new HashMap<>();
+		for (int i = 0; i < args.length; i++) {
+			if (!args[i].startsWith("--")) {
+				throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+			}
+			String name = args[i].substring(2);
+			if (name.equals("restart")) {
+				options.put(name, "true");
+			} else if (i + 1 < args.length) {
+				options.put(name, args[++i]);
+			} else {
+				throw new IllegalArgumentException("Missing value for --" + name);
+			}
+		}
+		return options;
+	}
+}
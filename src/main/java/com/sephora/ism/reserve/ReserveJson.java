@@ -0,0 +1,141 @@
+package com.sephora.ism.reserve;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+
+/**
+ * Jackson bindings that read SKULOC JSON straight into InitialValueWrapper's
+ * value array and write results straight from ReserveResult's, so requests
+ * do not go through a Map of boxed numbers and responses do not go through
+ * LinkedHashMaps. Registered on the application ObjectMapper by
+ * {@link ReserveCalculationConfiguration}, they serve every endpoint and the
+ * NDJSON stream that binds these types.
+ * <p>
+ * Input is read exactly as {@link InitialValueWrapper#fromMap} reads the Map
+ * Jackson would have built: keys are ReserveField names and others are
+ * skipped, integers keep scale 0, and floats become doubles first unless
+ * USE_BIG_DECIMAL_FOR_FLOATS is on. Output is the same JSON the
+ * {@link ReserveResult#getAllOutputs()} and getOutputs maps serialize to.
+ */
+public final class ReserveJson {
+
+	private static final String[] OUTPUT_NAMES = ReserveResult.OUTPUT_FIELDS.stream()
+			.map(ReserveResult::outputName).toArray(String[]::new);
+
+	private ReserveJson() {
+	}
+
+	public static SimpleModule module() {
+		SimpleModule module = new SimpleModule("ReserveJson");
+		module.addDeserializer(InitialValueWrapper.class, new InputDeserializer());
+		module.addSerializer(ReserveResult.class, new ResultSerializer());
+		module.addSerializer(ReserveResult.FlowOutputs.class, new FlowOutputsSerializer());
+		return module;
+	}
+
+	static final class InputDeserializer extends JsonDeserializer<InitialValueWrapper> {
+
+		@Override
+		public InitialValueWrapper deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+			JsonToken token = parser.currentToken();
+			if (token == JsonToken.START_OBJECT) {
+				token = parser.nextToken();
+			}
+			if (token != JsonToken.FIELD_NAME && token != JsonToken.END_OBJECT) {
+				return (InitialValueWrapper) context.handleUnexpectedToken(InitialValueWrapper.class, parser);
+			}
+
+			BigDecimal[] values = new BigDecimal[InitialValueWrapper.valueArrayLength()];
+			String buyerClass = null;
+			for (; token == JsonToken.FIELD_NAME; token = parser.nextToken()) {
+				ReserveField field = ReserveField.forName(parser.currentName());
+				token = parser.nextToken();
+				if (field == null) {
+					// Unknown field, skip
+					parser.skipChildren();
+				} else if (field == ReserveField.BYCL) {
+					buyerClass = readString(parser, token);
+				} else {
+					values[field.ordinal()] = readNumber(parser, token, context);
+				}
+			}
+			return InitialValueWrapper.of(values, buyerClass);
+		}
+
+		// As value.toString() of what Jackson would have put in the Map
+		private static String readString(JsonParser parser, JsonToken token) throws IOException {
+			if (token.isScalarValue()) {
+				return token == JsonToken.VALUE_NULL ? "" : parser.getText();
+			}
+			parser.skipChildren();
+			return "";
+		}
+
+		private static BigDecimal readNumber(JsonParser parser, JsonToken token, DeserializationContext context)
+				throws IOException {
+			switch (token) {
+			case VALUE_NUMBER_INT:
+				return parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER
+						? new BigDecimal(parser.getBigIntegerValue())
+						: BigDecimal.valueOf(parser.getLongValue());
+			case VALUE_NUMBER_FLOAT:
+				return context.isEnabled(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS)
+						? parser.getDecimalValue()
+						: new BigDecimal(Double.toString(parser.getDoubleValue()));
+			case VALUE_STRING:
+				return InitialValueWrapper.parseDecimal(parser.getText());
+			default:
+				// Booleans, nulls, objects and arrays count as zero
+				parser.skipChildren();
+				return BigDecimal.ZERO;
+			}
+		}
+	}
+
+	static final class ResultSerializer extends JsonSerializer<ReserveResult> {
+
+		@Override
+		public void serialize(ReserveResult result, JsonGenerator generator, SerializerProvider provider)
+				throws IOException {
+			generator.writeStartObject();
+			for (CalculationFlow flow : CalculationFlow.values()) {
+				BigDecimal[] flowValues = result.flowValuesOrNull(flow);
+				if (flowValues != null) {
+					generator.writeFieldName(flow.name());
+					writeOutputs(flowValues, generator);
+				}
+			}
+			generator.writeEndObject();
+		}
+	}
+
+	static final class FlowOutputsSerializer extends JsonSerializer<ReserveResult.FlowOutputs> {
+
+		@Override
+		public void serialize(ReserveResult.FlowOutputs outputs, JsonGenerator generator, SerializerProvider provider)
+				throws IOException {
+			writeOutputs(outputs.result().flowValuesOrNull(outputs.flow()), generator);
+		}
+	}
+
+	private static void writeOutputs(BigDecimal[] flowValues, JsonGenerator generator) throws IOException {
+		generator.writeStartObject();
+		for (int i = 0; i < flowValues.length; i++) {
+			if (flowValues[i] != null) {
+				generator.writeFieldName(OUTPUT_NAMES[i]);
+				generator.writeNumber(flowValues[i]);
+			}
+		}
+		generator.writeEndObject();
+	}
+}
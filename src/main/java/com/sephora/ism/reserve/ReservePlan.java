@@ -0,0 +1,309 @@
+package com.sephora.ism.reserve;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ReservePlan is the compiled, immutable step graph for all flows. It is built
+ * once (see {@link ReserveCalculationEngine#compile()}) and shared by every
+ * calculation; per-SKULOC state lives in {@link ReserveCalcContext}. Steps
+ * run in the order of the plan's {@link ReserveStepGraph}.
+ * <p>
+ * {@link #forFlows(Set)} narrows a plan to some of the flows. The narrowed
+ * plan shares this plan's step objects and is cached, so callers that only
+ * need OMS pay for neither the other flows' steps nor their running totals.
+ * {@link #forOutputs(Set)} likewise keeps only the steps the requested output
+ * fields depend on.
+ */
+public final class ReservePlan {
+
+	private final List<CalculationFlow> flows;
+	private final Map<CalculationFlow, List<ReserveCalcStep>> flowSteps;
+	private final Map<CalculationFlow, List<Steps.RunningCalculationStep>> runningSteps;
+	private final Map<ReserveField, ReserveCalcStep> contextConditionSteps;
+	private final List<ReserveCalcStep> dynamicSteps;
+	private final Map<CalculationFlow, List<ReserveCalcStep>> flowDynamicSteps;
+	private final ReserveStepGraph stepGraph;
+	// [flow ordinal][step index]: running steps each step triggers, in registration order
+	private final Steps.RunningCalculationStep[][][] triggeredRunningSteps;
+	private final int stepCount;
+	private final boolean laneIndependent;
+	private final boolean longKernelSupported;
+	private final boolean columnKernelSupported;
+	private final Map<Set<CalculationFlow>, ReservePlan> subsets = new ConcurrentHashMap<>();
+	private final Map<Set<ReserveField>, ReservePlan> prunedPlans = new ConcurrentHashMap<>();
+
+	ReservePlan(Map<CalculationFlow, List<ReserveCalcStep>> flowSteps,
+			Map<CalculationFlow, List<Steps.RunningCalculationStep>> runningSteps,
+			Map<ReserveField, ReserveCalcStep> contextConditionSteps, List<ReserveCalcStep> dynamicSteps,
+			ReserveStepGraph stepGraph) {
+		this(flowSteps, runningSteps, contextConditionSteps, dynamicSteps, stepGraph,
+				EnumSet.allOf(CalculationFlow.class));
+	}
+
+	private ReservePlan(Map<CalculationFlow, List<ReserveCalcStep>> flowSteps,
+			Map<CalculationFlow, List<Steps.RunningCalculationStep>> runningSteps,
+			Map<ReserveField, ReserveCalcStep> contextConditionSteps, List<ReserveCalcStep> dynamicSteps,
+			ReserveStepGraph stepGraph, Set<CalculationFlow> flows) {
+		Map<CalculationFlow, List<ReserveCalcStep>> steps = new EnumMap<>(CalculationFlow.class);
+		Map<CalculationFlow, List<Steps.RunningCalculationStep>> running = new EnumMap<>(CalculationFlow.class);
+		int maxSteps = 0;
+		for (CalculationFlow flow : CalculationFlow.values()) {
+			// Flows outside the plan keep empty step lists
+			boolean included = flows.contains(flow);
+			steps.put(flow, included ? List.copyOf(flowSteps.getOrDefault(flow, List.of())) : List.of());
+			running.put(flow, included ? List.copyOf(runningSteps.getOrDefault(flow, List.of())) : List.of());
+			maxSteps = Math.max(maxSteps, steps.get(flow).size());
+		}
+		this.flows = List.copyOf(EnumSet.copyOf(flows));
+		this.flowSteps = Collections.unmodifiableMap(steps);
+		this.runningSteps = Collections.unmodifiableMap(running);
+		this.contextConditionSteps = Collections.unmodifiableMap(new HashMap<>(contextConditionSteps));
+		this.dynamicSteps = Collections.unmodifiableList(new ArrayList<>(dynamicSteps));
+		this.flowDynamicSteps = bindDynamicSteps(this.dynamicSteps, this.flows);
+		this.stepGraph = stepGraph;
+		this.triggeredRunningSteps = new Steps.RunningCalculationStep[CalculationFlow.values().length][][];
+		for (CalculationFlow flow : CalculationFlow.values()) {
+			triggeredRunningSteps[flow.ordinal()] = triggerTable(steps.get(flow), running.get(flow));
+		}
+		this.stepCount = maxSteps;
+		this.laneIndependent = this.contextConditionSteps.isEmpty() && this.dynamicSteps.isEmpty();
+		this.longKernelSupported = laneIndependent
+				&& steps.values().stream().flatMap(List::stream).allMatch(ReserveCalcStep::supportsLong)
+				&& running.values().stream().flatMap(List::stream).allMatch(ReserveCalcStep::supportsLong);
+		this.columnKernelSupported = longKernelSupported
+				&& steps.values().stream().flatMap(List::stream).allMatch(ReserveCalcStep::supportsColumns)
+				&& running.values().stream().flatMap(List::stream).allMatch(ReserveCalcStep::supportsColumns);
+	}
+
+	private static Steps.RunningCalculationStep[][] triggerTable(List<ReserveCalcStep> steps,
+			List<Steps.RunningCalculationStep> running) {
+		Steps.RunningCalculationStep[][] table = new Steps.RunningCalculationStep[steps.size()][];
+		for (int stepIndex = 0; stepIndex < table.length; stepIndex++) {
+			ReserveField field = steps.get(stepIndex).getFieldName();
+			boolean afterInitStep = stepIndex > 0;
+			table[stepIndex] = running.stream().filter(step -> step.shouldTrigger(field, afterInitStep))
+					.toArray(Steps.RunningCalculationStep[]::new);
+		}
+		return table;
+	}
+
+	// Bind one copy of each dynamic step to each flow up front, so calculations
+	// do not copy them per step. Running steps are recalculated by trigger instead.
+	private static Map<CalculationFlow, List<ReserveCalcStep>> bindDynamicSteps(List<ReserveCalcStep> dynamicSteps,
+			List<CalculationFlow> flows) {
+		Map<CalculationFlow, List<ReserveCalcStep>> bound = new EnumMap<>(CalculationFlow.class);
+		for (CalculationFlow flow : flows) {
+			List<ReserveCalcStep> flowSteps = new ArrayList<>();
+			for (ReserveCalcStep dynamicStep : dynamicSteps) {
+				if (!(dynamicStep instanceof Steps.RunningCalculationStep)) {
+					ReserveCalcStep flowStep = dynamicStep.copy();
+					flowStep.setFlow(flow);
+					flowSteps.add(flowStep);
+				}
+			}
+			bound.put(flow, List.copyOf(flowSteps));
+		}
+		return Collections.unmodifiableMap(bound);
+	}
+
+	/**
+	 * Compile the standard reserve calculation steps.
+	 */
+	public static ReservePlan standard() {
+		ReserveCalculationEngine builder = new ReserveCalculationEngine();
+		ReserveCalculationEngine.setupReserveCalculationSteps(builder);
+		return builder.compile();
+	}
+
+	/**
+	 * Narrow this plan to the given flows; steps of the other flows are
+	 * neither kept nor run. Plans that are not lane independent cannot drop
+	 * flows, since their steps read across flows, and are returned whole.
+	 *
+	 * @throws IllegalArgumentException if {@code flows} is empty or names a
+	 *                                  flow this plan does not calculate
+	 */
+	public ReservePlan forFlows(Set<CalculationFlow> flows) {
+		if (flows == null || flows.isEmpty()) {
+			throw new IllegalArgumentException("At least one flow must be requested");
+		}
+		if (!this.flows.containsAll(flows)) {
+			throw new IllegalArgumentException("Plan calculates " + this.flows + ", not " + flows);
+		}
+		if (flows.size() == this.flows.size() || !laneIndependent) {
+			return this;
+		}
+		return subsets.computeIfAbsent(EnumSet.copyOf(flows), requested -> new ReservePlan(flowSteps, runningSteps,
+				contextConditionSteps, dynamicSteps, stepGraph, requested));
+	}
+
+	/**
+	 * Narrow this plan to the steps the given output fields depend on: the
+	 * transitive closure of their dependency fields, running step triggers and
+	 * running initial fields, kept in their original order. Everything else is
+	 * skipped and has no value in the context afterwards. Steps must read only
+	 * their declared dependency fields for this to be exact, which holds for
+	 * every step of the standard plan. Plans that are not lane independent are
+	 * returned whole.
+	 *
+	 * @param outputs fields the caller needs, or null for all of them
+	 * @throws IllegalArgumentException if an output is not calculated by this
+	 *                                  plan
+	 */
+	public ReservePlan forOutputs(Set<ReserveField> outputs) {
+		if (outputs == null || !laneIndependent) {
+			return this;
+		}
+		if (outputs.isEmpty()) {
+			throw new IllegalArgumentException("At least one output field must be requested");
+		}
+		return prunedPlans.computeIfAbsent(EnumSet.copyOf(outputs), this::prune);
+	}
+
+	private ReservePlan prune(Set<ReserveField> outputs) {
+		Map<CalculationFlow, List<ReserveCalcStep>> prunedSteps = new EnumMap<>(CalculationFlow.class);
+		Map<CalculationFlow, List<Steps.RunningCalculationStep>> prunedRunning = new EnumMap<>(CalculationFlow.class);
+		for (CalculationFlow flow : flows) {
+			Set<ReserveField> needed = requiredFields(flowSteps.get(flow), runningSteps.get(flow), outputs);
+			if (!needed.containsAll(outputs)) {
+				throw new IllegalArgumentException("Not calculated by this plan: " + outputs);
+			}
+			prunedSteps.put(flow, flowSteps.get(flow).stream().filter(step -> needed.contains(step.getFieldName()))
+					.toList());
+			prunedRunning.put(flow, runningSteps.get(flow).stream()
+					.filter(step -> needed.contains(step.getFieldName())).toList());
+		}
+		return new ReservePlan(prunedSteps, prunedRunning, contextConditionSteps, dynamicSteps, stepGraph,
+				EnumSet.copyOf(flows));
+	}
+
+	// Fields that have to be calculated for the outputs, limited to those some step produces
+	private static Set<ReserveField> requiredFields(List<ReserveCalcStep> steps,
+			List<Steps.RunningCalculationStep> running, Set<ReserveField> outputs) {
+		Set<ReserveField> visited = EnumSet.noneOf(ReserveField.class);
+		Set<ReserveField> needed = EnumSet.noneOf(ReserveField.class);
+		Deque<ReserveField> pending = new ArrayDeque<>(outputs);
+		while (!pending.isEmpty()) {
+			ReserveField field = pending.pop();
+			if (!visited.add(field)) {
+				continue;
+			}
+			for (ReserveCalcStep step : steps) {
+				if (step.getFieldName() == field) {
+					needed.add(field);
+					pending.addAll(step.getDependencyFields());
+				}
+			}
+			for (Steps.RunningCalculationStep step : running) {
+				if (step.getFieldName() == field) {
+					needed.add(field);
+					// A running total is updated by every trigger, in step order
+					pending.addAll(step.getTriggerFields());
+					if (step instanceof Steps.RunningWithInitialStep withInitial) {
+						pending.add(withInitial.getInitialField());
+					}
+				}
+			}
+		}
+		return needed;
+	}
+
+	/**
+	 * Flows this plan calculates, in CalculationFlow order.
+	 */
+	public List<CalculationFlow> getFlows() {
+		return flows;
+	}
+
+	public List<ReserveCalcStep> getSteps(CalculationFlow flow) {
+		return flowSteps.get(flow);
+	}
+
+	public Map<CalculationFlow, List<ReserveCalcStep>> getFlowSteps() {
+		return flowSteps;
+	}
+
+	public List<Steps.RunningCalculationStep> getRunningSteps(CalculationFlow flow) {
+		return runningSteps.get(flow);
+	}
+
+	/**
+	 * Running steps of the flow that the step at {@code stepIndex} triggers,
+	 * resolved when the plan is built. Callers must not modify the array.
+	 */
+	Steps.RunningCalculationStep[] getTriggeredRunningSteps(CalculationFlow flow, int stepIndex) {
+		return triggeredRunningSteps[flow.ordinal()][stepIndex];
+	}
+
+	public Map<CalculationFlow, List<Steps.RunningCalculationStep>> getRunningSteps() {
+		return runningSteps;
+	}
+
+	public ReserveCalcStep getContextConditionStep(ReserveField field) {
+		return contextConditionSteps.get(field);
+	}
+
+	public int getContextConditionStepCount() {
+		return contextConditionSteps.size();
+	}
+
+	public List<ReserveCalcStep> getDynamicSteps() {
+		return dynamicSteps;
+	}
+
+	/**
+	 * Dynamic steps bound to each flow, aligned by index across flows.
+	 */
+	public Map<CalculationFlow, List<ReserveCalcStep>> getFlowDynamicSteps() {
+		return flowDynamicSteps;
+	}
+
+	/**
+	 * Dependency graph the full plan was scheduled from. Narrowed plans share
+	 * it and run a subsequence of its schedule.
+	 */
+	public ReserveStepGraph getStepGraph() {
+		return stepGraph;
+	}
+
+	public int getStepCount() {
+		return stepCount;
+	}
+
+	/**
+	 * True when no step reads another flow's values, so each flow can be
+	 * calculated as its own lane. Context condition and dynamic steps work
+	 * across all flows at once and force the step-by-step interleaved order.
+	 */
+	public boolean isLaneIndependent() {
+		return laneIndependent;
+	}
+
+	/**
+	 * True when every step has a long formula and no context condition or
+	 * dynamic steps are registered, i.e. the whole plan can run on the long
+	 * kernel.
+	 */
+	public boolean isLongKernelSupported() {
+		return longKernelSupported;
+	}
+
+	/**
+	 * True when the plan can run on the long kernel and every step also has a
+	 * columnar implementation, i.e. a {@link ReserveColumnBatch} can be
+	 * calculated a step at a time.
+	 */
+	public boolean isColumnKernelSupported() {
+		return columnKernelSupported;
+	}
+}
@@ -0,0 +1,133 @@
+package com.sephora.ism.reserve;
+
+import java.math.BigDecimal;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+
+/**
+ * Output values of one SKULOC calculation, per flow. Holds only the fields
+ * callers consume (the same set /calculate/map returns) so batch results do
+ * not keep whole contexts alive. Only the flows the context was calculated
+ * for are captured, and of those only the output fields that have a value,
+ * so results of a plan pruned to a few outputs hold just those.
+ */
+public class ReserveResult {
+
+	public static final List<ReserveField> OUTPUT_FIELDS = List.of(ReserveField.DOTATS, ReserveField.RETAILATS,
+			ReserveField.UNCOMMIT, ReserveField.COMMITTED, ReserveField.UNCOMMHR, ReserveField.OMSSUP,
+			ReserveField.RETFINAL, ReserveField.OMSFINAL);
+
+	// [flow ordinal][output index], null for flows and fields that were not calculated
+	private final BigDecimal[][] values;
+
+	// Also used to rebuild stored results; the arrays are not copied
+	ReserveResult(BigDecimal[][] values) {
+		this.values = values;
+	}
+
+	/**
+	 * Capture the output fields of every calculated flow from a context.
+	 */
+	public static ReserveResult from(ReserveCalcContext context) {
+		BigDecimal[][] values = new BigDecimal[CalculationFlow.values().length][];
+		for (CalculationFlow flow : context.getCalculatedFlows()) {
+			BigDecimal[] flowValues = new BigDecimal[OUTPUT_FIELDS.size()];
+			for (int i = 0; i < flowValues.length; i++) {
+				ReserveField field = OUTPUT_FIELDS.get(i);
+				flowValues[i] = context.hasValue(flow, field) ? context.getCurrentValue(flow, field) : null;
+			}
+			values[flow.ordinal()] = flowValues;
+		}
+		return new ReserveResult(values);
+	}
+
+	/**
+	 * Name used for an output field in responses, e.g. DOTATS -> DOTCOMATS.
+	 */
+	public static String outputName(ReserveField field) {
+		return field == ReserveField.DOTATS ? "DOTCOMATS" : field.name();
+	}
+
+	/**
+	 * Output field for a name used in requests: the response name or the
+	 * field name, optionally with a leading '@' (e.g. @OMSFINAL, DOTCOMATS).
+	 *
+	 * @throws IllegalArgumentException if the name is not an output field
+	 */
+	public static ReserveField outputField(String name) {
+		String fieldName = name.startsWith("@") ? name.substring(1) : name;
+		for (ReserveField field : OUTPUT_FIELDS) {
+			if (field.name().equals(fieldName) || outputName(field).equals(fieldName)) {
+				return field;
+			}
+		}
+		throw new IllegalArgumentException("Not an output field: " + name);
+	}
+
+	public BigDecimal get(CalculationFlow flow, ReserveField field) {
+		int index = OUTPUT_FIELDS.indexOf(field);
+		if (index < 0) {
+			throw new IllegalArgumentException("Not an output field: " + field);
+		}
+		return flowValues(flow)[index];
+	}
+
+	public boolean hasFlow(CalculationFlow flow) {
+		return values[flow.ordinal()] != null;
+	}
+
+	private BigDecimal[] flowValues(CalculationFlow flow) {
+		BigDecimal[] flowValues = values[flow.ordinal()];
+		if (flowValues == null) {
+			throw new IllegalArgumentException("Flow not calculated: " + flow);
+		}
+		return flowValues;
+	}
+
+	public Map<String, BigDecimal> getOutputs(CalculationFlow flow) {
+		Map<String, BigDecimal> result = new LinkedHashMap<>();
+		BigDecimal[] flowValues = flowValues(flow);
+		for (int i = 0; i < flowValues.length; i++) {
+			if (flowValues[i] != null) {
+				result.put(outputName(OUTPUT_FIELDS.get(i)), flowValues[i]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The output fields of one flow, serialized as the flat object
+	 * getOutputs returns without building the map.
+	 */
+	public FlowOutputs getFlowOutputs(CalculationFlow flow) {
+		flowValues(flow);
+		return new FlowOutputs(this, flow);
+	}
+
+	// Output values of a flow in OUTPUT_FIELDS order, or null if it was not calculated
+	BigDecimal[] flowValuesOrNull(CalculationFlow flow) {
+		return values[flow.ordinal()];
+	}
+
+	public record FlowOutputs(ReserveResult result, CalculationFlow flow) {
+
+		public Map<String, BigDecimal> toMap() {
+			return result.getOutputs(flow);
+		}
+	}
+
+	@JsonValue
+	public Map<CalculationFlow, Map<String, BigDecimal>> getAllOutputs() {
+		Map<CalculationFlow, Map<String, BigDecimal>> result = new EnumMap<>(CalculationFlow.class);
+		for (CalculationFlow flow : CalculationFlow.values()) {
+			if (hasFlow(flow)) {
+				result.put(flow, getOutputs(flow));
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,220 @@
+package com.sephora.ism.reserve;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of calculation results keyed by the inputs they were
+ * calculated from, for assortments where many SKULOCs share an input profile.
+ * A calculation is a pure function of its InitialValueWrapper values, buyer
+ * class, requested flows and requested outputs, so a result can be returned
+ * for any later SKULOC with the same ones.
+ * <p>
+ * The key holds every numeric input with its scale, since the scale of an
+ * input can show in the outputs; two inputs are the same only if
+ * BigDecimal.equals says so. Key fields (DIV, LOC, SKU, CALLFOR) identify the
+ * record and are left out. Records with a value whose unscaled form does
+ * not fit in a long are not cached.
+ * <p>
+ * Entries live in 16 independently locked segments, each an LRU list with an
+ * equal share of {@code maxEntries}, so batch workers rarely wait for each
+ * other. Hits, misses and evictions are counted.
+ */
+public class ReserveResultCache {
+
+	private static final int SEGMENTS = 16;
+	private static final ReserveField[] FIELDS = ReserveField.values();
+	// Bits of the flow word: one per flow, plus one for "every output"
+	private static final long ALL_OUTPUTS = 1L << 62;
+
+	private final Segment[] segments = new Segment[SEGMENTS];
+	private final long maxEntries;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * @param maxEntries results kept before the least recently used are evicted
+	 */
+	public ReserveResultCache(long maxEntries) {
+		if (maxEntries <= 0) {
+			throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+		}
+		this.maxEntries = maxEntries;
+		int segmentEntries = (int) Math.min(Integer.MAX_VALUE, Math.max(1, Math.ceilDiv(maxEntries, SEGMENTS)));
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment(segmentEntries);
+		}
+	}
+
+	/**
+	 * Key for a calculation, or null if one of its values cannot be keyed.
+	 *
+	 * @param outputs output fields requested, or null for every field
+	 */
+	static Key key(InitialValueWrapper inputs, Set<CalculationFlow> flows, Set<ReserveField> outputs) {
+		BigDecimal[] values = inputs.valueArray();
+		int outputWords = Math.ceilDiv(FIELDS.length, Long.SIZE);
+		long[] words = new long[1 + outputWords + 2 * inputs.size()];
+
+		long flowWord = outputs == null ? ALL_OUTPUTS : 0;
+		for (CalculationFlow flow : flows) {
+			flowWord |= 1L << flow.ordinal();
+		}
+		words[0] = flowWord;
+		if (outputs != null) {
+			for (ReserveField output : outputs) {
+				words[1 + output.ordinal() / Long.SIZE] |= 1L << output.ordinal();
+			}
+		}
+
+		// Two words per input, field ordinal and scale then unscaled value, in field order
+		int end = 1 + outputWords;
+		for (int i = 0; i < values.length; i++) {
+			BigDecimal value = values[i];
+			if (value == null || FIELDS[i].getCategory() == ReserveField.FieldCategory.KEY) {
+				continue;
+			}
+			BigInteger unscaled = value.unscaledValue();
+			if (unscaled.bitLength() >= Long.SIZE) {
+				return null;
+			}
+			words[end] = (long) i << 32 | (value.scale() & 0xFFFFFFFFL);
+			words[end + 1] = unscaled.longValue();
+			end += 2;
+		}
+		return new Key(end == words.length ? words : Arrays.copyOf(words, end),
+				inputs.getString(ReserveField.BYCL));
+	}
+
+	/**
+	 * Cached result for the key, or null; counts a hit or a miss.
+	 */
+	ReserveResult get(Key key) {
+		ReserveResult result = segment(key).get(key);
+		if (result == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return result;
+	}
+
+	void put(Key key, ReserveResult result) {
+		if (segment(key).put(key, result)) {
+			evictions.increment();
+		}
+	}
+
+	private Segment segment(Key key) {
+		int hash = key.hashCode();
+		return segments[(hash ^ hash >>> 16) & (SEGMENTS - 1)];
+	}
+
+	public long getMaxEntries() {
+		return maxEntries;
+	}
+
+	public long size() {
+		long size = 0;
+		for (Segment segment : segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Share of lookups that were hits, or 0 before the first lookup.
+	 */
+	public double getHitRate() {
+		long hitCount = hits.sum();
+		long lookups = hitCount + misses.sum();
+		return lookups == 0 ? 0.0 : (double) hitCount / lookups;
+	}
+
+	public void clear() {
+		for (Segment segment : segments) {
+			segment.clear();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ReserveResultCache[size=%d, hits=%d, misses=%d, evictions=%d, hitRate=%.3f]",
+				size(), getHitCount(), getMissCount(), getEvictionCount(), getHitRate());
+	}
+
+	static final class Key {
+
+		private final long[] words;
+		private final String buyerClass;
+		private final int hash;
+
+		private Key(long[] words, String buyerClass) {
+			this.words = words;
+			this.buyerClass = buyerClass;
+			this.hash = 31 * Arrays.hashCode(words) + buyerClass.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Key key && hash == key.hash && Arrays.equals(words, key.words)
+					&& buyerClass.equals(key.buyerClass);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	private static final class Segment {
+
+		private final int maxEntries;
+		// Access ordered, so iteration starts at the least recently used entry
+		private final LinkedHashMap<Key, ReserveResult> entries;
+
+		Segment(int maxEntries) {
+			this.maxEntries = maxEntries;
+			this.entries = new LinkedHashMap<>(16, 0.75f, true);
+		}
+
+		synchronized ReserveResult get(Key key) {
+			return entries.get(key);
+		}
+
+		// True if an entry was evicted to make room
+		synchronized boolean put(Key key, ReserveResult result) {
+			entries.put(key, result);
+			if (entries.size() > maxEntries) {
+				entries.remove(entries.keySet().iterator().next());
+				return true;
+			}
+			return false;
+		}
+
+		synchronized int size() {
+			return entries.size();
+		}
+
+		synchronized void clear() {
+			entries.clear();
+		}
+	}
+}
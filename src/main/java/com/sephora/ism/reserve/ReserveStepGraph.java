@@ -0,0 +1,357 @@
+package com.sephora.ism.reserve;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Dependency graph of a plan's steps, compiled into a linear schedule. Every
+ * flow runs the same fields in the same order (flow-specific steps only swap
+ * formulas), so there is one node per field and one schedule for all flows.
+ * <p>
+ * Edges come from the declared dependency fields of each flow's step and of
+ * its context condition step. Running totals are versioned rather than single
+ * values: a step that reads one sees it after the triggers declared before the
+ * step and before the triggers declared after it, so it is ordered between
+ * them, and the triggers of a running total keep their declared order.
+ * Dynamic steps are recalculated around every step and add no edges.
+ * <p>
+ * Steps keep their declaration order wherever the graph allows. A step is
+ * only moved when it is declared before a field it depends on. Cycles and
+ * dependencies no step produces fail {@link #compile} with an
+ * IllegalStateException, so a broken plan is rejected at startup instead of
+ * reading missing values per record.
+ * <p>
+ * Each field also gets a level, the length of the longest dependency chain
+ * leading to it. Steps on the same level do not depend on each other.
+ * <p>
+ * {@link #getDownstream(Set)} follows only the edges that carry values, for
+ * incremental recalculation: a changed field dirties its consumers, and a
+ * changed trigger dirties its running total and the steps reading the total
+ * after it.
+ */
+public final class ReserveStepGraph {
+
+	private final List<ReserveField> schedule;
+	private final int[] declaredIndexes;
+	private final Map<ReserveField, Integer> levels;
+	private final List<List<ReserveField>> levelGroups;
+	// Fields whose value is computed from each field, and running totals each field triggers
+	private final Map<ReserveField, Set<ReserveField>> consumers;
+	private final Map<ReserveField, Set<ReserveField>> triggeredTotals;
+	private final Map<Set<ReserveField>, Set<ReserveField>> downstream = new ConcurrentHashMap<>();
+
+	private ReserveStepGraph(List<ReserveField> schedule, int[] declaredIndexes, Map<ReserveField, Integer> levels,
+			List<List<ReserveField>> levelGroups, Map<ReserveField, Set<ReserveField>> consumers,
+			Map<ReserveField, Set<ReserveField>> triggeredTotals) {
+		this.schedule = schedule;
+		this.declaredIndexes = declaredIndexes;
+		this.levels = levels;
+		this.levelGroups = levelGroups;
+		this.consumers = consumers;
+		this.triggeredTotals = triggeredTotals;
+	}
+
+	/**
+	 * Build and schedule the graph of the given steps.
+	 *
+	 * @throws IllegalStateException if the flows do not run the same fields,
+	 *                               a field is produced twice, a dependency or
+	 *                               trigger has no producing step, or the
+	 *                               dependencies form a cycle
+	 */
+	static ReserveStepGraph compile(Map<CalculationFlow, List<ReserveCalcStep>> flowSteps,
+			Map<CalculationFlow, List<Steps.RunningCalculationStep>> runningSteps,
+			Map<ReserveField, ReserveCalcStep> contextConditionSteps) {
+		List<ReserveField> fields = alignedFields(flowSteps);
+		int size = fields.size();
+
+		Map<ReserveField, Integer> producers = new EnumMap<>(ReserveField.class);
+		for (int i = 0; i < size; i++) {
+			Integer previous = producers.put(fields.get(i), i);
+			if (previous != null) {
+				throw new IllegalStateException(
+						"Field " + fields.get(i) + " is produced by steps " + previous + " and " + i);
+			}
+		}
+
+		Map<ReserveField, int[]> triggerSteps = new EnumMap<>(ReserveField.class);
+		Map<ReserveField, Set<ReserveField>> triggeredTotals = new EnumMap<>(ReserveField.class);
+		for (List<Steps.RunningCalculationStep> running : runningSteps.values()) {
+			for (Steps.RunningCalculationStep runningStep : running) {
+				int[] triggers = triggerSteps.computeIfAbsent(runningStep.getFieldName(),
+						field -> triggerSteps(runningStep, producers));
+				for (int trigger : triggers) {
+					triggeredTotals.computeIfAbsent(fields.get(trigger), field -> EnumSet.noneOf(ReserveField.class))
+							.add(runningStep.getFieldName());
+				}
+			}
+		}
+
+		// All ordering constraints, and the subset of them that carry values
+		List<BitSet> predecessors = new ArrayList<>(size);
+		List<BitSet> sources = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			predecessors.add(new BitSet(size));
+			sources.add(new BitSet(size));
+		}
+		for (int[] triggers : triggerSteps.values()) {
+			for (int i = 1; i < triggers.length; i++) {
+				predecessors.get(triggers[i]).set(triggers[i - 1]);
+			}
+		}
+		for (int step = 0; step < size; step++) {
+			ReserveField field = fields.get(step);
+			for (List<ReserveCalcStep> steps : flowSteps.values()) {
+				addEdges(step, steps.get(step), producers, triggerSteps, predecessors, sources);
+			}
+			ReserveCalcStep conditionStep = contextConditionSteps.get(field);
+			if (conditionStep != null) {
+				addEdges(step, conditionStep, producers, triggerSteps, predecessors, sources);
+			}
+		}
+
+		Map<ReserveField, Set<ReserveField>> consumers = new EnumMap<>(ReserveField.class);
+		for (int step = 0; step < size; step++) {
+			BitSet stepSources = sources.get(step);
+			for (int source = stepSources.nextSetBit(0); source >= 0; source = stepSources.nextSetBit(source + 1)) {
+				consumers.computeIfAbsent(fields.get(source), field -> EnumSet.noneOf(ReserveField.class))
+						.add(fields.get(step));
+			}
+		}
+
+		return schedule(fields, predecessors, consumers, triggeredTotals);
+	}
+
+	// Field of each step index, which every flow must agree on
+	private static List<ReserveField> alignedFields(Map<CalculationFlow, List<ReserveCalcStep>> flowSteps) {
+		List<ReserveField> fields = null;
+		for (Map.Entry<CalculationFlow, List<ReserveCalcStep>> entry : flowSteps.entrySet()) {
+			List<ReserveField> flowFields = entry.getValue().stream().map(ReserveCalcStep::getFieldName).toList();
+			if (fields == null) {
+				fields = flowFields;
+			} else if (!fields.equals(flowFields)) {
+				throw new IllegalStateException("Flow " + entry.getKey() + " runs " + flowFields + ", expected "
+						+ fields);
+			}
+		}
+		return fields == null ? List.of() : fields;
+	}
+
+	// Steps that update a running total, in declared order; the initial field counts as the first
+	private static int[] triggerSteps(Steps.RunningCalculationStep runningStep, Map<ReserveField, Integer> producers) {
+		List<ReserveField> triggers = new ArrayList<>(runningStep.getTriggerFields());
+		if (runningStep instanceof Steps.RunningWithInitialStep withInitial) {
+			triggers.add(withInitial.getInitialField());
+		}
+		int[] steps = new int[triggers.size()];
+		for (int i = 0; i < steps.length; i++) {
+			Integer producer = producers.get(triggers.get(i));
+			if (producer == null) {
+				throw new IllegalStateException("Running step " + runningStep.getFieldName() + " is triggered by "
+						+ triggers.get(i) + ", which no step produces");
+			}
+			steps[i] = producer;
+		}
+		return Arrays.stream(steps).distinct().sorted().toArray();
+	}
+
+	private static void addEdges(int step, ReserveCalcStep calcStep, Map<ReserveField, Integer> producers,
+			Map<ReserveField, int[]> triggerSteps, List<BitSet> predecessors, List<BitSet> sources) {
+		List<ReserveField> dependencies = calcStep.getDependencyFields();
+		for (ReserveField dependency : dependencies) {
+			int[] triggers = triggerSteps.get(dependency);
+			if (triggers != null) {
+				// Read the running total between the triggers declared around this step
+				for (int trigger : triggers) {
+					if (trigger < step) {
+						predecessors.get(step).set(trigger);
+						sources.get(step).set(trigger);
+					} else if (trigger > step) {
+						predecessors.get(trigger).set(step);
+					}
+				}
+				continue;
+			}
+			Integer producer = producers.get(dependency);
+			if (producer == null) {
+				throw new IllegalStateException(
+						"Step " + calcStep.getFieldName() + " depends on " + dependency + ", which no step produces");
+			}
+			if (producer != step) {
+				predecessors.get(step).set(producer);
+				sources.get(step).set(producer);
+			}
+		}
+	}
+
+	// Kahn's algorithm, always taking the ready step declared first
+	private static ReserveStepGraph schedule(List<ReserveField> fields, List<BitSet> predecessors,
+			Map<ReserveField, Set<ReserveField>> consumers, Map<ReserveField, Set<ReserveField>> triggeredTotals) {
+		int size = fields.size();
+		int[] pending = new int[size];
+		List<List<Integer>> successors = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			successors.add(new ArrayList<>());
+		}
+		for (int step = 0; step < size; step++) {
+			BitSet preds = predecessors.get(step);
+			pending[step] = preds.cardinality();
+			for (int pred = preds.nextSetBit(0); pred >= 0; pred = preds.nextSetBit(pred + 1)) {
+				successors.get(pred).add(step);
+			}
+		}
+
+		PriorityQueue<Integer> ready = new PriorityQueue<>();
+		for (int step = 0; step < size; step++) {
+			if (pending[step] == 0) {
+				ready.add(step);
+			}
+		}
+		int[] order = new int[size];
+		int[] levels = new int[size];
+		int scheduled = 0;
+		while (!ready.isEmpty()) {
+			int step = ready.poll();
+			order[scheduled++] = step;
+			for (int successor : successors.get(step)) {
+				levels[successor] = Math.max(levels[successor], levels[step] + 1);
+				if (--pending[successor] == 0) {
+					ready.add(successor);
+				}
+			}
+		}
+		if (scheduled < size) {
+			throw new IllegalStateException("Step dependency cycle: " + findCycle(fields, predecessors, pending).stream()
+					.map(ReserveField::name).collect(Collectors.joining(" -> ")));
+		}
+
+		List<ReserveField> schedule = new ArrayList<>(size);
+		Map<ReserveField, Integer> levelByField = new EnumMap<>(ReserveField.class);
+		List<List<ReserveField>> levelGroups = new ArrayList<>();
+		for (int step : order) {
+			ReserveField field = fields.get(step);
+			schedule.add(field);
+			levelByField.put(field, levels[step]);
+			while (levelGroups.size() <= levels[step]) {
+				levelGroups.add(new ArrayList<>());
+			}
+			levelGroups.get(levels[step]).add(field);
+		}
+		levelGroups.replaceAll(List::copyOf);
+		return new ReserveStepGraph(List.copyOf(schedule), order, Collections.unmodifiableMap(levelByField),
+				List.copyOf(levelGroups), Collections.unmodifiableMap(consumers),
+				Collections.unmodifiableMap(triggeredTotals));
+	}
+
+	// Walk back from an unscheduled step through unscheduled predecessors until a step repeats
+	private static List<ReserveField> findCycle(List<ReserveField> fields, List<BitSet> predecessors, int[] pending) {
+		int step = 0;
+		while (pending[step] == 0) {
+			step++;
+		}
+		List<Integer> path = new ArrayList<>();
+		while (!path.contains(step)) {
+			path.add(step);
+			BitSet preds = predecessors.get(step);
+			int next = preds.nextSetBit(0);
+			while (pending[next] == 0) {
+				next = preds.nextSetBit(next + 1);
+			}
+			step = next;
+		}
+		// The path runs against the edges; reverse it and close the loop
+		List<ReserveField> cycle = new ArrayList<>();
+		for (int i = path.size() - 1; i >= path.indexOf(step); i--) {
+			cycle.add(fields.get(path.get(i)));
+		}
+		cycle.add(cycle.get(0));
+		return cycle;
+	}
+
+	/**
+	 * Put steps declared in the plan's original order into schedule order.
+	 */
+	<T> List<T> reorder(List<T> declared) {
+		List<T> scheduled = new ArrayList<>(declared.size());
+		for (int index : declaredIndexes) {
+			scheduled.add(declared.get(index));
+		}
+		return scheduled;
+	}
+
+	/**
+	 * Fields in the order their steps run.
+	 */
+	public List<ReserveField> getSchedule() {
+		return schedule;
+	}
+
+	/**
+	 * True when the schedule is the order the steps were declared in.
+	 */
+	public boolean isDeclarationOrder() {
+		for (int i = 0; i < declaredIndexes.length; i++) {
+			if (declaredIndexes[i] != i) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Length of the longest dependency chain leading to the field's step.
+	 */
+	public int getLevel(ReserveField field) {
+		Integer level = levels.get(field);
+		if (level == null) {
+			throw new IllegalArgumentException("No step produces " + field);
+		}
+		return level;
+	}
+
+	/**
+	 * Fields grouped by level, in schedule order within each group. Steps of
+	 * one group are independent of each other and could run as a batch.
+	 */
+	public List<List<ReserveField>> getLevels() {
+		return levelGroups;
+	}
+
+	/**
+	 * Fields whose values can change when the given fields change: the fields
+	 * themselves, every step computed from them and every running total they
+	 * feed, transitively. Everything else keeps its value. Cached per set.
+	 */
+	public Set<ReserveField> getDownstream(Set<ReserveField> changed) {
+		if (changed.isEmpty()) {
+			return Set.of();
+		}
+		return downstream.computeIfAbsent(EnumSet.copyOf(changed), this::collectDownstream);
+	}
+
+	private Set<ReserveField> collectDownstream(Set<ReserveField> changed) {
+		Set<ReserveField> dirty = EnumSet.noneOf(ReserveField.class);
+		Deque<ReserveField> pending = new ArrayDeque<>(changed);
+		while (!pending.isEmpty()) {
+			ReserveField field = pending.pop();
+			if (dirty.add(field)) {
+				pending.addAll(consumers.getOrDefault(field, Set.of()));
+				// Readers of the total after this trigger are consumers of the trigger itself
+				dirty.addAll(triggeredTotals.getOrDefault(field, Set.of()));
+			}
+		}
+		return Collections.unmodifiableSet(dirty);
+	}
+}
@@ -0,0 +1,97 @@
+package com.sephora.ism.reserve;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Per-step metrics of an engine, published through Micrometer:
+ * <ul>
+ * <li>{@code reserve.step.duration}, tagged {@code field} and
+ * {@code kind=step}: the time and count of each step's calculation</li>
+ * <li>{@code reserve.step.duration}, tagged {@code field},
+ * {@code kind=running} and {@code trigger}: each running total update,
+ * per triggering field</li>
+ * <li>{@code reserve.step.condition.failures}, tagged {@code field} and
+ * {@code condition=pre|post}: steps whose pre or post condition rejected
+ * the calculation and kept the current value</li>
+ * </ul>
+ * Timers cover a {@code sampleRate} share of the records (0.0 to 1.0),
+ * picked per record, so their counts are of sampled records only and the
+ * other records pay one random draw. Condition failures are counted for
+ * every record, on Micrometer's striped counters. Columnar batches are not
+ * instrumented.
+ */
+public class ReserveStepMetrics {
+
+	private static final int FIELD_COUNT = ReserveField.values().length;
+
+	private final MeterRegistry registry;
+	private final double sampleRate;
+	private final Map<ReserveField, Timer> stepTimers = new ConcurrentHashMap<>();
+	// [running field ordinal * FIELD_COUNT + trigger field ordinal]
+	private final Map<Integer, Timer> runningTimers = new ConcurrentHashMap<>();
+	private final Map<ReserveField, Counter> preConditionFailures = new ConcurrentHashMap<>();
+	private final Map<ReserveField, Counter> postConditionFailures = new ConcurrentHashMap<>();
+
+	public ReserveStepMetrics(MeterRegistry registry, double sampleRate) {
+		if (registry == null) {
+			throw new IllegalArgumentException("registry cannot be null");
+		}
+		if (!(sampleRate >= 0.0 && sampleRate <= 1.0)) {
+			throw new IllegalArgumentException("sampleRate must be between 0 and 1: " + sampleRate);
+		}
+		this.registry = registry;
+		this.sampleRate = sampleRate;
+	}
+
+	public double getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * Whether to time the steps of the next record.
+	 */
+	boolean sample() {
+		return sampleRate >= 1.0 || (sampleRate > 0.0 && ThreadLocalRandom.current().nextDouble() < sampleRate);
+	}
+
+	void recordStep(ReserveField field, long nanos) {
+		stepTimers.computeIfAbsent(field, f -> Timer.builder("reserve.step.duration")
+				.description("Time to calculate one reserve step of a sampled record")
+				.tag("field", f.name())
+				.tag("kind", "step")
+				.register(registry)).record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	void recordRunning(ReserveField field, ReserveField trigger, long nanos) {
+		runningTimers.computeIfAbsent(field.ordinal() * FIELD_COUNT + trigger.ordinal(),
+				key -> Timer.builder("reserve.step.duration")
+						.description("Time to calculate one reserve step of a sampled record")
+						.tag("field", field.name())
+						.tag("kind", "running")
+						.tag("trigger", trigger.name())
+						.register(registry)).record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	void preConditionFailed(ReserveField field) {
+		preConditionFailures.computeIfAbsent(field, f -> conditionCounter(f, "pre")).increment();
+	}
+
+	void postConditionFailed(ReserveField field) {
+		postConditionFailures.computeIfAbsent(field, f -> conditionCounter(f, "post")).increment();
+	}
+
+	private Counter conditionCounter(ReserveField field, String condition) {
+		return Counter.builder("reserve.step.condition.failures")
+				.description("Reserve steps whose condition kept the current value")
+				.tag("field", field.name())
+				.tag("condition", condition)
+				.register(registry);
+	}
+}
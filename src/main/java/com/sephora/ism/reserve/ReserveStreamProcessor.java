@@ -0,0 +1,128 @@
+package com.sephora.ism.reserve;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Calculates newline-delimited JSON SKULOC records as a stream. Each input
+ * line holds the same keys InitialValueWrapper.fromMap accepts; each output
+ * line is the ReserveResult for the input line at the same position.
+ * Records are bound and results written by the ReserveJson bindings on the
+ * ObjectMapper, results straight to one generator over the response.
+ * <p>
+ * At most {@code batchSize} records are read ahead of the output, and the
+ * output is flushed once per batch, so memory stays flat regardless of input
+ * size and a slow reader on either side pushes back through the socket.
+ */
+@Component
+public class ReserveStreamProcessor {
+
+	private static final Logger logger = LoggerFactory.getLogger(ReserveStreamProcessor.class);
+
+	private final ReserveCalculationEngine engine;
+	private final ObjectMapper objectMapper;
+	// The generator is flushed once per batch, not after every result
+	private final ObjectWriter resultWriter;
+	private final ReserveContextPool contextPool;
+	private final int batchSize;
+
+	public ReserveStreamProcessor(ReserveCalculationEngine engine, ObjectMapper objectMapper,
+			ReserveContextPool contextPool, @Value("${reserve.stream.batch-size:256}") int batchSize) {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("reserve.stream.batch-size must be positive: " + batchSize);
+		}
+		this.engine = engine;
+		this.objectMapper = objectMapper;
+		this.resultWriter = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+		this.contextPool = contextPool;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Read records from {@code input} until end of stream and write one result
+	 * line per record to {@code output}.
+	 *
+	 * @return number of records processed
+	 */
+	public long process(InputStream input, OutputStream output) throws IOException {
+		return process(input, output, EnumSet.allOf(CalculationFlow.class), null);
+	}
+
+	/**
+	 * As {@link #process(InputStream, OutputStream)}, calculating and writing
+	 * only the requested flows and output fields.
+	 *
+	 * @param outputs output fields needed, or null for every field
+	 */
+	public long process(InputStream input, OutputStream output, Set<CalculationFlow> flows,
+			Set<ReserveField> outputs) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+		JsonGenerator generator = objectMapper.getFactory().createGenerator(output, JsonEncoding.UTF8);
+		// Lines are ended explicitly below
+		generator.setRootValueSeparator(null);
+		ReserveCalcContext context = contextPool.acquire();
+		List<String> pending = new ArrayList<>(batchSize);
+
+		long processed = 0;
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isBlank()) {
+					continue;
+				}
+				pending.add(line);
+				if (pending.size() == batchSize) {
+					processed += writeBatch(pending, processed, flows, outputs, context, generator);
+					pending.clear();
+				}
+			}
+			if (!pending.isEmpty()) {
+				processed += writeBatch(pending, processed, flows, outputs, context, generator);
+			}
+		} finally {
+			contextPool.release(context);
+		}
+		generator.flush();
+		logger.info("Streamed {} SKULOC records", processed);
+		return processed;
+	}
+
+	private int writeBatch(List<String> lines, long firstRecord, Set<CalculationFlow> flows,
+			Set<ReserveField> outputs, ReserveCalcContext context, JsonGenerator generator) throws IOException {
+		for (int i = 0; i < lines.size(); i++) {
+			Object resultLine;
+			try {
+				InitialValueWrapper record = objectMapper.readValue(lines.get(i), InitialValueWrapper.class);
+				resultLine = engine.calculate(record, context, flows, outputs);
+			} catch (IOException | RuntimeException e) {
+				// Keep output lines aligned with input lines
+				logger.error("Failed to calculate streamed record {}: {}", firstRecord + i + 1, e.getMessage());
+				resultLine = Map.of("error", String.valueOf(e.getMessage()));
+			}
+			resultWriter.writeValue(generator, resultLine);
+			generator.writeRaw('\n');
+		}
+		generator.flush();
+		return lines.size();
+	}
+}
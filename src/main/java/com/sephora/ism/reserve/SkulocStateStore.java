@@ -0,0 +1,392 @@
+package com.sephora.ism.reserve;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the last inputs and results of recently calculated SKULOCs in memory,
+ * keyed by DIV, LOC and SKU, so that callers can send only the input fields
+ * that changed. An update is merged with the stored inputs of its SKULOC,
+ * recalculated for every flow and stored again; an update that changes
+ * nothing returns the stored result without a calculation.
+ * <p>
+ * Each entry holds its SKULOC input fields and the output fields of every
+ * flow as primitive vectors: a long unscaled value and a byte scale per
+ * field, plus a presence mask. Records with a value that does not fit (an
+ * unscaled value beyond a long or a scale beyond a byte) are calculated but
+ * not stored. Fields other than the SKULOC inputs are not kept either.
+ * <p>
+ * The store is bounded by an estimate of the heap its entries take
+ * ({@code reserve.state.max-bytes}) and evicts the least recently used
+ * SKULOCs first. Concurrent updates of the same SKULOC are not serialized;
+ * the last one to be stored wins.
+ */
+@Component
+public class SkulocStateStore {
+
+	private static final Logger logger = LoggerFactory.getLogger(SkulocStateStore.class);
+
+	// Numeric inputs by position in an entry's input vector; the buyer class is kept as a string
+	private static final List<ReserveField> INPUT_FIELDS = ReserveField.numericInputs();
+
+	private static final Set<CalculationFlow> ALL_FLOWS = EnumSet.allOf(CalculationFlow.class);
+	private static final int OUTPUT_COUNT = CalculationFlow.values().length * ReserveResult.OUTPUT_FIELDS.size();
+
+	// Heap an entry takes beside its arrays and strings: map node, entry, key and object headers
+	private static final long ENTRY_OVERHEAD_BYTES = 192;
+
+	static {
+		// Presence is tracked in one long per vector
+		if (INPUT_FIELDS.size() > Long.SIZE || OUTPUT_COUNT > Long.SIZE) {
+			throw new IllegalStateException("Too many fields for a state store entry");
+		}
+	}
+
+	private final ReserveBatchExecutor batchExecutor;
+	private final long maxBytes;
+	// Access ordered, so iteration starts at the least recently used SKULOC
+	private final LinkedHashMap<SkulocKey, Entry> entries = new LinkedHashMap<>(1024, 0.75f, true);
+	private long usedBytes;
+
+	/**
+	 * @param maxBytes estimated heap the stored entries may take before the
+	 *                 least recently used are evicted
+	 */
+	public SkulocStateStore(ReserveBatchExecutor batchExecutor,
+			@Value("${reserve.state.max-bytes:268435456}") long maxBytes) {
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException("reserve.state.max-bytes must be positive: " + maxBytes);
+		}
+		this.batchExecutor = batchExecutor;
+		this.maxBytes = maxBytes;
+		logger.info("SKULOC state store holds up to {} bytes", maxBytes);
+	}
+
+	/**
+	 * Calculate full records and store their inputs and results. Each record
+	 * holds DIV, LOC and SKU beside the keys InitialValueWrapper.fromMap
+	 * accepts.
+	 *
+	 * @param logMode log mode for every record, or null for the engine's default
+	 * @return results in input order
+	 * @throws IllegalArgumentException if a record lacks DIV, LOC or SKU
+	 */
+	public List<ReserveResult> calculate(List<Map<String, Object>> records, LogMode logMode) {
+		List<SkulocKey> keys = new ArrayList<>(records.size());
+		List<InitialValueWrapper> inputs = new ArrayList<>(records.size());
+		for (Map<String, Object> record : records) {
+			keys.add(SkulocKey.from(record));
+			inputs.add(InitialValueWrapper.fromMap(record));
+		}
+		List<ReserveResult> results = batchExecutor.calculate(inputs, Function.identity(), logMode, ALL_FLOWS, null);
+		for (int i = 0; i < results.size(); i++) {
+			store(keys.get(i), inputs.get(i), results.get(i));
+		}
+		return results;
+	}
+
+	/**
+	 * Apply partial updates. Each record holds DIV, LOC and SKU and the input
+	 * fields that changed; they replace the stored values of those fields, and
+	 * the merged inputs are recalculated and stored. A SKULOC updated more
+	 * than once in the same call sees its earlier updates.
+	 *
+	 * @param logMode log mode for every recalculated record, or null for the
+	 *                engine's default
+	 * @return results in input order
+	 * @throws IllegalArgumentException if a record lacks DIV, LOC or SKU
+	 * @throws UnknownSkulocException   if a record's SKULOC is not stored (never
+	 *                                  calculated here, or evicted); its full
+	 *                                  record has to be calculated again. No
+	 *                                  update of the call is applied.
+	 */
+	public List<ReserveResult> update(List<Map<String, Object>> updates, LogMode logMode) {
+		ReserveResult[] results = new ReserveResult[updates.size()];
+		List<Integer> pending = new ArrayList<>();
+		List<SkulocKey> pendingKeys = new ArrayList<>();
+		List<InitialValueWrapper> pendingInputs = new ArrayList<>();
+		Map<SkulocKey, InitialValueWrapper> latestInputs = new HashMap<>();
+
+		for (int i = 0; i < results.length; i++) {
+			SkulocKey key = SkulocKey.from(updates.get(i));
+			InitialValueWrapper base = latestInputs.get(key);
+			Entry stored = null;
+			if (base == null) {
+				stored = lookup(key);
+				if (stored == null) {
+					throw new UnknownSkulocException(key);
+				}
+				base = stored.inputs();
+			}
+			InitialValueWrapper inputs = merge(base, InitialValueWrapper.fromMap(updates.get(i)));
+			if (stored != null && base.changedFields(inputs).isEmpty()) {
+				results[i] = stored.result();
+				continue;
+			}
+			latestInputs.put(key, inputs);
+			pending.add(i);
+			pendingKeys.add(key);
+			pendingInputs.add(inputs);
+		}
+
+		if (!pending.isEmpty()) {
+			List<ReserveResult> calculated = batchExecutor.calculate(pendingInputs, Function.identity(), logMode,
+					ALL_FLOWS, null);
+			for (int j = 0; j < calculated.size(); j++) {
+				results[pending.get(j)] = calculated.get(j);
+				store(pendingKeys.get(j), pendingInputs.get(j), calculated.get(j));
+			}
+		}
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Last stored result of a SKULOC, or null if it is not stored.
+	 */
+	public ReserveResult get(SkulocKey key) {
+		Entry entry = lookup(key);
+		return entry == null ? null : entry.result();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Estimated heap taken by the stored entries.
+	 */
+	public synchronized long getEstimatedBytes() {
+		return usedBytes;
+	}
+
+	private synchronized Entry lookup(SkulocKey key) {
+		return entries.get(key);
+	}
+
+	private void store(SkulocKey key, InitialValueWrapper inputs, ReserveResult result) {
+		Entry entry = Entry.encode(inputs, result);
+		if (entry == null) {
+			logger.debug("Not storing SKULOC {}: a value does not fit a state store entry", key);
+		}
+		long bytes = entry == null ? 0 : entry.estimatedBytes(key);
+		synchronized (this) {
+			Entry previous = entry == null ? entries.remove(key) : entries.put(key, entry);
+			if (previous != null) {
+				usedBytes -= previous.estimatedBytes(key);
+			}
+			usedBytes += bytes;
+			Iterator<Map.Entry<SkulocKey, Entry>> eldest = entries.entrySet().iterator();
+			while (usedBytes > maxBytes && eldest.hasNext()) {
+				Map.Entry<SkulocKey, Entry> evicted = eldest.next();
+				usedBytes -= evicted.getValue().estimatedBytes(evicted.getKey());
+				eldest.remove();
+			}
+		}
+	}
+
+	// Stored inputs with the SKULOC input fields of the update replacing theirs
+	private static InitialValueWrapper merge(InitialValueWrapper base, InitialValueWrapper update) {
+		Map<ReserveField, BigDecimal> values = base.getValues();
+		Map<ReserveField, String> stringValues = new HashMap<>();
+		if (base.has(ReserveField.BYCL)) {
+			stringValues.put(ReserveField.BYCL, base.getString(ReserveField.BYCL));
+		}
+		for (ReserveField field : INPUT_FIELDS) {
+			if (update.has(field)) {
+				values.put(field, update.get(field));
+			}
+		}
+		if (update.has(ReserveField.BYCL)) {
+			values.put(ReserveField.BYCL, BigDecimal.ZERO);
+			stringValues.put(ReserveField.BYCL, update.getString(ReserveField.BYCL));
+		}
+		return InitialValueWrapper.of(values, stringValues);
+	}
+
+	/**
+	 * An update for a SKULOC the store does not hold, because it was never
+	 * calculated here or has been evicted.
+	 */
+	public static final class UnknownSkulocException extends IllegalArgumentException {
+
+		private final SkulocKey key;
+
+		UnknownSkulocException(SkulocKey key) {
+			super("SKULOC not in state store: " + key);
+			this.key = key;
+		}
+
+		public SkulocKey getKey() {
+			return key;
+		}
+	}
+
+	/**
+	 * DIV, LOC and SKU of a SKULOC, compared as the text the caller sent.
+	 */
+	public record SkulocKey(String div, String loc, String sku) {
+
+		public SkulocKey {
+			Objects.requireNonNull(div, "div");
+			Objects.requireNonNull(loc, "loc");
+			Objects.requireNonNull(sku, "sku");
+		}
+
+		static SkulocKey from(Map<String, Object> record) {
+			return new SkulocKey(keyValue(record, ReserveField.DIV), keyValue(record, ReserveField.LOC),
+					keyValue(record, ReserveField.SKU));
+		}
+
+		private static String keyValue(Map<String, Object> record, ReserveField field) {
+			Object value = record.get(field.name());
+			if (value == null) {
+				throw new IllegalArgumentException("SKULOC record has no " + field.name());
+			}
+			return value.toString();
+		}
+
+		@Override
+		public String toString() {
+			return div + "/" + loc + "/" + sku;
+		}
+	}
+
+	private static final class Entry {
+
+		private final long inputMask;
+		private final long[] inputs;
+		private final byte[] inputScales;
+		private final String buyerClass;
+		// [flow ordinal * output count + output index]
+		private final long outputMask;
+		private final long[] outputs;
+		private final byte[] outputScales;
+
+		private Entry(long inputMask, long[] inputs, byte[] inputScales, String buyerClass, long outputMask,
+				long[] outputs, byte[] outputScales) {
+			this.inputMask = inputMask;
+			this.inputs = inputs;
+			this.inputScales = inputScales;
+			this.buyerClass = buyerClass;
+			this.outputMask = outputMask;
+			this.outputs = outputs;
+			this.outputScales = outputScales;
+		}
+
+		// Null if a value does not fit
+		static Entry encode(InitialValueWrapper wrapper, ReserveResult result) {
+			long inputMask = 0;
+			long[] inputs = new long[INPUT_FIELDS.size()];
+			byte[] inputScales = new byte[inputs.length];
+			for (int i = 0; i < inputs.length; i++) {
+				ReserveField field = INPUT_FIELDS.get(i);
+				if (wrapper.has(field)) {
+					if (!encode(wrapper.get(field), inputs, inputScales, i)) {
+						return null;
+					}
+					inputMask |= 1L << i;
+				}
+			}
+			String buyerClass = wrapper.has(ReserveField.BYCL) ? wrapper.getString(ReserveField.BYCL) : null;
+
+			long outputMask = 0;
+			long[] outputs = new long[OUTPUT_COUNT];
+			byte[] outputScales = new byte[OUTPUT_COUNT];
+			int fieldCount = ReserveResult.OUTPUT_FIELDS.size();
+			for (CalculationFlow flow : CalculationFlow.values()) {
+				if (!result.hasFlow(flow)) {
+					continue;
+				}
+				for (int i = 0; i < fieldCount; i++) {
+					BigDecimal value = result.get(flow, ReserveResult.OUTPUT_FIELDS.get(i));
+					int index = flow.ordinal() * fieldCount + i;
+					if (value != null) {
+						if (!encode(value, outputs, outputScales, index)) {
+							return null;
+						}
+						outputMask |= 1L << index;
+					}
+				}
+			}
+			return new Entry(inputMask, inputs, inputScales, buyerClass, outputMask, outputs, outputScales);
+		}
+
+		private static boolean encode(BigDecimal value, long[] unscaled, byte[] scales, int index) {
+			BigInteger unscaledValue = value.unscaledValue();
+			if (unscaledValue.bitLength() >= Long.SIZE || value.scale() != (byte) value.scale()) {
+				return false;
+			}
+			unscaled[index] = unscaledValue.longValue();
+			scales[index] = (byte) value.scale();
+			return true;
+		}
+
+		InitialValueWrapper inputs() {
+			Map<ReserveField, BigDecimal> values = new HashMap<>();
+			Map<ReserveField, String> stringValues = new HashMap<>();
+			for (int i = 0; i < inputs.length; i++) {
+				if ((inputMask & 1L << i) != 0) {
+					values.put(INPUT_FIELDS.get(i), BigDecimal.valueOf(inputs[i], inputScales[i]));
+				}
+			}
+			if (buyerClass != null) {
+				values.put(ReserveField.BYCL, BigDecimal.ZERO);
+				stringValues.put(ReserveField.BYCL, buyerClass);
+			}
+			return InitialValueWrapper.of(values, stringValues);
+		}
+
+		ReserveResult result() {
+			int fieldCount = ReserveResult.OUTPUT_FIELDS.size();
+			BigDecimal[][] values = new BigDecimal[CalculationFlow.values().length][];
+			for (CalculationFlow flow : CalculationFlow.values()) {
+				long flowMask = outputMask >>> (flow.ordinal() * fieldCount) & ((1L << fieldCount) - 1);
+				if (flowMask == 0) {
+					continue;
+				}
+				BigDecimal[] flowValues = new BigDecimal[fieldCount];
+				for (int i = 0; i < fieldCount; i++) {
+					int index = flow.ordinal() * fieldCount + i;
+					if ((outputMask & 1L << index) != 0) {
+						flowValues[i] = BigDecimal.valueOf(outputs[index], outputScales[index]);
+					}
+				}
+				values[flow.ordinal()] = flowValues;
+			}
+			return new ReserveResult(values);
+		}
+
+		long estimatedBytes(SkulocKey key) {
+			long strings = stringBytes(key.div()) + stringBytes(key.loc()) + stringBytes(key.sku())
+					+ (buyerClass == null ? 0 : stringBytes(buyerClass));
+			return ENTRY_OVERHEAD_BYTES + arrayBytes(Long.BYTES, inputs.length) + arrayBytes(1, inputScales.length)
+					+ arrayBytes(Long.BYTES, outputs.length) + arrayBytes(1, outputScales.length) + strings;
+		}
+
+		private static long arrayBytes(int elementBytes, int length) {
+			// 16 byte header, 8 byte aligned
+			return 16 + ((long) elementBytes * length + 7 & ~7L);
+		}
+
+		private static long stringBytes(String value) {
+			// String object plus its byte[] for Latin-1 text
+			return 24 + arrayBytes(1, value.length());
+		}
+	}
+}
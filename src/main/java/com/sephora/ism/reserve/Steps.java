@@ -3,12 +3,13 @@ package com.sephora.ism.reserve;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.LongBinaryOperator;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,8 +27,9 @@ public class Steps {
 		@Override
 		public BigDecimal calculateValue(ReserveCalcContext context) {
 			if (context.getInitialValueWrapper() == null) {
-				logger.info("  [" + fieldName + "] No InitialValueWrapper, returning current: " + getCurrentValue());
-				return getCurrentValue();
+				logger.info("  [" + fieldName + "] No InitialValueWrapper, returning current: "
+						+ context.getCurrentValue(flow, fieldName));
+				return context.getCurrentValue(flow, fieldName);
 			}
 			BigDecimal value = context.getInitialValueWrapper().get(fieldName);
 //            logger.info("  [" + fieldName + "] Got value from wrapper: " + value);
@@ -43,13 +45,30 @@ public class Steps {
 			return BigDecimal.ZERO;
 		}
 
+		@Override
+		public boolean supportsLong() {
+			return true;
+		}
+
+		@Override
+		public long calculateLongValue(ReserveCalcContext context) {
+			return context.getLongInput(fieldName);
+		}
+
+		@Override
+		public boolean supportsColumns() {
+			return true;
+		}
+
+		@Override
+		public void calculateLongColumn(ReserveColumnLane lane) {
+			lane.copyInput(fieldName, lane.column(fieldName));
+		}
+
 		@Override
 		public ReserveCalcStep copy() {
 			SkulocFieldStep copy = new SkulocFieldStep(fieldName);
 			copy.flow = this.flow;
-			copy.originalValue = this.originalValue;
-			copy.previousValue = this.previousValue;
-			copy.currentValue = this.currentValue;
 			return copy;
 		}
 	}
@@ -62,7 +81,6 @@ public class Steps {
 	// x. SkulocFieldStep: Direct passthrough from InitialValueWrapper
 	public static class SkulocStringFieldStep extends ReserveCalcStep<String> {
 		protected static final Logger logger = LoggerFactory.getLogger(SkulocStringFieldStep.class);
-		protected String stringValue = "";
 
 		public SkulocStringFieldStep(ReserveField fieldName) {
 			super(fieldName, List.of(), null, null, null, null);
@@ -72,23 +90,37 @@ public class Steps {
 		public BigDecimal calculateValue(ReserveCalcContext context) {
 			if (context.getInitialValueWrapper() != null) {
 				// Extract string value from wrapper
-				stringValue = context.getInitialValueWrapper().getString(fieldName);
+				context.putStringValue(flow, fieldName, context.getInitialValueWrapper().getString(fieldName));
 			}
 			return BigDecimal.ZERO; // TODO: Remove when full generic system implemented
 		}
 
-		public String getStringValue() {
-			return stringValue;
+		@Override
+		public boolean supportsLong() {
+			return true;
+		}
+
+		@Override
+		public long calculateLongValue(ReserveCalcContext context) {
+			calculateValue(context);
+			return 0L;
+		}
+
+		@Override
+		public boolean supportsColumns() {
+			return true;
+		}
+
+		@Override
+		public void calculateLongColumn(ReserveColumnLane lane) {
+			// The lane reads the batch's buyer class column directly
+			Arrays.fill(lane.column(fieldName), 0, lane.rows(), 0L);
 		}
 
 		@Override
 		public ReserveCalcStep copy() {
 			SkulocStringFieldStep copy = new SkulocStringFieldStep(fieldName);
 			copy.flow = this.flow;
-			copy.stringValue = this.stringValue;
-			copy.originalValue = this.originalValue;
-			copy.previousValue = this.previousValue;
-			copy.currentValue = this.currentValue;
 			return copy;
 		}
 	}
@@ -99,104 +131,72 @@ public class Steps {
 	public static class CalculationStep extends ReserveCalcStep {
 		protected static final Logger logger = LoggerFactory.getLogger(CalculationStep.class);
 
-		private final Function<Map<ReserveField, BigDecimal>, BigDecimal> formula;
-		private final BiFunction<Map<ReserveField, BigDecimal>, Object, BigDecimal> enhancedFormula;
-		private final BiFunction<ReserveCalcContext, CalculationFlow, Object> contextExtractor;
+		private final DecimalFormula formula;
+		private final LongFormula longFormula;
 
-		public CalculationStep(ReserveField fieldName, List<ReserveField> dependencyFields,
-				Function<Map<ReserveField, BigDecimal>, BigDecimal> formula,
+		public CalculationStep(ReserveField fieldName, List<ReserveField> dependencyFields, DecimalFormula formula,
 				Function<ReserveCalcContext, Boolean> preCondition,
 				BiFunction<ReserveCalcContext, BigDecimal, Boolean> postCondition,
 				Function<ReserveCalcContext, ReserveCalcContext> preProcessing,
 				BiFunction<ReserveCalcContext, BigDecimal, BigDecimal> postProcessing) {
-			super(fieldName, dependencyFields, preCondition, postCondition, preProcessing, postProcessing);
-			this.formula = formula;
-			this.enhancedFormula = null;
-			this.contextExtractor = null;
-			logger.info(
-					"Created standard CalculationStep for " + fieldName + " with formula: " + (formula != null));
+			this(fieldName, dependencyFields, formula, null, preCondition, postCondition, preProcessing,
+					postProcessing);
 		}
 
-		public CalculationStep(ReserveField fieldName, List<ReserveField> dependencyFields,
-				BiFunction<Map<ReserveField, BigDecimal>, Object, BigDecimal> enhancedFormula,
-				// Change signature to include flow
-				BiFunction<ReserveCalcContext, CalculationFlow, Object> contextExtractor,
-				Function<ReserveCalcContext, Boolean> preCondition,
+		// Step that can also run on the long kernel
+		public CalculationStep(ReserveField fieldName, List<ReserveField> dependencyFields, DecimalFormula formula,
+				LongFormula longFormula, Function<ReserveCalcContext, Boolean> preCondition,
 				BiFunction<ReserveCalcContext, BigDecimal, Boolean> postCondition,
 				Function<ReserveCalcContext, ReserveCalcContext> preProcessing,
 				BiFunction<ReserveCalcContext, BigDecimal, BigDecimal> postProcessing) {
-// Base constructor call
 			super(fieldName, dependencyFields, preCondition, postCondition, preProcessing, postProcessing);
-			this.formula = null;
-			this.enhancedFormula = enhancedFormula;
-			this.contextExtractor = contextExtractor;
-			logger.info("Created enhanced CalculationStep for " + fieldName + " with enhancedFormula: "
-					+ (enhancedFormula != null));
+			if (formula == null) {
+				throw new IllegalArgumentException("CalculationStep " + fieldName + " has no formula configured");
+			}
+			this.formula = formula;
+			this.longFormula = longFormula;
 		}
 
 		@Override
-		protected BigDecimal compute(ReserveCalcContext context) {
-//            logger.info("    CalculationStep.compute() for " + getFieldName());
-			Map<ReserveField, BigDecimal> inputs = new LinkedHashMap<>();
+		public boolean supportsLong() {
+			return longFormula != null && !customHooks;
+		}
 
-			// Cast the dependency fields
-			@SuppressWarnings("unchecked")
-			List<ReserveField> deps = (List<ReserveField>) dependencyFields;
+		@Override
+		public long calculateLongValue(ReserveCalcContext context) {
+			return longFormula.apply(context.getLongInputs(flow));
+		}
 
-			for (ReserveField dependency : deps) {
-				BigDecimal depValue = context.getCurrentValue(this.flow, dependency);
-				inputs.put(dependency, depValue);
-//                logger.info("      Dependency " + dependency + " = " + depValue + " (flow: " + this.flow + ")");
-			}
+		@Override
+		public boolean supportsColumns() {
+			return supportsLong();
+		}
 
-			BigDecimal result = BigDecimal.ZERO;
-//            logger.info("    Calling formula with inputs: " + inputs);
-			if (formula != null) {
-				result = formula.apply(inputs);
-			} else if (enhancedFormula != null && contextExtractor != null) {
-				// Enhanced step - extract special context and pass both
-				Object specialValue = contextExtractor.apply(context, this.flow);
-				result = enhancedFormula.apply(inputs, specialValue);
-			} else {
-				// ERROR: Neither formula type is properly set
-				throw new IllegalStateException("CalculationStep " + this.fieldName
-						+ " has neither standard formula nor enhanced formula configured");
-			}
-//            logger.info("    Formula returned: " + result);
-
-			// Debug log for complex calculations
-			if (getFieldName().name().contains("X") || getFieldName().name().startsWith("@")) {
-				// ReserveCalculationLogger.debugStepCalculation(
-				// getFieldName(),
-				// inputs,
-				// result,
-				// "Custom formula"
-				// );
+		@Override
+		public void calculateLongColumn(ReserveColumnLane lane) {
+			long[] column = lane.column(fieldName);
+			for (int row = 0; row < lane.rows(); row++) {
+				lane.setRow(row);
+				try {
+					column[row] = longFormula.apply(lane);
+				} catch (ArithmeticException e) {
+					column[row] = 0L;
+					lane.markOverflow(row);
+				}
 			}
-			return result;
 		}
 
 		@Override
-		public ReserveCalcStep copy() {
-			CalculationStep copy = null;
-			if (this.enhancedFormula == null) {
-				copy = new CalculationStep(fieldName, dependencyFields, formula, preCondition, postCondition,
-						preProcessing, postProcessing);
-			} else if (this.enhancedFormula != null) {
-				copy = new CalculationStep(fieldName, dependencyFields, enhancedFormula, this.contextExtractor,
-						this.preCondition, this.postCondition, this.preProcessing, this.postProcessing);
-
-			} else {
-				// ERROR: Neither formula type is properly set
-				throw new IllegalStateException("CalculationStep copy " + this.fieldName
-						+ " has neither standard formula nor enhanced formula configured");
+		protected BigDecimal compute(ReserveCalcContext context) {
+			// Formulas read their declared dependencies straight from the context's slots
+			return formula.apply(context.getDecimalInputs(this.flow));
+		}
 
-			}
+		@Override
+		public ReserveCalcStep copy() {
+			CalculationStep copy = new CalculationStep(fieldName, dependencyFields, formula, longFormula,
+					preCondition, postCondition, preProcessing, postProcessing);
 			copy.flow = this.flow;
-			copy.originalValue = this.originalValue;
-			copy.previousValue = this.previousValue;
-			copy.currentValue = this.currentValue;
-
 			return copy;
 		}
 	}
@@ -204,21 +204,31 @@ public class Steps {
 	// 3. RunningCalculationStep - Fixed version
 	public static class RunningCalculationStep extends ReserveCalcStep {
 		// private final ReserveField initialValueField;
+		protected final BigDecimal startingValue;
 		protected final List<ReserveField> triggerFields;
 		protected final boolean selfDriven;
 		protected final BiFunction<BigDecimal, BigDecimal, BigDecimal> formula;
+		protected final LongBinaryOperator longFormula;
 
 		public RunningCalculationStep(ReserveField outputField, BigDecimal startingValue,
 //                                    // ReserveField initialValueField,
 				List<ReserveField> triggerFields, boolean selfDriven,
 				BiFunction<BigDecimal, BigDecimal, BigDecimal> formula) {
+			this(outputField, startingValue, triggerFields, selfDriven, formula, null);
+		}
+
+		// Running step that can also run on the long kernel
+		public RunningCalculationStep(ReserveField outputField, BigDecimal startingValue,
+				List<ReserveField> triggerFields, boolean selfDriven,
+				BiFunction<BigDecimal, BigDecimal, BigDecimal> formula, LongBinaryOperator longFormula) {
 			// Pass trigger fields as dependencies for getDependencyFields() to work
 			super(outputField, triggerFields, null, null, null, null);
-			this.originalValue = this.currentValue = startingValue;
+			this.startingValue = startingValue;
 			// this.initialValueField = initialValueField;
 			this.triggerFields = new ArrayList<>(triggerFields);
 			this.selfDriven = selfDriven;
 			this.formula = formula;
+			this.longFormula = longFormula;
 		}
 
 		public boolean shouldTrigger(ReserveField triggeredField, boolean afterInitStep) {
@@ -251,38 +261,78 @@ public class Steps {
 			BigDecimal result = formula.apply(runningValue, triggeredValue);
 
 			// Update the tracking for this step
-			updateTracking(result);
+			context.trackValue(flow, fieldName, result);
 
 			// Log the calculation for debugging
-			logger.info(String.format("RunningCalc[%s.%s]: %s - %s = %s (triggered by %s)", flow, fieldName,
-					runningValue, triggeredValue, result, triggeredField));
+			if (context.isVerbose()) {
+				logger.info("RunningCalc[{}.{}]: {} - {} = {} (triggered by {})", flow, fieldName, runningValue,
+						triggeredValue, result, triggeredField);
+			}
+
+			return result;
+		}
 
+		public long calculateLongValue(ReserveCalcContext context, ReserveField triggeredField) {
+			long runningValue = context.getLongValue(flow, fieldName);
+			long result = longFormula.applyAsLong(runningValue, context.getLongValue(flow, triggeredField));
+			context.trackLongValue(flow, fieldName, result);
 			return result;
 		}
 
+		/**
+		 * Columnar counterpart of {@link #calculateLongValue(ReserveCalcContext, ReserveField)}
+		 * for every row of the lane's block.
+		 */
+		public void calculateLongColumn(ReserveColumnLane lane, ReserveField triggeredField) {
+			long[] running = lane.column(fieldName);
+			long[] triggered = lane.column(triggeredField);
+			for (int row = 0; row < lane.rows(); row++) {
+				try {
+					running[row] = longFormula.applyAsLong(running[row], triggered[row]);
+				} catch (ArithmeticException e) {
+					lane.markOverflow(row);
+				}
+			}
+		}
+
 		@Override
 		public BigDecimal calculateValue(ReserveCalcContext context) {
 			// This method should not be called directly for RunningCalculationStep
 			// Return current value as fallback
-			return getCurrentValue();
+			return context.getCurrentValue(flow, fieldName);
+		}
+
+		@Override
+		public boolean supportsLong() {
+			return longFormula != null && isWholeNumber(startingValue);
+		}
+
+		@Override
+		public boolean supportsColumns() {
+			return supportsLong();
 		}
 
 		@Override
 		protected BigDecimal compute(ReserveCalcContext context) {
 			// Return current value - actual calculation happens in calculateValue(context,
 			// triggeredField)
-			return getCurrentValue();
+			return context.getCurrentValue(flow, fieldName);
+		}
+
+		public BigDecimal getStartingValue() {
+			return startingValue;
+		}
+
+		public List<ReserveField> getTriggerFields() {
+			return triggerFields;
 		}
 
 		@Override
 		public ReserveCalcStep copy() {
-			RunningCalculationStep copy = new RunningCalculationStep(this.fieldName, this.originalValue,
+			RunningCalculationStep copy = new RunningCalculationStep(this.fieldName, this.startingValue,
 					// this.initialValueField,
-					new ArrayList<>(this.triggerFields), this.selfDriven, this.formula);
+					new ArrayList<>(this.triggerFields), this.selfDriven, this.formula, this.longFormula);
 			copy.flow = this.flow;
-			copy.originalValue = this.originalValue;
-			copy.previousValue = this.previousValue;
-			copy.currentValue = this.currentValue;
 			return copy;
 		}
 	}
@@ -290,13 +340,18 @@ public class Steps {
 	// RunningWithInitialStep - Full Implementation
 	public static class RunningWithInitialStep extends RunningCalculationStep {
 		private final ReserveField initialField;
-		private boolean initialized = false;
 
 		public RunningWithInitialStep(ReserveField outputField, ReserveField initialField,
 				List<ReserveField> triggerFields, boolean selfDriven,
 				BiFunction<BigDecimal, BigDecimal, BigDecimal> formula) {
+			this(outputField, initialField, triggerFields, selfDriven, formula, null);
+		}
+
+		public RunningWithInitialStep(ReserveField outputField, ReserveField initialField,
+				List<ReserveField> triggerFields, boolean selfDriven,
+				BiFunction<BigDecimal, BigDecimal, BigDecimal> formula, LongBinaryOperator longFormula) {
 			// Call parent constructor with BigDecimal.ZERO as starting value
-			super(outputField, BigDecimal.ZERO, triggerFields, selfDriven, formula);
+			super(outputField, BigDecimal.ZERO, triggerFields, selfDriven, formula, longFormula);
 			this.initialField = initialField;
 		}
 
@@ -311,55 +366,79 @@ public class Steps {
 
 		@Override
 		public BigDecimal calculateValue(ReserveCalcContext context, ReserveField triggeredField) {
+			boolean initialized = context.isRunningInitialized(flow, fieldName);
 			if (!initialized && triggeredField.equals(initialField)) {
 				// First time initialization - copy the initial field value
 				BigDecimal initialValue = context.getCurrentValue(flow, initialField);
-				updateTracking(initialValue);
-				initialized = true;
+				context.trackValue(flow, fieldName, initialValue);
+				context.markRunningInitialized(flow, fieldName);
 
-				logger.info("RunningWithInitial[{}.{}]: Initialized from {} = {} ", flow, fieldName, initialField,
-						initialValue);
+				if (context.isVerbose()) {
+					logger.info("RunningWithInitial[{}.{}]: Initialized from {} = {} ", flow, fieldName, initialField,
+							initialValue);
+				}
 				return initialValue;
 
 			} else if (initialized && !triggeredField.equals(initialField)) {
 				// Subsequent updates - apply the formula (e.g., subtract allocations)
-				BigDecimal runningValue = getCurrentValue();
+				BigDecimal runningValue = context.getCurrentValue(flow, fieldName);
 				BigDecimal triggeredValue = context.getCurrentValue(flow, triggeredField);
 
 				// Apply the formula from parent class
 				BigDecimal result = formula.apply(runningValue, triggeredValue);
-				updateTracking(result);
+				context.trackValue(flow, fieldName, result);
 
-				logger.info("RunningWithInitial[{}.{}]: {} operation {} = {} (triggered by {})", flow, fieldName,
-						runningValue, triggeredValue, result, triggeredField);
+				if (context.isVerbose()) {
+					logger.info("RunningWithInitial[{}.{}]: {} operation {} = {} (triggered by {})", flow, fieldName,
+							runningValue, triggeredValue, result, triggeredField);
+				}
 				return result;
 
 			} else {
 				// Either: initial field triggered but already initialized,
 				// OR: some other field that shouldn't trigger this
-				logger.debug("RunningWithInitial[{}.{}]: No action for trigger {} (initialized={})", flow, fieldName,
-						triggeredField, initialized);
-				return getCurrentValue();
+				if (context.isVerbose()) {
+					logger.debug("RunningWithInitial[{}.{}]: No action for trigger {} (initialized={})", flow,
+							fieldName, triggeredField, initialized);
+				}
+				return context.getCurrentValue(flow, fieldName);
+			}
+		}
+
+		@Override
+		public long calculateLongValue(ReserveCalcContext context, ReserveField triggeredField) {
+			boolean initialized = context.isRunningInitialized(flow, fieldName);
+			if (!initialized && triggeredField.equals(initialField)) {
+				long initialValue = context.getLongValue(flow, initialField);
+				context.trackLongValue(flow, fieldName, initialValue);
+				context.markRunningInitialized(flow, fieldName);
+				return initialValue;
+			} else if (initialized && !triggeredField.equals(initialField)) {
+				return super.calculateLongValue(context, triggeredField);
+			}
+			return context.getLongValue(flow, fieldName);
+		}
+
+		@Override
+		public void calculateLongColumn(ReserveColumnLane lane, ReserveField triggeredField) {
+			// Every row of a block reaches the initial field at the same step
+			boolean initialized = lane.isRunningInitialized(fieldName);
+			if (!initialized && triggeredField.equals(initialField)) {
+				System.arraycopy(lane.column(initialField), 0, lane.column(fieldName), 0, lane.rows());
+				lane.markRunningInitialized(fieldName);
+			} else if (initialized && !triggeredField.equals(initialField)) {
+				super.calculateLongColumn(lane, triggeredField);
 			}
 		}
 
 		@Override
 		public ReserveCalcStep copy() {
 			RunningWithInitialStep copy = new RunningWithInitialStep(this.fieldName, this.initialField,
-					new ArrayList<>(this.triggerFields), this.selfDriven, this.formula);
+					new ArrayList<>(this.triggerFields), this.selfDriven, this.formula, this.longFormula);
 			copy.flow = this.flow;
-			copy.originalValue = this.originalValue;
-			copy.previousValue = this.previousValue;
-			copy.currentValue = this.currentValue;
-			copy.initialized = this.initialized; // Copy the initialization state
 			return copy;
 		}
 
-		// Helper method to check if this step has been initialized
-		public boolean isInitialized() {
-			return initialized;
-		}
-
 		// Helper method to get the initial field
 		public ReserveField getInitialField() {
 			return initialField;
@@ -369,27 +448,18 @@ public class Steps {
 	// 4. StatefulCalculationStep - For calculations that need previous state
 	@SuppressWarnings("rawtypes")
 	public static class StatefulCalculationStep extends ReserveCalcStep {
-		private final Function<Map<ReserveField, BigDecimal>, BigDecimal> formula;
+		private final DecimalFormula formula;
 
 		public StatefulCalculationStep(ReserveField outputField, List<ReserveField> dependencyFields,
-				Function<Map<ReserveField, BigDecimal>, BigDecimal> formula) {
+				DecimalFormula formula) {
 			super(outputField, dependencyFields, null, null, null, null);
 			this.formula = formula;
 		}
 
 		@Override
 		protected BigDecimal compute(ReserveCalcContext context) {
-			Map<ReserveField, BigDecimal> inputs = new HashMap<>();
-
-			@SuppressWarnings("unchecked")
-			List<ReserveField> deps = (List<ReserveField>) dependencyFields;
-
-			// Collect previous values from dependencies
-			for (ReserveField field : deps) {
-				inputs.put(field, context.getPreviousValue(flow, field));
-			}
-
-			return formula.apply(inputs);
+			// Dependencies are read as their previous values
+			return formula.apply(context.getPreviousInputs(flow));
 		}
 
 		@Override
@@ -397,9 +467,6 @@ public class Steps {
 			StatefulCalculationStep copy = new StatefulCalculationStep(this.fieldName,
 					new ArrayList<>(this.dependencyFields), this.formula);
 			copy.flow = this.flow;
-			copy.originalValue = this.originalValue;
-			copy.previousValue = this.previousValue;
-			copy.currentValue = this.currentValue;
 			return copy;
 		}
 	}
@@ -407,10 +474,14 @@ public class Steps {
 	// 5. ConstantStep: Static value
 	public static class ConstantStep extends ReserveCalcStep {
 		private final BigDecimal constantValue;
+		private final boolean wholeNumber;
+		private final long longValue;
 
 		public ConstantStep(ReserveField fieldName, BigDecimal constantValue) {
 			super(fieldName, List.of(), null, null, null, null);
 			this.constantValue = constantValue;
+			this.wholeNumber = isWholeNumber(constantValue);
+			this.longValue = wholeNumber ? constantValue.longValue() : 0L;
 		}
 
 		@Override
@@ -418,13 +489,30 @@ public class Steps {
 			return constantValue;
 		}
 
+		@Override
+		public boolean supportsLong() {
+			return !customHooks && wholeNumber;
+		}
+
+		@Override
+		public long calculateLongValue(ReserveCalcContext context) {
+			return longValue;
+		}
+
+		@Override
+		public boolean supportsColumns() {
+			return supportsLong();
+		}
+
+		@Override
+		public void calculateLongColumn(ReserveColumnLane lane) {
+			Arrays.fill(lane.column(fieldName), 0, lane.rows(), longValue);
+		}
+
 		@Override
 		public ReserveCalcStep copy() {
 			ConstantStep copy = new ConstantStep(fieldName, constantValue);
 			copy.flow = this.flow;
-			copy.originalValue = this.originalValue;
-			copy.previousValue = this.previousValue;
-			copy.currentValue = this.currentValue;
 			return copy;
 		}
 	}
@@ -447,13 +535,129 @@ public class Steps {
 			return base.min(constraint).max(BigDecimal.ZERO);
 		}
 
+		@Override
+		public boolean supportsLong() {
+			return !customHooks;
+		}
+
+		@Override
+		public long calculateLongValue(ReserveCalcContext context) {
+			long base = context.getLongValue(this.flow, baseField);
+			long constraint = context.getLongValue(this.flow, constraintField);
+			return Math.max(Math.min(base, constraint), 0L);
+		}
+
+		@Override
+		public boolean supportsColumns() {
+			return supportsLong();
+		}
+
+		@Override
+		public void calculateLongColumn(ReserveColumnLane lane) {
+			lane.kernel().clamp(lane.column(baseField), lane.column(constraintField), lane.column(fieldName),
+					lane.rows());
+		}
+
 		@Override
 		public ReserveCalcStep copy() {
 			ConstraintStep copy = new ConstraintStep(fieldName, baseField, constraintField);
 			copy.flow = this.flow;
-			copy.originalValue = this.originalValue;
-			copy.previousValue = this.previousValue;
-			copy.currentValue = this.currentValue;
+			return copy;
+		}
+	}
+
+	// 6a. ShortfallStep: the X pattern, what is left when it cannot cover the request
+	public static class ShortfallStep extends ReserveCalcStep {
+		private final ReserveField availableField;
+		private final ReserveField requestedField;
+
+		public ShortfallStep(ReserveField fieldName, ReserveField availableField, ReserveField requestedField) {
+			super(fieldName, List.of(availableField, requestedField), null, null, null, null);
+			this.availableField = availableField;
+			this.requestedField = requestedField;
+		}
+
+		@Override
+		protected BigDecimal compute(ReserveCalcContext context) {
+			BigDecimal available = context.getCurrentValue(this.flow, availableField);
+			BigDecimal requested = context.getCurrentValue(this.flow, requestedField);
+			return available.compareTo(requested) < 0 ? available : BigDecimal.ZERO;
+		}
+
+		@Override
+		public boolean supportsLong() {
+			return !customHooks;
+		}
+
+		@Override
+		public long calculateLongValue(ReserveCalcContext context) {
+			long available = context.getLongValue(this.flow, availableField);
+			return available < context.getLongValue(this.flow, requestedField) ? available : 0L;
+		}
+
+		@Override
+		public boolean supportsColumns() {
+			return supportsLong();
+		}
+
+		@Override
+		public void calculateLongColumn(ReserveColumnLane lane) {
+			lane.kernel().shortfall(lane.column(availableField), lane.column(requestedField),
+					lane.column(fieldName), lane.rows());
+		}
+
+		@Override
+		public ReserveCalcStep copy() {
+			ShortfallStep copy = new ShortfallStep(fieldName, availableField, requestedField);
+			copy.flow = this.flow;
+			return copy;
+		}
+	}
+
+	// 6b. PreferPositiveStep: the A pattern, the constrained value if there is one, else the base
+	public static class PreferPositiveStep extends ReserveCalcStep {
+		private final ReserveField preferredField;
+		private final ReserveField baseField;
+
+		public PreferPositiveStep(ReserveField fieldName, ReserveField preferredField, ReserveField baseField) {
+			super(fieldName, List.of(baseField, preferredField), null, null, null, null);
+			this.preferredField = preferredField;
+			this.baseField = baseField;
+		}
+
+		@Override
+		protected BigDecimal compute(ReserveCalcContext context) {
+			BigDecimal preferred = context.getCurrentValue(this.flow, preferredField);
+			return preferred.compareTo(BigDecimal.ZERO) > 0 ? preferred
+					: context.getCurrentValue(this.flow, baseField);
+		}
+
+		@Override
+		public boolean supportsLong() {
+			return !customHooks;
+		}
+
+		@Override
+		public long calculateLongValue(ReserveCalcContext context) {
+			long preferred = context.getLongValue(this.flow, preferredField);
+			return preferred > 0 ? preferred : context.getLongValue(this.flow, baseField);
+		}
+
+		@Override
+		public boolean supportsColumns() {
+			return supportsLong();
+		}
+
+		@Override
+		public void calculateLongColumn(ReserveColumnLane lane) {
+			lane.kernel().preferPositive(lane.column(preferredField), lane.column(baseField),
+					lane.column(fieldName), lane.rows());
+		}
+
+		@Override
+		public ReserveCalcStep copy() {
+			PreferPositiveStep copy = new PreferPositiveStep(fieldName, preferredField, baseField);
+			copy.flow = this.flow;
 			return copy;
 		}
 	}
@@ -472,13 +676,30 @@ public class Steps {
 			return context.getCurrentValue(this.flow, sourceField);
 		}
 
+		@Override
+		public boolean supportsLong() {
+			return !customHooks;
+		}
+
+		@Override
+		public long calculateLongValue(ReserveCalcContext context) {
+			return context.getLongValue(this.flow, sourceField);
+		}
+
+		@Override
+		public boolean supportsColumns() {
+			return supportsLong();
+		}
+
+		@Override
+		public void calculateLongColumn(ReserveColumnLane lane) {
+			System.arraycopy(lane.column(sourceField), 0, lane.column(fieldName), 0, lane.rows());
+		}
+
 		@Override
 		public ReserveCalcStep copy() {
 			CopyStep copy = new CopyStep(fieldName, sourceField);
 			copy.flow = this.flow;
-			copy.originalValue = this.originalValue;
-			copy.previousValue = this.previousValue;
-			copy.currentValue = this.currentValue;
 			return copy;
 		}
 	}
@@ -511,10 +732,20 @@ public class Steps {
 		public ReserveCalcStep copy() {
 			ContextConditionStep copy = new ContextConditionStep(fieldName, dependencyFields, conditionLogic);
 			copy.flow = this.flow;
-			copy.originalValue = this.originalValue;
-			copy.previousValue = this.previousValue;
-			copy.currentValue = this.currentValue;
 			return copy;
 		}
 	}
-}
\ No newline at end of file
+
+	// Whole-unit values are the only ones the long kernel can represent exactly
+	static boolean isWholeNumber(BigDecimal value) {
+		if (value == null || value.scale() != 0) {
+			return false;
+		}
+		try {
+			value.longValueExact();
+			return true;
+		} catch (ArithmeticException e) {
+			return false;
+		}
+	}
+}
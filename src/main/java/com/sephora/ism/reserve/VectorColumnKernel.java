@@ -0,0 +1,68 @@
+package com.sephora.ism.reserve;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link ReserveColumnKernel} on the JDK Vector API: each loop compares and
+ * blends {@link #SPECIES} rows per iteration and finishes the rows that do
+ * not fill a whole vector with the scalar kernel. Only load this class
+ * through {@link ReserveColumnKernel#forMode(ColumnKernelMode)}, which
+ * handles a missing {@code jdk.incubator.vector} module.
+ */
+final class VectorColumnKernel extends ReserveColumnKernel {
+
+	private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+	// With a single lane the vector loops only add overhead to the scalar ones
+	static boolean isAccelerated() {
+		return SPECIES.length() > 1;
+	}
+
+	@Override
+	ColumnKernelMode getMode() {
+		return ColumnKernelMode.VECTOR;
+	}
+
+	@Override
+	void shortfall(long[] available, long[] requested, long[] out, int rows) {
+		int bound = SPECIES.loopBound(rows);
+		for (int row = 0; row < bound; row += SPECIES.length()) {
+			LongVector availableVector = LongVector.fromArray(SPECIES, available, row);
+			LongVector requestedVector = LongVector.fromArray(SPECIES, requested, row);
+			VectorMask<Long> covered = availableVector.compare(VectorOperators.GE, requestedVector);
+			availableVector.blend(0L, covered).intoArray(out, row);
+		}
+		for (int row = bound; row < rows; row++) {
+			out[row] = available[row] < requested[row] ? available[row] : 0L;
+		}
+	}
+
+	@Override
+	void preferPositive(long[] preferred, long[] base, long[] out, int rows) {
+		int bound = SPECIES.loopBound(rows);
+		for (int row = 0; row < bound; row += SPECIES.length()) {
+			LongVector preferredVector = LongVector.fromArray(SPECIES, preferred, row);
+			LongVector baseVector = LongVector.fromArray(SPECIES, base, row);
+			baseVector.blend(preferredVector, preferredVector.compare(VectorOperators.GT, 0L)).intoArray(out, row);
+		}
+		for (int row = bound; row < rows; row++) {
+			out[row] = preferred[row] > 0 ? preferred[row] : base[row];
+		}
+	}
+
+	@Override
+	void clamp(long[] base, long[] constraint, long[] out, int rows) {
+		int bound = SPECIES.loopBound(rows);
+		for (int row = 0; row < bound; row += SPECIES.length()) {
+			LongVector baseVector = LongVector.fromArray(SPECIES, base, row);
+			LongVector constraintVector = LongVector.fromArray(SPECIES, constraint, row);
+			baseVector.min(constraintVector).max(0L).intoArray(out, row);
+		}
+		for (int row = bound; row < rows; row++) {
+			out[row] = Math.max(Math.min(base[row], constraint[row]), 0L);
+		}
+	}
+}
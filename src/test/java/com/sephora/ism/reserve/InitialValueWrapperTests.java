@@ -0,0 +1,72 @@
+package com.sephora.ism.reserve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class InitialValueWrapperTests {
+
+	@Test
+	void numericValuesKeepValueAndScale() {
+		List<Object> inputs = List.of(7, -12L, (short) 3, (byte) -1, 2.5d, 1.0e10d, 0.1f,
+				new BigInteger("123456789012345678901234567890"), new BigDecimal("4.50"), "42", "-42", "+42", "007",
+				"-0", "123456789012345678", "1234567890123456789", "99999999999999999999", "1.50", "1E+3", " 5",
+				"", "-", "abc");
+		for (Object input : inputs) {
+			BigDecimal expected = referenceConversion(input);
+			BigDecimal actual = InitialValueWrapper.fromMap(Map.of("ONHAND", input)).get(ReserveField.ONHAND);
+			// equals compares scale as well as value
+			assertEquals(expected, actual, String.valueOf(input));
+		}
+	}
+
+	@Test
+	void unknownKeysAndAtNamesAreSkipped() {
+		Map<String, Object> record = new HashMap<>();
+		record.put("ONHAND", 5);
+		record.put("BYCL", "R");
+		record.put("skuId", "1234567");
+		record.put("@OMSFINAL", 9);
+
+		InitialValueWrapper wrapper = InitialValueWrapper.fromMap(record);
+		assertEquals(Map.of(ReserveField.ONHAND, BigDecimal.valueOf(5), ReserveField.BYCL, BigDecimal.ZERO),
+				wrapper.getValues());
+		assertEquals("R", wrapper.getString(ReserveField.BYCL));
+		assertTrue(wrapper.hasOnlyWholeNumbers());
+		assertFalse(InitialValueWrapper.fromMap(Map.of("ONHAND", "1.5")).hasOnlyWholeNumbers());
+	}
+
+	@Test
+	void fieldsAreFoundByNameAndFieldName() {
+		for (ReserveField field : ReserveField.values()) {
+			assertSame(field, ReserveField.forName(field.name()));
+			assertSame(field, ReserveField.fromFieldName(field.getFieldName()));
+		}
+		assertNull(ReserveField.forName("skuId"));
+		assertNull(ReserveField.forName(null));
+		assertThrows(IllegalArgumentException.class, () -> ReserveField.fromFieldName("skuId"));
+	}
+
+	// What fromMap did before it parsed numbers itself
+	private static BigDecimal referenceConversion(Object value) {
+		if (value instanceof BigDecimal decimal) {
+			return decimal;
+		}
+		try {
+			return new BigDecimal(value.toString());
+		} catch (NumberFormatException e) {
+			return BigDecimal.ZERO;
+		}
+	}
+}
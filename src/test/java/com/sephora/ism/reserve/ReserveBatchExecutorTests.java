@@ -0,0 +1,89 @@
+package com.sephora.ism.reserve;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class ReserveBatchExecutorTests {
+
+	private static final ReserveCalculationEngine ENGINE = new ReserveCalculationEngine(ReservePlan.standard());
+
+	@Test
+	void parallelBatchMatchesSequentialRun() {
+		List<Map<String, Object>> records = ReserveCalculationEngineTests.randomRecords(20_000);
+		// Every 97th record has a fractional input and falls back to BigDecimal
+		for (int i = 0; i < records.size(); i += 97) {
+			records.get(i).put("ONHAND", new BigDecimal("1234.5"));
+		}
+		List<ReserveResult> expected = ENGINE.calculateBatch(records, InitialValueWrapper::fromMap);
+
+		try (ReserveBatchExecutor executor = new ReserveBatchExecutor(ENGINE, 8, 16)) {
+			for (int run = 0; run < 5; run++) {
+				List<ReserveResult> actual = executor.calculate(records, InitialValueWrapper::fromMap, null);
+
+				assertEquals(expected.size(), actual.size());
+				for (int i = 0; i < expected.size(); i++) {
+					// BigDecimal.equals compares scale too, so this is bit-for-bit
+					assertEquals(expected.get(i).getAllOutputs(), actual.get(i).getAllOutputs(),
+							"record " + i + " in run " + run);
+				}
+			}
+		}
+	}
+
+	@Test
+	void parallelColumnarBatchMatchesSequentialRun() {
+		List<Map<String, Object>> records = ReserveCalculationEngineTests.columnarRecords(20_000);
+		ReserveColumnBatch expected = ReserveCalculationEngineTests.columnBatch(records);
+		ENGINE.calculate(expected, EnumSet.allOf(CalculationFlow.class), null);
+
+		ReserveColumnBatch actual = ReserveCalculationEngineTests.columnBatch(records);
+		try (ReserveBatchExecutor executor = new ReserveBatchExecutor(ENGINE, 8, 16)) {
+			executor.calculate(actual, EnumSet.allOf(CalculationFlow.class), null);
+		}
+
+		assertEquals(expected.getFallbackCount(), actual.getFallbackCount());
+		for (CalculationFlow flow : CalculationFlow.values()) {
+			for (ReserveField field : ReserveResult.OUTPUT_FIELDS) {
+				assertArrayEquals(expected.getOutputColumn(flow, field), actual.getOutputColumn(flow, field),
+						flow + "." + field);
+			}
+		}
+		for (int row = 0; row < records.size(); row += 500) {
+			assertEquals(expected.getResult(row).getAllOutputs(), actual.getResult(row).getAllOutputs());
+		}
+	}
+
+	@Test
+	void smallBatchRunsOnCallingThread() {
+		List<Map<String, Object>> records = ReserveCalculationEngineTests.randomRecords(10);
+		Thread caller = Thread.currentThread();
+
+		try (ReserveBatchExecutor executor = new ReserveBatchExecutor(ENGINE, 4, 64)) {
+			List<ReserveResult> actual = executor.calculate(records, record -> {
+				assertSame(caller, Thread.currentThread());
+				return InitialValueWrapper.fromMap(record);
+			}, null);
+
+			assertEquals(records.size(), actual.size());
+		}
+	}
+
+	@Test
+	void failedRecordFailsTheBatch() {
+		List<Map<String, Object>> records = ReserveCalculationEngineTests.randomRecords(1_000);
+
+		try (ReserveBatchExecutor executor = new ReserveBatchExecutor(ENGINE, 4, 16)) {
+			assertThrows(IllegalStateException.class, () -> executor.calculate(records,
+					record -> record == records.get(500) ? null : InitialValueWrapper.fromMap(record), null));
+		}
+	}
+}
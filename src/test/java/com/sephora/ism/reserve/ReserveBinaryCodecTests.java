@@ -0,0 +1,110 @@
+package com.sephora.ism.reserve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class ReserveBinaryCodecTests {
+
+	private static final ReserveCalculationEngine ENGINE = new ReserveCalculationEngine(ReservePlan.standard());
+
+	@Test
+	void recordsRoundTrip() {
+		List<InitialValueWrapper> records = new ArrayList<>();
+		for (Map<String, Object> record : ReserveCalculationEngineTests.randomRecords(500)) {
+			records.add(InitialValueWrapper.fromMap(record));
+		}
+		records.add(InitialValueWrapper.fromMap(Map.of("ONHAND", Long.MIN_VALUE, "LOST", Long.MAX_VALUE,
+				"BYCL", "Größe")));
+		records.add(InitialValueWrapper.fromMap(Map.of()));
+
+		List<InitialValueWrapper> decoded = ReserveBinaryCodec
+				.decodeRecords(ByteBuffer.wrap(ReserveBinaryCodec.encodeRecords(records)));
+
+		assertEquals(records.size(), decoded.size());
+		for (int i = 0; i < records.size(); i++) {
+			assertEquals(numericInputs(records.get(i)), decoded.get(i).getValues(), "record " + i);
+			assertEquals(records.get(i).has(ReserveField.BYCL), decoded.get(i).has(ReserveField.BYCL));
+			assertEquals(records.get(i).getString(ReserveField.BYCL), decoded.get(i).getString(ReserveField.BYCL));
+		}
+	}
+
+	@Test
+	void resultsRoundTrip() {
+		List<Map<String, Object>> records = ReserveCalculationEngineTests.randomRecords(500);
+		for (Set<CalculationFlow> flows : List.of(EnumSet.allOf(CalculationFlow.class),
+				EnumSet.of(CalculationFlow.OMS), EnumSet.of(CalculationFlow.JEI, CalculationFlow.FRM))) {
+			List<ReserveResult> results = new ArrayList<>();
+			for (Map<String, Object> record : records) {
+				results.add(ENGINE.calculate(InitialValueWrapper.fromMap(record), new ReserveCalcContext(), flows,
+						null));
+			}
+
+			List<ReserveResult> decoded = ReserveBinaryCodec
+					.decodeResults(ByteBuffer.wrap(ReserveBinaryCodec.encodeResults(results, flows)));
+
+			assertEquals(results.size(), decoded.size());
+			for (int i = 0; i < results.size(); i++) {
+				assertEquals(results.get(i).getAllOutputs(), decoded.get(i).getAllOutputs(), flows + " record " + i);
+			}
+		}
+	}
+
+	@Test
+	void malformedRequestsAreRejected() {
+		List<InitialValueWrapper> records = List.of(InitialValueWrapper.fromMap(Map.of("ONHAND", 5, "BYCL", "R")));
+		byte[] valid = ReserveBinaryCodec.encodeRecords(records);
+
+		assertThrows(IllegalArgumentException.class,
+				() -> ReserveBinaryCodec.decodeRecords(ByteBuffer.wrap(new byte[] { '{', '}' })));
+		for (int length = 0; length < valid.length; length++) {
+			byte[] truncated = Arrays.copyOf(valid, length);
+			assertThrows(IllegalArgumentException.class,
+					() -> ReserveBinaryCodec.decodeRecords(ByteBuffer.wrap(truncated)));
+		}
+		byte[] trailing = Arrays.copyOf(valid, valid.length + 1);
+		assertThrows(IllegalArgumentException.class,
+				() -> ReserveBinaryCodec.decodeRecords(ByteBuffer.wrap(trailing)));
+		byte[] wrongFieldCount = valid.clone();
+		wrongFieldCount[3]++;
+		assertThrows(IllegalArgumentException.class,
+				() -> ReserveBinaryCodec.decodeRecords(ByteBuffer.wrap(wrongFieldCount)));
+		assertThrows(IllegalArgumentException.class, () -> ReserveBinaryCodec
+				.encodeRecords(List.of(InitialValueWrapper.fromMap(Map.of("ONHAND", new BigDecimal("1.5"))))));
+	}
+
+	@Test
+	void decodingReadsInPlace() {
+		List<InitialValueWrapper> records = List.of(InitialValueWrapper.fromMap(Map.of("ONHAND", 300, "BYCL", "W")));
+		byte[] encoded = ReserveBinaryCodec.encodeRecords(records);
+		// A slice at an offset into a larger array, as a pooled request buffer would be
+		byte[] padded = new byte[encoded.length + 10];
+		System.arraycopy(encoded, 0, padded, 7, encoded.length);
+		ByteBuffer slice = ByteBuffer.wrap(padded, 7, encoded.length).slice();
+
+		InitialValueWrapper decoded = ReserveBinaryCodec.decodeRecords(slice).get(0);
+		assertEquals(BigDecimal.valueOf(300), decoded.get(ReserveField.ONHAND));
+		assertEquals("W", decoded.getString(ReserveField.BYCL));
+		assertFalse(slice.hasRemaining());
+		// Header 5, bitmap 3, buyer class 2, ONHAND 2
+		assertEquals(12, encoded.length);
+	}
+
+	// What the encoding carries: numeric inputs plus the buyer class placeholder
+	private static Map<ReserveField, BigDecimal> numericInputs(InitialValueWrapper record) {
+		Map<ReserveField, BigDecimal> values = record.getValues();
+		values.keySet().removeIf(field -> field != ReserveField.BYCL && !ReserveField.numericInputs().contains(field));
+		return values;
+	}
+}
@@ -0,0 +1,558 @@
+package com.sephora.ism.reserve;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+
+class ReserveCalculationEngineTests {
+
+	private static final ReservePlan PLAN = ReservePlan.standard();
+
+	private static final String[] INPUTS = { "ONHAND", "ROHM", "LOST", "OOBADJ", "SNB", "DTCO", "ROHP", "DOTHRY",
+			"DOTHRN", "RETHRY", "RETHRN", "HLDHR", "DOTRSV", "RETRSV", "DOTOUTB", "NEED" };
+
+	private static final String[] BUYER_CLASSES = { "R", "W", "D", "" };
+
+	@Test
+	void standardPlanRunsOnLongKernel() {
+		assertTrue(PLAN.isLongKernelSupported());
+	}
+
+	@Test
+	void longKernelMatchesBigDecimal() {
+		ReserveCalculationEngine longEngine = new ReserveCalculationEngine(PLAN, NumericMode.LONG);
+		ReserveCalculationEngine decimalEngine = new ReserveCalculationEngine(PLAN, NumericMode.BIG_DECIMAL);
+		ReserveCalcContext longContext = new ReserveCalcContext();
+		ReserveCalcContext decimalContext = new ReserveCalcContext();
+
+		for (Map<String, Object> record : randomRecords(500)) {
+			longEngine.calculate(InitialValueWrapper.fromMap(record), longContext);
+			decimalEngine.calculate(InitialValueWrapper.fromMap(record), decimalContext);
+
+			assertTrue(longContext.isLongMode(), "expected long kernel for " + record);
+			assertFalse(decimalContext.isLongMode());
+			assertSameValues(record, decimalContext, longContext);
+		}
+	}
+
+	@Test
+	void fractionalInputsFallBackToBigDecimal() {
+		Map<String, Object> record = new HashMap<>();
+		record.put("ONHAND", new BigDecimal("12.5"));
+		record.put("LOST", new BigDecimal("2"));
+		record.put("BYCL", "R");
+
+		ReserveCalcContext context = calculate(NumericMode.LONG, record);
+
+		assertFalse(context.isLongMode());
+		assertSameValues(record, calculate(NumericMode.BIG_DECIMAL, record), context);
+	}
+
+	@Test
+	void overflowFallsBackToBigDecimal() {
+		Map<String, Object> record = new HashMap<>();
+		record.put("ONHAND", new BigDecimal(Long.MAX_VALUE));
+		record.put("ROHM", new BigDecimal("-5"));
+
+		ReserveCalcContext context = calculate(NumericMode.LONG, record);
+
+		assertFalse(context.isLongMode());
+		assertSameValues(record, calculate(NumericMode.BIG_DECIMAL, record), context);
+	}
+
+	@Test
+	void longKernelStepsDoNotAllocate() {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		ReserveCalcContext context = new ReserveCalcContext();
+		List<InitialValueWrapper> wrappers = randomRecords(50).stream().map(InitialValueWrapper::fromMap).toList();
+
+		long allocated = 0;
+		for (int round = 0; round < 400; round++) {
+			for (InitialValueWrapper wrapper : wrappers) {
+				context.reset();
+				context.setInitialValueWrapper(wrapper);
+				assertTrue(context.startLongCalculation());
+
+				long before = threads.getCurrentThreadAllocatedBytes();
+				ReserveCalculationEngine.evaluateLong(PLAN, context);
+				long after = threads.getCurrentThreadAllocatedBytes();
+				// Only count steady state, after the step loop has been compiled
+				if (round >= 200) {
+					allocated += after - before;
+				}
+			}
+		}
+
+		assertEquals(0L, allocated, "bytes allocated by the long step loop in steady state");
+	}
+
+	@Test
+	void parallelLanesMatchSequentialLanes() {
+		assertTrue(PLAN.isLaneIndependent());
+		for (NumericMode mode : NumericMode.values()) {
+			ReserveCalculationEngine engine = new ReserveCalculationEngine(PLAN, mode);
+			ReserveCalcContext sequential = new ReserveCalcContext();
+			ReserveCalcContext parallel = new ReserveCalcContext();
+			parallel.setParallelLanes(true);
+
+			for (Map<String, Object> record : randomRecords(200)) {
+				engine.calculate(InitialValueWrapper.fromMap(record), sequential);
+				engine.calculate(InitialValueWrapper.fromMap(record), parallel);
+
+				assertSameValues(record, sequential, parallel);
+			}
+		}
+	}
+
+	@Test
+	void flowSubsetMatchesFullCalculation() {
+		Set<CalculationFlow> omsOnly = EnumSet.of(CalculationFlow.OMS);
+		ReservePlan omsPlan = PLAN.forFlows(omsOnly);
+		assertEquals(List.of(CalculationFlow.OMS), omsPlan.getFlows());
+		assertTrue(omsPlan.getSteps(CalculationFlow.JEI).isEmpty());
+		assertTrue(omsPlan.getRunningSteps(CalculationFlow.FRM).isEmpty());
+		assertSame(omsPlan, PLAN.forFlows(omsOnly));
+
+		for (NumericMode mode : NumericMode.values()) {
+			ReserveCalculationEngine engine = new ReserveCalculationEngine(PLAN, mode);
+			ReserveCalcContext full = new ReserveCalcContext();
+			ReserveCalcContext subset = new ReserveCalcContext();
+
+			for (Map<String, Object> record : randomRecords(200)) {
+				ReserveResult fullResult = engine.calculate(InitialValueWrapper.fromMap(record), full);
+				ReserveResult subsetResult = engine.calculate(InitialValueWrapper.fromMap(record), subset, omsOnly);
+
+				assertEquals(omsOnly, subsetResult.getAllOutputs().keySet());
+				assertEquals(fullResult.getOutputs(CalculationFlow.OMS), subsetResult.getOutputs(CalculationFlow.OMS));
+				for (ReserveField field : ReserveField.values()) {
+					assertEquals(full.getFieldValue(CalculationFlow.OMS, field) == null,
+							subset.getFieldValue(CalculationFlow.OMS, field) == null);
+					assertNull(subset.getFieldValue(CalculationFlow.JEI, field));
+				}
+			}
+		}
+	}
+
+	@Test
+	void prunedOutputsMatchFullCalculation() {
+		Set<ReserveField> finals = EnumSet.of(ReserveField.OMSFINAL, ReserveField.RETFINAL);
+		ReservePlan finalsPlan = PLAN.forOutputs(finals);
+		assertSame(finalsPlan, PLAN.forOutputs(finals));
+		assertTrue(PLAN.forOutputs(EnumSet.of(ReserveField.INITAFS)).getSteps(CalculationFlow.OMS)
+				.size() < PLAN.getSteps(CalculationFlow.OMS).size());
+		assertThrows(IllegalArgumentException.class, () -> PLAN.forOutputs(Set.of()));
+
+		List<Set<ReserveField>> requests = new ArrayList<>();
+		requests.add(finals);
+		for (ReserveField field : ReserveResult.OUTPUT_FIELDS) {
+			requests.add(EnumSet.of(field));
+		}
+
+		for (NumericMode mode : NumericMode.values()) {
+			ReserveCalculationEngine engine = new ReserveCalculationEngine(PLAN, mode);
+			ReserveCalcContext full = new ReserveCalcContext();
+			ReserveCalcContext pruned = new ReserveCalcContext();
+			Set<CalculationFlow> allFlows = EnumSet.allOf(CalculationFlow.class);
+
+			for (Map<String, Object> record : randomRecords(100)) {
+				ReserveResult fullResult = engine.calculate(InitialValueWrapper.fromMap(record), full);
+				for (Set<ReserveField> outputs : requests) {
+					ReserveResult prunedResult = engine.calculate(InitialValueWrapper.fromMap(record), pruned,
+							allFlows, outputs);
+					for (CalculationFlow flow : CalculationFlow.values()) {
+						for (ReserveField output : outputs) {
+							assertEquals(fullResult.get(flow, output), prunedResult.get(flow, output),
+									flow + "." + output + " for " + record);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	void columnarBatchMatchesRecordByRecord() {
+		assertTrue(PLAN.isColumnKernelSupported());
+		List<Map<String, Object>> records = columnarRecords(3_000);
+		ReserveColumnBatch batch = columnBatch(records);
+		ReserveCalculationEngine engine = new ReserveCalculationEngine(PLAN);
+		ReserveCalcContext context = new ReserveCalcContext();
+
+		engine.calculate(batch, EnumSet.allOf(CalculationFlow.class), null);
+		// Every 500th record overflows the long kernel
+		assertEquals(6, batch.getFallbackCount());
+		for (int row = 0; row < records.size(); row++) {
+			ReserveResult expected = engine.calculate(InitialValueWrapper.fromMap(records.get(row)), context);
+			assertEquals(expected.getAllOutputs(), batch.getResult(row).getAllOutputs(), "row " + row);
+			assertEquals(row % 500 == 7, batch.isFallback(row));
+			if (!batch.isFallback(row)) {
+				assertEquals(expected.get(CalculationFlow.JEI, ReserveField.OMSFINAL).longValueExact(),
+						batch.getOutputColumn(CalculationFlow.JEI, ReserveField.OMSFINAL)[row]);
+			}
+		}
+
+		Set<ReserveField> finals = EnumSet.of(ReserveField.OMSFINAL, ReserveField.RETFINAL);
+		engine.calculate(batch, EnumSet.of(CalculationFlow.OMS), finals);
+		assertEquals(EnumSet.of(CalculationFlow.OMS), batch.getCalculatedFlows());
+		assertNull(batch.getOutputColumn(CalculationFlow.FRM, ReserveField.OMSFINAL));
+		for (int row = 0; row < records.size(); row++) {
+			ReserveResult expected = engine.calculate(InitialValueWrapper.fromMap(records.get(row)), context,
+					EnumSet.of(CalculationFlow.OMS), finals);
+			assertEquals(expected.getAllOutputs(), batch.getResult(row).getAllOutputs(), "row " + row);
+		}
+
+		assertThrows(IllegalArgumentException.class,
+				() -> batch.setRow(0, InitialValueWrapper.fromMap(Map.of("ONHAND", new BigDecimal("1.5")))));
+	}
+
+	@Test
+	void vectorColumnKernelMatchesScalarKernel() {
+		ReserveColumnKernel vector = ReserveColumnKernel.forMode(ColumnKernelMode.VECTOR);
+		ReserveColumnKernel scalar = ReserveColumnKernel.forMode(ColumnKernelMode.SCALAR);
+		assertEquals(ColumnKernelMode.SCALAR, scalar.getMode());
+		long[] edges = { 0L, 1L, -1L, Long.MAX_VALUE, Long.MIN_VALUE };
+		Random random = new Random(7);
+		// Odd sizes leave a tail past the last whole vector
+		for (int rows : new int[] { 0, 1, 3, 17, 1023 }) {
+			long[] left = new long[rows];
+			long[] right = new long[rows];
+			for (int row = 0; row < rows; row++) {
+				left[row] = row % 11 == 0 ? edges[row % edges.length] : random.nextInt(600) - 100;
+				right[row] = row % 13 == 0 ? edges[(row + 1) % edges.length] : random.nextInt(600) - 100;
+			}
+			long[] expected = new long[rows];
+			long[] actual = new long[rows];
+			scalar.shortfall(left, right, expected, rows);
+			vector.shortfall(left, right, actual, rows);
+			assertArrayEquals(expected, actual, "shortfall of " + rows);
+			scalar.preferPositive(left, right, expected, rows);
+			vector.preferPositive(left, right, actual, rows);
+			assertArrayEquals(expected, actual, "preferPositive of " + rows);
+			scalar.clamp(left, right, expected, rows);
+			vector.clamp(left, right, actual, rows);
+			assertArrayEquals(expected, actual, "clamp of " + rows);
+		}
+
+		List<Map<String, Object>> records = columnarRecords(2_500);
+		ReserveColumnBatch scalarBatch = columnBatch(records);
+		ReserveColumnBatch vectorBatch = columnBatch(records);
+		new ReserveCalculationEngine(PLAN, NumericMode.LONG, LogMode.PERFORMANCE, 0.0, null, ColumnKernelMode.SCALAR)
+				.calculate(scalarBatch, EnumSet.allOf(CalculationFlow.class), null);
+		new ReserveCalculationEngine(PLAN).calculate(vectorBatch, EnumSet.allOf(CalculationFlow.class), null);
+		for (CalculationFlow flow : CalculationFlow.values()) {
+			for (ReserveField output : ReserveResult.OUTPUT_FIELDS) {
+				assertArrayEquals(scalarBatch.getOutputColumn(flow, output), vectorBatch.getOutputColumn(flow, output),
+						flow + "." + output);
+			}
+		}
+	}
+
+	// Random records with every 500th overflowing the long kernel
+	static List<Map<String, Object>> columnarRecords(int count) {
+		List<Map<String, Object>> records = randomRecords(count);
+		for (int i = 7; i < count; i += 500) {
+			records.get(i).put("ONHAND", new BigDecimal(Long.MAX_VALUE));
+			records.get(i).put("ROHM", new BigDecimal("-5"));
+		}
+		return records;
+	}
+
+	static ReserveColumnBatch columnBatch(List<Map<String, Object>> records) {
+		ReserveColumnBatch batch = new ReserveColumnBatch(records.size());
+		for (int row = 0; row < records.size(); row++) {
+			batch.setRow(row, InitialValueWrapper.fromMap(records.get(row)));
+		}
+		return batch;
+	}
+
+	@Test
+	void standardPlanIsScheduledInDeclarationOrder() {
+		ReserveStepGraph graph = PLAN.getStepGraph();
+
+		assertTrue(graph.isDeclarationOrder());
+		assertEquals(PLAN.getSteps(CalculationFlow.OMS).stream().map(ReserveCalcStep::getFieldName).toList(),
+				graph.getSchedule());
+		assertEquals(0, graph.getLevel(ReserveField.ONHAND));
+		assertEquals(1, graph.getLevel(ReserveField.INITAFS));
+		// Every allocation waits for the running total left by the one before it
+		assertTrue(graph.getLevel(ReserveField.DOTHRYX) > graph.getLevel(ReserveField.ROHPA));
+		assertTrue(graph.getLevel(ReserveField.ANEED) > graph.getLevel(ReserveField.RETRSVZ));
+		assertTrue(graph.getLevel(ReserveField.AOUTBVZ) > graph.getLevel(ReserveField.ANEED));
+	}
+
+	@Test
+	void stepsAreScheduledAfterTheirDependencies() {
+		ReserveCalculationEngine engine = new ReserveCalculationEngine();
+		engine.addStep(ReserveField.INITAFS, new Steps.CalculationStep(ReserveField.INITAFS,
+				List.of(ReserveField.ONHAND, ReserveField.LOST),
+				inputs -> inputs.get(ReserveField.ONHAND).subtract(inputs.get(ReserveField.LOST)),
+				in -> Math.subtractExact(in.get(ReserveField.ONHAND), in.get(ReserveField.LOST)), null, null, null,
+				null), Map.of(), null, false);
+		engine.addStep(ReserveField.ONHAND, new Steps.SkulocFieldStep(ReserveField.ONHAND), Map.of(), null, false);
+		engine.addStep(ReserveField.LOST, new Steps.SkulocFieldStep(ReserveField.LOST), Map.of(), null, false);
+
+		ReservePlan plan = engine.compile();
+		assertFalse(plan.getStepGraph().isDeclarationOrder());
+		assertEquals(List.of(ReserveField.ONHAND, ReserveField.LOST, ReserveField.INITAFS),
+				plan.getStepGraph().getSchedule());
+
+		Map<String, Object> record = Map.of("ONHAND", new BigDecimal("40"), "LOST", new BigDecimal("3"));
+		for (NumericMode mode : NumericMode.values()) {
+			ReserveCalcContext context = new ReserveCalcContext();
+			new ReserveCalculationEngine(plan, mode).calculate(InitialValueWrapper.fromMap(record), context);
+			assertEquals(0, new BigDecimal("37").compareTo(context.get(ReserveField.INITAFS)));
+		}
+	}
+
+	@Test
+	void brokenPlansAreRejectedAtCompile() {
+		ReserveCalculationEngine cyclic = new ReserveCalculationEngine();
+		cyclic.addStep(ReserveField.SNBX, copyStep(ReserveField.SNBX, ReserveField.SNBA), Map.of(), null, false);
+		cyclic.addStep(ReserveField.SNBA, copyStep(ReserveField.SNBA, ReserveField.SNBX), Map.of(), null, false);
+		IllegalStateException cycle = assertThrows(IllegalStateException.class, cyclic::compile);
+		assertTrue(cycle.getMessage().contains("SNBA -> SNBX -> SNBA"), cycle.getMessage());
+
+		ReserveCalculationEngine missing = new ReserveCalculationEngine();
+		missing.addStep(ReserveField.SNBX, copyStep(ReserveField.SNBX, ReserveField.SNB), Map.of(), null, false);
+		IllegalStateException producer = assertThrows(IllegalStateException.class, missing::compile);
+		assertTrue(producer.getMessage().contains("SNB, which no step produces"), producer.getMessage());
+	}
+
+	@Test
+	void recalculationMatchesFullCalculation() {
+		List<Map<String, Object>> records = randomRecords(40);
+		List<String> inputs = new ArrayList<>(List.of(INPUTS));
+		inputs.add("BYCL");
+
+		for (NumericMode mode : NumericMode.values()) {
+			ReserveCalculationEngine engine = new ReserveCalculationEngine(PLAN, mode);
+			ReserveCalcContext context = new ReserveCalcContext();
+			for (int i = 0; i + 1 < records.size(); i++) {
+				Map<String, Object> record = records.get(i);
+				Map<String, Object> next = records.get(i + 1);
+				for (String input : inputs) {
+					// One field takes the next record's value, as in a delta event
+					Map<String, Object> updated = new HashMap<>(record);
+					if (next.containsKey(input)) {
+						updated.put(input, next.get(input));
+					} else {
+						updated.remove(input);
+					}
+					engine.calculate(InitialValueWrapper.fromMap(record), context);
+					ReserveResult result = engine.recalculate(InitialValueWrapper.fromMap(updated), context);
+
+					ReserveCalcContext full = calculate(mode, updated);
+					assertEquals(full.isLongMode(), context.isLongMode());
+					assertSameValues(updated, full, context);
+					assertEquals(ReserveResult.from(full).getAllOutputs(), result.getAllOutputs());
+				}
+			}
+		}
+	}
+
+	@Test
+	void recalculationOnlyRerunsDownstreamSteps() {
+		ReserveStepGraph graph = PLAN.getStepGraph();
+		Set<ReserveField> afterDtco = graph.getDownstream(EnumSet.of(ReserveField.DTCO));
+		assertTrue(afterDtco.containsAll(EnumSet.of(ReserveField.DTCOA, ReserveField.RUNNING_AFS,
+				ReserveField.DOTATS, ReserveField.RETAILATS, ReserveField.OMSFINAL, ReserveField.RETFINAL)));
+		assertFalse(afterDtco.contains(ReserveField.INITAFS));
+		assertFalse(afterDtco.contains(ReserveField.SNBA));
+		// The retail need is allocated after every DOT allocation
+		Set<ReserveField> afterNeed = graph.getDownstream(EnumSet.of(ReserveField.NEED));
+		assertTrue(afterNeed.contains(ReserveField.RETFINAL));
+		assertFalse(afterNeed.contains(ReserveField.DOTATS));
+		assertFalse(afterNeed.contains(ReserveField.OMSFINAL));
+
+		ReserveCalculationEngine engine = new ReserveCalculationEngine(PLAN, NumericMode.LONG);
+		assertThrows(IllegalStateException.class, () -> engine.recalculate(
+				InitialValueWrapper.fromMap(randomRecords(1).get(0)), new ReserveCalcContext()));
+
+		// A fractional delta moves a long kernel record to BigDecimal
+		Map<String, Object> record = randomRecords(1).get(0);
+		ReserveCalcContext context = new ReserveCalcContext();
+		engine.calculate(InitialValueWrapper.fromMap(record), context, EnumSet.of(CalculationFlow.OMS));
+		Map<String, Object> updated = new HashMap<>(record);
+		updated.put("DTCO", new BigDecimal("2.5"));
+		ReserveResult result = engine.recalculate(InitialValueWrapper.fromMap(updated), context);
+
+		assertFalse(context.isLongMode());
+		assertEquals(List.of(CalculationFlow.OMS), context.getCalculatedFlows());
+		assertEquals(engine.calculate(InitialValueWrapper.fromMap(updated), new ReserveCalcContext())
+				.getOutputs(CalculationFlow.OMS), result.getOutputs(CalculationFlow.OMS));
+	}
+
+	private static Steps.CalculationStep copyStep(ReserveField field, ReserveField source) {
+		return new Steps.CalculationStep(field, List.of(source), inputs -> inputs.get(source), in -> in.get(source),
+				null, null, null, null);
+	}
+
+	@Test
+	void traceIsOffByDefault() {
+		ReserveCalcContext context = calculate(NumericMode.BIG_DECIMAL, randomRecords(1).get(0));
+
+		assertFalse(context.isTraceEnabled());
+		assertNull(context.getTrace());
+		assertTrue(context.getStepSnapshots().isEmpty());
+		assertTrue(context.getResultSets().isEmpty());
+		assertTrue(context.getRunningTotalHistory().isEmpty());
+	}
+
+	@Test
+	void traceRecordsEveryStep() {
+		Map<String, Object> record = randomRecords(1).get(0);
+		ReserveCalcContext context = new ReserveCalcContext();
+		context.setTraceEnabled(true);
+		new ReserveCalculationEngine(PLAN, NumericMode.LONG).calculate(InitialValueWrapper.fromMap(record), context);
+
+		// Tracing forces the BigDecimal path, and its values match the long kernel
+		assertFalse(context.isLongMode());
+		assertSameValues(record, calculate(NumericMode.LONG, record), context);
+		assertEquals(PLAN.getStepCount(), context.getStepSnapshots().size());
+		for (Map<CalculationFlow, ReserveCalcContext.FieldValue> snapshot : context.getStepSnapshots().values()) {
+			assertEquals(CalculationFlow.values().length, snapshot.size());
+		}
+		assertEquals(context.getCurrentValue(CalculationFlow.JEI, ReserveField.INITAFS),
+				context.getResultSets().get(ReserveField.INITAFS).get(CalculationFlow.JEI).getCurrentValue());
+		List<BigDecimal> history = context.getRunningTotalHistory().get(ReserveField.RUNNING_AFS);
+		assertEquals(context.getCurrentValue(CalculationFlow.OMS, ReserveField.RUNNING_AFS),
+				history.get(history.size() - 1));
+
+		context.reset();
+		assertTrue(context.isTraceEnabled());
+		assertEquals(0, context.getTrace().size());
+	}
+
+	@Test
+	void performanceModeIsTheDefault() {
+		ReserveCalcContext context = calculate(NumericMode.LONG, randomRecords(1).get(0));
+
+		assertFalse(context.isVerbose());
+		assertTrue(context.isLongMode());
+	}
+
+	@Test
+	void verboseRequestOverridesEngineMode() {
+		Map<String, Object> record = randomRecords(1).get(0);
+		ReserveCalcContext context = new ReserveCalcContext();
+		context.setLogMode(LogMode.VERBOSE);
+		new ReserveCalculationEngine(PLAN, NumericMode.LONG).calculate(InitialValueWrapper.fromMap(record), context);
+
+		assertTrue(context.isVerbose());
+		// Verbose records log from a trace kept only for the record
+		assertFalse(context.isLongMode());
+		assertFalse(context.isTraceEnabled());
+		assertSameValues(record, calculate(NumericMode.LONG, record), context);
+	}
+
+	@Test
+	void verboseSampleRateSelectsRecords() {
+		ReserveCalculationEngine sampled = new ReserveCalculationEngine(PLAN, NumericMode.LONG, LogMode.PERFORMANCE,
+				1.0);
+		ReserveCalcContext context = new ReserveCalcContext();
+		sampled.calculate(InitialValueWrapper.fromMap(randomRecords(1).get(0)), context);
+		assertTrue(context.isVerbose());
+
+		context.setLogMode(LogMode.PERFORMANCE);
+		sampled.calculate(InitialValueWrapper.fromMap(randomRecords(1).get(0)), context);
+		assertFalse(context.isVerbose());
+
+		assertThrows(IllegalArgumentException.class,
+				() -> new ReserveCalculationEngine(PLAN, NumericMode.LONG, LogMode.PERFORMANCE, 1.5));
+	}
+
+	@Test
+	void performanceModeLogsNothingForMissingInputs() {
+		Map<String, Object> record = randomRecords(1).get(0);
+		record.keySet().removeAll(List.of("SNB", "DTCO", "ROHP", "HLDHR", "DOTRSV", "RETRSV", "DOTOUTB", "BYCL"));
+
+		Logger logger = (Logger) LoggerFactory.getLogger(ReserveCalcContext.class.getPackageName());
+		Level level = logger.getLevel();
+		ListAppender<ILoggingEvent> appender = new ListAppender<>();
+		appender.start();
+		logger.setLevel(Level.TRACE);
+		logger.addAppender(appender);
+		try {
+			for (NumericMode mode : NumericMode.values()) {
+				ReserveCalcContext context = new ReserveCalcContext();
+				new ReserveCalculationEngine(PLAN, mode).calculate(InitialValueWrapper.fromMap(record), context,
+						EnumSet.of(CalculationFlow.JEI), null);
+				// get reads OMS, which this record was not calculated for
+				assertEquals(BigDecimal.ZERO, context.get(ReserveField.OMSFINAL));
+			}
+		} finally {
+			logger.detachAppender(appender);
+			logger.setLevel(level);
+		}
+		assertEquals(List.of(), appender.list);
+	}
+
+	private static ReserveCalcContext calculate(NumericMode mode, Map<String, Object> record) {
+		ReserveCalcContext context = new ReserveCalcContext();
+		new ReserveCalculationEngine(PLAN, mode).calculate(InitialValueWrapper.fromMap(record), context);
+		return context;
+	}
+
+	private static void assertSameValues(Map<String, Object> record, ReserveCalcContext expected,
+			ReserveCalcContext actual) {
+		for (CalculationFlow flow : CalculationFlow.values()) {
+			for (ReserveField field : ReserveField.values()) {
+				ReserveCalcContext.FieldValue expectedValue = expected.getFieldValue(flow, field);
+				ReserveCalcContext.FieldValue actualValue = actual.getFieldValue(flow, field);
+				String where = flow + "." + field + " for " + record;
+				assertEquals(expectedValue == null, actualValue == null, where);
+				if (expectedValue != null) {
+					assertEquals(expectedValue.getCurrentValue(), actualValue.getCurrentValue(), where);
+					assertEquals(expectedValue.getPreviousValue(), actualValue.getPreviousValue(), where);
+					assertEquals(expectedValue.getOriginalValue(), actualValue.getOriginalValue(), where);
+				}
+			}
+		}
+	}
+
+	static List<Map<String, Object>> randomRecords(int count) {
+		Random random = new Random(42);
+		List<Map<String, Object>> records = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			Map<String, Object> record = new HashMap<>();
+			int bound = random.nextInt(4) == 0 ? 3000 : 300;
+			for (String input : INPUTS) {
+				int value = random.nextInt(5) == 0 ? 0 : random.nextInt(bound);
+				if (input.equals("ONHAND")) {
+					value = random.nextInt(5000);
+				} else if (input.equals("OOBADJ") && random.nextBoolean()) {
+					value = -value;
+				}
+				record.put(input, i % 7 == 0 ? Integer.valueOf(value) : new BigDecimal(value));
+			}
+			if (i % 5 != 0) {
+				record.put("BYCL", BUYER_CLASSES[random.nextInt(BUYER_CLASSES.length)]);
+			}
+			records.add(record);
+		}
+		return records;
+	}
+}
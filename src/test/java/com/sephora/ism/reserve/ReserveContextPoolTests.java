@@ -0,0 +1,81 @@
+package com.sephora.ism.reserve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class ReserveContextPoolTests {
+
+	@Test
+	void reusedContextsMatchNewContexts() {
+		List<Map<String, Object>> records = ReserveCalculationEngineTests.randomRecords(500);
+		for (NumericMode mode : NumericMode.values()) {
+			ReserveCalculationEngine engine = new ReserveCalculationEngine(ReservePlan.standard(), mode);
+			ReserveContextPool pool = new ReserveContextPool(1);
+
+			for (int i = 0; i < records.size(); i++) {
+				ReserveCalcContext fresh = new ReserveCalcContext();
+				fresh.setInitialValueWrapper(InitialValueWrapper.fromMap(records.get(i)));
+				engine.calculate(fresh);
+
+				ReserveCalcContext pooled = pool.acquire();
+				pooled.setInitialValueWrapper(InitialValueWrapper.fromMap(records.get(i)));
+				// Settings of the previous borrower must not leak into the next one
+				pooled.setTraceEnabled(i % 2 == 0);
+				pooled.setParallelLanes(i % 3 == 0);
+				engine.calculate(pooled);
+				assertEquals(ReserveResult.from(fresh).getAllOutputs(), ReserveResult.from(pooled).getAllOutputs(),
+						mode + " record " + i);
+				pool.release(pooled);
+			}
+			assertEquals(1, pool.getCreatedCount(), mode.name());
+		}
+	}
+
+	@Test
+	void releasedContextsAreReset() {
+		ReserveCalculationEngine engine = new ReserveCalculationEngine(ReservePlan.standard());
+		ReserveContextPool pool = new ReserveContextPool(4);
+
+		ReserveCalcContext context = pool.acquire();
+		context.setLogMode(LogMode.VERBOSE);
+		context.setTraceEnabled(true);
+		context.setInitialValueWrapper(
+				InitialValueWrapper.fromMap(ReserveCalculationEngineTests.randomRecords(1).get(0)));
+		engine.calculate(context);
+		pool.release(context);
+
+		ReserveCalcContext reused = pool.acquire();
+		assertSame(context, reused);
+		assertNull(reused.getLogMode());
+		assertFalse(reused.isTraceEnabled());
+		assertFalse(reused.isParallelLanes());
+		assertNull(reused.getInitialValueWrapper());
+		assertTrue(reused.getAll(CalculationFlow.OMS).isEmpty());
+	}
+
+	@Test
+	void poolKeepsAtMostMaxIdleContexts() {
+		ReserveContextPool pool = new ReserveContextPool(2);
+		List<ReserveCalcContext> borrowed = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			borrowed.add(pool.acquire());
+		}
+		borrowed.forEach(pool::release);
+
+		assertEquals(5, pool.getCreatedCount());
+		assertEquals(2, pool.getIdleCount());
+		pool.acquire();
+		pool.acquire();
+		pool.acquire();
+		assertEquals(6, pool.getCreatedCount());
+	}
+}
@@ -0,0 +1,264 @@
+package com.sephora.ism.reserve;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class ReserveFileBatchTests {
+
+	private static final ReserveCalculationEngine ENGINE = new ReserveCalculationEngine(ReservePlan.standard());
+
+	private static final Set<CalculationFlow> ALL_FLOWS = EnumSet.allOf(CalculationFlow.class);
+
+	@Test
+	void binaryFileMatchesRecordByRecordCalculation() throws IOException {
+		List<Map<String, Object>> records = records(3_000);
+		// Large enough to overflow the long kernel and fall back to BigDecimal
+		records.get(5).put("ONHAND", Long.MAX_VALUE - 10);
+		Path dir = Files.createTempDirectory("reserve-file-batch");
+		Path input = writeBinary(dir.resolve("skulocs.bin"), records);
+		Path output = dir.resolve("results.bin");
+
+		try (ReserveBatchExecutor executor = new ReserveBatchExecutor(ENGINE, 4, 16)) {
+			ReserveFileBatch.Summary summary = new ReserveFileBatch(executor, ALL_FLOWS, 700).run(input,
+					ReserveFileBatch.Format.BINARY, output, false);
+			assertEquals(records.size(), summary.records());
+			assertEquals(0, summary.resumedFrom());
+			assertEquals(1, summary.fallbacks() + summary.unrepresentable());
+		}
+
+		assertOutputsMatch(records, ALL_FLOWS, output);
+		assertFalse(Files.exists(ReserveFileBatch.checkpointPath(output)));
+	}
+
+	@Test
+	void csvFileMatchesBinaryFile() throws IOException {
+		List<Map<String, Object>> records = records(1_500);
+		Path dir = Files.createTempDirectory("reserve-file-batch");
+		Path binaryOutput = dir.resolve("from-binary.bin");
+		Path csvOutput = dir.resolve("from-csv.bin");
+		Set<CalculationFlow> flows = EnumSet.of(CalculationFlow.OMS, CalculationFlow.FRM);
+
+		try (ReserveBatchExecutor executor = new ReserveBatchExecutor(ENGINE, 4, 16)) {
+			ReserveFileBatch batch = new ReserveFileBatch(executor, flows, 512);
+			batch.run(writeBinary(dir.resolve("skulocs.bin"), records), ReserveFileBatch.Format.BINARY, binaryOutput,
+					false);
+			batch.run(writeCsv(dir.resolve("skulocs.csv"), records), ReserveFileBatch.Format.CSV, csvOutput, false);
+		}
+
+		assertOutputsMatch(records, flows, csvOutput);
+		assertArrayEquals(Files.readAllBytes(binaryOutput), Files.readAllBytes(csvOutput));
+	}
+
+	@Test
+	void bigDecimalEngineCalculatesEveryRecordOnTheReferencePath() throws IOException {
+		List<Map<String, Object>> records = records(400);
+		Path dir = Files.createTempDirectory("reserve-file-batch");
+		Path output = dir.resolve("results.bin");
+		ReserveCalculationEngine decimalEngine = new ReserveCalculationEngine(ReservePlan.standard(),
+				NumericMode.BIG_DECIMAL);
+
+		try (ReserveBatchExecutor executor = new ReserveBatchExecutor(decimalEngine, 2, 16)) {
+			ReserveFileBatch.Summary summary = new ReserveFileBatch(executor, ALL_FLOWS, 150)
+					.run(writeBinary(dir.resolve("skulocs.bin"), records), ReserveFileBatch.Format.BINARY, output, false);
+			assertEquals(records.size(), summary.fallbacks());
+		}
+
+		assertOutputsMatch(records, ALL_FLOWS, output);
+	}
+
+	@Test
+	void outputsNotCalculatedAreMarkedAbsent() throws IOException {
+		List<Map<String, Object>> records = records(600);
+		Path dir = Files.createTempDirectory("reserve-file-batch");
+		Path input = writeBinary(dir.resolve("skulocs.bin"), records);
+		Path output = dir.resolve("results.bin");
+		Set<ReserveField> outputs = EnumSet.of(ReserveField.UNCOMMIT);
+
+		try (ReserveBatchExecutor executor = new ReserveBatchExecutor(ENGINE, 2, 16)) {
+			ReserveFileBatch batch = new ReserveFileBatch(executor, ALL_FLOWS, outputs, 250);
+			batch.run(input, ReserveFileBatch.Format.BINARY, output, false, 1);
+			// The checkpoint belongs to these outputs only
+			assertThrows(IllegalStateException.class, () -> new ReserveFileBatch(executor, ALL_FLOWS, 250).run(input,
+					ReserveFileBatch.Format.BINARY, output, false));
+			assertEquals(250, batch.run(input, ReserveFileBatch.Format.BINARY, output, false).resumedFrom());
+		}
+
+		assertOutputsMatch(records, ALL_FLOWS, outputs, output);
+		// UNCOMMIT alone leaves some of the other outputs uncalculated
+		ByteBuffer first = ByteBuffer.wrap(Files.readAllBytes(output), ReserveFileBatch.HEADER_BYTES + 1,
+				ReserveFileBatch.OUTPUT_BITMAP_BYTES);
+		int allBits = (1 << ReserveResult.OUTPUT_FIELDS.size()) - 1;
+		assertTrue((first.get() & 0xFF) != allBits);
+	}
+
+	@Test
+	void interruptedRunResumesFromCheckpoint() throws IOException {
+		List<Map<String, Object>> records = records(2_000);
+		Path dir = Files.createTempDirectory("reserve-file-batch");
+		Path input = writeCsv(dir.resolve("skulocs.csv"), records);
+		Path output = dir.resolve("results.bin");
+
+		try (ReserveBatchExecutor executor = new ReserveBatchExecutor(ENGINE, 4, 16)) {
+			ReserveFileBatch batch = new ReserveFileBatch(executor, ALL_FLOWS, 300);
+			batch.run(input, ReserveFileBatch.Format.CSV, output, false, 3);
+			assertTrue(Files.exists(ReserveFileBatch.checkpointPath(output)));
+
+			ReserveFileBatch.Summary summary = batch.run(input, ReserveFileBatch.Format.CSV, output, false);
+			assertEquals(900, summary.resumedFrom());
+			assertFalse(Files.exists(ReserveFileBatch.checkpointPath(output)));
+			assertOutputsMatch(records, ALL_FLOWS, output);
+
+			// A checkpoint does not resume other flows or a changed input
+			batch.run(input, ReserveFileBatch.Format.CSV, output, false, 1);
+			assertThrows(IllegalStateException.class,
+					() -> new ReserveFileBatch(executor, EnumSet.of(CalculationFlow.OMS), 300).run(input,
+							ReserveFileBatch.Format.CSV, output, false));
+			Files.setLastModifiedTime(input, FileTime.fromMillis(Files.getLastModifiedTime(input).toMillis() + 5_000));
+			assertThrows(IllegalStateException.class,
+					() -> batch.run(input, ReserveFileBatch.Format.CSV, output, false));
+			assertEquals(0, batch.run(input, ReserveFileBatch.Format.CSV, output, true).resumedFrom());
+			assertOutputsMatch(records, ALL_FLOWS, output);
+		}
+	}
+
+	@Test
+	void malformedInputsAreRejected() throws IOException {
+		Path dir = Files.createTempDirectory("reserve-file-batch");
+		Path output = dir.resolve("results.bin");
+		Path fractional = Files.writeString(dir.resolve("fractional.csv"), "ONHAND,ROHM\n10,2\n1.5,3\n");
+		Path shortRecord = Files.writeString(dir.resolve("short.csv"), "ONHAND,ROHM\n10\n");
+		Path notBinary = Files.writeString(dir.resolve("not.bin"), "ONHAND,ROHM\n10,2\n");
+
+		try (ReserveBatchExecutor executor = new ReserveBatchExecutor(ENGINE, 2, 16)) {
+			ReserveFileBatch batch = new ReserveFileBatch(executor, ALL_FLOWS, 100);
+			assertThrows(IllegalArgumentException.class,
+					() -> batch.run(fractional, ReserveFileBatch.Format.CSV, output, true));
+			assertThrows(IllegalArgumentException.class,
+					() -> batch.run(shortRecord, ReserveFileBatch.Format.CSV, output, true));
+			assertThrows(IllegalArgumentException.class,
+					() -> batch.run(notBinary, ReserveFileBatch.Format.BINARY, output, true));
+		}
+	}
+
+	// Random records with every numeric input, as a fixed-width file carries them
+	private static List<Map<String, Object>> records(int count) {
+		List<Map<String, Object>> records = ReserveCalculationEngineTests.randomRecords(count);
+		for (Map<String, Object> record : records) {
+			for (ReserveField field : ReserveField.numericInputs()) {
+				record.putIfAbsent(field.name(), 0);
+			}
+		}
+		return records;
+	}
+
+	private static long value(Map<String, Object> record, ReserveField field) {
+		return ((Number) record.get(field.name())).longValue();
+	}
+
+	private static Path writeBinary(Path path, List<Map<String, Object>> records) throws IOException {
+		List<ReserveField> inputs = ReserveField.numericInputs();
+		ByteBuffer buffer = ByteBuffer
+				.allocate(ReserveFileBatch.HEADER_BYTES + records.size() * ReserveFileBatch.INPUT_RECORD_BYTES)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(ReserveFileBatch.INPUT_MAGIC).put((byte) ReserveFileBatch.INPUT_VERSION).put((byte) inputs.size())
+				.putShort((short) 0).putLong(records.size());
+		for (Map<String, Object> record : records) {
+			byte[] buyerClass = String.valueOf(record.getOrDefault("BYCL", "")).getBytes(StandardCharsets.US_ASCII);
+			buffer.put(buyerClass).put(new byte[ReserveFileBatch.BUYER_CLASS_BYTES - buyerClass.length]);
+			for (ReserveField field : inputs) {
+				buffer.putLong(value(record, field));
+			}
+		}
+		return Files.write(path, buffer.array());
+	}
+
+	// With columns the reader skips, quoting, CRLF line ends and blank lines
+	private static Path writeCsv(Path path, List<Map<String, Object>> records) throws IOException {
+		List<ReserveField> inputs = ReserveField.numericInputs();
+		StringBuilder csv = new StringBuilder("DIV,SKU,BYCL");
+		for (ReserveField field : inputs) {
+			csv.append(',').append(field.name());
+		}
+		csv.append("\r\n");
+		for (int i = 0; i < records.size(); i++) {
+			Map<String, Object> record = records.get(i);
+			csv.append("30,").append(1_000_000 + i).append(",\"").append(record.getOrDefault("BYCL", "")).append('"');
+			for (ReserveField field : inputs) {
+				csv.append(',').append(value(record, field));
+			}
+			csv.append(i % 50 == 0 ? "\r\n\r\n" : "\n");
+		}
+		return Files.writeString(path, csv);
+	}
+
+	private static void assertOutputsMatch(List<Map<String, Object>> records, Set<CalculationFlow> flows, Path output)
+			throws IOException {
+		assertOutputsMatch(records, flows, null, output);
+	}
+
+	private static void assertOutputsMatch(List<Map<String, Object>> records, Set<CalculationFlow> flows,
+			Set<ReserveField> outputs, Path output) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(output)).order(ByteOrder.LITTLE_ENDIAN);
+		int flowMask = 0;
+		for (CalculationFlow flow : flows) {
+			flowMask |= 1 << flow.ordinal();
+		}
+		assertEquals(ReserveFileBatch.OUTPUT_MAGIC, buffer.getInt());
+		assertEquals(ReserveFileBatch.OUTPUT_VERSION, buffer.get());
+		assertEquals(flowMask, buffer.get());
+		assertEquals(ReserveResult.OUTPUT_FIELDS.size(), buffer.get());
+		buffer.get();
+		assertEquals(records.size(), buffer.getLong());
+
+		for (int i = 0; i < records.size(); i++) {
+			ReserveResult expected = ENGINE.calculate(InitialValueWrapper.fromMap(records.get(i)),
+					new ReserveCalcContext(), flows, outputs);
+			boolean representable = true;
+			for (CalculationFlow flow : flows) {
+				for (ReserveField field : ReserveResult.OUTPUT_FIELDS) {
+					BigDecimal value = expected.get(flow, field);
+					representable &= value == null || Steps.isWholeNumber(value);
+				}
+			}
+			byte status = buffer.get();
+			if (representable) {
+				assertTrue(status == ReserveFileBatch.STATUS_OK || status == ReserveFileBatch.STATUS_FALLBACK,
+						"record " + i);
+			} else {
+				assertEquals(ReserveFileBatch.STATUS_UNREPRESENTABLE, status, "record " + i);
+			}
+			for (CalculationFlow flow : flows) {
+				byte[] presence = new byte[ReserveFileBatch.OUTPUT_BITMAP_BYTES];
+				buffer.get(presence);
+				for (int f = 0; f < ReserveResult.OUTPUT_FIELDS.size(); f++) {
+					ReserveField field = ReserveResult.OUTPUT_FIELDS.get(f);
+					BigDecimal value = expected.get(flow, field);
+					boolean present = value != null && representable;
+					assertEquals(present, (presence[f >>> 3] & 1 << (f & 7)) != 0,
+							"record " + i + " " + flow + " " + field + " presence");
+					assertEquals(present ? value.longValueExact() : 0L, buffer.getLong(),
+							"record " + i + " " + flow + " " + field);
+				}
+			}
+		}
+		assertFalse(buffer.hasRemaining());
+	}
+}
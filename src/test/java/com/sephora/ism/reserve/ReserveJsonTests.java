@@ -0,0 +1,69 @@
+package com.sephora.ism.reserve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class ReserveJsonTests {
+
+	private static final TypeReference<Map<String, Object>> RECORD_TYPE = new TypeReference<>() {
+	};
+
+	private static final ReserveCalculationEngine ENGINE = new ReserveCalculationEngine(ReservePlan.standard());
+
+	private final ObjectMapper plain = new ObjectMapper();
+	private final ObjectMapper bound = new ObjectMapper().registerModule(ReserveJson.module());
+
+	@Test
+	void boundInputsMatchMapInputs() throws Exception {
+		List<String> documents = new ArrayList<>();
+		for (Map<String, Object> record : ReserveCalculationEngineTests.randomRecords(200)) {
+			documents.add(plain.writeValueAsString(record));
+		}
+		documents.add("{\"ONHAND\": 12.50, \"ROHM\": \"7\", \"LOST\": null, \"SNB\": true, \"BYCL\": \"R\","
+				+ " \"skuId\": {\"nested\": [1, 2]}, \"@OMSFINAL\": 3, \"NEED\": 123456789012345678901234567890,"
+				+ " \"DTCO\": 1e3, \"HLDHR\": [4], \"DOTRSV\": \"x\"}");
+		documents.add("{}");
+
+		for (boolean bigDecimalFloats : new boolean[] { false, true }) {
+			plain.configure(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS, bigDecimalFloats);
+			bound.configure(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS, bigDecimalFloats);
+			for (String document : documents) {
+				InitialValueWrapper expected = InitialValueWrapper.fromMap(plain.readValue(document, RECORD_TYPE));
+				InitialValueWrapper actual = bound.readValue(document, InitialValueWrapper.class);
+				// equals compares scale as well as value
+				assertEquals(expected.getValues(), actual.getValues(), document);
+				assertEquals(expected.getString(ReserveField.BYCL), actual.getString(ReserveField.BYCL), document);
+			}
+		}
+	}
+
+	@Test
+	void writtenResultsMatchMapOutputs() throws Exception {
+		List<Map<String, Object>> records = ReserveCalculationEngineTests.randomRecords(200);
+		records.get(0).put("ONHAND", new BigDecimal("1234.5"));
+		List<ReserveResult> results = new ArrayList<>(
+				ENGINE.calculateBatch(records, InitialValueWrapper::fromMap));
+		Set<CalculationFlow> omsOnly = EnumSet.of(CalculationFlow.OMS);
+		results.add(ENGINE.calculate(InitialValueWrapper.fromMap(records.get(1)), new ReserveCalcContext(), omsOnly,
+				EnumSet.of(ReserveField.OMSFINAL)));
+
+		for (ReserveResult result : results) {
+			assertEquals(plain.writeValueAsString(result.getAllOutputs()), bound.writeValueAsString(result));
+			assertEquals(plain.writeValueAsString(result.getOutputs(CalculationFlow.OMS)),
+					bound.writeValueAsString(result.getFlowOutputs(CalculationFlow.OMS)));
+		}
+		assertEquals(plain.writeValueAsString(results), bound.writeValueAsString(results));
+	}
+}
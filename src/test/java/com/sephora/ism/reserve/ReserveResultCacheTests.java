@@ -0,0 +1,175 @@
+package com.sephora.ism.reserve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class ReserveResultCacheTests {
+
+	private static final ReservePlan PLAN = ReservePlan.standard();
+	private static final Set<CalculationFlow> ALL_FLOWS = EnumSet.allOf(CalculationFlow.class);
+
+	@Test
+	void cachedResultsMatchCalculatedResults() {
+		// 40 profiles repeated across 2,000 SKULOCs with their own keys
+		List<Map<String, Object>> profiles = ReserveCalculationEngineTests.randomRecords(40);
+		List<Map<String, Object>> records = new ArrayList<>();
+		for (int i = 0; i < 2_000; i++) {
+			Map<String, Object> record = new HashMap<>(profiles.get(i % profiles.size()));
+			record.put("DIV", "1");
+			record.put("LOC", String.valueOf(i % 13));
+			record.put("SKU", String.valueOf(i));
+			records.add(record);
+		}
+
+		for (NumericMode mode : NumericMode.values()) {
+			ReserveResultCache cache = new ReserveResultCache(1_000);
+			ReserveCalculationEngine cached = new ReserveCalculationEngine(PLAN, mode, LogMode.PERFORMANCE, 0.0,
+					cache);
+			ReserveCalculationEngine uncached = new ReserveCalculationEngine(PLAN, mode);
+
+			List<ReserveResult> expected = uncached.calculateBatch(records, InitialValueWrapper::fromMap);
+			List<ReserveResult> actual = cached.calculateBatch(records, InitialValueWrapper::fromMap);
+			for (int i = 0; i < records.size(); i++) {
+				assertEquals(expected.get(i).getAllOutputs(), actual.get(i).getAllOutputs(), mode + " record " + i);
+			}
+			assertEquals(profiles.size(), cache.getMissCount(), mode.name());
+			assertEquals(records.size() - profiles.size(), cache.getHitCount(), mode.name());
+			assertEquals(profiles.size(), cache.size());
+
+			// Flows and outputs are part of the key
+			InitialValueWrapper inputs = InitialValueWrapper.fromMap(records.get(0));
+			ReserveResult omsOnly = cached.calculate(inputs, new ReserveCalcContext(), EnumSet.of(CalculationFlow.OMS),
+					Set.of(ReserveField.UNCOMMIT));
+			assertEquals(Set.of(CalculationFlow.OMS), omsOnly.getAllOutputs().keySet());
+			assertEquals(uncached.calculate(inputs, new ReserveCalcContext(), EnumSet.of(CalculationFlow.OMS),
+					Set.of(ReserveField.UNCOMMIT)).getAllOutputs(), omsOnly.getAllOutputs());
+			assertEquals(profiles.size() + 1, cache.getMissCount(), mode.name());
+		}
+	}
+
+	@Test
+	void keyIgnoresRecordKeysButNotValuesOrScale() {
+		Map<String, Object> record = ReserveCalculationEngineTests.randomRecords(1).get(0);
+		record.put("BYCL", "R");
+		ReserveResultCache.Key key = key(record);
+
+		// Same values inserted in another order, with other record keys
+		Map<String, Object> reordered = new LinkedHashMap<>();
+		List<String> names = new ArrayList<>(record.keySet());
+		for (int i = names.size() - 1; i >= 0; i--) {
+			reordered.put(names.get(i), record.get(names.get(i)));
+		}
+		reordered.put("DIV", "7");
+		reordered.put("SKU", "123456");
+		assertEquals(key, key(reordered));
+		assertEquals(key.hashCode(), key(reordered).hashCode());
+
+		assertNotEquals(key, key(with(record, "NEED", new BigDecimal("17.0"))));
+		assertNotEquals(key(with(record, "NEED", new BigDecimal("17"))),
+				key(with(record, "NEED", new BigDecimal("17.0"))));
+		assertNotEquals(key, key(with(record, "BYCL", "D")));
+		assertNotEquals(key, ReserveResultCache.key(InitialValueWrapper.fromMap(record),
+				EnumSet.of(CalculationFlow.OMS), null));
+		assertNotEquals(key, ReserveResultCache.key(InitialValueWrapper.fromMap(record), ALL_FLOWS,
+				Set.of(ReserveField.OMSFINAL)));
+		assertNull(key(with(record, "ONHAND", new BigDecimal("123456789012345678901234567890"))));
+	}
+
+	@Test
+	void leastRecentlyUsedResultsAreEvicted() {
+		ReserveResultCache cache = new ReserveResultCache(16);
+		ReserveCalculationEngine engine = new ReserveCalculationEngine(PLAN, NumericMode.LONG, LogMode.PERFORMANCE,
+				0.0, cache);
+		List<Map<String, Object>> records = ReserveCalculationEngineTests.randomRecords(500);
+
+		engine.calculateBatch(records, InitialValueWrapper::fromMap);
+
+		assertTrue(cache.size() <= 16, "size " + cache.size());
+		assertEquals(records.size() - cache.size(), cache.getEvictionCount());
+		assertEquals(records.size(), cache.getMissCount());
+	}
+
+	@Test
+	void verboseAndTracedRecordsAreAlwaysCalculated() {
+		ReserveResultCache cache = new ReserveResultCache(100);
+		ReserveCalculationEngine engine = new ReserveCalculationEngine(PLAN, NumericMode.LONG, LogMode.PERFORMANCE,
+				0.0, cache);
+		InitialValueWrapper inputs = InitialValueWrapper.fromMap(ReserveCalculationEngineTests.randomRecords(1).get(0));
+
+		ReserveCalcContext context = new ReserveCalcContext();
+		ReserveResult first = engine.calculate(inputs, context);
+		assertSame(first, engine.calculate(inputs, context));
+		assertEquals(1, cache.getHitCount());
+
+		context.setTraceEnabled(true);
+		engine.calculate(inputs, context);
+		assertTrue(context.getTrace().size() > 0);
+		context.setTraceEnabled(false);
+
+		context.setLogMode(LogMode.VERBOSE);
+		engine.calculate(inputs, context);
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+	}
+
+	@Test
+	void singleRecordEndpointsUseTheCache() {
+		ReserveResultCache cache = new ReserveResultCache(100);
+		ReserveCalculationEngine engine = new ReserveCalculationEngine(PLAN, NumericMode.LONG, LogMode.PERFORMANCE,
+				0.0, cache);
+		Map<String, Object> record = ReserveCalculationEngineTests.randomRecords(1).get(0);
+		ReserveCalculationEngine uncached = new ReserveCalculationEngine(PLAN);
+		Map<String, BigDecimal> expected = uncached
+				.calculate(InitialValueWrapper.fromMap(record), new ReserveCalcContext())
+				.getOutputs(CalculationFlow.OMS);
+
+		try (ReserveBatchExecutor executor = new ReserveBatchExecutor(engine, 1, 64)) {
+			ReserveContextPool pool = new ReserveContextPool(4);
+			ReserveCalculationController controller = new ReserveCalculationController(engine, executor,
+					new ReserveStreamProcessor(engine, new ObjectMapper(), pool, 8),
+					new SkulocStateStore(executor, Long.MAX_VALUE), pool);
+
+			assertEquals(expected, controller.calculateFromMap(InitialValueWrapper.fromMap(record), null, null).toMap());
+			assertEquals(1, cache.getMissCount());
+			assertEquals(0, cache.getHitCount());
+			assertEquals(expected, controller.calculateFromMap(InitialValueWrapper.fromMap(record), null, null).toMap());
+			assertEquals(1, cache.getMissCount());
+			assertEquals(1, cache.getHitCount());
+
+			// The binary endpoint shares the cache entry
+			byte[] body = ReserveBinaryCodec.encodeRecords(List.of(InitialValueWrapper.fromMap(record)));
+			ReserveResult binary = ReserveBinaryCodec
+					.decodeResults(ByteBuffer.wrap(controller.calculateBinary(body, null, null))).get(0);
+			assertEquals(expected, binary.getOutputs(CalculationFlow.OMS));
+			assertEquals(1, cache.getMissCount());
+			assertEquals(2, cache.getHitCount());
+		}
+	}
+
+	private static ReserveResultCache.Key key(Map<String, Object> record) {
+		return ReserveResultCache.key(InitialValueWrapper.fromMap(record), ALL_FLOWS, null);
+	}
+
+	private static Map<String, Object> with(Map<String, Object> record, String field, Object value) {
+		Map<String, Object> copy = new HashMap<>(record);
+		copy.put(field, value);
+		return copy;
+	}
+}
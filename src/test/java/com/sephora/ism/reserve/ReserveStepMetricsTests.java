@@ -0,0 +1,87 @@
+package com.sephora.ism.reserve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ReserveStepMetricsTests {
+
+	private static final ReservePlan PLAN = ReservePlan.standard();
+
+	@Test
+	void sampledRecordsTimeEveryStepAndTrigger() {
+		List<Map<String, Object>> records = ReserveCalculationEngineTests.randomRecords(200);
+		for (NumericMode mode : NumericMode.values()) {
+			SimpleMeterRegistry registry = new SimpleMeterRegistry();
+			ReserveCalculationEngine metered = new ReserveCalculationEngine(PLAN, mode, LogMode.PERFORMANCE, 0.0,
+					null, ColumnKernelMode.VECTOR, new ReserveStepMetrics(registry, 1.0));
+			ReserveCalculationEngine plain = new ReserveCalculationEngine(PLAN, mode);
+
+			List<ReserveResult> expected = plain.calculateBatch(records, InitialValueWrapper::fromMap);
+			List<ReserveResult> actual = metered.calculateBatch(records, InitialValueWrapper::fromMap);
+			for (int i = 0; i < records.size(); i++) {
+				assertEquals(expected.get(i).getAllOutputs(), actual.get(i).getAllOutputs(), mode + " record " + i);
+			}
+
+			// Every step runs once per flow and record, every trigger once per flow and record
+			long calculations = (long) records.size() * CalculationFlow.values().length;
+			Timer snbx = registry.find("reserve.step.duration").tags("field", "SNBX", "kind", "step").timer();
+			assertNotNull(snbx, mode.name());
+			assertEquals(calculations, snbx.count(), mode.name());
+			Timer runningAfs = registry.find("reserve.step.duration")
+					.tags("field", "RUNNING_AFS", "kind", "running", "trigger", "SNBA").timer();
+			assertNotNull(runningAfs, mode.name());
+			assertEquals(calculations, runningAfs.count(), mode.name());
+		}
+	}
+
+	@Test
+	void unsampledRecordsAreNotTimed() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		ReserveCalculationEngine engine = new ReserveCalculationEngine(PLAN, NumericMode.LONG, LogMode.PERFORMANCE,
+				0.0, null, ColumnKernelMode.VECTOR, new ReserveStepMetrics(registry, 0.0));
+
+		engine.calculateBatch(ReserveCalculationEngineTests.randomRecords(50), InitialValueWrapper::fromMap);
+		assertNull(registry.find("reserve.step.duration").timer());
+	}
+
+	@Test
+	void conditionFailuresAreCountedForEveryRecord() {
+		ReserveCalculationEngine builder = new ReserveCalculationEngine();
+		builder.addStep(ReserveField.ONHAND, new Steps.SkulocFieldStep(ReserveField.ONHAND), Map.of(), null, false);
+		builder.addStep(ReserveField.INITAFS, new Steps.CalculationStep(ReserveField.INITAFS,
+				List.of(ReserveField.ONHAND), inputs -> inputs.get(ReserveField.ONHAND),
+				ctx -> ctx.getCurrentValue(CalculationFlow.OMS, ReserveField.ONHAND).signum() > 0, null, null, null),
+				Map.of(), null, false);
+		builder.addStep(ReserveField.UNCOMAFS, new Steps.CalculationStep(ReserveField.UNCOMAFS,
+				List.of(ReserveField.ONHAND), inputs -> inputs.get(ReserveField.ONHAND), null,
+				(ctx, result) -> result.compareTo(new BigDecimal("100")) < 0, null, null), Map.of(), null, false);
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		ReserveCalculationEngine engine = new ReserveCalculationEngine(builder.compile(), NumericMode.LONG,
+				LogMode.PERFORMANCE, 0.0, null, ColumnKernelMode.VECTOR, new ReserveStepMetrics(registry, 0.0));
+
+		ReserveCalcContext context = new ReserveCalcContext();
+		for (int onHand : new int[] { -5, 0, 50, 500 }) {
+			engine.calculate(InitialValueWrapper.fromMap(Map.of("ONHAND", new BigDecimal(onHand))), context);
+		}
+
+		int flows = CalculationFlow.values().length;
+		Counter pre = registry.find("reserve.step.condition.failures").tags("field", "INITAFS", "condition", "pre")
+				.counter();
+		Counter post = registry.find("reserve.step.condition.failures").tags("field", "UNCOMAFS", "condition", "post")
+				.counter();
+		assertEquals(2.0 * flows, pre.count());
+		assertEquals(1.0 * flows, post.count());
+		assertNull(registry.find("reserve.step.duration").timer());
+	}
+}
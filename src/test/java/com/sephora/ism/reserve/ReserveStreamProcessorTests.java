@@ -0,0 +1,112 @@
+package com.sephora.ism.reserve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class ReserveStreamProcessorTests {
+
+	private static final ReserveCalculationEngine ENGINE = new ReserveCalculationEngine(ReservePlan.standard());
+
+	private final ObjectMapper plain = new ObjectMapper();
+	private final ObjectMapper bound = new ObjectMapper().registerModule(ReserveJson.module());
+
+	@Test
+	void streamWritesOneResultLinePerRecord() throws IOException {
+		List<Map<String, Object>> records = ReserveCalculationEngineTests.randomRecords(50);
+		StringBuilder input = new StringBuilder();
+		for (int i = 0; i < records.size(); i++) {
+			input.append(plain.writeValueAsString(records.get(i))).append('\n');
+			// Blank lines are not records
+			if (i % 10 == 0) {
+				input.append("\n  \n");
+			}
+		}
+
+		String[] lines = process(new ReserveStreamProcessor(ENGINE, bound, new ReserveContextPool(1), 8),
+				input.toString(), EnumSet.allOf(CalculationFlow.class), null, records.size());
+		for (int i = 0; i < records.size(); i++) {
+			ReserveResult expected = ENGINE.calculate(InitialValueWrapper.fromMap(records.get(i)),
+					new ReserveCalcContext());
+			assertEquals(plain.writeValueAsString(expected.getAllOutputs()), lines[i], "record " + i);
+		}
+	}
+
+	@Test
+	void malformedRecordsGetAnErrorLineInPlace() throws IOException {
+		List<Map<String, Object>> records = ReserveCalculationEngineTests.randomRecords(20);
+		StringBuilder input = new StringBuilder();
+		for (int i = 0; i < records.size(); i++) {
+			input.append(i == 7 ? "{not json" : i == 12 ? "[1, 2]" : plain.writeValueAsString(records.get(i)))
+					.append('\n');
+		}
+
+		String[] lines = process(new ReserveStreamProcessor(ENGINE, bound, new ReserveContextPool(1), 8),
+				input.toString(), EnumSet.allOf(CalculationFlow.class), null, records.size());
+		for (int i = 0; i < records.size(); i++) {
+			JsonNode line = bound.readTree(lines[i]);
+			if (i == 7 || i == 12) {
+				assertEquals(1, line.size(), lines[i]);
+				assertTrue(line.get("error").isTextual(), lines[i]);
+			} else {
+				ReserveResult expected = ENGINE.calculate(InitialValueWrapper.fromMap(records.get(i)),
+						new ReserveCalcContext());
+				assertEquals(plain.writeValueAsString(expected.getAllOutputs()), lines[i], "record " + i);
+			}
+		}
+	}
+
+	@Test
+	void requestedFlowsAndOutputsOnly() throws IOException {
+		List<Map<String, Object>> records = ReserveCalculationEngineTests.randomRecords(30);
+		StringBuilder input = new StringBuilder();
+		for (Map<String, Object> record : records) {
+			input.append(plain.writeValueAsString(record)).append('\n');
+		}
+		Set<CalculationFlow> flows = EnumSet.of(CalculationFlow.OMS);
+		Set<ReserveField> outputs = EnumSet.of(ReserveField.OMSFINAL);
+
+		String[] lines = process(new ReserveStreamProcessor(ENGINE, bound, new ReserveContextPool(1), 64),
+				input.toString(), flows, outputs, records.size());
+		for (int i = 0; i < records.size(); i++) {
+			ReserveResult expected = ENGINE.calculate(InitialValueWrapper.fromMap(records.get(i)),
+					new ReserveCalcContext(), flows, outputs);
+			assertEquals(plain.writeValueAsString(expected.getAllOutputs()), lines[i], "record " + i);
+			assertEquals(List.of("OMS"), fieldNames(bound.readTree(lines[i])));
+		}
+	}
+
+	// Output lines, checked to be one per record and newline terminated
+	private static String[] process(ReserveStreamProcessor processor, String input, Set<CalculationFlow> flows,
+			Set<ReserveField> outputs, int records) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		long processed = processor.process(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), output,
+				flows, outputs);
+
+		String[] lines = output.toString(StandardCharsets.UTF_8).split("\n", -1);
+		assertEquals(records, processed);
+		assertEquals(records + 1, lines.length);
+		assertEquals("", lines[records]);
+		return lines;
+	}
+
+	private static List<String> fieldNames(JsonNode node) {
+		List<String> names = new ArrayList<>();
+		node.fieldNames().forEachRemaining(names::add);
+		return names;
+	}
+}
@@ -0,0 +1,179 @@
+package com.sephora.ism.reserve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class SkulocStateStoreTests {
+
+	private static final ReserveCalculationEngine ENGINE = new ReserveCalculationEngine(ReservePlan.standard());
+
+	@Test
+	void updatesMatchFullCalculationOfMergedRecords() {
+		List<Map<String, Object>> records = keyedRecords(300);
+		List<Map<String, Object>> others = ReserveCalculationEngineTests.randomRecords(301).subList(1, 301);
+
+		try (ReserveBatchExecutor executor = new ReserveBatchExecutor(ENGINE, 4, 16)) {
+			SkulocStateStore store = new SkulocStateStore(executor, Long.MAX_VALUE);
+			assertOutputs(ENGINE.calculateBatch(records, InitialValueWrapper::fromMap), store.calculate(records, null));
+
+			// Each update changes one or two inputs, plus the buyer class of every third record
+			List<Map<String, Object>> updates = new ArrayList<>();
+			List<Map<String, Object>> merged = new ArrayList<>();
+			String[] fields = { "DTCO", "NEED", "ONHAND", "SNB", "DOTOUTB", "HLDHR" };
+			for (int i = 0; i < records.size(); i++) {
+				Map<String, Object> update = key(i);
+				update.put(fields[i % fields.length], others.get(i).get(fields[i % fields.length]));
+				if (i % 2 == 0) {
+					update.put("RETRSV", others.get(i).get("RETRSV"));
+				}
+				if (i % 3 == 0) {
+					update.put("BYCL", i % 2 == 0 ? "D" : "R");
+				}
+				updates.add(update);
+				Map<String, Object> full = new HashMap<>(records.get(i));
+				full.putAll(update);
+				merged.add(full);
+			}
+
+			List<ReserveResult> expected = ENGINE.calculateBatch(merged, InitialValueWrapper::fromMap);
+			assertOutputs(expected, store.update(updates, null));
+			for (int i = 0; i < records.size(); i++) {
+				assertEquals(expected.get(i).getAllOutputs(), store.get(keyOf(i)).getAllOutputs(), "record " + i);
+			}
+			assertEquals(records.size(), store.size());
+		}
+	}
+
+	@Test
+	void repeatedAndEmptyUpdatesSeeTheLatestInputs() {
+		List<Map<String, Object>> records = keyedRecords(1);
+		Map<String, Object> record = records.get(0);
+
+		try (ReserveBatchExecutor executor = new ReserveBatchExecutor(ENGINE, 1, 64)) {
+			SkulocStateStore store = new SkulocStateStore(executor, Long.MAX_VALUE);
+			ReserveResult stored = store.calculate(records, null).get(0);
+
+			// Nothing changed: the stored result is returned as is
+			Map<String, Object> sameValue = key(0);
+			sameValue.put("ONHAND", record.get("ONHAND"));
+			assertEquals(stored.getAllOutputs(), store.update(List.of(key(0), sameValue), null).get(0).getAllOutputs());
+
+			// The second update of the same SKULOC builds on the first
+			Map<String, Object> first = key(0);
+			first.put("ONHAND", new BigDecimal("4000"));
+			Map<String, Object> second = key(0);
+			second.put("NEED", new BigDecimal("25"));
+			List<ReserveResult> updated = store.update(List.of(first, second), null);
+
+			Map<String, Object> afterFirst = new HashMap<>(record);
+			afterFirst.putAll(first);
+			Map<String, Object> afterSecond = new HashMap<>(afterFirst);
+			afterSecond.putAll(second);
+			assertOutputs(ENGINE.calculateBatch(List.of(afterFirst, afterSecond), InitialValueWrapper::fromMap),
+					updated);
+			assertEquals(updated.get(1).getAllOutputs(), store.get(keyOf(0)).getAllOutputs());
+
+			assertThrows(IllegalArgumentException.class, () -> store.update(List.of(key(1)), null));
+			assertThrows(IllegalArgumentException.class, () -> store.update(List.of(Map.of("DIV", "1")), null));
+			assertNull(store.get(keyOf(1)));
+		}
+	}
+
+	@Test
+	void leastRecentlyUsedSkulocsAreEvicted() {
+		List<Map<String, Object>> records = keyedRecords(100);
+
+		try (ReserveBatchExecutor executor = new ReserveBatchExecutor(ENGINE, 1, 64)) {
+			SkulocStateStore sizing = new SkulocStateStore(executor, Long.MAX_VALUE);
+			sizing.calculate(records.subList(0, 1), null);
+			long entryBytes = sizing.getEstimatedBytes();
+			sizing.calculate(records.subList(1, 50), null);
+			// Room for the first 50 SKULOCs and not one more
+			long maxBytes = sizing.getEstimatedBytes() + entryBytes / 2;
+
+			SkulocStateStore store = new SkulocStateStore(executor, maxBytes);
+			store.calculate(records.subList(0, 50), null);
+			assertEquals(50, store.size());
+			// Touch the first SKULOC so the second is the least recently used
+			assertNotNull(store.get(keyOf(0)));
+			store.calculate(records.subList(50, 51), null);
+
+			assertEquals(50, store.size());
+			assertTrue(store.getEstimatedBytes() <= maxBytes);
+			assertNotNull(store.get(keyOf(0)));
+			assertNull(store.get(keyOf(1)));
+			assertNotNull(store.get(keyOf(50)));
+
+			// Values that do not fit an entry are calculated but not stored
+			Map<String, Object> huge = key(2);
+			huge.putAll(records.get(2));
+			huge.put("ONHAND", new BigDecimal("123456789012345678901234567890"));
+			assertEquals(1, store.calculate(List.of(huge), null).size());
+			assertNull(store.get(keyOf(2)));
+		}
+	}
+
+	@Test
+	void updateOfUnknownSkulocIsRejectedWithoutApplyingAny() {
+		List<Map<String, Object>> records = keyedRecords(2);
+
+		try (ReserveBatchExecutor executor = new ReserveBatchExecutor(ENGINE, 1, 64)) {
+			SkulocStateStore store = new SkulocStateStore(executor, Long.MAX_VALUE);
+			ReserveResult stored = store.calculate(records.subList(0, 1), null).get(0);
+
+			Map<String, Object> known = key(0);
+			known.put("ONHAND", new BigDecimal("4000"));
+			SkulocStateStore.UnknownSkulocException unknown = assertThrows(
+					SkulocStateStore.UnknownSkulocException.class, () -> store.update(List.of(known, key(1)), null));
+			assertEquals(keyOf(1), unknown.getKey());
+			// The known SKULOC before it was not updated either
+			assertEquals(stored.getAllOutputs(), store.get(keyOf(0)).getAllOutputs());
+			assertNull(store.get(keyOf(1)));
+
+			// A record without its key is a bad record, not an unknown SKULOC
+			IllegalArgumentException noKey = assertThrows(IllegalArgumentException.class,
+					() -> store.update(List.of(Map.of("DIV", "1", "LOC", "100")), null));
+			assertFalse(noKey instanceof SkulocStateStore.UnknownSkulocException);
+		}
+	}
+
+	private static void assertOutputs(List<ReserveResult> expected, List<ReserveResult> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			// BigDecimal.equals compares scale too, so this is bit-for-bit
+			assertEquals(expected.get(i).getAllOutputs(), actual.get(i).getAllOutputs(), "record " + i);
+		}
+	}
+
+	private static List<Map<String, Object>> keyedRecords(int count) {
+		List<Map<String, Object>> records = ReserveCalculationEngineTests.randomRecords(count);
+		for (int i = 0; i < count; i++) {
+			records.get(i).putAll(key(i));
+		}
+		return records;
+	}
+
+	private static Map<String, Object> key(int i) {
+		Map<String, Object> key = new HashMap<>();
+		key.put("DIV", "1");
+		key.put("LOC", 100 + i % 7);
+		key.put("SKU", "SKU" + i);
+		return key;
+	}
+
+	private static SkulocStateStore.SkulocKey keyOf(int i) {
+		return new SkulocStateStore.SkulocKey("1", String.valueOf(100 + i % 7), "SKU" + i);
+	}
+}